@@ -9,6 +9,16 @@ import java.util.NoSuchElementException;
 public abstract class Filter<T> {
     public abstract boolean passes(T item);
 
+    /**
+     * The lists of the items passing the filter can be kept while the version does not change. A filter whose result
+     * can change for the same item must return a new version after each change.
+     * 
+     * @return the version of the filter criteria
+     */
+    public int getVersion() {
+        return 0;
+    }
+
     public Iterator<T> filter(Iterator<T> iterator) {
         return new FilterIterator(iterator);
     }
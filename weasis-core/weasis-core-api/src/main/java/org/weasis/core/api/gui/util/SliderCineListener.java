@@ -79,6 +79,13 @@ public abstract class SliderCineListener extends SliderChangeListener {
                 } else if (TIME.hour.equals(time)) {
                     buffer.append(Messages.getString("SliderCineListener.fph")); //$NON-NLS-1$
                 }
+                int dropped = getDroppedFrames();
+                if (dropped > 0) {
+                    buffer.append(" - "); //$NON-NLS-1$
+                    buffer.append(Messages.getString("SliderCineListener.dropped")); //$NON-NLS-1$
+                    buffer.append(StringUtil.COLON_AND_SPACE);
+                    buffer.append(dropped);
+                }
             }
             ((TitledBorder) panel.getBorder()).setTitleColor(rate > 0 && rate < (getSpeed() - 1) ? Color.red
                 : UIManager.getColor("TitledBorder.titleColor")); //$NON-NLS-1$
@@ -93,6 +100,20 @@ public abstract class SliderCineListener extends SliderChangeListener {
         return 0;
     }
 
+    /**
+     * @return the number of frames skipped since the start of the cine because they were not decoded in time
+     */
+    public int getDroppedFrames() {
+        return 0;
+    }
+
+    /**
+     * @return the number of frames decoded in advance, ready to be displayed
+     */
+    public int getBufferedFrames() {
+        return 0;
+    }
+
     public void setSpeed(int speed) {
         speedModel.setValue(speed);
     }
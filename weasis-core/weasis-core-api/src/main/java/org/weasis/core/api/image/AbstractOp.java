@@ -45,6 +45,24 @@ public abstract class AbstractOp implements ImageOpNode {
         }
     }
 
+    @Override
+    public boolean hasSameParams(ImageOpNode node) {
+        if (!(node instanceof AbstractOp)) {
+            return false;
+        }
+        return getStateParams(params).equals(getStateParams(((AbstractOp) node).params));
+    }
+
+    private static Map<String, Object> getStateParams(Map<String, Object> map) {
+        Map<String, Object> state = new HashMap<String, Object>(map);
+        for (String key : map.keySet()) {
+            if (key.startsWith("op.input") || key.startsWith("op.output")) { //$NON-NLS-1$ //$NON-NLS-2$
+                state.remove(key);
+            }
+        }
+        return state;
+    }
+
     @Override
     public Object getParam(String key) {
         if (key == null) {
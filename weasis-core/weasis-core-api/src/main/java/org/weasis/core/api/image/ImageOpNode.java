@@ -44,5 +44,11 @@ public interface ImageOpNode extends Cloneable {
      */
     void clearIOCache();
 
+    /**
+     * @return true when the given node has the same parameters, except the parameters starting by "op.input" or
+     *         "op.output"
+     */
+    boolean hasSameParams(ImageOpNode node);
+
     void handleImageOpEvent(ImageOpEvent event);
 }
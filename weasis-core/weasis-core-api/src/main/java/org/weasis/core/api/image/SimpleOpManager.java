@@ -13,7 +13,6 @@ package org.weasis.core.api.image;
 import java.awt.image.RenderedImage;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -109,19 +108,39 @@ public class SimpleOpManager implements OpManager {
 
     @Override
     public SimpleOpManager clone() throws CloneNotSupportedException {
-        SimpleOpManager obj = new SimpleOpManager();
-        for (Iterator<Entry<String, ImageOpNode>> iter = nodes.entrySet().iterator(); iter.hasNext();) {
-            Entry<String, ImageOpNode> el = iter.next();
-            ImageOpNode node = el.getValue();
-            if (node != null) {
-                ImageOpNode n = node.clone();
-                obj.operations.add(n);
-                obj.nodes.put(el.getKey(), n);
+        SimpleOpManager obj = new SimpleOpManager(name);
+        // Keep the order of the operations (the map of the nodes is not ordered)
+        for (ImageOpNode node : operations) {
+            ImageOpNode n = node.clone();
+            obj.operations.add(n);
+            for (Entry<String, ImageOpNode> el : nodes.entrySet()) {
+                if (el.getValue() == node) {
+                    obj.nodes.put(el.getKey(), n);
+                    break;
+                }
             }
         }
         return obj;
     }
 
+    /**
+     * @return true when the given manager has the same operations in the same order with the same parameters (except
+     *         the input and output images)
+     */
+    public boolean hasSameParams(SimpleOpManager manager) {
+        if (manager == null || manager.operations.size() != operations.size()) {
+            return false;
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            ImageOpNode node = operations.get(i);
+            ImageOpNode other = manager.operations.get(i);
+            if (node.getClass() != other.getClass() || !node.hasSameParams(other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public void removeAllImageOperationAction() {
         clearNodeParams();
@@ -0,0 +1,463 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.image.op;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.media.jai.PlanarImage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.gui.task.TaskInterruptionException;
+import org.weasis.core.api.gui.task.TaskMonitor;
+import org.weasis.core.api.image.util.LayoutUtil;
+import org.weasis.core.api.media.data.ImageElement;
+import org.weasis.core.api.util.NamedThreadFactory;
+
+/**
+ * Projection (MIP, MinIP or mean) of a sliding window of 2*extend+1 images along a stack of images.
+ * <p>
+ * Unlike MaxCollectionZprojection, MinCollectionZprojection and MeanCollectionZprojection which compute one slab, all
+ * the projected images of the stack are computed by reading each source image only once. The mean is a running sum
+ * and the min/max is computed with the van Herk/Gil-Werman algorithm (prefix and suffix extrema by blocks of the window
+ * size), so the cost per pixel does not depend on the thickness of the slab. The pixels are processed in parallel by
+ * bands of the image, with a thread pool shared by all the projections.
+ * </p>
+ * <p>
+ * Only the integral data types are supported (see {@link #isSupported(ImageElement)}).
+ * </p>
+ */
+public class SlidingZprojection {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlidingZprojection.class);
+
+    private static final ExecutorService PROJECTOR = Executors.newFixedThreadPool(Runtime.getRuntime()
+        .availableProcessors(), new NamedThreadFactory("Z Projection")); //$NON-NLS-1$
+
+    public enum Operation {
+        MIN, MAX, MEAN
+    }
+
+    /**
+     * Receives the projected images in the order of the stack.
+     */
+    public interface Listener {
+        /**
+         * @param index
+         *            the index of the image at the center of the window
+         * @param first
+         *            the index of the first source image of the window
+         * @param last
+         *            the index of the last source image of the window
+         * @param image
+         *            the projected image
+         */
+        void projectionComputed(int index, int first, int last, PlanarImage image);
+    }
+
+    private final List<? extends ImageElement> sources;
+    private final Operation operation;
+    private final int extend;
+    private final TaskMonitor taskMonitor;
+
+    private int nbThreads;
+    private volatile double throughput = 0.0;
+
+    public SlidingZprojection(List<? extends ImageElement> sources, Operation operation, int extend,
+        TaskMonitor taskMonitor) {
+        if (sources == null || operation == null) {
+            throw new IllegalArgumentException("Sources and operation cannot be null!"); //$NON-NLS-1$
+        }
+        if (extend < 1) {
+            throw new IllegalArgumentException("extend must be > 0"); //$NON-NLS-1$
+        }
+        this.sources = sources;
+        this.operation = operation;
+        this.extend = extend;
+        this.taskMonitor = taskMonitor;
+        this.nbThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    public static boolean isSupported(ImageElement image) {
+        if (image == null) {
+            return false;
+        }
+        PlanarImage img = image.getImage(null, false);
+        if (img == null) {
+            return false;
+        }
+        int type = img.getSampleModel().getDataType();
+        return type == DataBuffer.TYPE_BYTE || type == DataBuffer.TYPE_USHORT || type == DataBuffer.TYPE_SHORT
+            || type == DataBuffer.TYPE_INT;
+    }
+
+    public void setNbThreads(int nbThreads) {
+        this.nbThreads = nbThreads < 1 ? 1 : nbThreads;
+    }
+
+    /**
+     * @return the number of source images processed by second (updated during the computation)
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Computes the projected images whose center is between minIndex and maxIndex. The window is truncated at the
+     * boundaries of the stack and the windows containing less than two images are not projected.
+     *
+     * @return false if the source images are not compatible (different size or data type not supported). The images
+     *         given to the listener before are valid.
+     */
+    public boolean compute(int minIndex, int maxIndex, Listener listener) {
+        int nbSources = sources.size();
+        minIndex = Math.max(0, minIndex);
+        maxIndex = Math.min(nbSources - 1, maxIndex);
+        if (minIndex > maxIndex || nbSources < 2 || listener == null) {
+            return true;
+        }
+        ImageElement firstElement = sources.get(0);
+        if (!isSupported(firstElement)) {
+            return false;
+        }
+        PlanarImage first = firstElement.getImage(null, false);
+        Rectangle region = first.getBounds();
+        int nbSamples = region.width * region.height * first.getSampleModel().getNumBands();
+
+        // Only the images required by the requested windows are read
+        int startSource = Math.max(0, minIndex - extend);
+        int stopSource = Math.min(nbSources - 1, maxIndex + extend);
+
+        long startTime = System.currentTimeMillis();
+        try {
+            // invokeAll() waits for all the bands, no task of the shared pool is left running after an error
+            Bands bands = new Bands(PROJECTOR, nbSamples, nbThreads);
+            int windowSize = 2 * extend + 1;
+            Window window =
+                operation == Operation.MEAN ? new MeanWindow(bands, nbSamples, windowSize) : new ExtremaWindow(bands,
+                    nbSamples, windowSize, operation == Operation.MAX);
+            int[] result = new int[nbSamples];
+            int nextIndex = minIndex;
+            for (int j = startSource; j <= stopSource; j++) {
+                checkCanceled();
+                prefetch(j + 1, Math.min(stopSource, j + nbThreads));
+                int[] pixels = readPixels(sources.get(j), region, nbSamples);
+                if (pixels == null) {
+                    return false;
+                }
+                window.add(j, pixels);
+                throughput = (j - startSource + 1) * 1000.0 / Math.max(1L, System.currentTimeMillis() - startTime);
+                // Emit all the windows ending with this image
+                while (nextIndex <= maxIndex && (Math.min(nbSources - 1, nextIndex + extend) == j)) {
+                    int lo = Math.max(0, nextIndex - extend);
+                    if (j - lo > 0) {
+                        window.project(lo, j, result);
+                        listener.projectionComputed(nextIndex, lo, j, buildImage(first, region, result));
+                    }
+                    nextIndex++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskInterruptionException("Projection has been interrupted"); //$NON-NLS-1$
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        long elapsed = Math.max(1L, System.currentTimeMillis() - startTime);
+        int nbRead = stopSource - startSource + 1;
+        throughput = nbRead * 1000.0 / elapsed;
+        LOGGER.info("{} projection of {} images in {} ms ({} images/s)", new Object[] { operation, nbRead, elapsed, //$NON-NLS-1$
+            String.format("%.1f", throughput) }); //$NON-NLS-1$
+        return true;
+    }
+
+    private void checkCanceled() {
+        if (taskMonitor != null && taskMonitor.isCanceled()) {
+            throw new TaskInterruptionException("Operation from " + this.getClass().getName() + " has been canceled"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private void prefetch(int from, int to) {
+        // Decode the next images while the current one is processed
+        for (int i = from; i <= to; i++) {
+            ImageElement img = sources.get(i);
+            if (img.isReadable() && !img.isImageInCache()) {
+                img.getImageAsync();
+            }
+        }
+    }
+
+    private static int[] readPixels(ImageElement element, Rectangle region, int nbSamples) {
+        PlanarImage img = element.getImage(null, false);
+        if (img == null || !region.equals(img.getBounds())) {
+            return null;
+        }
+        Raster raster = img.getData();
+        if (raster.getNumBands() * region.width * region.height != nbSamples) {
+            return null;
+        }
+        return raster.getPixels(region.x, region.y, region.width, region.height, (int[]) null);
+    }
+
+    private static PlanarImage buildImage(PlanarImage model, Rectangle region, int[] pixels) {
+        WritableRaster raster = LayoutUtil.createCompatibleRaster(model, region);
+        raster.setPixels(region.x, region.y, region.width, region.height, pixels);
+        BufferedImage buffer = new BufferedImage(model.getColorModel(), raster, false, null);
+        return PlanarImage.wrapRenderedImage(buffer);
+    }
+
+    /**
+     * Splits the samples of the image in contiguous bands processed in parallel.
+     */
+    static class Bands {
+        private final ExecutorService executor;
+        private final int[] bounds;
+
+        Bands(ExecutorService executor, int nbSamples, int nbThreads) {
+            this.executor = executor;
+            int nbBands = Math.max(1, Math.min(nbThreads, nbSamples / 4096));
+            bounds = new int[nbBands + 1];
+            for (int i = 0; i <= nbBands; i++) {
+                bounds[i] = (int) ((long) nbSamples * i / nbBands);
+            }
+        }
+
+        void run(final BandTask task) throws InterruptedException, ExecutionException {
+            int nbBands = bounds.length - 1;
+            if (nbBands == 1) {
+                task.compute(bounds[0], bounds[1]);
+                return;
+            }
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nbBands);
+            for (int i = 0; i < nbBands; i++) {
+                final int start = bounds[i];
+                final int end = bounds[i + 1];
+                tasks.add(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        task.compute(start, end);
+                        return null;
+                    }
+                });
+            }
+            for (Future<Object> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        }
+    }
+
+    interface BandTask {
+        void compute(int start, int end);
+    }
+
+    abstract static class Window {
+        protected final Bands bands;
+
+        Window(Bands bands) {
+            this.bands = bands;
+        }
+
+        /**
+         * Adds the next image of the stack (the indexes are consecutive).
+         */
+        abstract void add(int index, int[] pixels) throws InterruptedException, ExecutionException;
+
+        /**
+         * Computes the window [lo, hi] where hi is the index of the last added image.
+         */
+        abstract void project(int lo, int hi, int[] result) throws InterruptedException, ExecutionException;
+    }
+
+    /**
+     * Running sum: each image is added when entering the window and subtracted when leaving it.
+     */
+    static class MeanWindow extends Window {
+        private final long[] sum;
+        private final int[][] ring;
+        private int windowStart = 0;
+        private int windowEnd = -1;
+
+        MeanWindow(Bands bands, int nbSamples, int windowSize) {
+            super(bands);
+            this.sum = new long[nbSamples];
+            // The first image of the previous window is removed only when projecting the next one
+            this.ring = new int[windowSize + 1][];
+        }
+
+        @Override
+        void add(int index, int[] pixels) throws InterruptedException, ExecutionException {
+            if (windowEnd < 0) {
+                windowStart = index;
+            }
+            windowEnd = index;
+            ring[index % ring.length] = pixels;
+            final int[] p = pixels;
+            bands.run(new BandTask() {
+
+                @Override
+                public void compute(int start, int end) {
+                    for (int i = start; i < end; i++) {
+                        sum[i] += p[i];
+                    }
+                }
+            });
+        }
+
+        @Override
+        void project(int lo, int hi, final int[] result) throws InterruptedException, ExecutionException {
+            while (windowStart < lo) {
+                final int[] p = ring[windowStart % ring.length];
+                ring[windowStart % ring.length] = null;
+                windowStart++;
+                bands.run(new BandTask() {
+
+                    @Override
+                    public void compute(int start, int end) {
+                        for (int i = start; i < end; i++) {
+                            sum[i] -= p[i];
+                        }
+                    }
+                });
+            }
+            final double count = hi - lo + 1;
+            bands.run(new BandTask() {
+
+                @Override
+                public void compute(int start, int end) {
+                    for (int i = start; i < end; i++) {
+                        // Same rounding as MeanCollectionZprojection (the cast truncates towards zero)
+                        result[i] = (int) (sum[i] / count + 0.5);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * van Herk/Gil-Werman algorithm: the stack is split in blocks of the window size. A window overlaps at most two
+     * blocks, its extremum is the extremum of the suffix of the first block and of the prefix of the second one.
+     */
+    static class ExtremaWindow extends Window {
+        private final boolean max;
+        private final int blockSize;
+        private int blockStart = -1;
+        private int prevBlockStart = -1;
+        private List<int[]> current = new ArrayList<int[]>();
+        private List<int[]> previousSuffix = new ArrayList<int[]>();
+        private boolean currentIsSuffix = false;
+        private final int[] prefix;
+
+        ExtremaWindow(Bands bands, int nbSamples, int blockSize, boolean max) {
+            super(bands);
+            this.max = max;
+            this.blockSize = blockSize;
+            this.prefix = new int[nbSamples];
+        }
+
+        @Override
+        void add(int index, final int[] pixels) throws InterruptedException, ExecutionException {
+            if (blockStart < 0 || index - blockStart >= blockSize) {
+                if (blockStart >= 0) {
+                    closeBlock();
+                }
+                blockStart = index;
+                System.arraycopy(pixels, 0, prefix, 0, prefix.length);
+            } else {
+                bands.run(new BandTask() {
+
+                    @Override
+                    public void compute(int start, int end) {
+                        extremum(prefix, pixels, prefix, start, end);
+                    }
+                });
+            }
+            current.add(pixels);
+        }
+
+        private void closeBlock() throws InterruptedException, ExecutionException {
+            toSuffix();
+            List<int[]> tmp = previousSuffix;
+            previousSuffix = current;
+            prevBlockStart = blockStart;
+            current = tmp;
+            current.clear();
+            currentIsSuffix = false;
+        }
+
+        private void toSuffix() throws InterruptedException, ExecutionException {
+            if (!currentIsSuffix) {
+                // In place: current[i] = extremum of the images i to the end of the block
+                for (int i = current.size() - 2; i >= 0; i--) {
+                    final int[] next = current.get(i + 1);
+                    final int[] p = current.get(i);
+                    bands.run(new BandTask() {
+
+                        @Override
+                        public void compute(int start, int end) {
+                            extremum(p, next, p, start, end);
+                        }
+                    });
+                }
+                currentIsSuffix = true;
+            }
+        }
+
+        @Override
+        void project(int lo, int hi, final int[] result) throws InterruptedException, ExecutionException {
+            if (lo >= blockStart) {
+                if (lo == blockStart) {
+                    System.arraycopy(prefix, 0, result, 0, result.length);
+                } else {
+                    // Only at the end of the stack: the window is truncated and hi is the last image of the block
+                    toSuffix();
+                    System.arraycopy(current.get(lo - blockStart), 0, result, 0, result.length);
+                }
+            } else {
+                final int[] suffix = previousSuffix.get(lo - prevBlockStart);
+                bands.run(new BandTask() {
+
+                    @Override
+                    public void compute(int start, int end) {
+                        extremum(suffix, prefix, result, start, end);
+                    }
+                });
+            }
+        }
+
+        private void extremum(int[] a, int[] b, int[] dst, int start, int end) {
+            if (max) {
+                for (int i = start; i < end; i++) {
+                    dst[i] = a[i] >= b[i] ? a[i] : b[i];
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    dst[i] = a[i] <= b[i] ? a[i] : b[i];
+                }
+            }
+        }
+    }
+}
@@ -75,6 +75,24 @@ public class ImageToolkit {
         return null;
     }
 
+    /**
+     * @return the size in bytes of the decoded raster of the image
+     */
+    public static long getImageSizeInBytes(RenderedImage img) {
+        if (img == null) {
+            return 0L;
+        }
+        SampleModel sm = img.getSampleModel();
+        long bitsPerPixel = 0;
+        for (int size : sm.getSampleSize()) {
+            bitsPerPixel += size;
+        }
+        if (bitsPerPixel == 0) {
+            bitsPerPixel = (long) sm.getNumBands() * DataBuffer.getDataTypeSize(sm.getDataType());
+        }
+        return ((long) img.getWidth() * img.getHeight() * bitsPerPixel + 7L) / 8L;
+    }
+
     public static BufferedImage convertRenderedImage(RenderedImage img) {
         if (img instanceof BufferedImage) {
             return (BufferedImage) img;
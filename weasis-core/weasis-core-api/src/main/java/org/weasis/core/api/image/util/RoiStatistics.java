@@ -0,0 +1,359 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.image.util;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Statistics (min, max, mean, standard deviation, skewness and kurtosis) of the pixels inside a shape, computed in a
+ * single pass over the image.
+ * <p>
+ * For 8 and 16 bits images, the pixels are accumulated in histograms: when the shape changes (e.g. while dragging a
+ * ROI), only the pixels added and removed are read. For the other data types, the power sums of the values are
+ * accumulated and the statistics are computed again from all the pixels. The image is weakly referenced, it can be
+ * released from the cache between two updates.
+ * </p>
+ */
+public class RoiStatistics {
+
+    public static final int MIN = 0;
+    public static final int MAX = 1;
+    public static final int MEAN = 2;
+    public static final int STD = 3;
+    public static final int SKEW = 4;
+    public static final int KURTOSIS = 5;
+
+    private WeakReference<RenderedImage> imageRef;
+    private ScanlineMask mask;
+    private int numBands;
+
+    // Histogram of each band (8 and 16 bits)
+    private int[][] histograms;
+    private int histogramOffset;
+
+    // Power sums of each band (other data types)
+    private long[] counts;
+    private double[] shifts;
+    private double[][] sums;
+    private double[] minValues;
+    private double[] maxValues;
+    private Double sumsExcludedMin;
+    private Double sumsExcludedMax;
+
+    private Double excludedMin;
+    private Double excludedMax;
+
+    private int[] intSamples = new int[256];
+    private double[] doubleSamples;
+
+    /**
+     * Updates the statistics for a new shape.
+     *
+     * @param image
+     *            the image
+     * @param shape
+     *            the shape in the pixel coordinates of the image
+     * @param excludedMin
+     *            the minimum of the range of the excluded values, can be null
+     * @param excludedMax
+     *            the maximum of the range of the excluded values, can be null
+     * @param maxPixels
+     *            the maximum number of pixels to read, no limit when negative
+     * @return false when the statistics cannot be updated without reading more than maxPixels (they are unchanged)
+     */
+    public synchronized boolean update(RenderedImage image, Shape shape, Double excludedMin, Double excludedMax,
+        long maxPixels) {
+        if (image == null || shape == null) {
+            return false;
+        }
+        ScanlineMask newMask =
+            ScanlineMask.create(shape,
+                new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight()));
+        // Same rule as ImageStatisticsOpImage when only one bound is defined
+        this.excludedMin = excludedMin == null ? excludedMax : excludedMin;
+        this.excludedMax = excludedMax == null ? excludedMin : excludedMax;
+
+        if (imageRef != null && image == imageRef.get() && mask != null && histograms != null) {
+            ScanlineMask added = newMask.subtract(mask);
+            ScanlineMask removed = mask.subtract(newMask);
+            long changed = added.getPixelCount() + removed.getPixelCount();
+            if (changed < newMask.getPixelCount()) {
+                if (maxPixels >= 0 && changed > maxPixels) {
+                    return false;
+                }
+                accumulate(image, removed, -1);
+                accumulate(image, added, 1);
+                mask = newMask;
+                return true;
+            }
+        }
+
+        if (maxPixels >= 0 && newMask.getPixelCount() > maxPixels) {
+            return false;
+        }
+        reset(image);
+        accumulate(image, newMask, 1);
+        mask = newMask;
+        return true;
+    }
+
+    private void reset(RenderedImage img) {
+        this.imageRef = new WeakReference<RenderedImage>(img);
+        this.numBands = img.getSampleModel().getNumBands();
+        int dataType = img.getSampleModel().getDataType();
+        int size;
+        if (dataType == DataBuffer.TYPE_BYTE) {
+            histogramOffset = 0;
+            size = 256;
+        } else if (dataType == DataBuffer.TYPE_USHORT) {
+            histogramOffset = 0;
+            size = 65536;
+        } else if (dataType == DataBuffer.TYPE_SHORT) {
+            histogramOffset = Short.MIN_VALUE;
+            size = 65536;
+        } else {
+            size = 0;
+        }
+        if (size > 0) {
+            if (histograms == null || histograms.length != numBands || histograms[0].length != size) {
+                histograms = new int[numBands][size];
+            } else {
+                for (int[] h : histograms) {
+                    Arrays.fill(h, 0);
+                }
+            }
+            sums = null;
+        } else {
+            histograms = null;
+            counts = new long[numBands];
+            shifts = new double[numBands];
+            sums = new double[numBands][4];
+            minValues = new double[numBands];
+            maxValues = new double[numBands];
+            Arrays.fill(minValues, Double.MAX_VALUE);
+            Arrays.fill(maxValues, -Double.MAX_VALUE);
+            sumsExcludedMin = excludedMin;
+            sumsExcludedMax = excludedMax;
+        }
+    }
+
+    private void accumulate(RenderedImage img, ScanlineMask m, int sign) {
+        if (m.isEmpty()) {
+            return;
+        }
+        int tileWidth = img.getTileWidth();
+        int tileHeight = img.getTileHeight();
+        int tx1 = tileIndex(m.getMinX(), img.getTileGridXOffset(), tileWidth);
+        int tx2 = tileIndex(m.getMaxX() - 1, img.getTileGridXOffset(), tileWidth);
+        int ty1 = tileIndex(m.getMinY(), img.getTileGridYOffset(), tileHeight);
+        int ty2 = tileIndex(m.getMaxY() - 1, img.getTileGridYOffset(), tileHeight);
+
+        // Each tile is requested only once
+        for (int ty = ty1; ty <= ty2; ty++) {
+            int tileY = ty * tileHeight + img.getTileGridYOffset();
+            int rowStart = Math.max(m.getMinY(), tileY);
+            int rowEnd = Math.min(m.getMaxY(), tileY + tileHeight);
+            for (int tx = tx1; tx <= tx2; tx++) {
+                int colStart = tx * tileWidth + img.getTileGridXOffset();
+                int colEnd = colStart + tileWidth;
+                Raster raster = null;
+                for (int y = rowStart; y < rowEnd; y++) {
+                    int[] spans = m.getRow(y);
+                    for (int i = 0; i < spans.length; i += 2) {
+                        int x1 = Math.max(spans[i], colStart);
+                        int x2 = Math.min(spans[i + 1], colEnd);
+                        if (x1 < x2) {
+                            if (raster == null) {
+                                raster = img.getTile(tx, ty);
+                            }
+                            accumulate(raster, x1, y, x2 - x1, sign);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int tileIndex(int pos, int gridOffset, int tileSize) {
+        int p = pos - gridOffset;
+        return p >= 0 ? p / tileSize : (p + 1) / tileSize - 1;
+    }
+
+    private void accumulate(Raster raster, int x, int y, int width, int sign) {
+        if (histograms != null) {
+            if (intSamples.length < width) {
+                intSamples = new int[width];
+            }
+            for (int b = 0; b < numBands; b++) {
+                int[] samples = raster.getSamples(x, y, width, 1, b, intSamples);
+                int[] h = histograms[b];
+                for (int i = 0; i < width; i++) {
+                    h[samples[i] - histogramOffset] += sign;
+                }
+            }
+        } else {
+            if (doubleSamples == null || doubleSamples.length < width) {
+                doubleSamples = new double[Math.max(256, width)];
+            }
+            boolean noBound = sumsExcludedMin == null || sumsExcludedMax == null;
+            double exMin = noBound ? 0.0 : sumsExcludedMin;
+            double exMax = noBound ? 0.0 : sumsExcludedMax;
+            for (int b = 0; b < numBands; b++) {
+                double[] samples = raster.getSamples(x, y, width, 1, b, doubleSamples);
+                double[] s = sums[b];
+                for (int i = 0; i < width; i++) {
+                    double p = samples[i];
+                    if (noBound || p < exMin || p > exMax) {
+                        if (counts[b] == 0) {
+                            // Shifted sums are more accurate
+                            shifts[b] = p;
+                        }
+                        counts[b]++;
+                        double v = p - shifts[b];
+                        double v2 = v * v;
+                        s[0] += v;
+                        s[1] += v2;
+                        s[2] += v2 * v;
+                        s[3] += v2 * v2;
+                        if (p < minValues[b]) {
+                            minValues[b] = p;
+                        }
+                        if (p > maxValues[b]) {
+                            maxValues[b] = p;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of the pixel values converted with a linear function (e.g. modality rescale).
+     *
+     * @param slope
+     *            the slope of the conversion
+     * @param intercept
+     *            the intercept of the conversion
+     * @return the statistics indexed by MIN, MAX, MEAN, STD, SKEW and KURTOSIS, for each band. The undefined values
+     *         are NaN (no pixel, or less than 4 pixels for STD, SKEW and KURTOSIS). Null when there is no update.
+     */
+    public synchronized double[][] getStatistics(double slope, double intercept) {
+        if (mask == null) {
+            return null;
+        }
+        double[][] stats = new double[6][numBands];
+        for (int b = 0; b < numBands; b++) {
+            double n;
+            double min;
+            double max;
+            double mean;
+            // Central moments of order 2, 3 and 4
+            double m2 = 0.0;
+            double m3 = 0.0;
+            double m4 = 0.0;
+            if (histograms != null) {
+                int[] h = histograms[b];
+                boolean noBound = excludedMin == null || excludedMax == null;
+                int exMin = noBound ? 0 : excludedMin.intValue() - histogramOffset;
+                int exMax = noBound ? -1 : excludedMax.intValue() - histogramOffset;
+                long count = 0L;
+                long total = 0L;
+                int first = -1;
+                int last = -1;
+                for (int i = 0; i < h.length; i++) {
+                    if (h[i] > 0 && (i < exMin || i > exMax)) {
+                        if (first < 0) {
+                            first = i;
+                        }
+                        last = i;
+                        count += h[i];
+                        total += (long) h[i] * i;
+                    }
+                }
+                n = count;
+                if (count > 0) {
+                    double m = (double) total / count;
+                    for (int i = first; i <= last; i++) {
+                        if (h[i] > 0 && (i < exMin || i > exMax)) {
+                            double d = i - m;
+                            double d2 = d * d;
+                            m2 += h[i] * d2;
+                            m3 += h[i] * d2 * d;
+                            m4 += h[i] * d2 * d2;
+                        }
+                    }
+                    min = first + histogramOffset;
+                    max = last + histogramOffset;
+                    mean = m + histogramOffset;
+                } else {
+                    min = max = mean = Double.NaN;
+                }
+            } else {
+                n = counts[b];
+                if (n > 0) {
+                    double[] s = sums[b];
+                    double mu = s[0] / n;
+                    double mu2 = mu * mu;
+                    m2 = s[1] - n * mu2;
+                    m3 = s[2] - 3.0 * mu * s[1] + 2.0 * n * mu2 * mu;
+                    m4 = s[3] - 4.0 * mu * s[2] + 6.0 * mu2 * s[1] - 3.0 * n * mu2 * mu2;
+                    min = minValues[b];
+                    max = maxValues[b];
+                    mean = mu + shifts[b];
+                } else {
+                    min = max = mean = Double.NaN;
+                }
+            }
+
+            stats[MIN][b] = min * slope + intercept;
+            stats[MAX][b] = max * slope + intercept;
+            stats[MEAN][b] = mean * slope + intercept;
+            if (n < 4) {
+                stats[STD][b] = Double.NaN;
+                stats[SKEW][b] = Double.NaN;
+                stats[KURTOSIS][b] = Double.NaN;
+            } else {
+                // Same estimators as ImageStatistics2OpImage
+                double slope2 = slope * slope;
+                double variance = slope2 * m2 / (n - 1.0);
+                double std = Math.sqrt(variance);
+                stats[STD][b] = std;
+                stats[SKEW][b] = (n / ((n - 1) * (n - 2))) * (slope2 * slope * m3 / (variance * std));
+                double c1 = (n * (n + 1)) / ((n - 1) * (n - 2) * (n - 3));
+                double c2 = (3 * (n - 1) * (n - 1)) / ((n - 2) * (n - 3));
+                stats[KURTOSIS][b] = (c1 * slope2 * slope2 * m4 / (variance * variance)) - c2;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Releases the image and the accumulated values.
+     */
+    public synchronized void clear() {
+        imageRef = null;
+        mask = null;
+        histograms = null;
+        sums = null;
+        counts = null;
+        shifts = null;
+        minValues = null;
+        maxValues = null;
+        intSamples = new int[256];
+        doubleSamples = null;
+    }
+}
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.image.util;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * Pixels inside a shape, stored as horizontal spans for each row. A pixel is inside when its center is inside the
+ * shape (according to the winding rule of the shape).
+ */
+public class ScanlineMask {
+
+    private static final int[] EMPTY_ROW = new int[0];
+    private static final double FLATNESS = 0.05;
+
+    private final int minY;
+    // For each row, the pairs of start (inclusive) and end (exclusive) x coordinates, sorted and disjoint
+    private final int[][] rows;
+    private final long pixelCount;
+    private final int minX;
+    private final int maxX;
+
+    private ScanlineMask(int minY, int[][] rows) {
+        this.minY = minY;
+        this.rows = rows;
+        long count = 0L;
+        int x1 = Integer.MAX_VALUE;
+        int x2 = Integer.MIN_VALUE;
+        for (int[] spans : rows) {
+            for (int i = 0; i < spans.length; i += 2) {
+                count += spans[i + 1] - spans[i];
+            }
+            if (spans.length > 0) {
+                x1 = Math.min(x1, spans[0]);
+                x2 = Math.max(x2, spans[spans.length - 1]);
+            }
+        }
+        this.pixelCount = count;
+        this.minX = count == 0 ? 0 : x1;
+        this.maxX = count == 0 ? 0 : x2;
+    }
+
+    /**
+     * @param shape
+     *            the shape in the pixel coordinates
+     * @param clip
+     *            the bounds of the image
+     * @return the mask of the pixels of the shape inside the clip
+     */
+    public static ScanlineMask create(Shape shape, Rectangle clip) {
+        Rectangle2D b = shape.getBounds2D();
+        int y1 = Math.max(clip.y, (int) Math.floor(b.getMinY()));
+        int y2 = Math.min(clip.y + clip.height, (int) Math.ceil(b.getMaxY()));
+        if (y2 <= y1) {
+            return new ScanlineMask(clip.y, new int[0][]);
+        }
+
+        // Flattened edges: x0, y0, x1, y1
+        double[] edges = new double[64];
+        int nbEdges = 0;
+        double[] coords = new double[6];
+        double startX = 0.0;
+        double startY = 0.0;
+        double lastX = 0.0;
+        double lastY = 0.0;
+        PathIterator it = shape.getPathIterator(null, FLATNESS);
+        boolean evenOdd = it.getWindingRule() == PathIterator.WIND_EVEN_ODD;
+        while (!it.isDone()) {
+            int type = it.currentSegment(coords);
+            double x = lastX;
+            double y = lastY;
+            if (type == PathIterator.SEG_MOVETO) {
+                // Close implicitly the previous sub-path
+                if (lastX != startX || lastY != startY) {
+                    edges = addEdge(edges, nbEdges++, lastX, lastY, startX, startY);
+                }
+                startX = lastX = coords[0];
+                startY = lastY = coords[1];
+            } else {
+                if (type == PathIterator.SEG_CLOSE) {
+                    x = startX;
+                    y = startY;
+                } else {
+                    x = coords[0];
+                    y = coords[1];
+                }
+                if (y != lastY) {
+                    edges = addEdge(edges, nbEdges++, lastX, lastY, x, y);
+                }
+                lastX = x;
+                lastY = y;
+            }
+            it.next();
+        }
+        if (lastX != startX || lastY != startY) {
+            edges = addEdge(edges, nbEdges++, lastX, lastY, startX, startY);
+        }
+
+        int clipX1 = clip.x;
+        int clipX2 = clip.x + clip.width;
+        int[][] rows = new int[y2 - y1][];
+        double[] crossX = new double[16];
+        int[] crossDir = new int[16];
+        int[] spans = new int[16];
+        for (int y = y1; y < y2; y++) {
+            double yc = y + 0.5;
+            int nbCross = 0;
+            for (int e = 0; e < nbEdges; e++) {
+                int k = e * 4;
+                double ey0 = edges[k + 1];
+                double ey1 = edges[k + 3];
+                int dir;
+                if (ey0 <= yc && yc < ey1) {
+                    dir = 1;
+                } else if (ey1 <= yc && yc < ey0) {
+                    dir = -1;
+                } else {
+                    continue;
+                }
+                double x = edges[k] + (yc - ey0) * (edges[k + 2] - edges[k]) / (ey1 - ey0);
+                if (nbCross == crossX.length) {
+                    crossX = Arrays.copyOf(crossX, nbCross * 2);
+                    crossDir = Arrays.copyOf(crossDir, nbCross * 2);
+                }
+                // Insertion sort, there are few crossings
+                int i = nbCross++;
+                while (i > 0 && crossX[i - 1] > x) {
+                    crossX[i] = crossX[i - 1];
+                    crossDir[i] = crossDir[i - 1];
+                    i--;
+                }
+                crossX[i] = x;
+                crossDir[i] = dir;
+            }
+
+            int nbSpans = 0;
+            int winding = 0;
+            double spanStart = 0.0;
+            for (int i = 0; i < nbCross; i++) {
+                boolean wasInside = evenOdd ? (winding & 1) != 0 : winding != 0;
+                winding += evenOdd ? 1 : crossDir[i];
+                boolean inside = evenOdd ? (winding & 1) != 0 : winding != 0;
+                if (!wasInside && inside) {
+                    spanStart = crossX[i];
+                } else if (wasInside && !inside) {
+                    // Pixels having their center in [spanStart, crossX[i])
+                    int sx = Math.max(clipX1, (int) Math.ceil(spanStart - 0.5));
+                    int ex = Math.min(clipX2, (int) Math.ceil(crossX[i] - 0.5));
+                    if (sx < ex) {
+                        if (nbSpans > 0 && spans[nbSpans - 1] >= sx) {
+                            spans[nbSpans - 1] = Math.max(ex, spans[nbSpans - 1]);
+                        } else {
+                            if (nbSpans + 2 > spans.length) {
+                                spans = Arrays.copyOf(spans, spans.length * 2);
+                            }
+                            spans[nbSpans++] = sx;
+                            spans[nbSpans++] = ex;
+                        }
+                    }
+                }
+            }
+            rows[y - y1] = nbSpans == 0 ? EMPTY_ROW : Arrays.copyOf(spans, nbSpans);
+        }
+        return new ScanlineMask(y1, rows);
+    }
+
+    private static double[] addEdge(double[] edges, int index, double x0, double y0, double x1, double y1) {
+        int k = index * 4;
+        double[] e = edges;
+        if (k + 4 > e.length) {
+            e = Arrays.copyOf(e, e.length * 2);
+        }
+        e[k] = x0;
+        e[k + 1] = y0;
+        e[k + 2] = x1;
+        e[k + 3] = y1;
+        return e;
+    }
+
+    /**
+     * @return the pixels of this mask which are not in the other mask
+     */
+    public ScanlineMask subtract(ScanlineMask other) {
+        int[][] result = new int[rows.length][];
+        int[] buf = new int[16];
+        for (int r = 0; r < rows.length; r++) {
+            int[] a = rows[r];
+            int[] b = other.getRow(minY + r);
+            if (a.length == 0 || b.length == 0) {
+                result[r] = a;
+                continue;
+            }
+            int n = 0;
+            int j = 0;
+            for (int i = 0; i < a.length; i += 2) {
+                int start = a[i];
+                int end = a[i + 1];
+                while (j < b.length && b[j + 1] <= start) {
+                    j += 2;
+                }
+                int k = j;
+                while (start < end) {
+                    int bs = k < b.length ? b[k] : Integer.MAX_VALUE;
+                    if (bs >= end) {
+                        buf = append(buf, n, start, end);
+                        n += 2;
+                        break;
+                    }
+                    if (bs > start) {
+                        buf = append(buf, n, start, bs);
+                        n += 2;
+                    }
+                    start = Math.max(start, b[k + 1]);
+                    k += 2;
+                }
+            }
+            result[r] = n == 0 ? EMPTY_ROW : Arrays.copyOf(buf, n);
+        }
+        return new ScanlineMask(minY, result);
+    }
+
+    private static int[] append(int[] buf, int n, int start, int end) {
+        int[] b = buf;
+        if (n + 2 > b.length) {
+            b = Arrays.copyOf(b, b.length * 2);
+        }
+        b[n] = start;
+        b[n + 1] = end;
+        return b;
+    }
+
+    /**
+     * @return the spans of the row (pairs of start inclusive and end exclusive x coordinates), must not be modified
+     */
+    public int[] getRow(int y) {
+        int r = y - minY;
+        if (r < 0 || r >= rows.length) {
+            return EMPTY_ROW;
+        }
+        return rows[r];
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxY() {
+        return minY + rows.length;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public long getPixelCount() {
+        return pixelCount;
+    }
+
+    public boolean isEmpty() {
+        return pixelCount == 0;
+    }
+}
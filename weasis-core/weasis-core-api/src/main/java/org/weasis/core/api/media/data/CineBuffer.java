@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.media.jai.PlanarImage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.gui.util.Filter;
+import org.weasis.core.api.util.NamedThreadFactory;
+
+/**
+ * Ring buffer of the next frames of a cine loop.
+ * <p>
+ * The frames following the displayed frame are decoded in advance by the pool of ImageElement.IMAGE_LOADER (with the
+ * min and max values required by the window/level), then they are rendered by the FrameRenderer (e.g. the display
+ * operations of the view with the window/level, the LUT and the zoom) by the threads of the cine renderer. The Event
+ * Dispatch Thread receives only rendered frames, it has only to draw them. The cine thread displays only the frames
+ * which are ready: when it is late, it jumps to the last ready frame and the frames in between are dropped. The depth
+ * of the buffer is limited by the memory budget of the prefetching (see ImagePrefetcher), which includes the size of
+ * the rendered frames.
+ * </p>
+ * <p>
+ * The renderer threads wait for the decoding, but IMAGE_LOADER never waits for them, so the two pools cannot block
+ * each other.
+ * </p>
+ *
+ * @param <E>
+ *            the type of images
+ * @param <F>
+ *            the type of the rendered frames
+ */
+public class CineBuffer<E extends ImageElement, F> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CineBuffer.class);
+
+    private static final int MIN_DEPTH = 2;
+    private static final int MAX_DEPTH = 60;
+
+    private static final ExecutorService RENDERER = Executors.newFixedThreadPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors()), new NamedThreadFactory("Cine Renderer", //$NON-NLS-1$
+            Thread.NORM_PRIORITY - 1));
+
+    /**
+     * Renders the decoded images into frames ready to be displayed.
+     *
+     * @param <E>
+     *            the type of images
+     * @param <F>
+     *            the type of the rendered frames
+     */
+    public interface FrameRenderer<E extends ImageElement, F> {
+
+        /**
+         * @return the size in bytes of a rendered frame
+         */
+        long getFrameSize();
+
+        /**
+         * Renders a decoded image. Called by the threads of the cine renderer, possibly at the same time for several
+         * images.
+         *
+         * @param image
+         *            the image to render
+         * @return the frame or null when the image cannot be rendered
+         */
+        F render(E image) throws Exception;
+    }
+
+    private final MediaSeries<E> series;
+    private final Filter<E> filter;
+    private final Comparator<E> sort;
+    private final FrameRenderer<E, F> renderer;
+    private final int seriesSize;
+    private final List<E> frames;
+    // Frames following the current frame, slots[(start + i) % length] is the frame current + 1 + i
+    private final Object[] slots;
+    private int start = 0;
+    private int current = -1;
+
+    /**
+     * @param series
+     *            the series displayed
+     * @param filter
+     *            the filter of the view (can be null)
+     * @param sort
+     *            the sorting order of the view (can be null)
+     * @param speed
+     *            the speed of the cine in frames per second
+     * @param renderer
+     *            the renderer of the frames (can be null, the frames are only decoded)
+     */
+    public CineBuffer(MediaSeries<E> series, Filter<E> filter, Comparator<E> sort, int speed,
+        FrameRenderer<E, F> renderer) {
+        if (series == null) {
+            throw new IllegalArgumentException("Series cannot be null"); //$NON-NLS-1$
+        }
+        this.series = series;
+        this.filter = filter;
+        this.sort = sort;
+        this.renderer = renderer;
+        this.seriesSize = series.size(null);
+        this.frames = series.copyOfMedias(filter, sort);
+        int depth = Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, speed));
+        if (!frames.isEmpty()) {
+            depth =
+                Math.min(depth, ImagePrefetcher.getMaxImagesInBudget(frames.get(0),
+                    renderer == null ? 0L : renderer.getFrameSize()));
+        }
+        this.slots = new Object[Math.max(1, Math.min(depth, frames.size() - 1))];
+    }
+
+    /**
+     * @return true when the buffer corresponds to the displayed series and its images
+     */
+    public boolean isValid(MediaSeries<E> series, Filter<E> filter, Comparator<E> sort) {
+        return series == this.series && filter == this.filter && sort == this.sort
+            && series.size(null) == seriesSize;
+    }
+
+    public FrameRenderer<E, F> getRenderer() {
+        return renderer;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    public int getDepth() {
+        return slots.length;
+    }
+
+    /**
+     * Sets the displayed frame and requests the decoding and the rendering of the next frames.
+     *
+     * @param index
+     *            the index of the displayed frame
+     */
+    public synchronized void setCurrent(int index) {
+        int nb = frames.size();
+        if (nb == 0 || index < 0 || index >= nb) {
+            return;
+        }
+        if (index != current) {
+            int advance = current < 0 ? -1 : (index - current + nb) % nb;
+            if (advance > 0 && advance <= slots.length) {
+                // Release the frames displayed or dropped
+                for (int i = 0; i < advance; i++) {
+                    release(slot(i));
+                    slots[(start + i) % slots.length] = null;
+                }
+                start = (start + advance) % slots.length;
+            } else {
+                clearSlots();
+            }
+            current = index;
+        }
+        for (int i = 0; i < slots.length; i++) {
+            int k = (start + i) % slots.length;
+            if (slots[k] == null) {
+                slots[k] = new Slot<E, F>(frames.get((current + 1 + i) % nb), renderer);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Slot<E, F> slot(int i) {
+        return (Slot<E, F>) slots[(start + i) % slots.length];
+    }
+
+    private static boolean isReady(Slot<?, ?> slot) {
+        return slot != null && slot.rendering.isDone();
+    }
+
+    /**
+     * Returns the frame to display when the cine is late of several frames.
+     *
+     * @param late
+     *            the number of frames which should have been displayed since the current frame
+     * @return the index of the last ready frame which is not after the expected frame, or -1 when the next frame is not
+     *         ready
+     */
+    public synchronized int getReadyFrame(int late) {
+        int nb = frames.size();
+        if (current < 0 || nb == 0) {
+            return -1;
+        }
+        int index = -1;
+        int max = Math.min(late, slots.length);
+        for (int i = 0; i < max; i++) {
+            if (isReady(slot(i))) {
+                index = (current + 1 + i) % nb;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param index
+     *            the index of a frame returned by getReadyFrame()
+     * @return the rendered frame or null when the frame is not in the buffer, not ready or when it cannot be rendered
+     */
+    public synchronized F getRenderedFrame(int index) {
+        int i = getDistance(index) - 1;
+        if (i < 0 || i >= slots.length) {
+            return null;
+        }
+        Slot<E, F> slot = slot(i);
+        if (!isReady(slot)) {
+            return null;
+        }
+        try {
+            return slot.rendering.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.error("Cannot render the frame of the cine: {}", slot.image, e.getCause()); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of frames between the current frame and the given frame (looping at the end)
+     */
+    public synchronized int getDistance(int index) {
+        int nb = frames.size();
+        return nb == 0 || current < 0 ? 0 : (index - current + nb) % nb;
+    }
+
+    /**
+     * @return the number of consecutive frames ready after the current frame
+     */
+    public synchronized int getBufferedFrames() {
+        if (current < 0) {
+            return 0;
+        }
+        int nb = 0;
+        while (nb < slots.length && isReady(slot(nb))) {
+            nb++;
+        }
+        return nb;
+    }
+
+    /**
+     * Cancels the decoding and the rendering of the frames which are not started.
+     */
+    public synchronized void clear() {
+        clearSlots();
+        current = -1;
+    }
+
+    private void clearSlots() {
+        for (int i = 0; i < slots.length; i++) {
+            release((Slot<?, ?>) slots[i]);
+            slots[i] = null;
+        }
+        start = 0;
+    }
+
+    private static void release(Slot<?, ?> slot) {
+        if (slot != null) {
+            // Interrupts the renderer waiting for an image which is not decoded yet. The decoding is not cancelled as
+            // it can be shared with the preloading or another view.
+            slot.rendering.cancel(true);
+        }
+    }
+
+    private static class Slot<E extends ImageElement, F> {
+        private final E image;
+        private final Future<F> rendering;
+
+        Slot(final E image, final FrameRenderer<E, F> renderer) {
+            this.image = image;
+            final Future<PlanarImage> decoding = image.isReadable() ? image.getImageAsync() : null;
+            this.rendering = RENDERER.submit(new Callable<F>() {
+
+                @Override
+                public F call() throws Exception {
+                    if (decoding != null && decoding.get() == null) {
+                        return null;
+                    }
+                    return renderer == null ? null : renderer.render(image);
+                }
+            });
+        }
+    }
+}
@@ -12,20 +12,22 @@ package org.weasis.core.api.media.data;
 
 import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.ParameterBlock;
 import java.io.IOException;
-import java.lang.ref.Reference;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedOp;
+import javax.media.jai.TiledImage;
+import javax.media.jai.operator.SubsampleAverageDescriptor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +37,7 @@ import org.weasis.core.api.image.OpManager;
 import org.weasis.core.api.image.measure.MeasurementsAdapter;
 import org.weasis.core.api.image.util.ImageToolkit;
 import org.weasis.core.api.image.util.Unit;
+import org.weasis.core.api.service.BundleTools;
 
 public class ImageElement extends MediaElement<PlanarImage> {
 
@@ -43,32 +46,60 @@ public class ImageElement extends MediaElement<PlanarImage> {
      */
     private static final Logger logger = LoggerFactory.getLogger(ImageElement.class);
     /*
-     * Imageio issue with native library in multi-thread environment (to avoid JVM crash let only one simultaneous
-     * thread) (https://jai-imageio-core.dev.java.net/issues/show_bug.cgi?id=126)
+     * Pool of threads decoding the images. A reader is never used by two threads at the same time (see Load). Imageio
+     * issue with native library in multi-thread environment: the readers with a native codec decode with
+     * ImageLoaderExecutor.NATIVE_CODEC_LOCK (https://jai-imageio-core.dev.java.net/issues/show_bug.cgi?id=126).
      */
-    public static final ExecutorService IMAGE_LOADER = Executors.newFixedThreadPool(1);
+    public static final ImageLoaderExecutor IMAGE_LOADER = ImageLoaderExecutor.buildDefaultExecutor();
 
-    private static final SoftHashMap<ImageElement, PlanarImage> mCache = new SoftHashMap<ImageElement, PlanarImage>() {
+    /*
+     * Cache of the decoded images limited by the property "weasis.image.cache.size" in MB (by default 40% of the
+     * maximum heap)
+     */
+    public static final String IMAGE_CACHE_SIZE = "weasis.image.cache.size"; //$NON-NLS-1$
+    private static final LruCache<ImageElement, PlanarImage> mCache = new LruCache<ImageElement, PlanarImage>(
+        getDefaultCacheSize()) {
 
-        public Reference<? extends PlanarImage> getReference(ImageElement key) {
-            return hash.get(key);
+        @Override
+        protected long sizeOf(ImageElement key, PlanarImage value) {
+            return ImageToolkit.getImageSizeInBytes(value);
         }
 
         @Override
-        public void removeElement(Reference<? extends PlanarImage> soft) {
-            ImageElement key = reverseLookup.remove(soft);
-            if (key != null) {
-                hash.remove(key);
-                MediaReader<PlanarImage> reader = key.getMediaReader();
-                key.setTag(TagW.ImageCache, false);
-                if (reader != null) {
-                    // Close the image stream
-                    reader.close();
-                }
-            }
+        protected void entryRemoved(ImageElement key, PlanarImage value) {
+            key.setTag(TagW.ImageCache, false);
+            // The other frames of the reader can still be in the cache or being loaded
+            releaseReader(key.getMediaReader());
         }
     };
-    protected boolean readable = true;
+
+    /*
+     * Number of the elements of a reader which are in the cache or being loaded. The stream of the reader is closed
+     * when none remains (the frames of a multiframe share the same reader).
+     */
+    private static final Map<MediaReader<?>, Integer> READER_USERS = new HashMap<MediaReader<?>, Integer>();
+
+    /*
+     * Cache of the reduced resolution images (see getReducedImage()), limited to a quarter of the size of the image
+     * cache. The images are copied in memory, they do not depend on the stream of the reader.
+     */
+    private static final int MAX_PYRAMID_LEVEL = 6;
+    private static final LruCache<PyramidKey, PlanarImage> PYRAMID_CACHE = new LruCache<PyramidKey, PlanarImage>(
+        getDefaultCacheSize() / 4) {
+
+        @Override
+        protected long sizeOf(PyramidKey key, PlanarImage value) {
+            return ImageToolkit.getImageSizeInBytes(value);
+        }
+    };
+
+    protected volatile boolean readable = true;
+    // Task reading the image, shared by all the threads waiting for the same image. Not null only when the loading
+    // flag is set, both are changed with loadingLock
+    private transient Future<PlanarImage> loadingTask = null;
+    // Number of threads blocked until the end of loadingTask
+    private transient int waitingThreads = 0;
+    private final Object loadingLock = new Object();
 
     protected double pixelSizeX = 1.0;
     protected double pixelSizeY = 1.0;
@@ -94,23 +125,9 @@ public class ImageElement extends MediaElement<PlanarImage> {
                 this.minPixelValue = 0f;
                 this.maxPixelValue = 255f;
             } else {
-
-                ParameterBlock pb = new ParameterBlock();
-                pb.addSource(img);
-                // ImageToolkit.NOCACHE_HINT to ensure this image won't be stored in tile cache
-                RenderedOp dst = JAI.create("extrema", pb, ImageToolkit.NOCACHE_HINT); //$NON-NLS-1$
-
-                double[][] extrema = (double[][]) dst.getProperty("extrema"); //$NON-NLS-1$
-                double min = Double.MAX_VALUE;
-                double max = -Double.MAX_VALUE;
-                int numBands = dst.getSampleModel().getNumBands();
-
-                for (int i = 0; i < numBands; i++) {
-                    min = Math.min(min, extrema[0][i]);
-                    max = Math.max(max, extrema[1][i]);
-                }
-                this.minPixelValue = Double.valueOf(min).floatValue();
-                this.maxPixelValue = Double.valueOf(max).floatValue();
+                double[] extrema = getExtrema(img);
+                this.minPixelValue = Double.valueOf(extrema[0]).floatValue();
+                this.maxPixelValue = Double.valueOf(extrema[1]).floatValue();
                 // Handle special case when min and max are equal, ex. black image
                 // + 1 to max enables to display the correct value
                 if (this.minPixelValue.equals(this.maxPixelValue)) {
@@ -120,6 +137,27 @@ public class ImageElement extends MediaElement<PlanarImage> {
         }
     }
 
+    /**
+     * @return the min and the max of all the bands of the image
+     */
+    private static double[] getExtrema(RenderedImage img) {
+        ParameterBlock pb = new ParameterBlock();
+        pb.addSource(img);
+        // ImageToolkit.NOCACHE_HINT to ensure this image won't be stored in tile cache
+        RenderedOp dst = JAI.create("extrema", pb, ImageToolkit.NOCACHE_HINT); //$NON-NLS-1$
+
+        double[][] extrema = (double[][]) dst.getProperty("extrema"); //$NON-NLS-1$
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        int numBands = dst.getSampleModel().getNumBands();
+
+        for (int i = 0; i < numBands; i++) {
+            min = Math.min(min, extrema[0][i]);
+            max = Math.max(max, extrema[1][i]);
+        }
+        return new double[] { min, max };
+    }
+
     public boolean isImageAvailable() {
         return maxPixelValue != null && minPixelValue != null;
     }
@@ -232,19 +270,70 @@ public class ImageElement extends MediaElement<PlanarImage> {
     }
 
     public boolean isImageInCache() {
-        return mCache.get(this) != null;
+        return mCache.containsKey(this);
     }
 
     public void removeImageFromCache() {
-        mCache.remove(this);
-        MediaReader<PlanarImage> reader = this.getMediaReader();
-        this.setTag(TagW.ImageCache, false);
+        for (int i = 1; i <= MAX_PYRAMID_LEVEL; i++) {
+            PYRAMID_CACHE.remove(new PyramidKey(this, i));
+        }
+        if (mCache.remove(this) == null) {
+            this.setTag(TagW.ImageCache, false);
+            closeUnusedReader(this.getMediaReader());
+        }
+    }
+
+    private static void acquireReader(MediaReader<?> reader) {
         if (reader != null) {
-            // Close the image stream
-            reader.close();
+            synchronized (READER_USERS) {
+                Integer nb = READER_USERS.get(reader);
+                READER_USERS.put(reader, nb == null ? 1 : nb + 1);
+            }
         }
     }
 
+    private static void releaseReader(MediaReader<?> reader) {
+        if (reader != null) {
+            synchronized (READER_USERS) {
+                Integer nb = READER_USERS.get(reader);
+                if (nb != null && nb > 1) {
+                    READER_USERS.put(reader, nb - 1);
+                } else {
+                    READER_USERS.remove(reader);
+                    // Close the image stream
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private static void closeUnusedReader(MediaReader<?> reader) {
+        if (reader != null) {
+            synchronized (READER_USERS) {
+                if (!READER_USERS.containsKey(reader)) {
+                    // Close the image stream
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private static long getDefaultCacheSize() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        if (maxMemory == Long.MAX_VALUE) {
+            maxMemory = 512L * 1024L * 1024L;
+        }
+        long size = BundleTools.SYSTEM_PREFERENCES.getLongProperty(IMAGE_CACHE_SIZE, 0L) * 1024L * 1024L;
+        return size > 0 ? size : maxMemory * 2 / 5;
+    }
+
+    /**
+     * @return the cache of the decoded images, which gives the statistics (hits, misses, evictions)
+     */
+    public static LruCache<ImageElement, PlanarImage> getImageCache() {
+        return mCache;
+    }
+
     public boolean hasSameSize(ImageElement image) {
         if (image != null) {
             PlanarImage img = getImage();
@@ -302,6 +391,50 @@ public class ImageElement extends MediaElement<PlanarImage> {
         return getRenderedImage(imageSource, null);
     }
 
+    /**
+     * Returns the image to display in a preview (e.g. a thumbnail) of a reduced image (see getReducedImage()). When
+     * the min and max of the original image are not known, the values are rescaled between the min and the max of the
+     * reduced image, which are not kept in this element.
+     * 
+     * @param reducedImage
+     *            the reduced image
+     * @return the image to display
+     */
+    public RenderedImage getPreviewRenderedImage(final RenderedImage reducedImage) {
+        if (reducedImage == null || isImageAvailable()) {
+            return getRenderedImage(reducedImage);
+        }
+        if (reducedImage.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE && !isPreviewInverse()) {
+            return reducedImage;
+        }
+        double[] extrema = getExtrema(reducedImage);
+        double range = Math.max(1.0, extrema[1] - extrema[0]);
+        double slope = 255.0 / range;
+        double yInt = -slope * extrema[0];
+        if (isPreviewInverse()) {
+            slope = -slope;
+            yInt = 255.0 - yInt;
+        }
+        ParameterBlock pb = new ParameterBlock();
+        pb.addSource(reducedImage);
+        pb.add(new double[] { slope });
+        pb.add(new double[] { yInt });
+        RenderedOp rescale = JAI.create("rescale", pb, null); //$NON-NLS-1$
+
+        // produce a byte image
+        pb = new ParameterBlock();
+        pb.addSource(rescale);
+        pb.add(DataBuffer.TYPE_BYTE);
+        return JAI.create("format", pb, null); //$NON-NLS-1$
+    }
+
+    /**
+     * @return true if the lowest values are displayed in white in a preview
+     */
+    protected boolean isPreviewInverse() {
+        return false;
+    }
+
     public RenderedImage getRenderedImage(final RenderedImage imageSource, HashMap<String, Object> params) {
 
         Float window = (params == null) ? null : (Float) params.get(ActionW.WINDOW.cmd());
@@ -333,7 +466,7 @@ public class ImageElement extends MediaElement<PlanarImage> {
              * Extrema)
              */
             logger.warn("Out of MemoryError: {}", getMediaURI()); //$NON-NLS-1$
-            mCache.expungeStaleEntries();
+            mCache.trimToSize(mCache.size() / 2);
             System.gc();
             try {
                 Thread.sleep(100);
@@ -358,38 +491,187 @@ public class ImageElement extends MediaElement<PlanarImage> {
         return getImage(null);
     }
 
+    /**
+     * Returns the image at a lower resolution. When the original image is not in the cache, the reduced image is
+     * decoded directly at this resolution if the reader supports it (see MultiResolutionReader), otherwise it is
+     * downscaled from the original image.
+     * 
+     * @param level
+     *            the level of the pyramid: the width and the height of the original image are divided by 2^level. The
+     *            level 0 returns the original image.
+     * @return the reduced image or null if the image cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public PlanarImage getReducedImage(int level) {
+        if (level <= 0) {
+            return getImage();
+        }
+        PyramidKey key = new PyramidKey(this, Math.min(level, MAX_PYRAMID_LEVEL));
+        PlanarImage img = PYRAMID_CACHE.get(key);
+        if (img != null) {
+            return img;
+        }
+        if (readable && mediaIO instanceof MultiResolutionReader && !mCache.containsKey(this)) {
+            try {
+                // A reader cannot decode two images at the same time (e.g. frames of a multiframe)
+                synchronized (mediaIO) {
+                    img = ((MultiResolutionReader<PlanarImage>) mediaIO).getMediaFragment(this, key.level);
+                    if (img != null) {
+                        img = copyInMemory(img);
+                    }
+                    // Close the image stream when no image of the reader is loaded
+                    closeUnusedReader(mediaIO);
+                }
+            } catch (Exception e) {
+                logger.error("Cannot read the reduced image: {}", getMediaURI()); //$NON-NLS-1$
+                img = null;
+            }
+        }
+        if (img == null) {
+            PlanarImage original = getImage();
+            if (original == null) {
+                return null;
+            }
+            double scale = 1.0 / (1 << key.level);
+            img = copyInMemory(SubsampleAverageDescriptor.create(original, scale, scale, null));
+        }
+        PYRAMID_CACHE.put(key, img);
+        return img;
+    }
+
+    /**
+     * Decodes the original image in the calling thread, without IMAGE_LOADER and without keeping it in the cache (e.g.
+     * for exporting many images in a pool of threads). The image is copied in memory, it does not depend on the stream
+     * of the reader.
+     * 
+     * @return the original image or null if the image cannot be read
+     */
+    public PlanarImage readImage() {
+        PlanarImage img = mCache.get(this);
+        if (img != null || !readable) {
+            return img;
+        }
+        try {
+            // A reader cannot decode two images at the same time (e.g. frames of a multiframe)
+            synchronized (mediaIO) {
+                img = loadImage();
+                if (img != null) {
+                    img = copyInMemory(img);
+                }
+                // Close the image stream when no image of the reader is loaded
+                closeUnusedReader(mediaIO);
+            }
+        } catch (Exception e) {
+            logger.error("Cannot read pixel data!: {}", getMediaURI(), e); //$NON-NLS-1$
+            return null;
+        }
+        if (img != null) {
+            findMinMaxValues(img);
+        }
+        return img;
+    }
+
+    private static PlanarImage copyInMemory(PlanarImage img) {
+        Raster data = img.getData();
+        TiledImage copy =
+            new TiledImage(img.getMinX(), img.getMinY(), img.getWidth(), img.getHeight(), img.getMinX(),
+                img.getMinY(), img.getSampleModel().createCompatibleSampleModel(img.getWidth(), img.getHeight()),
+                img.getColorModel());
+        copy.setData(data);
+        return copy;
+    }
+
+    /**
+     * Returns immediately a Future of the original image. The image is decoded by the pool of IMAGE_LOADER, which
+     * allows reading several images in parallel (e.g. for building MIP/MPR or for preloading).
+     * 
+     * @return the Future of the original image (the result can be null when the image cannot be read). The Future is
+     *         cancelled when cancelImageAsync() succeeds.
+     */
+    public Future<PlanarImage> getImageAsync() {
+        PlanarImage cacheImage = mCache.get(this);
+        if (cacheImage != null || !readable) {
+            FutureTask<PlanarImage> task = new FutureTask<PlanarImage>(new Runnable() {
+
+                @Override
+                public void run() {
+                }
+            }, cacheImage);
+            task.run();
+            return task;
+        }
+        return submitLoading(true, false);
+    }
+
+    private Future<PlanarImage> submitLoading(boolean findMinMax, boolean waited) {
+        synchronized (loadingLock) {
+            if (setAsLoading()) {
+                logger.debug("Asking for reading image: {}", this); //$NON-NLS-1$
+                acquireReader(mediaIO);
+                try {
+                    // An image expected by a waiting thread is placed at the beginning of the queue
+                    loadingTask = IMAGE_LOADER.submit(waited ? null : getLoadingGroup(), new Load(findMinMax));
+                } catch (RuntimeException e) {
+                    setAsLoaded();
+                    releaseReader(mediaIO);
+                    throw e;
+                }
+            } else if (waited && waitingThreads == 0) {
+                // A prefetched image is now expected, it must not wait behind the other prefetched images
+                IMAGE_LOADER.prioritize(loadingTask);
+            }
+            if (waited) {
+                waitingThreads++;
+            }
+            return loadingTask;
+        }
+    }
+
+    /**
+     * Cancels the reading of the image requested by getImageAsync() when it is not started and when no thread is
+     * waiting for it.
+     * 
+     * @return true if the task has been removed from the queue
+     */
+    public boolean cancelImageAsync() {
+        synchronized (loadingLock) {
+            if (loadingTask instanceof Runnable && waitingThreads == 0 && IMAGE_LOADER.remove((Runnable) loadingTask)) {
+                loadingTask.cancel(false);
+                loadingTask = null;
+                setAsLoaded();
+                releaseReader(mediaIO);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the key used by IMAGE_LOADER for scheduling fairly the images of different series
+     */
+    protected Object getLoadingGroup() {
+        Object group = getTagValue(TagW.SeriesInstanceUID);
+        return group == null ? mediaIO : group;
+    }
+
     private PlanarImage startImageLoading() throws OutOfMemoryError {
         PlanarImage cacheImage;
-        if ((cacheImage = mCache.get(this)) == null && readable && setAsLoading()) {
-            logger.debug("Asking for reading image: {}", this); //$NON-NLS-1$
-            Load ref = new Load();
-            Future<PlanarImage> future = IMAGE_LOADER.submit(ref);
-            PlanarImage img = null;
+        if ((cacheImage = mCache.get(this)) == null && readable) {
+            Future<PlanarImage> future = submitLoading(false, true);
             try {
-                img = future.get();
-
+                cacheImage = future.get();
             } catch (InterruptedException e) {
                 // Re-assert the thread's interrupted status
                 Thread.currentThread().interrupt();
-                // We don't need the result, so cancel the task too
-                future.cancel(true);
             } catch (ExecutionException e) {
                 if (e.getCause() instanceof OutOfMemoryError) {
-                    setAsLoaded();
                     throw new OutOfMemoryError();
-                } else {
-                    readable = false;
-                    logger.error("Cannot read pixel data!: {}", getMediaURI()); //$NON-NLS-1$
-                    e.printStackTrace();
+                }
+            } finally {
+                synchronized (loadingLock) {
+                    waitingThreads--;
                 }
             }
-            if (img != null) {
-                readable = true;
-                mCache.put(this, img);
-                cacheImage = img;
-                this.setTag(TagW.ImageCache, true);
-            }
-            setAsLoaded();
         }
         return cacheImage;
     }
@@ -430,11 +712,71 @@ public class ImageElement extends MediaElement<PlanarImage> {
         // }
     }
 
+    static class PyramidKey {
+        private final ImageElement image;
+        private final int level;
+
+        PyramidKey(ImageElement image, int level) {
+            this.image = image;
+            this.level = level;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PyramidKey)) {
+                return false;
+            }
+            PyramidKey k = (PyramidKey) obj;
+            return image == k.image && level == k.level;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(image) * 31 + level;
+        }
+    }
+
     class Load implements Callable<PlanarImage> {
+        private final boolean findMinMax;
+
+        Load(boolean findMinMax) {
+            this.findMinMax = findMinMax;
+        }
 
         @Override
         public PlanarImage call() throws Exception {
-            return loadImage();
+            PlanarImage img = null;
+            try {
+                // A reader cannot decode two images at the same time (e.g. frames of a multiframe)
+                synchronized (mediaIO) {
+                    img = loadImage();
+                }
+                if (img != null) {
+                    readable = true;
+                    // The entry can be evicted as soon as it is in the cache, so the reader is acquired before
+                    acquireReader(mediaIO);
+                    if (mCache.put(ImageElement.this, img) == img) {
+                        // Already cached, the entry holds the reader
+                        releaseReader(mediaIO);
+                    }
+                    setTag(TagW.ImageCache, true);
+                    if (findMinMax) {
+                        findMinMaxValues(img);
+                    }
+                }
+            } catch (OutOfMemoryError e) {
+                throw e;
+            } catch (Exception e) {
+                readable = false;
+                logger.error("Cannot read pixel data!: {}", getMediaURI(), e); //$NON-NLS-1$
+            } finally {
+                synchronized (loadingLock) {
+                    loadingTask = null;
+                    setAsLoaded();
+                }
+                releaseReader(mediaIO);
+            }
+            return img;
         }
     }
 
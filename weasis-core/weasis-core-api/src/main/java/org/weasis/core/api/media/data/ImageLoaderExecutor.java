@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageReader;
+
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.NamedThreadFactory;
+
+/**
+ * Thread pool dedicated to the decoding of images.
+ * <p>
+ * The tasks are scheduled by group (usually a series): each group is given a round number that is incremented at
+ * every submission, and the queue is ordered by round. A series asking for hundreds of images cannot delay the first
+ * image of another series, the groups are served alternately.
+ * </p>
+ * <p>
+ * The number of threads is defined by the property "weasis.image.loader.threads" (by default the number of
+ * processors). The native ImageIO codecs crash the JVM when several threads decode at the same time
+ * (https://jai-imageio-core.dev.java.net/issues/show_bug.cgi?id=126), the readers using them must decode while holding
+ * NATIVE_CODEC_LOCK (see isNativeCodec()). The raw and pure Java decoders run in parallel.
+ * </p>
+ */
+public class ImageLoaderExecutor extends ThreadPoolExecutor {
+
+    public static final String LOADER_THREADS = "weasis.image.loader.threads"; //$NON-NLS-1$
+
+    /**
+     * Lock shared by all the readers decoding with a native codec, only one of them can decode at the same time.
+     */
+    public static final Object NATIVE_CODEC_LOCK = new Object();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final HashMap<Object, Long> groupRounds = new HashMap<Object, Long>();
+    private volatile long currentRound = 0L;
+
+    public ImageLoaderExecutor(int nThreads) {
+        super(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(32,
+            new RoundComparator()), new NamedThreadFactory("Image Loader")); //$NON-NLS-1$
+    }
+
+    public static ImageLoaderExecutor buildDefaultExecutor() {
+        int nThreads =
+            BundleTools.SYSTEM_PREFERENCES.getIntProperty(LOADER_THREADS, Runtime.getRuntime().availableProcessors());
+        return new ImageLoaderExecutor(nThreads < 1 ? 1 : nThreads);
+    }
+
+    /**
+     * @return true when the reader decodes with a native library which is not thread-safe (CLib and CodecLib readers
+     *         of jai-imageio, Kakadu, and the Native readers of Weasis). The decoding must be done with
+     *         NATIVE_CODEC_LOCK.
+     */
+    public static boolean isNativeCodec(ImageReader reader) {
+        if (reader == null) {
+            return false;
+        }
+        String name = reader.getClass().getSimpleName();
+        return name.startsWith("Native") || name.contains("CLib") || name.contains("CodecLib") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            || name.contains("Kakadu"); //$NON-NLS-1$
+    }
+
+    /**
+     * Submits a task that is scheduled fairly with the other tasks of the group.
+     *
+     * @param group
+     *            the key of the group (e.g. series UID). If null, the task is placed at the beginning of the queue.
+     * @param task
+     *            the task to execute
+     * @return the Future of the task
+     */
+    public <T> Future<T> submit(Object group, Callable<T> task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        LoaderTask<T> ftask = new LoaderTask<T>(task, nextRound(group), sequence.getAndIncrement());
+        execute(ftask);
+        return ftask;
+    }
+
+    /**
+     * Places a task which is still in the queue at the beginning of the queue (e.g. a prefetched image which is now
+     * expected by a waiting thread).
+     *
+     * @return true when the task has been moved
+     */
+    public boolean prioritize(Future<?> future) {
+        if (future instanceof LoaderTask) {
+            LoaderTask<?> task = (LoaderTask<?>) future;
+            // The order must not change while the task is in the queue
+            if (getQueue().remove(task)) {
+                task.round = nextRound(null);
+                task.seq = sequence.getAndIncrement();
+                getQueue().offer(task);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new LoaderTask<T>(callable, currentRound, sequence.getAndIncrement());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new LoaderTask<T>(runnable, value, currentRound, sequence.getAndIncrement());
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof LoaderTask) {
+            long round = ((LoaderTask<?>) r).round;
+            if (round > currentRound) {
+                currentRound = round;
+            }
+        }
+    }
+
+    private long nextRound(Object group) {
+        long cur = currentRound;
+        if (group == null) {
+            // Before the tasks of the current round
+            return cur - 1;
+        }
+        synchronized (groupRounds) {
+            Long last = groupRounds.get(group);
+            long round = last == null ? cur : Math.max(last + 1, cur);
+            groupRounds.put(group, round);
+            if (groupRounds.size() > 64) {
+                // Remove the groups which have no more pending tasks
+                for (Iterator<Entry<Object, Long>> it = groupRounds.entrySet().iterator(); it.hasNext();) {
+                    if (it.next().getValue() < cur) {
+                        it.remove();
+                    }
+                }
+            }
+            return round;
+        }
+    }
+
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    /**
+     * Runs the action when the task of the loader is completed or cancelled, immediately when it is already done.
+     */
+    public static void whenDone(Future<?> future, Runnable action) {
+        if (future instanceof LoaderTask) {
+            ((LoaderTask<?>) future).whenDone(action);
+        } else if (future != null && future.isDone()) {
+            action.run();
+        }
+    }
+
+    static class LoaderTask<T> extends FutureTask<T> {
+        // Modified only when the task is not in the queue
+        volatile long round;
+        volatile long seq;
+        // Actions run when the task is done, guarded by the list
+        private final List<Runnable> doneActions = new ArrayList<Runnable>(1);
+        private boolean finished = false;
+
+        LoaderTask(Callable<T> callable, long round, long seq) {
+            super(callable);
+            this.round = round;
+            this.seq = seq;
+        }
+
+        LoaderTask(Runnable runnable, T result, long round, long seq) {
+            super(runnable, result);
+            this.round = round;
+            this.seq = seq;
+        }
+
+        void whenDone(Runnable action) {
+            synchronized (doneActions) {
+                if (!finished) {
+                    doneActions.add(action);
+                    return;
+                }
+            }
+            action.run();
+        }
+
+        @Override
+        protected void done() {
+            Runnable[] actions;
+            synchronized (doneActions) {
+                finished = true;
+                actions = doneActions.toArray(new Runnable[doneActions.size()]);
+                doneActions.clear();
+            }
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
+    }
+
+    static class RoundComparator implements Comparator<Runnable>, Serializable {
+        private static final long serialVersionUID = -2391047312582036523L;
+
+        @Override
+        public int compare(Runnable r1, Runnable r2) {
+            // Runnable submitted with execute() are not wrapped and are executed first
+            boolean t1 = r1 instanceof LoaderTask;
+            boolean t2 = r2 instanceof LoaderTask;
+            if (!t1 || !t2) {
+                return t1 == t2 ? 0 : (t1 ? 1 : -1);
+            }
+            LoaderTask<?> l1 = (LoaderTask<?>) r1;
+            LoaderTask<?> l2 = (LoaderTask<?>) r2;
+            if (l1.round != l2.round) {
+                return l1.round < l2.round ? -1 : 1;
+            }
+            return l1.seq < l2.seq ? -1 : (l1.seq == l2.seq ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import javax.media.jai.PlanarImage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.explorer.ObservableEvent;
+import org.weasis.core.api.explorer.model.DataExplorerModel;
+import org.weasis.core.api.gui.util.Filter;
+import org.weasis.core.api.service.BundleTools;
+
+/**
+ * Prefetches the images of a series according to the scrolling direction and speed. The cine has its own buffer
+ * (CineBuffer). A series has its own prefetcher, so the views displaying different series do not cancel each other.
+ * <p>
+ * The number of images decoded in advance corresponds to about one second of scrolling, limited by the memory budget
+ * defined by the property "weasis.prefetch.size" in MB (by default a quarter of the image cache). When the direction
+ * is reversed or when the displayed series changes, the images that are not yet decoded are removed from the queue of
+ * ImageElement.IMAGE_LOADER.
+ * </p>
+ *
+ * @param <E>
+ *            the type of images
+ */
+public class ImagePrefetcher<E extends ImageElement> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImagePrefetcher.class);
+
+    public static final String PREFETCH_SIZE = "weasis.prefetch.size"; //$NON-NLS-1$
+
+    private static final int MIN_AHEAD = 2;
+    private static final int MAX_AHEAD = 120;
+    // Time in ms after which the previous scrolling speed is not taken into account
+    private static final long IDLE_TIME = 1000L;
+
+    private final LinkedHashMap<E, Future<PlanarImage>> pending = new LinkedHashMap<E, Future<PlanarImage>>();
+
+    private MediaSeries<E> series;
+    private Filter<E> filter;
+    private Comparator<E> sort;
+    private List<E> imageList;
+    private int seriesSize;
+
+    private int lastIndex = -1;
+    private long lastTime = 0L;
+    // Signed scrolling speed in images per second
+    private double velocity = 0.0;
+
+    /**
+     * Updates the prefetching window when the current image of the view changes.
+     *
+     * @param series
+     *            the series displayed
+     * @param filter
+     *            the filter of the view (can be null)
+     * @param sort
+     *            the sorting order of the view (can be null)
+     * @param index
+     *            the index of the current image
+     */
+    public synchronized void update(MediaSeries<E> series, Filter<E> filter, Comparator<E> sort, int index) {
+        if (series == null || index < 0) {
+            return;
+        }
+        if (series != this.series || filter != this.filter || sort != this.sort) {
+            cancelAll();
+            this.series = series;
+            this.filter = filter;
+            this.sort = sort;
+            this.imageList = null;
+            this.lastIndex = -1;
+            this.velocity = 0.0;
+        }
+        int size = series.size(null);
+        if (imageList == null || size != seriesSize) {
+            // Refresh when the view changes or when new images are added
+            imageList = series.copyOfMedias(filter, sort);
+            seriesSize = size;
+        }
+        int nbImages = imageList.size();
+        if (nbImages == 0 || index >= nbImages) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        double previousVelocity = velocity;
+        if (lastIndex >= 0 && index != lastIndex) {
+            int delta = index - lastIndex;
+            long elapsed = now - lastTime;
+            if (elapsed > IDLE_TIME) {
+                velocity = Math.signum(delta) * MIN_AHEAD;
+            } else {
+                double instantVelocity = delta * 1000.0 / Math.max(elapsed, 10L);
+                velocity = Math.signum(velocity) == Math.signum(instantVelocity) ? 0.5 * velocity + 0.5
+                    * instantVelocity : instantVelocity;
+            }
+        }
+        lastIndex = index;
+        lastTime = now;
+
+        if (previousVelocity != 0.0 && Math.signum(previousVelocity) != Math.signum(velocity)) {
+            LOGGER.debug("Scrolling direction reversed, cancel the prefetching"); //$NON-NLS-1$
+            cancelAll();
+        }
+
+        int direction = velocity < 0.0 ? -1 : 1;
+        int maxImages = Math.min(MAX_AHEAD, getMaxImagesInBudget(imageList.get(index)));
+        int ahead;
+        int behind;
+        if (velocity == 0.0) {
+            // No scrolling yet, load the images around the current one
+            ahead = Math.max(MIN_AHEAD, maxImages / 2);
+            behind = ahead;
+        } else {
+            ahead = Math.min(maxImages, Math.max(MIN_AHEAD, (int) Math.ceil(Math.abs(velocity))));
+            behind = Math.min(MIN_AHEAD, ahead / 4);
+        }
+
+        // Images to prefetch in order of the scrolling direction
+        List<E> targets = new ArrayList<E>(ahead + behind);
+        for (int i = 1; i <= ahead; i++) {
+            int k = index + direction * i;
+            if (k >= 0 && k < nbImages) {
+                targets.add(imageList.get(k));
+            }
+        }
+        for (int i = 1; i <= behind; i++) {
+            int k = index - direction * i;
+            if (k >= 0 && k < nbImages) {
+                targets.add(imageList.get(k));
+            }
+        }
+        Set<E> window = new HashSet<E>(targets);
+
+        // Cancel the stale prefetching and remove the finished ones
+        for (Iterator<Entry<E, Future<PlanarImage>>> it = pending.entrySet().iterator(); it.hasNext();) {
+            Entry<E, Future<PlanarImage>> entry = it.next();
+            if (entry.getValue().isDone()) {
+                it.remove();
+            } else if (!window.contains(entry.getKey())) {
+                entry.getKey().cancelImageAsync();
+                it.remove();
+            }
+        }
+
+        for (E image : targets) {
+            prefetch(image);
+        }
+    }
+
+    private void prefetch(final E image) {
+        if (image.isReadable() && !image.isImageInCache() && !pending.containsKey(image)) {
+            Future<PlanarImage> future = image.getImageAsync();
+            pending.put(image, future);
+            final MediaSeries<E> owner = series;
+            // Notify as soon as the image is decoded, not at the next update
+            ImageLoaderExecutor.whenDone(future, new Runnable() {
+
+                @Override
+                public void run() {
+                    if (image.isImageInCache()) {
+                        DataExplorerModel model = (DataExplorerModel) owner.getTagValue(TagW.ExplorerModel);
+                        if (model != null) {
+                            model.firePropertyChange(new ObservableEvent(ObservableEvent.BasicAction.Add, model, null,
+                                new SeriesEvent(SeriesEvent.Action.loadImageInMemory, owner, image)));
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the number of images of this size which can be decoded in advance within the memory budget
+     */
+    static int getMaxImagesInBudget(ImageElement image) {
+        return getMaxImagesInBudget(image, 0L);
+    }
+
+    /**
+     * @param extraSize
+     *            the size in bytes kept with each image (e.g. the frame rendered for the display)
+     * @return the number of images of this size which can be decoded in advance within the memory budget
+     */
+    static int getMaxImagesInBudget(ImageElement image, long extraSize) {
+        long imgSize = evaluateImageSize(image) + Math.max(0L, extraSize);
+        if (imgSize <= 0) {
+            return MAX_AHEAD;
+        }
+        long cacheSize = ImageElement.getImageCache().getMaxSize();
+        long budget = BundleTools.SYSTEM_PREFERENCES.getLongProperty(PREFETCH_SIZE, 0L) * 1024L * 1024L;
+        if (budget <= 0) {
+            budget = cacheSize / 4;
+        }
+        // Never use more than half of the cache, otherwise the prefetched images evict each other
+        budget = Math.min(budget, cacheSize / 2);
+        return (int) Math.max(MIN_AHEAD, budget / imgSize);
+    }
+
+    private static long evaluateImageSize(ImageElement image) {
+        Integer allocated = (Integer) image.getTagValue(TagW.BitsAllocated);
+        Integer sample = (Integer) image.getTagValue(TagW.SamplesPerPixel);
+        Integer rows = (Integer) image.getTagValue(TagW.Rows);
+        Integer columns = (Integer) image.getTagValue(TagW.Columns);
+        if (allocated != null && sample != null && rows != null && columns != null) {
+            return ((long) rows * columns * sample * allocated) / 8;
+        }
+        return 0L;
+    }
+
+    /**
+     * Stops the prefetching of the series.
+     */
+    public synchronized void stop(MediaSeries<E> series) {
+        if (series != null && series == this.series) {
+            cancelAll();
+            this.series = null;
+            this.filter = null;
+            this.sort = null;
+            this.imageList = null;
+            this.lastIndex = -1;
+            this.velocity = 0.0;
+        }
+    }
+
+    private void cancelAll() {
+        for (E image : pending.keySet()) {
+            image.cancelImageAsync();
+        }
+        pending.clear();
+    }
+
+    public synchronized int getPendingSize() {
+        return pending.size();
+    }
+
+    public synchronized double getVelocity() {
+        return velocity;
+    }
+}
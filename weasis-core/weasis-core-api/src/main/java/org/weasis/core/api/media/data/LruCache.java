@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Cache limited by a size in bytes. When the size is exceeded, the least recently used entries are removed. Unlike
+ * SoftHashMap, the eviction does not depend on the garbage collector.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <V>
+ *            the type of cached values
+ */
+public abstract class LruCache<K, V> {
+
+    private final LinkedHashMap<K, CacheEntry<V>> map = new LinkedHashMap<K, CacheEntry<V>>(64, 0.75f, true);
+    private volatile long maxSize;
+    private long size = 0L;
+
+    private long hitCount = 0L;
+    private long missCount = 0L;
+    private long evictionCount = 0L;
+
+    public LruCache(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0"); //$NON-NLS-1$
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the size in bytes of the value. It is called only once when the value is put into the cache.
+     */
+    protected abstract long sizeOf(K key, V value);
+
+    /**
+     * Called when an entry is evicted or removed. This method is never called while holding the lock of the cache.
+     */
+    protected void entryRemoved(K key, V value) {
+    }
+
+    public V get(K key) {
+        synchronized (this) {
+            CacheEntry<V> entry = map.get(key);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            return entry.value;
+        }
+    }
+
+    /**
+     * @return true if the key is in the cache, without changing the order of the entries and the statistics
+     */
+    public synchronized boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        long valueSize = Math.max(1L, sizeOf(key, value));
+        CacheEntry<V> previous;
+        List<Entry<K, CacheEntry<V>>> evicted;
+        synchronized (this) {
+            previous = map.put(key, new CacheEntry<V>(value, valueSize));
+            size += valueSize;
+            if (previous != null) {
+                size -= previous.size;
+            }
+            evicted = evict(maxSize);
+        }
+        if (previous != null && previous.value != value) {
+            entryRemoved(key, previous.value);
+        }
+        notifyRemoved(evicted);
+        return previous == null ? null : previous.value;
+    }
+
+    public V remove(K key) {
+        CacheEntry<V> previous;
+        synchronized (this) {
+            previous = map.remove(key);
+            if (previous != null) {
+                size -= previous.size;
+            }
+        }
+        if (previous != null) {
+            entryRemoved(key, previous.value);
+            return previous.value;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the least recently used entries until the size of the cache is below the given size.
+     */
+    public void trimToSize(long newSize) {
+        List<Entry<K, CacheEntry<V>>> evicted;
+        synchronized (this) {
+            evicted = evict(newSize);
+        }
+        notifyRemoved(evicted);
+    }
+
+    public void clear() {
+        trimToSize(-1L);
+    }
+
+    private List<Entry<K, CacheEntry<V>>> evict(long limit) {
+        List<Entry<K, CacheEntry<V>>> evicted = null;
+        // Keep at least the most recent entry, even when it is larger than the limit
+        Iterator<Entry<K, CacheEntry<V>>> it = map.entrySet().iterator();
+        while (size > limit && it.hasNext() && (limit < 0 || map.size() > 1)) {
+            Entry<K, CacheEntry<V>> eldest = it.next();
+            it.remove();
+            size -= eldest.getValue().size;
+            evictionCount++;
+            if (evicted == null) {
+                evicted = new ArrayList<Entry<K, CacheEntry<V>>>();
+            }
+            evicted.add(eldest);
+        }
+        return evicted;
+    }
+
+    private void notifyRemoved(List<Entry<K, CacheEntry<V>>> evicted) {
+        if (evicted != null) {
+            for (Entry<K, CacheEntry<V>> e : evicted) {
+                entryRemoved(e.getKey(), e.getValue().value);
+            }
+        }
+    }
+
+    public synchronized int count() {
+        return map.size();
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0"); //$NON-NLS-1$
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long accesses = hitCount + missCount;
+        int hitPercent = accesses == 0 ? 0 : (int) (100 * hitCount / accesses);
+        return String.format("LruCache[entries=%d, size=%d, maxSize=%d, hits=%d, misses=%d, hitRate=%d%%, evictions=%d]", //$NON-NLS-1$
+            map.size(), size, maxSize, hitCount, missCount, hitPercent, evictionCount);
+    }
+
+    private static class CacheEntry<V> {
+        final V value;
+        final long size;
+
+        CacheEntry(V value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -12,8 +12,8 @@ package org.weasis.core.api.media.data;
 
 import java.io.File;
 import java.net.URI;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.weasis.core.api.util.FileUtil;
@@ -21,7 +21,7 @@ import org.weasis.core.api.util.FileUtil;
 public abstract class MediaElement<E> {
 
     // Metadata of the media
-    protected final HashMap<TagW, Object> tags;
+    protected final Map<TagW, Object> tags;
     // Reader of the media (local or remote)
     protected final MediaReader<E> mediaIO;
     // Key to identify the media (the URI passed to the Reader can contain several media elements)
@@ -38,8 +38,8 @@ public abstract class MediaElement<E> {
         }
         this.mediaIO = mediaIO;
         this.key = key;
-        HashMap<TagW, Object> t = mediaIO.getMediaFragmentTags(key);
-        this.tags = t == null ? new HashMap<TagW, Object>() : t;
+        Map<TagW, Object> t = mediaIO.getMediaFragmentTags(key);
+        this.tags = t == null ? new TagMap() : t;
         URI uri = mediaIO.getMediaFragmentURI(key);
         if (uri == null) {
             localFile = false;
@@ -71,6 +71,9 @@ public abstract class MediaElement<E> {
     }
 
     public TagW getTagElement(int id) {
+        if (tags instanceof TagMap) {
+            return ((TagMap) tags).getTag(id);
+        }
         Iterator<TagW> enumVal = tags.keySet().iterator();
         while (enumVal.hasNext()) {
             TagW e = enumVal.next();
@@ -11,7 +11,7 @@
 package org.weasis.core.api.media.data;
 
 import java.net.URI;
-import java.util.HashMap;
+import java.util.Map;
 
 import org.weasis.core.api.explorer.model.DataExplorerModel;
 
@@ -37,7 +37,7 @@ public interface MediaReader<E> {
 
     String getMediaFragmentMimeType(Object key);
 
-    HashMap<TagW, Object> getMediaFragmentTags(Object key);
+    Map<TagW, Object> getMediaFragmentTags(Object key);
 
     void close();
 
@@ -35,6 +35,13 @@ public interface MediaSeries<E> extends MediaSeriesGroup, Transferable {
 
     void addAll(int index, Collection<? extends E> c);
 
+    boolean remove(E media);
+
+    /**
+     * Sorts the medias of the series (the default order).
+     */
+    void sort(Comparator<E> comparator);
+
     E getMedia(MEDIA_POSITION position, Filter<E> filter, Comparator<E> sort);
 
     Iterable<E> getMedias(Filter<E> filter, Comparator<E> sort);
@@ -74,5 +81,12 @@ public interface MediaSeries<E> extends MediaSeriesGroup, Transferable {
 
     int getNearestImageIndex(double location, int offset, Filter<E> filter, Comparator<E> sort);
 
+    /**
+     * @param position
+     *            the position in the patient coordinates, projected on the normal of the series
+     * @return the image nearest to the position, or null when the series has no 3D information
+     */
+    E getNearestImage(double[] position, int offset, Filter<E> filter, Comparator<E> sort);
+
     double getFileSize();
 }
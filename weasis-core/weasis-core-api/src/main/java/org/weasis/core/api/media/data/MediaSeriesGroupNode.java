@@ -12,7 +12,6 @@ package org.weasis.core.api.media.data;
 
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
 
@@ -22,7 +21,7 @@ public class MediaSeriesGroupNode implements MediaSeriesGroup {
 
     private final TagW tagID;
     private final TagW displayTag;
-    private final HashMap<TagW, Object> tags;
+    private final TagMap tags;
     private Comparator<TagW> comparator;
 
     public MediaSeriesGroupNode(TagW tagID, Object identifier) {
@@ -34,7 +33,7 @@ public class MediaSeriesGroupNode implements MediaSeriesGroup {
             throw new IllegalArgumentException("tagID or identifier cannot be null"); //$NON-NLS-1$
         }
         this.displayTag = displayTag == null ? tagID : displayTag;
-        this.tags = new HashMap<TagW, Object>();
+        this.tags = new TagMap();
         this.tagID = tagID;
         tags.put(tagID, identifier);
     }
@@ -115,14 +114,7 @@ public class MediaSeriesGroupNode implements MediaSeriesGroup {
 
     @Override
     public TagW getTagElement(int id) {
-        Iterator<TagW> enumVal = tags.keySet().iterator();
-        while (enumVal.hasNext()) {
-            TagW e = enumVal.next();
-            if (e.getId() == id) {
-                return e;
-            }
-        }
-        return null;
+        return tags.getTag(id);
     }
 
     public Iterator<Entry<TagW, Object>> getTagEntrySetIterator() {
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+/**
+ * Reader decoding an image directly at a lower resolution, without decoding first the original image.
+ *
+ * @param <E>
+ *            the type of the media fragment
+ */
+public interface MultiResolutionReader<E> {
+
+    /**
+     * Reads a level of the resolution pyramid of the media.
+     *
+     * @param media
+     *            the media
+     * @param level
+     *            the level of the pyramid: the width and the height of the original image are divided by 2^level. The
+     *            level 0 is the original image.
+     * @return the image at the reduced resolution or null when it cannot be read
+     * @throws Exception
+     */
+    E getMediaFragment(MediaElement<E> media, int level) throws Exception;
+}
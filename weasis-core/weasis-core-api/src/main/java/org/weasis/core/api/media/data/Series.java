@@ -37,6 +37,8 @@ import org.weasis.core.api.util.StringUtil;
 public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroupNode implements MediaSeries<E> {
 
     private static final Random RANDOM = new Random();
+    // Maximum number of filtered views kept in cache
+    private static final int MAX_FILTERED_VIEWS = 8;
     public static DataFlavor sequenceDataFlavor;
     static {
         try {
@@ -50,7 +52,13 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
     private final DataFlavor[] flavors = { sequenceDataFlavor };
     private PropertyChangeSupport propertyChange = null;
     protected final List<E> medias;
+    // The sorted and filtered lists are replaced when adding medias, a list returned to a caller is never modified
     protected final Map<Comparator<E>, List<E>> sortedMedias = new HashMap<Comparator<E>, List<E>>(6);
+    private final List<FilteredView<E>> filteredMedias = new ArrayList<FilteredView<E>>(MAX_FILTERED_VIEWS);
+    // True when the medias are known to be in the mediaOrder
+    private boolean mediasInOrder;
+    // Incremented when the medias are added, removed or sorted
+    private int modificationCount;
     protected final Comparator<E> mediaOrder;
     protected SeriesImporter seriesLoader;
     private double fileSize;
@@ -77,16 +85,19 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
             Collections.sort(list, mediaOrder);
         }
         medias = Collections.synchronizedList(list);
+        mediasInOrder = mediaOrder != null;
     }
 
-    protected void resetSortedMediasMap() {
+    protected synchronized void resetSortedMediasMap() {
         if (!sortedMedias.isEmpty()) {
             sortedMedias.clear();
         }
+        filteredMedias.clear();
+        mediasInOrder = mediaOrder != null && isSorted(medias, mediaOrder);
     }
 
     @Override
-    public List<E> getSortedMedias(Comparator<E> comparator) {
+    public synchronized List<E> getSortedMedias(Comparator<E> comparator) {
         // Do not sort when it is the default order.
         if (comparator != null && !comparator.equals(mediaOrder)) {
             List<E> sorted = sortedMedias.get(comparator);
@@ -100,33 +111,221 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
         return medias;
     }
 
+    /**
+     * @return the list of the medias passing the filter, in the order of the comparator. The list is kept while the
+     *         series is not modified and while the version of the filter does not change.
+     */
+    protected synchronized List<E> getFilteredMedias(Filter<E> filter, Comparator<E> sort) {
+        Comparator<E> comparator = getViewComparator(sort);
+        for (Iterator<FilteredView<E>> it = filteredMedias.iterator(); it.hasNext();) {
+            FilteredView<E> view = it.next();
+            if (view.filter == filter && (comparator == null ? view.comparator == null : comparator
+                .equals(view.comparator))) {
+                if (view.version == filter.getVersion()) {
+                    return view.list;
+                }
+                it.remove();
+                break;
+            }
+        }
+        FilteredView<E> view = new FilteredView<E>(filter, comparator, filter.getVersion());
+        view.list.addAll(Filter.makeList(filter.filter(getSortedMedias(sort))));
+        if (filteredMedias.size() >= MAX_FILTERED_VIEWS) {
+            filteredMedias.remove(0);
+        }
+        filteredMedias.add(view);
+        return view.list;
+    }
+
+    /**
+     * @return the comparator of a sorted view, or null for the default order
+     */
+    private Comparator<E> getViewComparator(Comparator<E> sort) {
+        return sort != null && !sort.equals(mediaOrder) ? sort : null;
+    }
+
+    /**
+     * Updates the cached views after adding a media.
+     * 
+     * @param media
+     *            the new media
+     * @param index
+     *            the index of the media in the default order
+     */
+    private void updateViews(E media, int index) {
+        if (mediasInOrder) {
+            // Check only the neighbors
+            mediasInOrder =
+                (index == 0 || mediaOrder.compare(medias.get(index - 1), media) <= 0)
+                    && (index == medias.size() - 1 || mediaOrder.compare(media, medias.get(index + 1)) <= 0);
+        }
+        List<E> added = Collections.singletonList(media);
+        for (Map.Entry<Comparator<E>, List<E>> entry : sortedMedias.entrySet()) {
+            entry.setValue(copyWith(entry.getValue(), added, entry.getKey()));
+        }
+        for (Iterator<FilteredView<E>> it = filteredMedias.iterator(); it.hasNext();) {
+            FilteredView<E> view = it.next();
+            if (view.filter.passes(media)) {
+                if (view.comparator != null) {
+                    view.list = copyWith(view.list, added, view.comparator);
+                } else if (index == medias.size() - 1) {
+                    List<E> list = new ArrayList<E>(view.list.size() + 1);
+                    list.addAll(view.list);
+                    list.add(media);
+                    view.list = list;
+                } else {
+                    // The position in the default order is unknown, the view will be built again
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the sorted list with the new medias, the list itself is not modified
+     */
+    private static <E> List<E> copyWith(List<E> list, Collection<? extends E> c, Comparator<E> comparator) {
+        List<E> copy = new ArrayList<E>(list.size() + c.size());
+        copy.addAll(list);
+        for (E media : c) {
+            insertSorted(copy, media, comparator);
+        }
+        return copy;
+    }
+
+    /**
+     * Inserts after the elements equal to the media, as a stable sort of the list would do.
+     */
+    private static <E> void insertSorted(List<E> list, E media, Comparator<E> comparator) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(list.get(mid), media) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        list.add(low, media);
+    }
+
+    private static <E> boolean isSorted(List<E> list, Comparator<E> comparator) {
+        for (int i = 1; i < list.size(); i++) {
+            if (comparator.compare(list.get(i - 1), list.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the media (same instance) in the list, with a binary search when the list is in the order
+     *         of the comparator
+     */
+    private static <E> int indexOf(List<E> list, E media, Comparator<E> comparator) {
+        if (comparator != null) {
+            int low = 0;
+            int high = list.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (comparator.compare(list.get(mid), media) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < list.size() && comparator.compare(list.get(i), media) == 0; i++) {
+                if (list.get(i) == media) {
+                    return i;
+                }
+            }
+            // The order may have changed (modified tags), search in the whole list
+        }
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == media) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return super.equals(obj);
     }
 
+    /**
+     * @return a counter incremented at each modification of the list of medias, it can be compared with a previous
+     *         value for knowing whether the content derived from the medias is still valid
+     */
+    public synchronized int getModificationCount() {
+        return modificationCount;
+    }
+
     @Override
-    public void add(E media) {
+    public synchronized void add(E media) {
         medias.add(media);
-        resetSortedMediasMap();
+        modificationCount++;
+        updateViews(media, medias.size() - 1);
     }
 
     @Override
-    public void add(int index, E media) {
+    public synchronized void add(int index, E media) {
         medias.add(index, media);
-        resetSortedMediasMap();
+        modificationCount++;
+        updateViews(media, index);
     }
 
     @Override
-    public void addAll(Collection<? extends E> c) {
-        medias.addAll(c);
-        resetSortedMediasMap();
+    public synchronized boolean remove(E media) {
+        boolean removed = medias.remove(media);
+        if (removed) {
+            modificationCount++;
+            resetSortedMediasMap();
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void sort(Comparator<E> comparator) {
+        if (comparator != null) {
+            Collections.sort(medias, comparator);
+            modificationCount++;
+            resetSortedMediasMap();
+        }
+    }
+
+    @Override
+    public synchronized void addAll(Collection<? extends E> c) {
+        addAll(medias.size(), c);
     }
 
     @Override
-    public void addAll(int index, Collection<? extends E> c) {
+    public synchronized void addAll(int index, Collection<? extends E> c) {
         medias.addAll(index, c);
-        resetSortedMediasMap();
+        modificationCount++;
+        for (Map.Entry<Comparator<E>, List<E>> entry : sortedMedias.entrySet()) {
+            entry.setValue(copyWith(entry.getValue(), c, entry.getKey()));
+        }
+        // The default order can be sorted again after a merge, the filtered views in this order will be built again
+        for (Iterator<FilteredView<E>> it = filteredMedias.iterator(); it.hasNext();) {
+            FilteredView<E> view = it.next();
+            if (view.comparator == null) {
+                it.remove();
+            } else {
+                List<E> passed = new ArrayList<E>();
+                for (E media : c) {
+                    if (view.filter.passes(media)) {
+                        passed.add(media);
+                    }
+                }
+                if (!passed.isEmpty()) {
+                    view.list = copyWith(view.list, passed, view.comparator);
+                }
+            }
+        }
+        mediasInOrder = mediaOrder != null && isSorted(medias, mediaOrder);
     }
 
     @Override
@@ -150,32 +349,20 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
                 }
                 return sortedList.get(pos);
             } else {
-                Iterable<E> iter = filter.filter(sortedList);
-                Iterator<E> list = iter.iterator();
-                if (list.hasNext()) {
-                    E val = list.next();
-                    if (MEDIA_POSITION.FIRST.equals(position)) {
-                        return val;
-                    }
-                    int pos = 0;
-                    int size = Filter.size(iter);
-                    if (MEDIA_POSITION.MIDDLE.equals(position)) {
-                        pos = size / 2;
-                    } else if (MEDIA_POSITION.LAST.equals(position)) {
-                        pos = size - 1;
-                    } else if (MEDIA_POSITION.RANDOM.equals(position)) {
-                        pos = RANDOM.nextInt(size);
-                    }
-                    int k = 0;
-                    for (E elem : iter) {
-                        if (k == pos) {
-                            return elem;
-                        }
-                    }
-                    return val;
-                } else {
+                List<E> list = getFilteredMedias(filter, sort);
+                int size = list.size();
+                if (size == 0) {
                     return null;
                 }
+                int pos = 0;
+                if (MEDIA_POSITION.MIDDLE.equals(position)) {
+                    pos = size / 2;
+                } else if (MEDIA_POSITION.LAST.equals(position)) {
+                    pos = size - 1;
+                } else if (MEDIA_POSITION.RANDOM.equals(position)) {
+                    pos = RANDOM.nextInt(size);
+                }
+                return list.get(pos);
             }
         }
     }
@@ -184,29 +371,26 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
         if (source == null) {
             return -1;
         }
-        Iterable<E> list = getMedias(filter, sort);
         synchronized (this) {
-            int index = 0;
-            for (E e : list) {
-                if (e == source) {
-                    return index;
-                }
-                index++;
+            List<E> list = filter == null ? getSortedMedias(sort) : getFilteredMedias(filter, sort);
+            Comparator<E> comparator = getViewComparator(sort);
+            if (comparator == null && mediasInOrder) {
+                comparator = mediaOrder;
             }
+            return indexOf(list, source, comparator);
         }
-        return -1;
     }
 
     @Override
     public final Iterable<E> getMedias(Filter<E> filter, Comparator<E> sort) {
-        List<E> sortedList = getSortedMedias(sort);
-        return filter == null ? sortedList : filter.filter(sortedList);
+        return filter == null ? getSortedMedias(sort) : getFilteredMedias(filter, sort);
     }
 
     @Override
     public final List<E> copyOfMedias(Filter<E> filter, Comparator<E> sort) {
-        List<E> sortedList = getSortedMedias(sort);
-        return filter == null ? new ArrayList<E>(sortedList) : Filter.makeList(filter.filter(sortedList));
+        synchronized (this) {
+            return new ArrayList<E>(filter == null ? getSortedMedias(sort) : getFilteredMedias(filter, sort));
+        }
     }
 
     /*
@@ -223,15 +407,9 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
                     return sortedList.get(index);
                 }
             } else {
-                if (index >= 0) {
-                    Iterable<E> iter = filter.filter(sortedList);
-                    int k = 0;
-                    for (E elem : iter) {
-                        if (k == index) {
-                            return elem;
-                        }
-                        k++;
-                    }
+                List<E> list = getFilteredMedias(filter, sort);
+                if (index >= 0 && index < list.size()) {
+                    return list.get(index);
                 }
             }
         }
@@ -254,7 +432,10 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
                 media.dispose();
             }
         }
-        medias.clear();
+        synchronized (this) {
+            medias.clear();
+            modificationCount++;
+        }
         resetSortedMediasMap();
         Thumbnail thumb = (Thumbnail) getTagValue(TagW.Thumbnail);
         if (thumb != null) {
@@ -333,7 +514,7 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
     @Override
     public int size(Filter<E> filter) {
         synchronized (this) {
-            return filter == null ? medias.size() : Filter.size(filter.filter(medias));
+            return filter == null ? medias.size() : getFilteredMedias(filter, null).size();
         }
     }
 
@@ -447,6 +628,11 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
         return -1;
     }
 
+    @Override
+    public E getNearestImage(double[] position, int offset, Filter<E> filter, Comparator<E> sort) {
+        return null;
+    }
+
     public synchronized void setFileSize(double size) {
         fileSize = size;
     }
@@ -461,4 +647,17 @@ public abstract class Series<E extends MediaElement<?>> extends MediaSeriesGroup
         Integer val = (Integer) getTagValue(TagW.SeriesNumber);
         return val == null ? "" : val.toString(); //$NON-NLS-1$
     }
+
+    private static class FilteredView<E> {
+        private final Filter<E> filter;
+        private final Comparator<E> comparator;
+        private final int version;
+        private List<E> list = new ArrayList<E>();
+
+        FilteredView(Filter<E> filter, Comparator<E> comparator, int version) {
+            this.filter = filter;
+            this.comparator = comparator;
+            this.version = version;
+        }
+    }
 }
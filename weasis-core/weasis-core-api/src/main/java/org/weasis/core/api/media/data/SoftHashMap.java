@@ -20,6 +20,10 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * Map with values referenced by SoftReference. The methods accessing the map are synchronized because the values can be
+ * put by several threads (e.g. the image loaders).
+ */
 public class SoftHashMap<K, V> extends AbstractMap<K, V> implements Serializable {
 
     /** The internal HashMap that will hold the SoftReference. */
@@ -31,7 +35,7 @@ public class SoftHashMap<K, V> extends AbstractMap<K, V> implements Serializable
     private final ReferenceQueue<V> queue = new ReferenceQueue<V>();
 
     @Override
-    public V get(Object key) {
+    public synchronized V get(Object key) {
         expungeStaleEntries();
         V result = null;
         // We get the SoftReference represented by that key
@@ -55,7 +59,7 @@ public class SoftHashMap<K, V> extends AbstractMap<K, V> implements Serializable
         }
     }
 
-    public void expungeStaleEntries() {
+    public synchronized void expungeStaleEntries() {
         Reference<? extends V> sv;
         while ((sv = queue.poll()) != null) {
             removeElement(sv);
@@ -63,7 +67,7 @@ public class SoftHashMap<K, V> extends AbstractMap<K, V> implements Serializable
     }
 
     @Override
-    public V put(K key, V value) {
+    public synchronized V put(K key, V value) {
         expungeStaleEntries();
         SoftReference<V> soft_ref = new SoftReference<V>(value, queue);
         reverseLookup.put(soft_ref, key);
@@ -76,7 +80,7 @@ public class SoftHashMap<K, V> extends AbstractMap<K, V> implements Serializable
     }
 
     @Override
-    public V remove(Object key) {
+    public synchronized V remove(Object key) {
         expungeStaleEntries();
         SoftReference<V> result = hash.remove(key);
         if (result == null) {
@@ -87,13 +91,13 @@ public class SoftHashMap<K, V> extends AbstractMap<K, V> implements Serializable
     }
 
     @Override
-    public void clear() {
+    public synchronized void clear() {
         hash.clear();
         reverseLookup.clear();
     }
 
     @Override
-    public int size() {
+    public synchronized int size() {
         expungeStaleEntries();
         return hash.size();
     }
@@ -103,7 +107,7 @@ public class SoftHashMap<K, V> extends AbstractMap<K, V> implements Serializable
      * the actual SoftHashMap.
      */
     @Override
-    public Set<Entry<K, V>> entrySet() {
+    public synchronized Set<Entry<K, V>> entrySet() {
         expungeStaleEntries();
         Set<Entry<K, V>> result = new LinkedHashSet<Entry<K, V>>();
         for (final Entry<K, SoftReference<V>> entry : hash.entrySet()) {
@@ -133,7 +137,7 @@ public class SoftHashMap<K, V> extends AbstractMap<K, V> implements Serializable
     }
 
     @Override
-    public boolean containsKey(Object key) {
+    public synchronized boolean containsKey(Object key) {
         expungeStaleEntries();
         SoftReference<V> soft_ref = hash.get(key);
         if (soft_ref != null) {
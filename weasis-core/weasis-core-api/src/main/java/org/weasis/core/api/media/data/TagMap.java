@@ -0,0 +1,432 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact map of the tags of a media.
+ * <p>
+ * Each TagW has a dense index (assigned the first time it is stored), the keys are kept sorted in an array of indexes
+ * and found by binary search. The Integer, Float and Double values are stored as primitives. The values of the
+ * patient, study and series tags (level > 0) are shared between all the maps, so the instances of a series refer to
+ * the same objects.
+ * </p>
+ * <p>
+ * This map is synchronized because some tags (like TagW.ImageCache) are written by several threads. Like
+ * Collections.synchronizedMap(), the iteration must be synchronized on the map.
+ * </p>
+ */
+public class TagMap extends AbstractMap<TagW, Object> implements Cloneable {
+
+    private static final int[] EMPTY_KEYS = new int[0];
+    private static final Object[] EMPTY_VALUES = new Object[0];
+
+    // Markers of the values stored in the primitive slots
+    private static final Object INTEGER_SLOT = new Object();
+    private static final Object FLOAT_SLOT = new Object();
+    private static final Object DOUBLE_SLOT = new Object();
+
+    private static final Object LOCK = new Object();
+    // Tags by dense index, guarded by LOCK for writing
+    private static volatile TagW[] registeredTags = new TagW[256];
+    private static final Map<Integer, Integer> INDEXES = new ConcurrentHashMap<Integer, Integer>(512);
+    private static int tagCount = 0;
+
+    private static final Map<Object, WeakReference<Object>> SHARED_VALUES =
+        new WeakHashMap<Object, WeakReference<Object>>();
+
+    private int[] keys;
+    private Object[] values;
+    private long[] primitives;
+    private int size;
+    private transient Set<Map.Entry<TagW, Object>> entrySet;
+
+    public TagMap() {
+        this.keys = EMPTY_KEYS;
+        this.values = EMPTY_VALUES;
+        this.size = 0;
+    }
+
+    public TagMap(Map<TagW, Object> map) {
+        this();
+        if (map instanceof TagMap) {
+            TagMap m = (TagMap) map;
+            synchronized (m) {
+                this.size = m.size;
+                this.keys = Arrays.copyOf(m.keys, m.size);
+                this.values = Arrays.copyOf(m.values, m.size);
+                this.primitives = m.primitives == null ? null : Arrays.copyOf(m.primitives, m.size);
+            }
+        } else if (map != null) {
+            putAll(map);
+        }
+    }
+
+    /**
+     * @return the dense index of the tag. The tags with the same id have the same index.
+     */
+    static int register(TagW tag) {
+        synchronized (LOCK) {
+            Integer index = INDEXES.get(tag.id);
+            if (index == null) {
+                index = tagCount++;
+                INDEXES.put(tag.id, index);
+                TagW[] tags = registeredTags;
+                if (index >= tags.length) {
+                    tags = Arrays.copyOf(tags, tags.length * 2);
+                }
+                tags[index] = tag;
+                registeredTags = tags;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the shared instance of an immutable value.
+     *
+     * @param value
+     *            the value
+     * @return the instance equal to the value which is already stored in a map, or the value itself
+     */
+    public static Object share(Object value) {
+        if (value instanceof String || value instanceof Date) {
+            synchronized (SHARED_VALUES) {
+                WeakReference<Object> ref = SHARED_VALUES.get(value);
+                Object shared = ref == null ? null : ref.get();
+                if (shared != null) {
+                    return shared;
+                }
+                SHARED_VALUES.put(value, new WeakReference<Object>(value));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param id
+     *            the id of the tag
+     * @return the tag of this map having this id, or null
+     */
+    public TagW getTag(int id) {
+        Integer index = INDEXES.get(id);
+        if (index != null && containsIndex(index)) {
+            return registeredTags[index];
+        }
+        return null;
+    }
+
+    private synchronized boolean containsIndex(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    private int indexOf(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private int indexOf(Object key) {
+        if (key instanceof TagW) {
+            return indexOf(((TagW) key).getIndex());
+        }
+        return -1;
+    }
+
+    private Object valueAt(int i) {
+        Object val = values[i];
+        if (val == INTEGER_SLOT) {
+            return Integer.valueOf((int) primitives[i]);
+        } else if (val == FLOAT_SLOT) {
+            return Float.valueOf(Float.intBitsToFloat((int) primitives[i]));
+        } else if (val == DOUBLE_SLOT) {
+            return Double.valueOf(Double.longBitsToDouble(primitives[i]));
+        }
+        return val;
+    }
+
+    private void setValueAt(int i, Object value) {
+        if (value instanceof Integer) {
+            primitiveSlots()[i] = ((Integer) value).intValue();
+            values[i] = INTEGER_SLOT;
+        } else if (value instanceof Float) {
+            primitiveSlots()[i] = Float.floatToRawIntBits(((Float) value).floatValue());
+            values[i] = FLOAT_SLOT;
+        } else if (value instanceof Double) {
+            primitiveSlots()[i] = Double.doubleToRawLongBits(((Double) value).doubleValue());
+            values[i] = DOUBLE_SLOT;
+        } else {
+            values[i] = value;
+        }
+    }
+
+    private long[] primitiveSlots() {
+        if (primitives == null) {
+            primitives = new long[keys.length];
+        }
+        return primitives;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    @Override
+    public synchronized Object put(TagW tag, Object value) {
+        if (tag == null) {
+            throw new NullPointerException("tag cannot be null"); //$NON-NLS-1$
+        }
+        if (tag.level > 0) {
+            value = share(value);
+        }
+        int key = tag.getIndex();
+        int i = indexOf(key);
+        if (i >= 0) {
+            Object old = valueAt(i);
+            setValueAt(i, value);
+            return old;
+        }
+        i = -(i + 1);
+        if (size == keys.length) {
+            int capacity = size < 8 ? 8 : size + (size >> 1);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (primitives != null) {
+                primitives = Arrays.copyOf(primitives, capacity);
+            }
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(values, i, values, i + 1, size - i);
+        if (primitives != null) {
+            System.arraycopy(primitives, i, primitives, i + 1, size - i);
+        }
+        keys[i] = key;
+        size++;
+        setValueAt(i, value);
+        return null;
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Object old = valueAt(i);
+        removeAt(i);
+        return old;
+    }
+
+    private synchronized void removeAt(int i) {
+        int moved = size - i - 1;
+        System.arraycopy(keys, i + 1, keys, i, moved);
+        System.arraycopy(values, i + 1, values, i, moved);
+        if (primitives != null) {
+            System.arraycopy(primitives, i + 1, primitives, i, moved);
+        }
+        size--;
+        values[size] = null;
+    }
+
+    @Override
+    public synchronized void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Reduces the capacity to the number of tags, should be called when no more tags will be added.
+     */
+    public synchronized void trimToSize() {
+        if (keys.length > size) {
+            keys = Arrays.copyOf(keys, size);
+            values = Arrays.copyOf(values, size);
+            if (primitives != null) {
+                primitives = Arrays.copyOf(primitives, size);
+            }
+        }
+    }
+
+    @Override
+    public TagMap clone() {
+        return new TagMap(this);
+    }
+
+    @Override
+    public Set<Map.Entry<TagW, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<TagW, Object>>() {
+                @Override
+                public Iterator<Map.Entry<TagW, Object>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return TagMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * @return the estimated number of bytes used by this map (without the values which are not stored as primitives)
+     */
+    public synchronized long getMemorySize() {
+        // Object header and fields, then the arrays
+        long bytes = 32L + 16L + 4L * keys.length + 16L + 4L * values.length;
+        if (primitives != null) {
+            bytes += 16L + 8L * primitives.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the estimated number of bytes used by a HashMap containing the same tags (without the values which
+     *         would not be boxed)
+     */
+    public static long getHashMapMemorySize(Map<TagW, Object> map) {
+        int capacity = 16;
+        while (capacity * 0.75 < map.size()) {
+            capacity <<= 1;
+        }
+        // Object header and fields, the table, the entries and the boxed values
+        long bytes = 48L + 16L + 4L * capacity + 32L * map.size();
+        for (Object val : map.values()) {
+            if (val instanceof Integer || val instanceof Float) {
+                bytes += 16L;
+            } else if (val instanceof Double) {
+                bytes += 24L;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Measures the memory used by the tags of medias.
+     *
+     * @param medias
+     *            the medias
+     * @return the average number of bytes per media of the tags, and of the same tags stored in HashMaps
+     */
+    public static long[] getMemoryUsage(Collection<? extends MediaElement<?>> medias) {
+        long compact = 0L;
+        long hashMap = 0L;
+        for (MediaElement<?> media : medias) {
+            Map<TagW, Object> map = media.tags;
+            compact += map instanceof TagMap ? ((TagMap) map).getMemorySize() : getHashMapMemorySize(map);
+            hashMap += getHashMapMemorySize(map);
+        }
+        int nb = Math.max(1, medias.size());
+        return new long[] { compact / nb, hashMap / nb };
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<TagW, Object>> {
+        private int next = 0;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<TagW, Object> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Entry(keys[last]);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    private class Entry implements Map.Entry<TagW, Object> {
+        private final int key;
+
+        Entry(int key) {
+            this.key = key;
+        }
+
+        @Override
+        public TagW getKey() {
+            return registeredTags[key];
+        }
+
+        @Override
+        public Object getValue() {
+            return get(getKey());
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(getKey(), value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) obj;
+            Object v = getValue();
+            return getKey().equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object v = getValue();
+            return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue(); //$NON-NLS-1$
+        }
+    }
+}
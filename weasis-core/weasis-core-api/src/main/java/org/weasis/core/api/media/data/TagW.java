@@ -320,6 +320,8 @@ public class TagW implements Transferable, Serializable {
     protected final String name;
     protected final TagType type;
     protected int anonymizationType;
+    // Dense index + 1 in TagMap, 0 when not yet registered
+    private transient volatile int index = 0;
 
     public TagW(int id, String name, TagType type, int level) {
         this.id = id;
@@ -349,6 +351,15 @@ public class TagW implements Transferable, Serializable {
         return id;
     }
 
+    int getIndex() {
+        int i = index;
+        if (i == 0) {
+            i = TagMap.register(this) + 1;
+            index = i;
+        }
+        return i - 1;
+    }
+
     public String getName() {
         return name;
     }
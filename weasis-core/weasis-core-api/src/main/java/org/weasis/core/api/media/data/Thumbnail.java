@@ -75,6 +75,7 @@ public class Thumbnail extends JLabel {
         super(null, null, SwingConstants.CENTER);
         this.thumbnailPath = thumbnailPath;
         this.thumbnailSize = thumbnailSize;
+        ThumbnailStore.getInstance().register(this);
     }
 
     public Thumbnail(final MediaElement<?> media, int thumbnailSize, boolean keepMediaCache) {
@@ -83,6 +84,7 @@ public class Thumbnail extends JLabel {
             throw new IllegalArgumentException("image cannot be null"); //$NON-NLS-1$
         }
         this.thumbnailSize = thumbnailSize;
+        ThumbnailStore.getInstance().register(this);
         init(media, keepMediaCache);
     }
 
@@ -100,6 +102,24 @@ public class Thumbnail extends JLabel {
         removeMouseAndKeyListener();
     }
 
+    /**
+     * @return the level of the resolution pyramid of the image which is at least twice the size of the thumbnail
+     *         (the remaining downscaling is done by averaging)
+     */
+    public static int getReductionLevel(ImageElement image) {
+        Integer width = (Integer) image.getTagValue(TagW.Columns);
+        Integer height = (Integer) image.getTagValue(TagW.Rows);
+        if (width == null || height == null) {
+            return 0;
+        }
+        int size = Math.max(width, height);
+        int level = 0;
+        while ((size >> (level + 1)) >= 2 * MAX_SIZE) {
+            level++;
+        }
+        return level;
+    }
+
     public static RenderedImage createThumbnail(RenderedImage source) {
         if (source == null) {
             return null;
@@ -214,24 +234,46 @@ public class Thumbnail extends JLabel {
                                     }
                                 }
                             }
+                            String storeKey = null;
+                            if (noPath && media != null) {
+                                storeKey = ThumbnailStore.buildKey(media);
+                                File storedFile = ThumbnailStore.getInstance().get(storeKey);
+                                if (storedFile != null) {
+                                    file = thumbnailPath = storedFile;
+                                    noPath = false;
+                                }
+                            }
+                            boolean stored = !noPath && ThumbnailStore.getInstance().contains(file);
                             if (noPath) {
                                 if (media instanceof ImageElement) {
                                     final ImageElement image = (ImageElement) media;
-                                    PlanarImage imgPl = image.getImage(null);
+                                    // Decode only the resolution required by the thumbnail
+                                    PlanarImage imgPl = image.getReducedImage(getReductionLevel(image));
                                     if (imgPl != null) {
-                                        RenderedImage img = image.getRenderedImage(imgPl);
+                                        boolean available = image.isImageAvailable();
+                                        RenderedImage img = image.getPreviewRenderedImage(imgPl);
                                         final RenderedImage thumb = createThumbnail(img);
-                                        try {
-                                            file =
-                                                thumbnailPath =
-                                                    File.createTempFile("tumb_", ".jpg", Thumbnail.THUMBNAIL_CACHE_DIR); //$NON-NLS-1$ //$NON-NLS-2$
-                                        } catch (IOException e) {
-                                            AuditLog.logError(LOGGER, e, "Cannot create file for thumbnail!"); //$NON-NLS-1$
+                                        if (!available) {
+                                            // Stretched with the min/max of the preview, not kept for the next
+                                            // sessions as the window of the full image will be different
+                                            storeKey = null;
+                                        }
+                                        // Keep the thumbnail for the next sessions
+                                        file = thumbnailPath = ThumbnailStore.getInstance().put(storeKey, thumb);
+                                        boolean inStore = file != null;
+                                        if (!inStore) {
+                                            try {
+                                                file =
+                                                    thumbnailPath =
+                                                        File.createTempFile("tumb_", ".jpg", Thumbnail.THUMBNAIL_CACHE_DIR); //$NON-NLS-1$ //$NON-NLS-2$
+                                            } catch (IOException e) {
+                                                AuditLog.logError(LOGGER, e, "Cannot create file for thumbnail!"); //$NON-NLS-1$
+                                            }
                                         }
                                         try {
                                             BufferedImage thumbnail = null;
                                             if (file != null) {
-                                                if (ImageFiler.writeJPG(file, thumb, 0.75f)) {
+                                                if (inStore || ImageFiler.writeJPG(file, thumb, 0.75f)) {
                                                     /*
                                                      * Write the thumbnail in temp folder, better than getting the
                                                      * thumbnail directly from t.getAsBufferedImage() (it is true if the
@@ -268,13 +310,18 @@ public class Thumbnail extends JLabel {
                                     }
                                 }
                             } else {
-                                Load ref = new Load(file);
-                                // loading images sequentially, only one thread pool
-                                Future<BufferedImage> future = ImageElement.IMAGE_LOADER.submit(ref);
+                                Future<BufferedImage> future = null;
                                 BufferedImage img = null;
                                 BufferedImage thumb = null;
                                 try {
-                                    img = future.get();
+                                    if (stored) {
+                                        // Small JPEG file, not queued behind the images being decoded
+                                        img = ImageIO.read(file);
+                                    } else {
+                                        // loading images with the pool of image loaders
+                                        future = ImageElement.IMAGE_LOADER.submit(new Load(file));
+                                        img = future.get();
+                                    }
                                     if (img == null) {
                                         thumb = null;
                                     } else {
@@ -298,9 +345,13 @@ public class Thumbnail extends JLabel {
                                     // Re-assert the thread's interrupted status
                                     Thread.currentThread().interrupt();
                                     // We don't need the result, so cancel the task too
-                                    future.cancel(true);
+                                    if (future != null) {
+                                        future.cancel(true);
+                                    }
                                 } catch (ExecutionException e) {
                                     AuditLog.logError(LOGGER, e, "Error: Cannot read pixel data!:" + file); //$NON-NLS-1$
+                                } catch (IOException e) {
+                                    AuditLog.logError(LOGGER, e, "Error: Cannot read thumbnail!:" + file); //$NON-NLS-1$
                                 }
                                 if (thumb == null && (file != null || media != null)) {
                                     readable = false;
@@ -341,6 +392,7 @@ public class Thumbnail extends JLabel {
             }
             // image = null;
         }
+        ThumbnailStore.getInstance().unregister(this);
         removeMouseAndKeyListener();
     }
 
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.gui.util.AppProperties;
+import org.weasis.core.api.image.util.ImageFiler;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.FileUtil;
+
+/**
+ * Persistent store of the thumbnails, which are kept between the sessions.
+ * <p>
+ * A thumbnail is identified by the SOP Instance UID and the frame of the image. The JPEG files are named by the SHA-1
+ * hash of this key in the directory "data/thumbnails" of the Weasis path. When the size of the store exceeds the limit
+ * (the preference "weasis.thumbnail.store.size" in MB), the least recently used thumbnails are deleted, except those
+ * displayed by a thumbnail of the current session. Only the thumbnails built with the real pixel range of the image
+ * are stored.
+ * </p>
+ */
+public final class ThumbnailStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailStore.class);
+
+    private static final String P_STORE_SIZE = "weasis.thumbnail.store.size"; //$NON-NLS-1$
+    private static final int DEFAULT_STORE_SIZE = 100;
+    private static final String EXTENSION = ".jpg"; //$NON-NLS-1$
+    private static final String TMP_EXTENSION = ".tmp"; //$NON-NLS-1$
+    private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+    private static ThumbnailStore instance;
+
+    private final File directory;
+    private final long maxSize;
+    // Size of all the files, computed the first time a thumbnail is added
+    private long totalSize = -1L;
+    // Thumbnails of the session, their files are not evicted
+    private final Map<Thumbnail, Boolean> users = new WeakHashMap<Thumbnail, Boolean>();
+
+    private ThumbnailStore(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public static synchronized ThumbnailStore getInstance() {
+        if (instance == null) {
+            File dir =
+                AppProperties.WEASIS_PATH == null ? new File(AppProperties.APP_TEMP_DIR, "thumbnails") : new File( //$NON-NLS-1$
+                    AppProperties.WEASIS_PATH, "data" + File.separator + "thumbnails"); //$NON-NLS-1$ //$NON-NLS-2$
+            int size = BundleTools.SYSTEM_PREFERENCES.getIntProperty(P_STORE_SIZE, DEFAULT_STORE_SIZE);
+            instance = new ThumbnailStore(dir, size * 1024L * 1024L);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the key of the thumbnail, or null when the SOP Instance UID is null
+     */
+    public static String buildKey(String sopInstanceUID, int frame) {
+        if (sopInstanceUID == null) {
+            return null;
+        }
+        String id = sopInstanceUID + "/" + frame; //$NON-NLS-1$
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(id.getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+            char[] buf = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                buf[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+                buf[i * 2 + 1] = HEX[hash[i] & 0x0f];
+            }
+            return new String(buf);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.error("Cannot build thumbnail key: {}", e.getMessage()); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            LOGGER.error("Cannot build thumbnail key: {}", e.getMessage()); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * @return the key of the thumbnail of the media, or null when the media has no SOP Instance UID
+     */
+    public static String buildKey(MediaElement<?> media) {
+        if (media == null) {
+            return null;
+        }
+        Object key = media.getKey();
+        return buildKey((String) media.getTagValue(TagW.SOPInstanceUID), key instanceof Integer ? (Integer) key : 0);
+    }
+
+    synchronized void register(Thumbnail thumbnail) {
+        users.put(thumbnail, Boolean.TRUE);
+    }
+
+    synchronized void unregister(Thumbnail thumbnail) {
+        users.remove(thumbnail);
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + EXTENSION);
+    }
+
+    /**
+     * @return the file of the thumbnail, or null when the thumbnail is not in the store
+     */
+    public synchronized File get(String key) {
+        if (key == null) {
+            return null;
+        }
+        File file = getFile(key);
+        if (file.canRead()) {
+            // The modification date is the last access time for the eviction
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+        return null;
+    }
+
+    /**
+     * @return true when the file is a thumbnail of the store
+     */
+    public boolean contains(File file) {
+        File dir = file == null ? null : file.getParentFile();
+        return dir != null && directory.equals(dir.getParentFile());
+    }
+
+    /**
+     * Writes a thumbnail in the store.
+     *
+     * @return the file of the thumbnail, or null when it cannot be written
+     */
+    public File put(String key, RenderedImage thumbnail) {
+        if (key == null || thumbnail == null) {
+            return null;
+        }
+        File tmp = getTempFile(key);
+        if (tmp == null || !ImageFiler.writeJPG(tmp, thumbnail, 0.75f)) {
+            FileUtil.delete(tmp);
+            return null;
+        }
+        return commit(key, tmp);
+    }
+
+    /**
+     * Copies a JPEG thumbnail in the store.
+     *
+     * @return the file of the thumbnail, or null when it cannot be copied
+     */
+    public File put(String key, File jpegFile) {
+        if (key == null || jpegFile == null || !jpegFile.canRead()) {
+            return null;
+        }
+        File tmp = getTempFile(key);
+        if (tmp == null || !FileUtil.nioCopyFile(jpegFile, tmp)) {
+            FileUtil.delete(tmp);
+            return null;
+        }
+        return commit(key, tmp);
+    }
+
+    private File getTempFile(String key) {
+        File file = getFile(key);
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            LOGGER.error("Cannot create thumbnail directory: {}", dir); //$NON-NLS-1$
+            return null;
+        }
+        // Unique name as the same thumbnail can be written by several threads
+        return new File(dir, key + "." + Thread.currentThread().getId() + TMP_EXTENSION); //$NON-NLS-1$
+    }
+
+    private synchronized File commit(String key, File tmp) {
+        File file = getFile(key);
+        long oldLength = file.length();
+        // The file is written completely before being renamed, a reader never gets a partial file
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            FileUtil.delete(tmp);
+            return file.canRead() ? file : null;
+        }
+        if (totalSize < 0) {
+            totalSize = computeSize();
+        } else {
+            totalSize += file.length() - oldLength;
+        }
+        if (totalSize > maxSize) {
+            evict();
+        }
+        return file;
+    }
+
+    private long computeSize() {
+        long size = 0L;
+        File[] dirs = directory.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        size += f.length();
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private void evict() {
+        Set<File> used = new HashSet<File>();
+        for (Thumbnail thumbnail : users.keySet()) {
+            File file = thumbnail.getThumbnailPath();
+            if (file != null) {
+                used.add(file);
+            }
+        }
+        List<File> files = new ArrayList<File>();
+        File[] dirs = directory.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] list = dir.listFiles();
+                if (list != null) {
+                    files.addAll(Arrays.asList(list));
+                }
+            }
+        }
+        final long[] dates = new long[files.size()];
+        final File[] sorted = files.toArray(new File[files.size()]);
+        for (int i = 0; i < sorted.length; i++) {
+            dates[i] = sorted[i].lastModified();
+        }
+        Integer[] order = new Integer[sorted.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // Least recently used first (the date must not change while sorting)
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long d1 = dates[o1];
+                long d2 = dates[o2];
+                return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+            }
+        });
+
+        // Keep some space to avoid evicting at each new thumbnail
+        long limit = maxSize * 9 / 10;
+        int nb = 0;
+        for (int i = 0; i < order.length && totalSize > limit; i++) {
+            File f = sorted[order[i]];
+            // The temporary files may still be written by another thread
+            if (used.contains(f) || f.getName().endsWith(TMP_EXTENSION)) {
+                continue;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                totalSize -= length;
+                nb++;
+            }
+        }
+        LOGGER.debug("{} thumbnails evicted from the store ({} bytes)", nb, totalSize); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named with a prefix and a number (e.g. "Image Loader-1"), so the background pools do not
+ * prevent the application from exiting and can be identified in a thread dump.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final int priority;
+    private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+    /**
+     * @param prefix
+     *            the prefix of the thread names
+     */
+    public NamedThreadFactory(String prefix) {
+        this(prefix, Thread.NORM_PRIORITY);
+    }
+
+    /**
+     * @param prefix
+     *            the prefix of the thread names
+     * @param priority
+     *            the priority of the threads (e.g. Thread.NORM_PRIORITY - 1 for the tasks which must not slow down the
+     *            EDT)
+     */
+    public NamedThreadFactory(String prefix, int priority) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix cannot be null"); //$NON-NLS-1$
+        }
+        this.prefix = prefix;
+        this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + "-" + threadNumber.getAndIncrement()); //$NON-NLS-1$
+        t.setDaemon(true);
+        if (t.getPriority() != priority) {
+            t.setPriority(priority);
+        }
+        return t;
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.image.op;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.weasis.core.api.image.op.SlidingZprojection.Bands;
+import org.weasis.core.api.image.op.SlidingZprojection.ExtremaWindow;
+import org.weasis.core.api.image.op.SlidingZprojection.MeanWindow;
+import org.weasis.core.api.image.op.SlidingZprojection.Operation;
+import org.weasis.core.api.image.op.SlidingZprojection.Window;
+
+public class SlidingZprojectionTest {
+
+    // Large enough to be split in several bands
+    private static final int NB_SAMPLES = 3 * 4096 + 7;
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMax() throws Exception {
+        checkAllWindows(Operation.MAX);
+    }
+
+    @Test
+    public void testMin() throws Exception {
+        checkAllWindows(Operation.MIN);
+    }
+
+    @Test
+    public void testMean() throws Exception {
+        checkAllWindows(Operation.MEAN);
+    }
+
+    private static void checkAllWindows(Operation operation) throws Exception {
+        int[][] stack = buildStack(23, 42L);
+        for (int extend = 1; extend <= 4; extend++) {
+            // Whole stack and a sub-range starting and ending inside the stack
+            checkWindows(operation, stack, extend, 0, stack.length - 1, 1);
+            checkWindows(operation, stack, extend, 5, 13, 1);
+            checkWindows(operation, stack, extend, 0, stack.length - 1, 3);
+        }
+    }
+
+    /**
+     * Reproduces the loop of SlidingZprojection.compute() on the pixel arrays and compares each projection with the
+     * naive loop over the images of the window.
+     */
+    private static void checkWindows(Operation operation, int[][] stack, int extend, int minIndex, int maxIndex,
+        int nbThreads) throws Exception {
+        int nbSources = stack.length;
+        Bands bands = new Bands(executor, NB_SAMPLES, nbThreads);
+        int windowSize = 2 * extend + 1;
+        Window window =
+            operation == Operation.MEAN ? new MeanWindow(bands, NB_SAMPLES, windowSize) : new ExtremaWindow(bands,
+                NB_SAMPLES, windowSize, operation == Operation.MAX);
+        int startSource = Math.max(0, minIndex - extend);
+        int stopSource = Math.min(nbSources - 1, maxIndex + extend);
+        int[] result = new int[NB_SAMPLES];
+        int nextIndex = minIndex;
+        int nbProjections = 0;
+        for (int j = startSource; j <= stopSource; j++) {
+            // The window can modify the added arrays
+            window.add(j, stack[j].clone());
+            while (nextIndex <= maxIndex && (Math.min(nbSources - 1, nextIndex + extend) == j)) {
+                int lo = Math.max(0, nextIndex - extend);
+                if (j - lo > 0) {
+                    window.project(lo, j, result);
+                    assertArrayEquals(operation + " extend=" + extend + " index=" + nextIndex, //$NON-NLS-1$ //$NON-NLS-2$
+                        naiveProjection(operation, stack, lo, j), result);
+                    nbProjections++;
+                }
+                nextIndex++;
+            }
+        }
+        assertEquals(maxIndex - minIndex + 1, nbProjections);
+    }
+
+    private static int[] naiveProjection(Operation operation, int[][] stack, int lo, int hi) {
+        int[] result = new int[NB_SAMPLES];
+        for (int i = 0; i < NB_SAMPLES; i++) {
+            long sum = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int k = lo; k <= hi; k++) {
+                int v = stack[k][i];
+                sum += v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            if (operation == Operation.MEAN) {
+                result[i] = (int) ((double) sum / (hi - lo + 1) + 0.5);
+            } else {
+                result[i] = operation == Operation.MAX ? max : min;
+            }
+        }
+        return result;
+    }
+
+    private static int[][] buildStack(int depth, long seed) {
+        Random random = new Random(seed);
+        int[][] stack = new int[depth][NB_SAMPLES];
+        for (int k = 0; k < depth; k++) {
+            for (int i = 0; i < NB_SAMPLES; i++) {
+                // Signed values as with the CT images
+                stack[k][i] = random.nextInt(4096) - 1024;
+            }
+        }
+        return stack;
+    }
+}
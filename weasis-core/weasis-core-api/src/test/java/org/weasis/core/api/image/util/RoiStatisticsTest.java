@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.image.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Shape;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.Random;
+
+import javax.media.jai.TiledImage;
+
+import org.junit.Test;
+
+public class RoiStatisticsTest {
+
+    private static final double EPSILON = 1e-6;
+
+    @Test
+    public void testHistogramStatistics() {
+        // Signed 16 bits, accumulated in a histogram
+        RenderedImage image = createImage(DataBuffer.TYPE_SHORT, -1024, 3072, 1L);
+        Random random = new Random(3L);
+        for (int i = 0; i < 10; i++) {
+            Shape shape = ScanlineMaskTest.randomPolygon(random, 5, Path2D.WIND_NON_ZERO);
+            RoiStatistics stats = new RoiStatistics();
+            assertTrue(stats.update(image, shape, null, null, -1L));
+            checkStatistics(image, shape, null, null, stats.getStatistics(1.0, 0.0), 1.0, 0.0);
+            // The conversion is applied to the results
+            checkStatistics(image, shape, null, null, stats.getStatistics(2.0, -1024.0), 2.0, -1024.0);
+        }
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        RenderedImage image = createImage(DataBuffer.TYPE_USHORT, 0, 4096, 2L);
+        Random random = new Random(5L);
+        Shape shape = ScanlineMaskTest.randomPolygon(random, 6, Path2D.WIND_EVEN_ODD);
+        RoiStatistics stats = new RoiStatistics();
+        assertTrue(stats.update(image, shape, null, null, -1L));
+        // Small moves, only the pixels added and removed are read
+        for (int i = 1; i <= 10; i++) {
+            shape = AffineTransform.getTranslateInstance(0.7, -0.3).createTransformedShape(shape);
+            assertTrue(stats.update(image, shape, null, null, -1L));
+            checkStatistics(image, shape, null, null, stats.getStatistics(1.0, 0.0), 1.0, 0.0);
+        }
+    }
+
+    @Test
+    public void testExcludedValues() {
+        RenderedImage image = createImage(DataBuffer.TYPE_SHORT, -100, 200, 4L);
+        Shape shape = ScanlineMaskTest.randomPolygon(new Random(9L), 5, Path2D.WIND_NON_ZERO);
+        RoiStatistics stats = new RoiStatistics();
+        assertTrue(stats.update(image, shape, -20.0, 30.0, -1L));
+        checkStatistics(image, shape, -20.0, 30.0, stats.getStatistics(1.0, 0.0), 1.0, 0.0);
+
+        // The power sums are used for the other data types
+        RenderedImage intImage = createImage(DataBuffer.TYPE_INT, -100000, 200000, 6L);
+        assertTrue(stats.update(intImage, shape, -20000.0, 30000.0, -1L));
+        checkStatistics(intImage, shape, -20000.0, 30000.0, stats.getStatistics(1.0, 0.0), 1.0, 0.0);
+    }
+
+    @Test
+    public void testMaxPixels() {
+        RenderedImage image = createImage(DataBuffer.TYPE_USHORT, 0, 4096, 8L);
+        Shape shape = ScanlineMaskTest.randomPolygon(new Random(13L), 5, Path2D.WIND_NON_ZERO);
+        RoiStatistics stats = new RoiStatistics();
+        assertFalse(stats.update(image, shape, null, null, 1L));
+        assertNull(stats.getStatistics(1.0, 0.0));
+    }
+
+    private static RenderedImage createImage(int dataType, int min, int range, long seed) {
+        ColorModel cm =
+            new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false, Transparency.OPAQUE,
+                dataType);
+        // Small tiles to read the pixels of several tiles
+        SampleModel sm = cm.createCompatibleSampleModel(16, 16);
+        TiledImage image = new TiledImage(-3, 2, 60, 50, 0, 0, sm, cm);
+        Random random = new Random(seed);
+        for (int y = image.getMinY(); y < image.getMinY() + image.getHeight(); y++) {
+            for (int x = image.getMinX(); x < image.getMinX() + image.getWidth(); x++) {
+                image.setSample(x, y, 0, min + random.nextInt(range));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Compares the statistics with a loop over the pixels whose center is inside the shape.
+     */
+    private static void checkStatistics(RenderedImage image, Shape shape, Double excludedMin, Double excludedMax,
+        double[][] stats, double slope, double intercept) {
+        assertNotNull(stats);
+        Raster raster = image.getData();
+        int n = 0;
+        double sum = 0.0;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double[] values = new double[image.getWidth() * image.getHeight()];
+        for (int y = raster.getMinY(); y < raster.getMinY() + raster.getHeight(); y++) {
+            for (int x = raster.getMinX(); x < raster.getMinX() + raster.getWidth(); x++) {
+                if (shape.contains(x + 0.5, y + 0.5)) {
+                    double v = raster.getSampleDouble(x, y, 0);
+                    if (excludedMin == null || v < excludedMin || v > excludedMax) {
+                        v = v * slope + intercept;
+                        values[n++] = v;
+                        sum += v;
+                        min = Math.min(min, v);
+                        max = Math.max(max, v);
+                    }
+                }
+            }
+        }
+        assertTrue(n >= 4);
+        double mean = sum / n;
+        double m2 = 0.0;
+        double m3 = 0.0;
+        double m4 = 0.0;
+        for (int i = 0; i < n; i++) {
+            double d = values[i] - mean;
+            m2 += d * d;
+            m3 += d * d * d;
+            m4 += d * d * d * d;
+        }
+        double variance = m2 / (n - 1.0);
+        double std = Math.sqrt(variance);
+        double skew = ((double) n / ((n - 1.0) * (n - 2.0))) * (m3 / (variance * std));
+        double c1 = (n * (n + 1.0)) / ((n - 1.0) * (n - 2.0) * (n - 3.0));
+        double c2 = (3.0 * (n - 1.0) * (n - 1.0)) / ((n - 2.0) * (n - 3.0));
+        double kurtosis = c1 * m4 / (variance * variance) - c2;
+
+        assertEquals(min, stats[RoiStatistics.MIN][0], EPSILON);
+        assertEquals(max, stats[RoiStatistics.MAX][0], EPSILON);
+        assertEquals(mean, stats[RoiStatistics.MEAN][0], Math.abs(mean) * EPSILON + EPSILON);
+        assertEquals(std, stats[RoiStatistics.STD][0], std * EPSILON);
+        assertEquals(skew, stats[RoiStatistics.SKEW][0], Math.abs(skew) * 1e-4 + EPSILON);
+        assertEquals(kurtosis, stats[RoiStatistics.KURTOSIS][0], Math.abs(kurtosis) * 1e-4 + EPSILON);
+    }
+}
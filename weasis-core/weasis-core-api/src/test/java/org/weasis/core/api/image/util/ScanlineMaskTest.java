@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.image.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ScanlineMaskTest {
+
+    private static final Rectangle CLIP = new Rectangle(-3, 2, 60, 50);
+
+    @Test
+    public void testRandomPolygons() {
+        Random random = new Random(7L);
+        for (int i = 0; i < 50; i++) {
+            int windingRule = i % 2 == 0 ? Path2D.WIND_NON_ZERO : Path2D.WIND_EVEN_ODD;
+            // Self-intersecting polygons partially outside of the clip
+            Shape shape = randomPolygon(random, 3 + random.nextInt(8), windingRule);
+            checkMask(shape, ScanlineMask.create(shape, CLIP));
+        }
+    }
+
+    @Test
+    public void testCurves() {
+        Ellipse2D ellipse = new Ellipse2D.Double(5.3, 4.1, 40.7, 27.2);
+        // The mask is built from the flattened path, the same flatness gives the same polygon
+        Path2D flattened = new Path2D.Double(Path2D.WIND_NON_ZERO);
+        flattened.append(ellipse.getPathIterator(null, 0.05), false);
+        ScanlineMask mask = ScanlineMask.create(ellipse, CLIP);
+        checkMask(flattened, mask);
+        // Close to the area of the ellipse
+        double area = Math.PI * ellipse.getWidth() * ellipse.getHeight() / 4.0;
+        assertEquals(area, mask.getPixelCount(), area * 0.02);
+    }
+
+    @Test
+    public void testEmptyShape() {
+        ScanlineMask mask = ScanlineMask.create(new Rectangle(100, 100, 10, 10), CLIP);
+        assertTrue(mask.isEmpty());
+        assertEquals(0, mask.getRow(10).length);
+    }
+
+    @Test
+    public void testSubtract() {
+        Random random = new Random(11L);
+        for (int i = 0; i < 20; i++) {
+            Shape a = randomPolygon(random, 6, Path2D.WIND_NON_ZERO);
+            Shape b = randomPolygon(random, 6, Path2D.WIND_EVEN_ODD);
+            ScanlineMask result = ScanlineMask.create(a, CLIP).subtract(ScanlineMask.create(b, CLIP));
+            long count = 0L;
+            for (int y = CLIP.y; y < CLIP.y + CLIP.height; y++) {
+                for (int x = CLIP.x; x < CLIP.x + CLIP.width; x++) {
+                    boolean expected = a.contains(x + 0.5, y + 0.5) && !b.contains(x + 0.5, y + 0.5);
+                    assertEquals("x=" + x + " y=" + y, expected, isInMask(result, x, y)); //$NON-NLS-1$ //$NON-NLS-2$
+                    if (expected) {
+                        count++;
+                    }
+                }
+            }
+            assertEquals(count, result.getPixelCount());
+        }
+    }
+
+    static Shape randomPolygon(Random random, int nbPoints, int windingRule) {
+        Path2D.Double path = new Path2D.Double(windingRule);
+        for (int i = 0; i < nbPoints; i++) {
+            double x = CLIP.x - 10 + random.nextDouble() * (CLIP.width + 20);
+            double y = CLIP.y - 10 + random.nextDouble() * (CLIP.height + 20);
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        path.closePath();
+        return path;
+    }
+
+    static boolean isInMask(ScanlineMask mask, int x, int y) {
+        int[] spans = mask.getRow(y);
+        for (int i = 0; i < spans.length; i += 2) {
+            if (x >= spans[i] && x < spans[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares the mask with the pixels whose center is inside the shape.
+     */
+    private static void checkMask(Shape shape, ScanlineMask mask) {
+        long count = 0L;
+        for (int y = CLIP.y - 2; y < CLIP.y + CLIP.height + 2; y++) {
+            int[] spans = mask.getRow(y);
+            for (int i = 2; i < spans.length; i += 2) {
+                // Sorted and disjoint spans
+                assertTrue(spans[i] > spans[i - 1]);
+            }
+            for (int x = CLIP.x - 2; x < CLIP.x + CLIP.width + 2; x++) {
+                boolean expected = CLIP.contains(x, y) && shape.contains(x + 0.5, y + 0.5);
+                assertEquals("x=" + x + " y=" + y, expected, isInMask(mask, x, y)); //$NON-NLS-1$ //$NON-NLS-2$
+                if (expected) {
+                    count++;
+                }
+            }
+        }
+        assertEquals(count, mask.getPixelCount());
+    }
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+
+    /**
+     * Cache of byte arrays where the size of an entry is the length of the array.
+     */
+    private static class ArrayCache extends LruCache<String, byte[]> {
+        final List<String> removed = new ArrayList<String>();
+
+        ArrayCache(long maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected long sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        protected void entryRemoved(String key, byte[] value) {
+            removed.add(key);
+        }
+    }
+
+    @Test
+    public void testSizeInBytes() {
+        ArrayCache cache = new ArrayCache(100);
+        cache.put("a", new byte[30]); //$NON-NLS-1$
+        cache.put("b", new byte[40]); //$NON-NLS-1$
+        assertEquals(2, cache.count());
+        assertEquals(70L, cache.size());
+
+        // Replacing a value updates the size and notifies the previous value
+        cache.put("a", new byte[10]); //$NON-NLS-1$
+        assertEquals(50L, cache.size());
+        assertEquals(1, cache.removed.size());
+
+        cache.remove("b"); //$NON-NLS-1$
+        assertEquals(10L, cache.size());
+        assertEquals(1, cache.count());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        ArrayCache cache = new ArrayCache(100);
+        cache.put("a", new byte[40]); //$NON-NLS-1$
+        cache.put("b", new byte[40]); //$NON-NLS-1$
+        // "a" becomes the most recently used entry
+        cache.get("a"); //$NON-NLS-1$
+        cache.put("c", new byte[40]); //$NON-NLS-1$
+
+        assertFalse(cache.containsKey("b")); //$NON-NLS-1$
+        assertTrue(cache.containsKey("a")); //$NON-NLS-1$
+        assertTrue(cache.containsKey("c")); //$NON-NLS-1$
+        assertEquals(80L, cache.size());
+        assertEquals(1L, cache.getEvictionCount());
+        assertEquals(1, cache.removed.size());
+        assertEquals("b", cache.removed.get(0)); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testKeepLargestEntry() {
+        ArrayCache cache = new ArrayCache(100);
+        cache.put("a", new byte[50]); //$NON-NLS-1$
+        byte[] large = new byte[150];
+        cache.put("b", large); //$NON-NLS-1$
+
+        // The most recent entry is kept even when it exceeds the budget
+        assertEquals(1, cache.count());
+        assertSame(large, cache.get("b")); //$NON-NLS-1$
+        assertNull(cache.get("a")); //$NON-NLS-1$
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void testTrimAndClear() {
+        ArrayCache cache = new ArrayCache(100);
+        for (int i = 0; i < 5; i++) {
+            cache.put(String.valueOf(i), new byte[20]);
+        }
+        assertEquals(100L, cache.size());
+
+        cache.setMaxSize(50);
+        assertEquals(2, cache.count());
+        assertTrue(cache.containsKey("3")); //$NON-NLS-1$
+        assertTrue(cache.containsKey("4")); //$NON-NLS-1$
+
+        cache.clear();
+        assertEquals(0, cache.count());
+        assertEquals(0L, cache.size());
+        assertEquals(5, cache.removed.size());
+    }
+
+    @Test
+    public void testPutSameValue() {
+        ArrayCache cache = new ArrayCache(100);
+        byte[] value = new byte[10];
+        assertNull(cache.put("a", value)); //$NON-NLS-1$
+        // The same value is not notified as removed
+        assertSame(value, cache.put("a", value)); //$NON-NLS-1$
+        assertTrue(cache.removed.isEmpty());
+        assertEquals(10L, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxSize() {
+        new ArrayCache(0);
+    }
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.weasis.core.api.media.data.TagW.TagType;
+
+/**
+ * Measures the heap used by the tags of the instances of a series and the lookup time, with a HashMap (before) and
+ * with a TagMap (after).
+ */
+public class TagMapBenchmarkTest {
+
+    private static final int NB_INSTANCES = 2000;
+    private static final int NB_TAGS = 60;
+    private static final int NB_LOOKUPS = 20;
+
+    private static final TagW[] TAGS = new TagW[NB_TAGS];
+    static {
+        for (int i = 0; i < NB_TAGS; i++) {
+            TAGS[i] = new TagW("Benchmark" + i, TagType.Object); //$NON-NLS-1$
+        }
+    }
+
+    private interface MapFactory {
+        Map<TagW, Object> create();
+    }
+
+    @Test
+    public void testMemoryAndLookup() throws InterruptedException {
+        MapFactory hashMap = new MapFactory() {
+
+            @Override
+            public Map<TagW, Object> create() {
+                return new HashMap<TagW, Object>();
+            }
+        };
+        MapFactory tagMap = new MapFactory() {
+
+            @Override
+            public Map<TagW, Object> create() {
+                return new TagMap();
+            }
+        };
+        // Warm up the JIT and register the tags
+        measureLookup(fill(hashMap, 100));
+        measureLookup(fill(tagMap, 100));
+
+        long hashMapBytes = measureMemory(hashMap);
+        long tagMapBytes = measureMemory(tagMap);
+        long hashMapTime = measureLookup(fill(hashMap, NB_INSTANCES));
+        long tagMapTime = measureLookup(fill(tagMap, NB_INSTANCES));
+
+        System.out.println(String.format("Tags of %d instances (%d tags): HashMap %d bytes/instance, %d ns/lookup;" //$NON-NLS-1$
+            + " TagMap %d bytes/instance, %d ns/lookup", NB_INSTANCES, NB_TAGS, hashMapBytes / NB_INSTANCES, //$NON-NLS-1$
+            hashMapTime, tagMapBytes / NB_INSTANCES, tagMapTime));
+        // The lookup time depends on the machine, only the memory is checked
+        assertTrue("TagMap uses more memory than HashMap", tagMapBytes < hashMapBytes); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the maps of the instances, the numerical values are new boxed objects as when they are read from the
+     *         DICOM files
+     */
+    private static List<Map<TagW, Object>> fill(MapFactory factory, int nbInstances) {
+        List<Map<TagW, Object>> maps = new ArrayList<Map<TagW, Object>>(nbInstances);
+        for (int k = 0; k < nbInstances; k++) {
+            Map<TagW, Object> map = factory.create();
+            for (int i = 0; i < NB_TAGS; i++) {
+                Object value;
+                switch (i % 4) {
+                    case 0:
+                        value = Integer.valueOf(1000 + k * NB_TAGS + i);
+                        break;
+                    case 1:
+                        value = Float.valueOf(k + i * 0.5f);
+                        break;
+                    case 2:
+                        value = Double.valueOf(k * 0.25 + i);
+                        break;
+                    default:
+                        // Shared by all the instances, like the strings of the series
+                        value = TAGS[i].toString();
+                        break;
+                }
+                map.put(TAGS[i], value);
+            }
+            if (map instanceof TagMap) {
+                ((TagMap) map).trimToSize();
+            }
+            maps.add(map);
+        }
+        return maps;
+    }
+
+    private static long measureMemory(MapFactory factory) throws InterruptedException {
+        long before = usedMemory();
+        List<Map<TagW, Object>> maps = fill(factory, NB_INSTANCES);
+        long after = usedMemory();
+        // Keep the maps reachable until the measurement
+        assertEquals(NB_INSTANCES, maps.size());
+        return after - before;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return the average time of a lookup in ns
+     */
+    private static long measureLookup(List<Map<TagW, Object>> maps) {
+        long count = 0L;
+        long start = System.nanoTime();
+        for (int n = 0; n < NB_LOOKUPS; n++) {
+            for (Map<TagW, Object> map : maps) {
+                for (TagW tag : TAGS) {
+                    if (map.get(tag) != null) {
+                        count++;
+                    }
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals((long) NB_LOOKUPS * maps.size() * NB_TAGS, count);
+        return elapsed / count;
+    }
+}
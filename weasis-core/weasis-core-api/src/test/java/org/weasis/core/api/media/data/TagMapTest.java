@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.core.api.media.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+import org.weasis.core.api.media.data.TagW.TagType;
+
+public class TagMapTest {
+
+    @Test
+    public void testPrimitiveValues() {
+        TagW nanTag = new TagW("NaNTest", TagType.Float); //$NON-NLS-1$
+        TagMap map = new TagMap();
+        map.put(TagW.Rows, 512);
+        map.put(TagW.RescaleSlope, 1.5f);
+        map.put(TagW.SliceThickness, -0.625);
+        map.put(nanTag, Float.NaN);
+
+        assertEquals(4, map.size());
+        assertEquals(Integer.valueOf(512), map.get(TagW.Rows));
+        assertEquals(Float.valueOf(1.5f), map.get(TagW.RescaleSlope));
+        assertEquals(Double.valueOf(-0.625), map.get(TagW.SliceThickness));
+        assertTrue(((Float) map.get(nanTag)).isNaN());
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        TagMap map = new TagMap();
+        assertNull(map.put(TagW.Rows, 512));
+        // The type of the value can change
+        assertEquals(Integer.valueOf(512), map.put(TagW.Rows, "512")); //$NON-NLS-1$
+        assertEquals("512", map.get(TagW.Rows)); //$NON-NLS-1$
+        assertEquals("512", map.put(TagW.Rows, 256)); //$NON-NLS-1$
+        assertEquals(Integer.valueOf(256), map.get(TagW.Rows));
+
+        map.put(TagW.Columns, 128);
+        assertEquals(Integer.valueOf(256), map.remove(TagW.Rows));
+        assertFalse(map.containsKey(TagW.Rows));
+        assertNull(map.remove(TagW.Rows));
+        assertNull(map.get("Rows")); //$NON-NLS-1$
+        assertEquals(Integer.valueOf(128), map.get(TagW.Columns));
+        assertEquals(1, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(TagW.Columns));
+    }
+
+    @Test
+    public void testSameContentAsHashMap() {
+        Map<TagW, Object> expected = new HashMap<TagW, Object>();
+        TagMap map = new TagMap();
+        for (int i = 0; i < 100; i++) {
+            TagW tag = new TagW("Test" + i, TagType.Integer); //$NON-NLS-1$
+            Object value = i % 3 == 0 ? Integer.valueOf(i) : i % 3 == 1 ? Double.valueOf(i / 3.0) : "v" + i; //$NON-NLS-1$
+            expected.put(tag, value);
+            map.put(tag, value);
+        }
+        map.trimToSize();
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+
+        // Removal during the iteration
+        synchronized (map) {
+            Iterator<Entry<TagW, Object>> it = map.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry<TagW, Object> entry = it.next();
+                if (entry.getValue() instanceof String) {
+                    it.remove();
+                    expected.remove(entry.getKey());
+                }
+            }
+        }
+        assertEquals(expected, map);
+        assertEquals(new HashMap<TagW, Object>(map), expected);
+    }
+
+    @Test
+    public void testClone() {
+        TagMap map = new TagMap();
+        map.put(TagW.Rows, 512);
+        map.put(TagW.SliceThickness, 2.0);
+        TagMap copy = map.clone();
+        copy.put(TagW.Rows, 256);
+        copy.remove(TagW.SliceThickness);
+
+        assertEquals(Integer.valueOf(512), map.get(TagW.Rows));
+        assertEquals(Double.valueOf(2.0), map.get(TagW.SliceThickness));
+        assertEquals(Integer.valueOf(256), copy.get(TagW.Rows));
+        assertEquals(1, copy.size());
+    }
+
+    @Test
+    public void testGetTag() {
+        TagMap map = new TagMap();
+        map.put(TagW.Rows, 512);
+        assertSame(TagW.Rows, map.getTag(TagW.Rows.getId()));
+        assertNull(map.getTag(TagW.Columns.getId()));
+    }
+
+    @Test
+    public void testSharedValues() {
+        TagW seriesTag = new TagW("SeriesTest", TagType.String, 2); //$NON-NLS-1$
+        TagW instanceTag = new TagW("InstanceTest", TagType.String, 0); //$NON-NLS-1$
+        String v1 = new String("CT series"); //$NON-NLS-1$
+        String v2 = new String("CT series"); //$NON-NLS-1$
+        TagMap m1 = new TagMap();
+        TagMap m2 = new TagMap();
+        m1.put(seriesTag, v1);
+        m2.put(seriesTag, v2);
+        m1.put(instanceTag, v1);
+        m2.put(instanceTag, v2);
+
+        // Only the values of the patient, study and series tags are shared
+        assertSame(m1.get(seriesTag), m2.get(seriesTag));
+        assertSame(v2, m2.get(instanceTag));
+    }
+
+    @Test
+    public void testMemorySize() {
+        TagMap map = new TagMap();
+        for (int i = 0; i < 40; i++) {
+            map.put(new TagW("Memory" + i, TagType.Integer), i); //$NON-NLS-1$
+        }
+        map.trimToSize();
+        assertTrue(map.getMemorySize() < TagMap.getHashMapMemorySize(map));
+    }
+}
@@ -12,7 +12,7 @@ package org.weasis.core.ui.editor;
 
 import java.io.File;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.Map;
 
 import org.weasis.core.api.explorer.ObservableEvent;
 import org.weasis.core.api.explorer.model.DataExplorerModel;
@@ -23,6 +23,7 @@ import org.weasis.core.api.media.data.MediaReader;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SeriesEvent;
+import org.weasis.core.api.media.data.TagMap;
 import org.weasis.core.api.media.data.TagW;
 
 public class DefaultMimeIO<F extends File> implements MediaReader<F> {
@@ -133,8 +134,8 @@ public class DefaultMimeIO<F extends File> implements MediaReader<F> {
     }
 
     @Override
-    public HashMap<TagW, Object> getMediaFragmentTags(Object key) {
-        return new HashMap<TagW, Object>();
+    public Map<TagW, Object> getMediaFragmentTags(Object key) {
+        return new TagMap();
     }
 
     @Override
@@ -195,6 +195,8 @@ public abstract class DefaultView2d<E extends ImageElement> extends GraphicsPane
         this.tileOffset = 0;
 
         imageLayer = new RenderedImageLayer<E>(true);
+        // Compute the display operations out of the EDT
+        imageLayer.setAsyncRendering(true);
         initActionWState();
         // infoLayer = new InfoLayer(this);
 
@@ -835,13 +837,16 @@ public abstract class DefaultView2d<E extends ImageElement> extends GraphicsPane
         Font defaultFont = getFont();
         g2d.setFont(defaultFont);
 
-        imageLayer.drawImage(g2d);
-        drawLayers(g2d, affineTransform, inverseTransform);
+        // The graphics and the annotations are drawn only over the pixels of their image (asynchronous rendering)
+        boolean imageReady = imageLayer.drawImage(g2d);
+        if (imageReady) {
+            drawLayers(g2d, affineTransform, inverseTransform);
+        }
 
         g2d.translate(offsetX, offsetY);
 
         drawPointer(g2d);
-        if (infoLayer != null) {
+        if (infoLayer != null && imageReady) {
             g2d.setFont(getLayerFont());
             infoLayer.paint(g2d);
         }
@@ -1020,10 +1025,18 @@ public abstract class DefaultView2d<E extends ImageElement> extends GraphicsPane
                             // if (offset != null) {
                             // location += offset;
                             // }
+                            Filter<E> filter = (Filter<E>) actionsInView.get(ActionW.FILTERED_SERIES.cmd());
+                            // Projection of the position of the selected image on the normal of this series
+                            double[] position =
+                                value.getMedia() == null ? null : (double[]) value.getMedia().getTagValue(
+                                    TagW.ImagePositionPatient);
                             imgElement =
-                                series.getNearestImage(location, tileOffset,
-                                    (Filter<E>) actionsInView.get(ActionW.FILTERED_SERIES.cmd()),
+                                position == null ? null : series.getNearestImage(position, tileOffset, filter,
                                     getCurrentSortComparator());
+                            if (imgElement == null) {
+                                imgElement =
+                                    series.getNearestImage(location, tileOffset, filter, getCurrentSortComparator());
+                            }
 
                             AuditLog.LOGGER.info("synch:series nb:{}", series.getSeriesNumber()); //$NON-NLS-1$
                         }
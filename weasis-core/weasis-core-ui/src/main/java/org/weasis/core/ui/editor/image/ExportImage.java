@@ -44,6 +44,8 @@ public class ExportImage<E extends ImageElement> extends DefaultView2d {
         this.view2d = view2d;
         // No need to have random pixel iterator
         this.imageLayer.setBuildIterator(false);
+        // The image must be entirely drawn in the graphics of the export
+        this.imageLayer.setAsyncRendering(false);
         // Remove OpEventListener to avoid reseting some parameters when setting the series
         this.imageLayer.removeEventListener(imageLayer.getDisplayOpManager());
         setFont(FontTools.getFont8());
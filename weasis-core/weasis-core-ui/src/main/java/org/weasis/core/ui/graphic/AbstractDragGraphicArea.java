@@ -13,6 +13,7 @@ package org.weasis.core.ui.graphic;
 
 import java.awt.Color;
 import java.awt.Paint;
+import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
@@ -20,13 +21,8 @@ import java.awt.image.RenderedImage;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.media.jai.OpImage;
-import javax.media.jai.ROIShape;
-import javax.media.jai.RenderedOp;
-
-import org.weasis.core.api.image.op.ImageStatistics2Descriptor;
-import org.weasis.core.api.image.op.ImageStatisticsDescriptor;
 import org.weasis.core.api.image.util.ImageLayer;
+import org.weasis.core.api.image.util.RoiStatistics;
 import org.weasis.core.api.media.data.ImageElement;
 import org.weasis.core.api.media.data.TagW;
 
@@ -35,6 +31,11 @@ import org.weasis.core.api.media.data.TagW;
  */
 public abstract class AbstractDragGraphicArea extends AbstractDragGraphic implements ImageStatistics {
 
+    // Maximum number of pixels read for updating the statistics while dragging
+    private static final long MAX_DRAGGING_PIXELS = 500000L;
+
+    private RoiStatistics roiStatistics;
+
     public AbstractDragGraphicArea(int handlePointTotalNumber) {
         this(handlePointTotalNumber, Color.YELLOW, 1f, true);
     }
@@ -82,18 +83,17 @@ public abstract class AbstractDragGraphicArea extends AbstractDragGraphic implem
                     Double[] skew = null;
                     Double[] kurtosis = null;
 
-                    if (releaseEvent && shape != null) {
+                    if (shape != null) {
                         RenderedImage image = layer.getSourceRenderedImage();
-                        // long startTime = System.currentTimeMillis();
                         double scaleX = imageElement.getRescaleX();
                         double scaleY = imageElement.getRescaleY();
-                        ROIShape roi;
+                        Shape roi;
                         if (scaleX != scaleY) {
                             // Rescale ROI for non-square pixel image
                             AffineTransform transform = AffineTransform.getScaleInstance(1.0 / scaleX, 1.0 / scaleY);
-                            roi = new ROIShape(transform.createTransformedShape(shape));
+                            roi = transform.createTransformedShape(shape);
                         } else {
-                            roi = new ROIShape(shape);
+                            roi = shape;
                         }
                         // Get padding values => exclude values
                         Double excludedMin = null;
@@ -111,53 +111,34 @@ public abstract class AbstractDragGraphicArea extends AbstractDragGraphic implem
                             excludedMin = paddingValue == null ? null : new Double(paddingValue);
                             excludedMax = paddingLimit == null ? null : new Double(paddingLimit);
                         }
-                        RenderedOp dst =
-                            ImageStatisticsDescriptor.create(image, roi, 1, 1, excludedMin, excludedMax, null);
-                        // To ensure this image is not stored in tile cache
-                        ((OpImage) dst.getRendering()).setTileCache(null);
-                        // For basic statistics, rescale values can be computed afterwards
-                        double[][] extrema = (double[][]) dst.getProperty("statistics"); //$NON-NLS-1$
-                        if (extrema == null || extrema.length < 1 || extrema[0].length < 1) {
-                            return null;
+                        if (roiStatistics == null) {
+                            roiStatistics = new RoiStatistics();
                         }
-                        min = new Double[extrema[0].length];
-                        max = new Double[extrema[0].length];
-                        mean = new Double[extrema[0].length];
+                        // While dragging, the previous values are displayed when the update requires to read too many
+                        // pixels
+                        roiStatistics.update(image, roi, excludedMin, excludedMax, releaseEvent ? -1
+                            : MAX_DRAGGING_PIXELS);
 
-                        // LOGGER.error("Basic stats [ms]: {}", System.currentTimeMillis() - startTime);
                         // unit = pixelValue * rescale slope + rescale intercept
                         Float slopeVal = (Float) imageElement.getTagValue(TagW.RescaleSlope);
                         Float interceptVal = (Float) imageElement.getTagValue(TagW.RescaleIntercept);
                         double slope = slopeVal == null ? 1.0f : slopeVal.doubleValue();
                         double intercept = interceptVal == null ? 0.0f : interceptVal.doubleValue();
-                        for (int i = 0; i < extrema[0].length; i++) {
-                            min[i] = extrema[0][i] * slope + intercept;
-                            max[i] = extrema[1][i] * slope + intercept;
-                            mean[i] = extrema[2][i] * slope + intercept;
-                        }
-
-                        if (IMAGE_STD.isComputed() || IMAGE_SKEW.isComputed() || IMAGE_KURTOSIS.isComputed()) {
-                            // startTime = System.currentTimeMillis();
-                            // Required the mean value (not rescaled), slope and intercept to calculate correctly std,
-                            // skew and kurtosis
-                            dst =
-                                ImageStatistics2Descriptor.create(image, roi, 1, 1, extrema[2][0], excludedMin,
-                                    excludedMax, slope, intercept, null);
-                            // To ensure this image is not stored in tile cache
-                            ((OpImage) dst.getRendering()).setTileCache(null);
-                            double[][] extrema2 = (double[][]) dst.getProperty("statistics"); //$NON-NLS-1$
-                            if (extrema != null && extrema.length > 0 && extrema[0].length > 0) {
-                                stdv = new Double[extrema2[0].length];
-                                skew = new Double[extrema2[0].length];
-                                kurtosis = new Double[extrema2[0].length];
-                                // LOGGER.info("Adv. stats [ms]: {}", System.currentTimeMillis() - startTime);
-                                for (int i = 0; i < extrema2[0].length; i++) {
-                                    stdv[i] = extrema2[0][i];
-                                    skew[i] = extrema2[1][i];
-                                    kurtosis[i] = extrema2[2][i];
-                                }
+                        double[][] stats = roiStatistics.getStatistics(slope, intercept);
+                        if (stats != null) {
+                            min = toDoubleArray(stats[RoiStatistics.MIN]);
+                            max = toDoubleArray(stats[RoiStatistics.MAX]);
+                            mean = toDoubleArray(stats[RoiStatistics.MEAN]);
+                            if (IMAGE_STD.isComputed() || IMAGE_SKEW.isComputed() || IMAGE_KURTOSIS.isComputed()) {
+                                stdv = toDoubleArray(stats[RoiStatistics.STD]);
+                                skew = toDoubleArray(stats[RoiStatistics.SKEW]);
+                                kurtosis = toDoubleArray(stats[RoiStatistics.KURTOSIS]);
                             }
                         }
+                        if (releaseEvent) {
+                            // The drag is finished, release the image and the histograms
+                            releaseStatistics();
+                        }
                     }
 
                     String unit = imageElement.getPixelValueUnit();
@@ -204,6 +185,43 @@ public abstract class AbstractDragGraphicArea extends AbstractDragGraphic implem
         return null;
     }
 
+    private static Double[] toDoubleArray(double[] values) {
+        Double[] array = new Double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            array[i] = values[i];
+        }
+        return array;
+    }
+
+    private void releaseStatistics() {
+        RoiStatistics statistics = roiStatistics;
+        if (statistics != null) {
+            statistics.clear();
+            roiStatistics = null;
+        }
+    }
+
+    @Override
+    public void fireRemoveAction() {
+        releaseStatistics();
+        super.fireRemoveAction();
+    }
+
+    @Override
+    public void fireRemoveAndRepaintAction() {
+        releaseStatistics();
+        super.fireRemoveAndRepaintAction();
+    }
+
+    @Override
+    public BasicGraphic clone() {
+        AbstractDragGraphicArea newGraphic = (AbstractDragGraphicArea) super.clone();
+        if (newGraphic != null) {
+            newGraphic.roiStatistics = null;
+        }
+        return newGraphic;
+    }
+
     private static void addMeasure(ArrayList<MeasureItem> measVal, Measurement measure, Double[] val, String unit) {
         if (val == null) {
             measVal.add(new MeasureItem(measure, null, unit));
@@ -10,40 +10,80 @@
  ******************************************************************************/
 package org.weasis.core.ui.graphic;
 
+import java.awt.AlphaComposite;
+import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
 import java.awt.image.RenderedImage;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.media.jai.PlanarImage;
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
+import javax.swing.SwingUtilities;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.weasis.core.api.image.ImageOpEvent;
+import org.weasis.core.api.image.ImageOpEvent.OpEvent;
 import org.weasis.core.api.image.OpEventListener;
 import org.weasis.core.api.image.OpManager;
 import org.weasis.core.api.image.SimpleOpManager;
 import org.weasis.core.api.image.util.ImageLayer;
+import org.weasis.core.api.media.data.CineBuffer;
 import org.weasis.core.api.media.data.ImageElement;
+import org.weasis.core.api.media.data.MediaReader;
 import org.weasis.core.api.service.AuditLog;
+import org.weasis.core.api.util.NamedThreadFactory;
 import org.weasis.core.ui.graphic.model.AbstractLayer;
 import org.weasis.core.ui.graphic.model.AbstractLayer.Identifier;
 import org.weasis.core.ui.graphic.model.Layer;
 
 /**
  * The Class RenderedImageLayer.
+ * <p>
+ * With the asynchronous rendering, the display image (the lazy chain of the display operations) is computed by a
+ * background thread into a frame (a BufferedImage of the visible area), and the Event Dispatch Thread only draws the
+ * last ready frame. Until the first frame of a new image is ready, the frame of the previous image is drawn and
+ * drawImage() returns false, so the view does not draw the graphics and the annotations of the new image over the
+ * pixels of the previous one. The frames of an older display image or of an older visible area are dropped. A repaint
+ * of a small area is rendered onto a copy of the current frame, so the rest of the view is kept.
+ * </p>
+ * <p>
+ * The tiles of a compressed or stream-backed image are read lazily through a stream which is not thread-safe, so the
+ * frames of the images sharing the same reader are rendered one at a time. The Event Dispatch Thread never takes this
+ * lock.
+ * </p>
+ * <p>
+ * A FrameRenderer renders in advance other images of the view with a copy of the display operations (e.g. the next
+ * frames of a cine loop). Such a frame replaces the rendering of the image when it is presented after setImage() with
+ * the same display parameters.
+ * </p>
  * 
  * @author Nicolas Roduit
  */
 public class RenderedImageLayer<E extends ImageElement> implements Layer, ImageLayer<E> {
     private static final Logger LOGGER = LoggerFactory.getLogger(RenderedImageLayer.class);
 
+    private static final ExecutorService RENDERER = Executors.newFixedThreadPool(
+        Math.max(1, Runtime.getRuntime().availableProcessors()), new NamedThreadFactory("Image Renderer", //$NON-NLS-1$
+            Thread.NORM_PRIORITY - 1));
+    // One rendering lock by media reader, guarded by itself
+    private static final Map<MediaReader<?>, Object> RENDER_LOCKS = new WeakHashMap<MediaReader<?>, Object>();
+
     private final Identifier identifier;
     private final SimpleOpManager disOpManager;
     private final List<ImageLayerChangeListener<E>> listenerList;
@@ -53,10 +93,20 @@ public class RenderedImageLayer<E extends ImageElement> implements Layer, ImageL
     private E sourceImage;
     private RandomIter readIterator;
     private boolean buildIterator = false;
-    private RenderedImage displayImage;
+    private volatile RenderedImage displayImage;
     private boolean visible = true;
     private boolean enableDispOperations = true;
 
+    private boolean asyncRendering = false;
+    // Frames of the asynchronous rendering, guarded by renderLock
+    private final Object renderLock = new Object();
+    private Frame frontFrame;
+    private BufferedImage backBuffer;
+    private Frame pendingFrame;
+    private Frame renderingFrame;
+    private boolean rendering = false;
+    private boolean disposed = false;
+
     public RenderedImageLayer(boolean buildIterator) {
         this(null, buildIterator);
     }
@@ -81,6 +131,19 @@ public class RenderedImageLayer<E extends ImageElement> implements Layer, ImageL
         this.buildIterator = buildIterator;
     }
 
+    public boolean isAsyncRendering() {
+        return asyncRendering;
+    }
+
+    /**
+     * @param asyncRendering
+     *            true to compute the display image in a background thread when drawing on the screen. The layer
+     *            listeners are notified when a new frame is ready.
+     */
+    public void setAsyncRendering(boolean asyncRendering) {
+        this.asyncRendering = asyncRendering;
+    }
+
     @Override
     public RandomIter getReadIterator() {
         return readIterator;
@@ -126,52 +189,277 @@ public class RenderedImageLayer<E extends ImageElement> implements Layer, ImageL
         }
     }
 
-    public void drawImage(Graphics2D g2d) {
+    /**
+     * Draws the display image.
+     * 
+     * @return false when the pixels of the current image are not drawn yet (asynchronous rendering of a new image), the
+     *         layers related to the image must not be drawn
+     */
+    public boolean drawImage(Graphics2D g2d) {
+        RenderedImage img = displayImage;
         // Get the clipping rectangle
-        if (!visible || displayImage == null) {
-            return;
+        if (!visible || img == null) {
+            return true;
         }
 
         Shape clip = g2d.getClip();
+        Rectangle2D rect =
+            new Rectangle2D.Double(img.getMinX(), img.getMinY(), img.getWidth() - 1, img.getHeight() - 1);
         if (clip instanceof Rectangle2D) {
-            Rectangle2D rect =
-                new Rectangle2D.Double(displayImage.getMinX(), displayImage.getMinY(), displayImage.getWidth() - 1,
-                    displayImage.getHeight() - 1);
             rect = rect.createIntersection((Rectangle2D) clip);
             if (rect.isEmpty()) {
-                return;
+                return true;
             }
             // Avoid to display one pixel outside the border line of a view.
             // rect.setRect(Math.ceil(rect.getX()), Math.ceil(rect.getY()), rect.getWidth() - 1, rect.getHeight() - 1);
             g2d.setClip(rect);
         }
 
-        try {
-            g2d.drawRenderedImage(displayImage, AffineTransform.getTranslateInstance(0, 0));
-        } catch (Throwable t) {
-            if ("java.io.IOException: closed".equals(t.getMessage())) { //$NON-NLS-1$
-                // Issue when the stream has been closed of a tiled image (problem that readAsRendered do not read data
-                // immediately)
-                if (sourceImage.isImageInCache()) {
-                    sourceImage.removeImageFromCache();
-                }
-                disOpManager.setFirstNode(getSourceRenderedImage());
-                updateDisplayOperations();
-            }
-            // When outOfMemory exception or when tiles are not available anymore (file stream closed)
-            AuditLog.logError(LOGGER, t, "Draw rendered image error:"); //$NON-NLS-1$
-            System.gc();
+        boolean ready = true;
+        if (asyncRendering && isScreenDevice(g2d)) {
+            ready = drawFrame(g2d, img, rect.getBounds());
+        } else {
             try {
-                // Let garbage collection
-                Thread.sleep(100);
-            } catch (InterruptedException et) {
+                g2d.drawRenderedImage(img, AffineTransform.getTranslateInstance(0, 0));
+            } catch (Throwable t) {
+                handleRenderingError(t);
             }
         }
         g2d.setClip(clip);
+        return ready;
+    }
+
+    private static boolean isScreenDevice(Graphics2D g2d) {
+        GraphicsConfiguration config = g2d.getDeviceConfiguration();
+        return config != null && config.getDevice().getType() == GraphicsDevice.TYPE_RASTER_SCREEN;
+    }
+
+    private boolean drawFrame(Graphics2D g2d, RenderedImage img, Rectangle area) {
+        Rectangle bounds =
+            area.intersection(new Rectangle(img.getMinX(), img.getMinY(), img.getWidth(), img.getHeight()));
+        if (bounds.isEmpty()) {
+            return true;
+        }
+        E element = sourceImage;
+        synchronized (renderLock) {
+            Frame frame = frontFrame;
+            if (frame == null || !frame.contains(img, bounds)) {
+                requestFrame(new Frame(element, img, bounds, null, getRenderLock(element)));
+            }
+            boolean sameImage = frame != null && frame.element == element;
+            if (!sameImage) {
+                // Blank outside the frame of the previous image
+                g2d.setColor(Color.BLACK);
+                g2d.fill(bounds);
+            }
+            if (frame != null) {
+                // Draw the last frame (e.g. with the previous window/level or of the previous image while scrolling)
+                // until the new one is ready. The renderer cannot write in this buffer while holding the lock.
+                g2d.drawImage(frame.image, frame.bounds.x, frame.bounds.y, null);
+            }
+            // The pixels of a previous image do not match the layers of the new image
+            return sameImage;
+        }
+    }
+
+    /**
+     * Must be called in the Event Dispatch Thread.
+     * 
+     * @return true when a frame of the current visible area has been rendered, so a FrameRenderer can render other
+     *         images for this area
+     */
+    public boolean isFrameAvailable() {
+        synchronized (renderLock) {
+            return asyncRendering && frontFrame != null && !disposed;
+        }
+    }
+
+    /**
+     * Displays a frame rendered in advance by a FrameRenderer of this layer instead of rendering the display image.
+     * Must be called in the Event Dispatch Thread after setting the image of the frame.
+     * 
+     * @return false when the frame does not correspond to the current image or to the current display parameters (e.g.
+     *         the window/level has changed since the frame has been rendered), then the display image is rendered as
+     *         usual
+     */
+    public boolean presentFrame(RenderedFrame frame) {
+        RenderedImage img = displayImage;
+        if (frame == null || img == null || !asyncRendering || frame.layer != this || sourceImage == null
+            || !sourceImage.equals(frame.element) || frame.preprocessing != preprocessing
+            || !disOpManager.hasSameParams(frame.operations)) {
+            return false;
+        }
+        synchronized (renderLock) {
+            if (disposed) {
+                return false;
+            }
+            frontFrame = new Frame(frame.element, img, frame.bounds, frame.image, null);
+        }
+        fireLayerChanged();
+        return true;
+    }
+
+    private static int getFrameType(RenderedImage img) {
+        ColorModel cm = img.getColorModel();
+        return cm != null && cm.hasAlpha() ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB;
+    }
+
+    private static Object getRenderLock(ImageElement image) {
+        MediaReader<?> reader = image == null ? null : image.getMediaReader();
+        if (reader == null) {
+            return new Object();
+        }
+        synchronized (RENDER_LOCKS) {
+            Object lock = RENDER_LOCKS.get(reader);
+            if (lock == null) {
+                lock = new Object();
+                RENDER_LOCKS.put(reader, lock);
+            }
+            return lock;
+        }
+    }
+
+    // Must be called with renderLock
+    private void requestFrame(Frame request) {
+        if (disposed || (renderingFrame != null && renderingFrame.contains(request.source, request.bounds))) {
+            return;
+        }
+        // Replace the older request which has not started
+        pendingFrame = request;
+        if (!rendering) {
+            rendering = true;
+            RENDERER.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    renderFrames();
+                }
+            });
+        }
+    }
+
+    private void renderFrames() {
+        while (true) {
+            Frame request;
+            Frame base;
+            BufferedImage buffer;
+            synchronized (renderLock) {
+                request = pendingFrame;
+                pendingFrame = null;
+                if (request == null || disposed) {
+                    rendering = false;
+                    renderingFrame = null;
+                    return;
+                }
+                renderingFrame = request;
+                buffer = backBuffer;
+                backBuffer = null;
+                // Only this thread replaces the front frame, so its buffer is not recycled while it is copied
+                base = frontFrame;
+                if (base != null
+                    && (base.element != request.element || base.bounds.equals(request.bounds) || !base.bounds
+                        .contains(request.bounds))) {
+                    base = null;
+                }
+            }
+
+            Frame frame = null;
+            // Drop the frames of an image which is not displayed anymore
+            if (request.source == displayImage) {
+                synchronized (request.renderLock) {
+                    frame = render(request, base, buffer);
+                }
+            }
 
+            boolean repaint = false;
+            synchronized (renderLock) {
+                renderingFrame = null;
+                if (frame != null && request.source == displayImage && !disposed) {
+                    backBuffer = frontFrame == null ? buffer : frontFrame.image;
+                    frontFrame = frame;
+                    repaint = true;
+                } else {
+                    backBuffer = frame == null ? buffer : frame.image;
+                }
+            }
+            if (repaint) {
+                SwingUtilities.invokeLater(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        fireLayerChanged();
+                    }
+                });
+            }
+        }
+    }
+
+    private Frame render(Frame request, Frame base, BufferedImage buffer) {
+        RenderedImage img = request.source;
+        // A small area is composited onto the current frame instead of replacing it
+        Rectangle bounds = base == null ? request.bounds : base.bounds;
+        int type = getFrameType(img);
+        BufferedImage image = buffer;
+        if (image == null || image.getWidth() != bounds.width || image.getHeight() != bounds.height
+            || image.getType() != type) {
+            image = new BufferedImage(bounds.width, bounds.height, type);
+        }
+        Graphics2D g = image.createGraphics();
+        try {
+            if (base != null) {
+                g.setComposite(AlphaComposite.Src);
+                g.drawImage(base.image, 0, 0, null);
+                g.setClip(request.bounds.x - bounds.x, request.bounds.y - bounds.y, request.bounds.width,
+                    request.bounds.height);
+            }
+            if (type != BufferedImage.TYPE_INT_RGB) {
+                g.setComposite(AlphaComposite.Clear);
+                g.fillRect(0, 0, bounds.width, bounds.height);
+            }
+            g.setComposite(AlphaComposite.SrcOver);
+            // Pull the tiles of the operation chain in this thread
+            g.drawRenderedImage(img, AffineTransform.getTranslateInstance(-bounds.x, -bounds.y));
+            // The area of the previous frame is still valid only when it comes from the same display image
+            Rectangle valid = request.bounds;
+            if (base != null && base.source == img) {
+                valid = valid.union(base.valid);
+            }
+            return new Frame(request.element, img, bounds, valid, image, null);
+        } catch (final Throwable t) {
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    handleRenderingError(t);
+                }
+            });
+            return null;
+        } finally {
+            g.dispose();
+        }
+    }
+
+    private void handleRenderingError(Throwable t) {
+        if ("java.io.IOException: closed".equals(t.getMessage()) && sourceImage != null) { //$NON-NLS-1$
+            // Issue when the stream has been closed of a tiled image (problem that readAsRendered do not read data
+            // immediately)
+            if (sourceImage.isImageInCache()) {
+                sourceImage.removeImageFromCache();
+            }
+            disOpManager.setFirstNode(getSourceRenderedImage());
+            updateDisplayOperations();
+        }
+        // When outOfMemory exception or when tiles are not available anymore (file stream closed)
+        AuditLog.logError(LOGGER, t, "Draw rendered image error:"); //$NON-NLS-1$
     }
 
     public void dispose() {
+        synchronized (renderLock) {
+            disposed = true;
+            pendingFrame = null;
+            frontFrame = null;
+            backBuffer = null;
+        }
         sourceImage = null;
         displayImage = null;
         listenerList.clear();
@@ -291,4 +579,143 @@ public class RenderedImageLayer<E extends ImageElement> implements Layer, ImageL
         return identifier;
     }
 
+    /**
+     * Renders images with a copy of the display operations of a layer into frames of the visible area of the layer.
+     * The copy is made when creating the renderer, so the frames are displayed only if the display parameters of the
+     * layer have not changed (see presentFrame()).
+     */
+    public static class FrameRenderer<E extends ImageElement> implements CineBuffer.FrameRenderer<E, RenderedFrame> {
+        private final RenderedImageLayer<E> layer;
+        private final SimpleOpManager operations;
+        private final OpManager preprocessing;
+        private final Rectangle bounds;
+
+        /**
+         * Must be called in the Event Dispatch Thread, when isFrameAvailable() is true.
+         */
+        public FrameRenderer(RenderedImageLayer<E> layer) {
+            if (layer == null) {
+                throw new IllegalArgumentException("Layer cannot be null"); //$NON-NLS-1$
+            }
+            this.layer = layer;
+            this.preprocessing = layer.preprocessing;
+            try {
+                this.operations = layer.disOpManager.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+            synchronized (layer.renderLock) {
+                Frame frame = layer.frontFrame;
+                this.bounds = frame == null ? new Rectangle() : new Rectangle(frame.bounds);
+            }
+        }
+
+        @Override
+        public long getFrameSize() {
+            return 4L * bounds.width * bounds.height;
+        }
+
+        /**
+         * Adapts the copy of the display operations to the image before rendering it (e.g. the default window/level
+         * of the image). Called by the rendering threads.
+         * 
+         * @param operations
+         *            the copy of the display operations for this image
+         * @param image
+         *            the image to render
+         */
+        protected void updateOperations(SimpleOpManager operations, E image) {
+        }
+
+        @Override
+        public RenderedFrame render(E image) throws Exception {
+            if (image == null || bounds.isEmpty()) {
+                return null;
+            }
+            SimpleOpManager ops = operations.clone();
+            // Same update of the operations as when setting the image in the view
+            ops.handleImageOpEvent(new ImageOpEvent(OpEvent.ImageChange, null, image, null));
+            updateOperations(ops, image);
+            // The preprocessing can be applied at the same time to other images
+            PlanarImage source = image.getImage(preprocessing == null ? null : preprocessing.clone());
+            if (source == null) {
+                return null;
+            }
+            ops.setFirstNode(source);
+            RenderedImage img = ops.process();
+            if (img == null) {
+                return null;
+            }
+            BufferedImage frame = new BufferedImage(bounds.width, bounds.height, getFrameType(img));
+            Graphics2D g = frame.createGraphics();
+            try {
+                // The tiles may be read lazily from the stream of the reader
+                synchronized (getRenderLock(image)) {
+                    g.drawRenderedImage(img, AffineTransform.getTranslateInstance(-bounds.x, -bounds.y));
+                }
+            } finally {
+                g.dispose();
+            }
+            // Keep only the parameters for comparing them with the layer
+            ops.clearNodeIOCache();
+            return new RenderedFrame(layer, image, preprocessing, ops, bounds, frame);
+        }
+    }
+
+    /**
+     * Frame rendered in advance by a FrameRenderer.
+     */
+    public static final class RenderedFrame {
+        private final RenderedImageLayer<?> layer;
+        private final ImageElement element;
+        private final OpManager preprocessing;
+        private final SimpleOpManager operations;
+        private final Rectangle bounds;
+        private final BufferedImage image;
+
+        RenderedFrame(RenderedImageLayer<?> layer, ImageElement element, OpManager preprocessing,
+            SimpleOpManager operations, Rectangle bounds, BufferedImage image) {
+            this.layer = layer;
+            this.element = element;
+            this.preprocessing = preprocessing;
+            this.operations = operations;
+            this.bounds = bounds;
+            this.image = image;
+        }
+
+        public ImageElement getElement() {
+            return element;
+        }
+    }
+
+    /**
+     * Area of a display image rendered in a BufferedImage. Only the valid area is up to date with the display image,
+     * the rest of the frame comes from a previous frame.
+     */
+    private static class Frame {
+        private final ImageElement element;
+        private final RenderedImage source;
+        private final Rectangle bounds;
+        private final Rectangle valid;
+        private final BufferedImage image;
+        private final Object renderLock;
+
+        Frame(ImageElement element, RenderedImage source, Rectangle bounds, BufferedImage image, Object renderLock) {
+            this(element, source, bounds, bounds, image, renderLock);
+        }
+
+        Frame(ImageElement element, RenderedImage source, Rectangle bounds, Rectangle valid, BufferedImage image,
+            Object renderLock) {
+            this.element = element;
+            this.source = source;
+            this.bounds = bounds;
+            this.valid = valid;
+            this.image = image;
+            this.renderLock = renderLock;
+        }
+
+        boolean contains(RenderedImage img, Rectangle area) {
+            return source == img && valid.contains(area);
+        }
+    }
 }
@@ -11,7 +11,7 @@
 package org.weasis.dicom.au;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.Map;
 
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.dicom.codec.DicomMediaIO;
@@ -27,7 +27,7 @@ public class DicomAudioElement extends DicomSpecialElement {
         super(mediaIO);
     }
 
-    public HashMap<TagW, Object> geTags() {
+    public Map<TagW, Object> geTags() {
         return tags;
     }
 
@@ -0,0 +1,750 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.codec;
+
+import java.awt.Color;
+import java.awt.geom.Area;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.gui.util.AppProperties;
+import org.weasis.core.api.media.data.TagW;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.FileUtil;
+
+/**
+ * Persistent index of the DICOM headers of the local files, so the files of a folder opened again are not parsed.
+ * <p>
+ * There is one index file by folder in "data/dicom-index" of the Weasis path. The files are identified by their name,
+ * size and modification date: a modified file is parsed again. An entry contains the instance tags and the patient,
+ * study and series tags (see DicomMediaIO.writeIndexedState()). The files which are not DICOM are also indexed. The
+ * index can be disabled with the property "weasis.dicom.header.index".
+ * </p>
+ * <p>
+ * When the size of the index files exceeds the limit (the preference "weasis.dicom.header.index.size" in MB), the
+ * least recently used are deleted. The index of a folder which does not exist anymore is deleted.
+ * </p>
+ */
+public final class DicomHeaderIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DicomHeaderIndex.class);
+
+    public static final String P_HEADER_INDEX = "weasis.dicom.header.index"; //$NON-NLS-1$
+    private static final boolean ENABLED = BundleTools.SYSTEM_PREFERENCES.getBooleanProperty(P_HEADER_INDEX, true);
+    private static final String P_INDEX_SIZE = "weasis.dicom.header.index.size"; //$NON-NLS-1$
+    private static final long MAX_SIZE = BundleTools.SYSTEM_PREFERENCES.getIntProperty(P_INDEX_SIZE, 50) * 1024L
+        * 1024L;
+
+    private static final int MAGIC = 0x44434958;
+    /*
+     * Must be incremented when the values extracted from the files change (e.g. a tag read differently from the
+     * header, or a change in DicomMediaIO.writeIndexedState()), because the signature covers only the names of the
+     * fields of TagW.
+     */
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".idx"; //$NON-NLS-1$
+    private static final String TMP_EXTENSION = ".tmp"; //$NON-NLS-1$
+    private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+    private static final File INDEX_DIR = AppProperties.WEASIS_PATH == null ? new File(AppProperties.APP_TEMP_DIR,
+        "dicom-index") : new File(AppProperties.WEASIS_PATH, "data" + File.separator + "dicom-index"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    // Types of the values
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte FLOAT = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte DATE = 6;
+    private static final byte INT_ARRAY = 7;
+    private static final byte FLOAT_ARRAY = 8;
+    private static final byte DOUBLE_ARRAY = 9;
+    private static final byte STRING_ARRAY = 10;
+    private static final byte OBJECT_ARRAY = 11;
+    private static final byte COLOR = 12;
+    private static final byte AREA = 13;
+
+    /*
+     * The tags are written with their rank in the sorted names of the fields of TagW. The signature of the names is
+     * written in the index files, an index built with other tags is ignored.
+     */
+    private static final List<TagW> TAGS = new ArrayList<TagW>();
+    private static final Map<TagW, Integer> TAG_CODES = new HashMap<TagW, Integer>();
+    private static final long SIGNATURE;
+
+    static {
+        List<Field> fields = new ArrayList<Field>();
+        for (Field f : TagW.class.getFields()) {
+            if (Modifier.isStatic(f.getModifiers()) && TagW.class.equals(f.getType())) {
+                fields.add(f);
+            }
+        }
+        Collections.sort(fields, new Comparator<Field>() {
+
+            @Override
+            public int compare(Field f1, Field f2) {
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+        long signature = VERSION;
+        for (Field f : fields) {
+            try {
+                TagW tag = (TagW) f.get(null);
+                if (tag != null && !TAG_CODES.containsKey(tag)) {
+                    TAG_CODES.put(tag, TAGS.size());
+                    TAGS.add(tag);
+                }
+            } catch (IllegalAccessException e) {
+                // Public fields
+            }
+            signature = signature * 31 + f.getName().hashCode();
+        }
+        SIGNATURE = signature;
+    }
+
+    // Maximum number of folder indexes kept in memory, the eldest is saved when removed
+    private static final int MAX_LOADED_FOLDERS = 16;
+    // Removed indexes to save out of the lock of LOADED_INDEXES, guarded by LOADED_INDEXES
+    private static final List<DicomHeaderIndex> EVICTED_INDEXES = new ArrayList<DicomHeaderIndex>();
+    private static final Map<File, DicomHeaderIndex> LOADED_INDEXES = new LinkedHashMap<File, DicomHeaderIndex>(
+        MAX_LOADED_FOLDERS + 1, 0.75f, true) {
+
+        private static final long serialVersionUID = 6318327264941837325L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, DicomHeaderIndex> eldest) {
+            if (size() > MAX_LOADED_FOLDERS) {
+                EVICTED_INDEXES.add(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+    // Serializes the reading and the writing of the index files
+    private static final Object FILE_LOCK = new Object();
+    // Size of all the index files, computed at the first writing. Guarded by FILE_LOCK
+    private static long totalSize = -1L;
+
+    private final File folder;
+    // Guarded by this index
+    private final Map<String, IndexEntry> entries = new HashMap<String, IndexEntry>();
+    private boolean modified = false;
+    private boolean loaded = false;
+
+    private DicomHeaderIndex(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * @return the reader built from the index, or null when the file is not indexed, has been modified or is not a
+     *         DICOM file
+     */
+    public static DicomMediaIO getReader(File file) {
+        IndexEntry entry = getEntry(file);
+        if (entry == null || entry.data == null) {
+            return null;
+        }
+        try {
+            return DicomMediaIO.readIndexedState(file, new DataInputStream(new ByteArrayInputStream(entry.data)));
+        } catch (IOException e) {
+            LOGGER.debug("Cannot read the indexed header of {}: {}", file, e.getMessage()); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * @return true when the file is indexed as a file which is not DICOM and has not been modified
+     */
+    public static boolean isIndexedAsNotDicom(File file) {
+        IndexEntry entry = getEntry(file);
+        return entry != null && entry.data == null;
+    }
+
+    /**
+     * Adds a file to the index.
+     *
+     * @param file
+     *            the file
+     * @param reader
+     *            the reader of the file after reading the header, or null when the file is not DICOM
+     */
+    public static void put(File file, DicomMediaIO reader) {
+        File dir = file == null ? null : file.getParentFile();
+        if (!ENABLED || dir == null) {
+            return;
+        }
+        byte[] data = null;
+        if (reader != null) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+            try {
+                reader.writeIndexedState(new DataOutputStream(bos));
+                data = bos.toByteArray();
+            } catch (IOException e) {
+                // The file will be parsed again
+                LOGGER.debug("Cannot index the header of {}: {}", file, e.getMessage()); //$NON-NLS-1$
+                return;
+            }
+        }
+        IndexEntry entry = new IndexEntry(file.length(), file.lastModified(), data);
+        DicomHeaderIndex index = getIndex(dir);
+        synchronized (index) {
+            index.entries.put(file.getName(), entry);
+            index.modified = true;
+        }
+    }
+
+    /**
+     * Writes the modified indexes of the folders.
+     */
+    public static void saveAll() {
+        List<DicomHeaderIndex> indexes;
+        synchronized (LOADED_INDEXES) {
+            indexes = new ArrayList<DicomHeaderIndex>(LOADED_INDEXES.values());
+        }
+        for (DicomHeaderIndex index : indexes) {
+            index.save();
+        }
+    }
+
+    private static IndexEntry getEntry(File file) {
+        File dir = file == null ? null : file.getParentFile();
+        if (!ENABLED || dir == null) {
+            return null;
+        }
+        // Read the attributes of the file before taking the lock
+        long size = file.length();
+        long lastModified = file.lastModified();
+        DicomHeaderIndex index = getIndex(dir);
+        synchronized (index) {
+            IndexEntry entry = index.entries.get(file.getName());
+            if (entry != null && (entry.size != size || entry.lastModified != lastModified)) {
+                index.entries.remove(file.getName());
+                index.modified = true;
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * @return the loaded index of the folder. The I/O (loading this index, saving the removed ones) is done out of the
+     *         lock of LOADED_INDEXES.
+     */
+    private static DicomHeaderIndex getIndex(File dir) {
+        File folder = dir.getAbsoluteFile();
+        DicomHeaderIndex index;
+        List<DicomHeaderIndex> evicted = null;
+        synchronized (LOADED_INDEXES) {
+            index = LOADED_INDEXES.get(folder);
+            if (index == null) {
+                index = new DicomHeaderIndex(folder);
+                LOADED_INDEXES.put(folder, index);
+                if (!EVICTED_INDEXES.isEmpty()) {
+                    evicted = new ArrayList<DicomHeaderIndex>(EVICTED_INDEXES);
+                    EVICTED_INDEXES.clear();
+                }
+            }
+        }
+        if (evicted != null) {
+            for (DicomHeaderIndex e : evicted) {
+                e.save();
+            }
+        }
+        synchronized (index) {
+            if (!index.loaded) {
+                index.loaded = true;
+                index.load();
+            }
+        }
+        return index;
+    }
+
+    private File getIndexFile() {
+        String path = folder.getPath();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(path.getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+            char[] buf = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                buf[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+                buf[i * 2 + 1] = HEX[hash[i] & 0x0f];
+            }
+            return new File(INDEX_DIR, new String(buf) + EXTENSION);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.error("Cannot build index name: {}", e.getMessage()); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            LOGGER.error("Cannot build index name: {}", e.getMessage()); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    // Must be called with the lock of this index
+    private void load() {
+        File file = getIndexFile();
+        if (file == null) {
+            return;
+        }
+        DataInputStream in = null;
+        synchronized (FILE_LOCK) {
+            if (!file.canRead()) {
+                return;
+            }
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != SIGNATURE
+                    || !folder.getPath().equals(in.readUTF())) {
+                    // Built by another version, will be replaced
+                    return;
+                }
+                int nb = in.readInt();
+                for (int i = 0; i < nb; i++) {
+                    String name = in.readUTF();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+                    int length = in.readInt();
+                    byte[] data = null;
+                    if (length >= 0) {
+                        data = new byte[length];
+                        in.readFully(data);
+                    }
+                    entries.put(name, new IndexEntry(size, lastModified, data));
+                }
+                // The modification date is the last access time for the eviction
+                file.setLastModified(System.currentTimeMillis());
+            } catch (IOException e) {
+                entries.clear();
+                LOGGER.error("Cannot read the header index of {}: {}", folder, e.getMessage()); //$NON-NLS-1$
+            } finally {
+                FileUtil.safeClose(in);
+            }
+        }
+    }
+
+    private void save() {
+        Map<String, IndexEntry> snapshot;
+        synchronized (this) {
+            if (!modified) {
+                return;
+            }
+            modified = false;
+            snapshot = new HashMap<String, IndexEntry>(entries);
+        }
+        if (!folder.isDirectory()) {
+            delete(getIndexFile());
+            return;
+        }
+        // Remove the deleted files, without holding the lock of this index
+        Map<String, IndexEntry> deleted = new HashMap<String, IndexEntry>();
+        for (Iterator<Entry<String, IndexEntry>> it = snapshot.entrySet().iterator(); it.hasNext();) {
+            Entry<String, IndexEntry> e = it.next();
+            if (!new File(folder, e.getKey()).exists()) {
+                deleted.put(e.getKey(), e.getValue());
+                it.remove();
+            }
+        }
+        write(snapshot);
+        if (!deleted.isEmpty()) {
+            synchronized (this) {
+                for (Entry<String, IndexEntry> e : deleted.entrySet()) {
+                    // Keep the entry of a file which has been indexed again in the meantime
+                    if (entries.get(e.getKey()) == e.getValue()) {
+                        entries.remove(e.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    private void write(Map<String, IndexEntry> snapshot) {
+        File file = getIndexFile();
+        if (file == null) {
+            return;
+        }
+        synchronized (FILE_LOCK) {
+            if (!INDEX_DIR.exists() && !INDEX_DIR.mkdirs()) {
+                return;
+            }
+            long oldLength = file.length();
+            File tmp = new File(INDEX_DIR, file.getName() + TMP_EXTENSION);
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(SIGNATURE);
+                out.writeUTF(folder.getPath());
+                out.writeInt(snapshot.size());
+                for (Entry<String, IndexEntry> e : snapshot.entrySet()) {
+                    IndexEntry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    if (entry.data == null) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(entry.data.length);
+                        out.write(entry.data);
+                    }
+                }
+                out.close();
+                out = null;
+                // The file is written completely before being renamed
+                if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+                    LOGGER.error("Cannot write the header index of {}", folder); //$NON-NLS-1$
+                } else if (totalSize < 0) {
+                    totalSize = cleanIndexes();
+                } else {
+                    totalSize += file.length() - oldLength;
+                }
+                if (totalSize > MAX_SIZE) {
+                    evict();
+                }
+            } catch (IOException e) {
+                LOGGER.error("Cannot write the header index of {}: {}", folder, e.getMessage()); //$NON-NLS-1$
+            } finally {
+                FileUtil.safeClose(out);
+                FileUtil.delete(tmp);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (file == null) {
+            return;
+        }
+        synchronized (FILE_LOCK) {
+            long length = file.length();
+            if (file.delete() && totalSize >= 0) {
+                totalSize -= length;
+            }
+        }
+    }
+
+    /**
+     * Deletes the indexes of the folders which do not exist anymore and the indexes built by another version.
+     * 
+     * @return the size of the remaining index files
+     */
+    // Must be called with FILE_LOCK
+    private static long cleanIndexes() {
+        long size = 0L;
+        int nb = 0;
+        File[] files = INDEX_DIR.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(EXTENSION) && !isValidIndex(f) && f.delete()) {
+                    nb++;
+                } else {
+                    size += f.length();
+                }
+            }
+        }
+        LOGGER.debug("{} obsolete header indexes deleted", nb); //$NON-NLS-1$
+        return size;
+    }
+
+    private static boolean isValidIndex(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == SIGNATURE
+                && new File(in.readUTF()).isDirectory();
+        } catch (IOException e) {
+            return false;
+        } finally {
+            FileUtil.safeClose(in);
+        }
+    }
+
+    // Must be called with FILE_LOCK
+    private static void evict() {
+        // The loaded indexes are not evicted, they would be written again
+        Set<File> used = new HashSet<File>();
+        synchronized (LOADED_INDEXES) {
+            for (DicomHeaderIndex index : LOADED_INDEXES.values()) {
+                used.add(index.getIndexFile());
+            }
+        }
+        File[] files = INDEX_DIR.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] dates = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            dates[i] = files[i].lastModified();
+        }
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // Least recently used first (the date must not change while sorting)
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long d1 = dates[o1];
+                long d2 = dates[o2];
+                return d1 < d2 ? -1 : (d1 == d2 ? 0 : 1);
+            }
+        });
+
+        // Keep some space to avoid evicting at each writing
+        long limit = MAX_SIZE * 9 / 10;
+        int nb = 0;
+        for (int i = 0; i < order.length && totalSize > limit; i++) {
+            File f = files[order[i]];
+            if (used.contains(f) || !f.getName().endsWith(EXTENSION)) {
+                continue;
+            }
+            long length = f.length();
+            if (f.delete()) {
+                totalSize -= length;
+                nb++;
+            }
+        }
+        LOGGER.debug("{} header indexes evicted ({} bytes)", nb, totalSize); //$NON-NLS-1$
+    }
+
+    static void writeTags(DataOutput out, Map<TagW, Object> tags, TagW excluded) throws IOException {
+        List<Entry<TagW, Object>> list = new ArrayList<Entry<TagW, Object>>(tags.size());
+        for (Entry<TagW, Object> e : tags.entrySet()) {
+            if (e.getValue() != null && !e.getKey().equals(excluded)) {
+                list.add(e);
+            }
+        }
+        out.writeShort(list.size());
+        for (Entry<TagW, Object> e : list) {
+            Integer code = TAG_CODES.get(e.getKey());
+            if (code == null) {
+                throw new IOException("Tag not indexable: " + e.getKey()); //$NON-NLS-1$
+            }
+            out.writeShort(code);
+            writeValue(out, e.getValue());
+        }
+    }
+
+    static void readTags(DataInput in, Map<TagW, Object> tags) throws IOException {
+        int nb = in.readUnsignedShort();
+        for (int i = 0; i < nb; i++) {
+            int code = in.readUnsignedShort();
+            if (code >= TAGS.size()) {
+                throw new IOException("Invalid tag code: " + code); //$NON-NLS-1$
+            }
+            tags.put(TAGS.get(code), readValue(in));
+        }
+    }
+
+    private static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            out.writeByte(INT_ARRAY);
+            out.writeInt(array.length);
+            for (int v : array) {
+                out.writeInt(v);
+            }
+        } else if (value instanceof float[]) {
+            float[] array = (float[]) value;
+            out.writeByte(FLOAT_ARRAY);
+            out.writeInt(array.length);
+            for (float v : array) {
+                out.writeFloat(v);
+            }
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            out.writeByte(DOUBLE_ARRAY);
+            out.writeInt(array.length);
+            for (double v : array) {
+                out.writeDouble(v);
+            }
+        } else if (value instanceof String[]) {
+            String[] array = (String[]) value;
+            out.writeByte(STRING_ARRAY);
+            out.writeInt(array.length);
+            for (String v : array) {
+                writeValue(out, v);
+            }
+        } else if (value instanceof Integer[] || value instanceof Float[] || value instanceof Double[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(OBJECT_ARRAY);
+            out.writeByte(value instanceof Integer[] ? INTEGER : value instanceof Float[] ? FLOAT : DOUBLE);
+            out.writeInt(array.length);
+            for (Object v : array) {
+                writeValue(out, v);
+            }
+        } else if (value.getClass() == Color.class) {
+            out.writeByte(COLOR);
+            out.writeInt(((Color) value).getRGB());
+        } else if (value.getClass() == Area.class) {
+            out.writeByte(AREA);
+            PathIterator it = ((Area) value).getPathIterator(null);
+            out.writeByte(it.getWindingRule());
+            double[] coords = new double[6];
+            while (!it.isDone()) {
+                int type = it.currentSegment(coords);
+                out.writeByte(type);
+                int nb = type == PathIterator.SEG_CLOSE ? 0 : type == PathIterator.SEG_QUADTO ? 4
+                    : type == PathIterator.SEG_CUBICTO ? 6 : 2;
+                for (int i = 0; i < nb; i++) {
+                    out.writeDouble(coords[i]);
+                }
+                it.next();
+            }
+            out.writeByte(-1);
+        } else {
+            throw new IOException("Value not indexable: " + value.getClass()); //$NON-NLS-1$
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readUTF();
+            case INTEGER:
+                return in.readInt();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN:
+                return in.readBoolean();
+            case DATE:
+                return new Date(in.readLong());
+            case INT_ARRAY: {
+                int[] array = new int[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readInt();
+                }
+                return array;
+            }
+            case FLOAT_ARRAY: {
+                float[] array = new float[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readFloat();
+                }
+                return array;
+            }
+            case DOUBLE_ARRAY: {
+                double[] array = new double[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readDouble();
+                }
+                return array;
+            }
+            case STRING_ARRAY: {
+                String[] array = new String[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = (String) readValue(in);
+                }
+                return array;
+            }
+            case OBJECT_ARRAY: {
+                byte componentType = in.readByte();
+                int length = in.readInt();
+                Object[] array =
+                    componentType == INTEGER ? new Integer[length] : componentType == FLOAT ? new Float[length]
+                        : new Double[length];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            }
+            case COLOR:
+                return new Color(in.readInt(), true);
+            case AREA: {
+                GeneralPath path = new GeneralPath(in.readByte());
+                byte segment;
+                while ((segment = in.readByte()) != -1) {
+                    if (segment == PathIterator.SEG_MOVETO) {
+                        path.moveTo(in.readDouble(), in.readDouble());
+                    } else if (segment == PathIterator.SEG_LINETO) {
+                        path.lineTo(in.readDouble(), in.readDouble());
+                    } else if (segment == PathIterator.SEG_QUADTO) {
+                        path.quadTo(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+                    } else if (segment == PathIterator.SEG_CUBICTO) {
+                        path.curveTo(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                            in.readDouble(), in.readDouble());
+                    } else {
+                        path.closePath();
+                    }
+                }
+                return new Area(path);
+            }
+            default:
+                throw new IOException("Invalid value type: " + type); //$NON-NLS-1$
+        }
+    }
+
+    private static class IndexEntry {
+        private final long size;
+        private final long lastModified;
+        // Null when the file is not DICOM
+        private final byte[] data;
+
+        IndexEntry(long size, long lastModified, byte[] data) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+    }
+}
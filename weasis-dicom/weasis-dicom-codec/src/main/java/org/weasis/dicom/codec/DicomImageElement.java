@@ -15,7 +15,6 @@ import java.awt.image.DataBufferUShort;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.renderable.ParameterBlock;
-import java.lang.ref.Reference;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -41,32 +40,28 @@ import org.weasis.core.api.image.util.ImageToolkit;
 import org.weasis.core.api.image.util.LayoutUtil;
 import org.weasis.core.api.image.util.Unit;
 import org.weasis.core.api.media.data.ImageElement;
-import org.weasis.core.api.media.data.SoftHashMap;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.dicom.codec.display.PresetWindowLevel;
 import org.weasis.dicom.codec.geometry.GeometryOfSlice;
 import org.weasis.dicom.codec.utils.DicomImageUtils;
+import org.weasis.dicom.codec.utils.LutCache;
 import org.weasis.dicom.codec.utils.LutParameters;
 
 public class DicomImageElement extends ImageElement {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DicomImageElement.class);
 
-    private static final SoftHashMap<LutParameters, LookupTableJAI> LUT_Cache =
-        new SoftHashMap<LutParameters, LookupTableJAI>() {
-
-            public Reference<? extends LookupTableJAI> getReference(LutParameters key) {
-                return hash.get(key);
-            }
-
-            @Override
-            public void removeElement(Reference<? extends LookupTableJAI> soft) {
-                LutParameters key = reverseLookup.remove(soft);
-                if (key != null) {
-                    hash.remove(key);
-                }
-            }
-        };
+    private static final LutCache<LutParameters> LUT_Cache = new LutCache<LutParameters>("Modality LUT", 64); //$NON-NLS-1$
+    /*
+     * Window and level are rounded to a step relative to the window (see getWindowLevelStep()), the steps of a drag
+     * which do not change the 8 bits output share the same tables
+     */
+    private static final float MIN_WL_STEP = 1f / 8f;
+    // The VOI and combined caches keep only the last tables, those of a window/level drag are not kept
+    private static final LutCache<VoiLutKey> VOI_LUT_CACHE = new LutCache<VoiLutKey>("VOI LUT", 8); //$NON-NLS-1$
+    // Modality and VOI LUTs combined in one table
+    private static final LutCache<CombinedLutKey> COMBINED_LUT_CACHE = new LutCache<CombinedLutKey>(
+        "Combined LUT", 8); //$NON-NLS-1$
 
     private volatile List<PresetWindowLevel> windowingPresetCollection = null;
     private volatile Collection<LutShape> lutShapeCollection = null;
@@ -439,8 +434,65 @@ public class DicomImageElement extends ImageElement {
             maxValue = maxLevel.intValue();
         }
 
-        return DicomImageUtils.createWindowLevelLut(shape, window, level, minValue, maxValue, 8, false,
-            isPhotometricInterpretationInverse());
+        float step = getWindowLevelStep(window);
+        float w = quantizeWidth(window, step);
+        float l = quantize(level, step);
+        boolean inverse = isPhotometricInterpretationInverse();
+        VoiLutKey key = new VoiLutKey(shape, w, l, minValue, maxValue, inverse);
+        LookupTableJAI lookup = VOI_LUT_CACHE.get(key);
+        if (lookup == null) {
+            lookup = DicomImageUtils.createWindowLevelLut(shape, w, l, minValue, maxValue, 8, false, inverse);
+            VOI_LUT_CACHE.put(key, lookup);
+        }
+        return lookup;
+    }
+
+    /**
+     * @return the largest power of two not above window/128 (at least 1/8). Rounding the level to this step moves the
+     *         8 bits output by less than one gray level (255 * window/256 / window).
+     */
+    private static float getWindowLevelStep(float window) {
+        float maxStep = window / 128f;
+        if (!(maxStep > MIN_WL_STEP) || Float.isInfinite(maxStep)) {
+            return MIN_WL_STEP;
+        }
+        return Math.scalb(1f, Math.getExponent(maxStep));
+    }
+
+    private static float quantize(float value, float step) {
+        return Math.round(value / step) * step;
+    }
+
+    private static float quantizeWidth(float window, float step) {
+        // A narrow window must not be rounded to 0
+        return Math.max(quantize(window, step), step);
+    }
+
+    /**
+     * @return the modality LUT and the VOI LUT combined in one 8 bits table, or null when they cannot be combined
+     */
+    protected LookupTableJAI getCombinedLookup(LookupTableJAI modalityLookup, float window, float level,
+        float minLevel, float maxLevel, LutShape shape, boolean fillLutOutside, boolean pixelPadding) {
+        if (modalityLookup == null) {
+            return null;
+        }
+        // Same input range as the VOI LUT (see getVOILookup())
+        boolean fillOutside = fillLutOutside || (getPaddingValue() != null && isPhotometricInterpretationMonochrome());
+        int minValue = fillOutside ? getMinAllocatedValue(pixelPadding) : (int) minLevel;
+        int maxValue = fillOutside ? getMaxAllocatedValue(pixelPadding) : (int) maxLevel;
+        float step = getWindowLevelStep(window);
+        float w = quantizeWidth(window, step);
+        float l = quantize(level, step);
+        boolean inverse = isPhotometricInterpretationInverse();
+        CombinedLutKey key = new CombinedLutKey(modalityLookup, w, l, minValue, maxValue, shape, inverse);
+        LookupTableJAI lookup = COMBINED_LUT_CACHE.get(key);
+        if (lookup != null) {
+            return lookup;
+        }
+        // The window/level function is applied directly to the output of the modality LUT, no VOI LUT is built
+        lookup = DicomImageUtils.createCombinedWindowLevelLut(modalityLookup, shape, w, l, minValue, maxValue, inverse);
+        COMBINED_LUT_CACHE.put(key, lookup);
+        return lookup;
     }
 
     /**
@@ -520,6 +572,11 @@ public class DicomImageElement extends ImageElement {
         return (Histogram) op.getProperty("histogram"); //$NON-NLS-1$
     }
 
+    @Override
+    protected boolean isPreviewInverse() {
+        return isPhotometricInterpretationInverse();
+    }
+
     @Override
     protected void findMinMaxValues(RenderedImage img) {
         /*
@@ -707,10 +764,6 @@ public class DicomImageElement extends ImageElement {
         if (datatype >= DataBuffer.TYPE_BYTE && datatype < DataBuffer.TYPE_INT) {
             LookupTableJAI modalityLookup = getModalityLookup(pixPadding, invLUT);
 
-            // RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, new ImageLayout(imageSource));
-            RenderedImage imageModalityTransformed =
-                modalityLookup == null ? imageSource : LookupDescriptor.create(imageSource, modalityLookup, null);
-
             /*
              * C.11.2.1.2 Window center and window width
              * 
@@ -722,13 +775,25 @@ public class DicomImageElement extends ImageElement {
                  * If photometric interpretation is not monochrome do not apply VOILUT. It is necessary for
                  * PALETTE_COLOR.
                  */
-                return imageModalityTransformed;
+                // RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, new ImageLayout(imageSource));
+                return modalityLookup == null ? imageSource : LookupDescriptor.create(imageSource, modalityLookup,
+                    null);
             }
-            LookupTableJAI voiLookup =
-                getVOILookup(modalityLookup, windowValue, levelValue, minLevel, maxLevel, lut, fillLutOutside,
+            // Apply the modality and the VOI LUTs in a single lookup
+            LookupTableJAI lookup =
+                getCombinedLookup(modalityLookup, windowValue, levelValue, minLevel, maxLevel, lut, fillLutOutside,
                     pixPadding);
+            RenderedImage source = imageSource;
+            if (lookup == null) {
+                if (modalityLookup != null) {
+                    source = LookupDescriptor.create(imageSource, modalityLookup, null);
+                }
+                lookup =
+                    getVOILookup(modalityLookup, windowValue, levelValue, minLevel, maxLevel, lut, fillLutOutside,
+                        pixPadding);
+            }
             // BUG fix: for some images the color model is null. Creating 8 bits gray model layout fixes this issue.
-            return LookupDescriptor.create(imageModalityTransformed, voiLookup, LayoutUtil.createGrayRenderedImage());
+            return LookupDescriptor.create(source, lookup, LayoutUtil.createGrayRenderedImage());
 
         } else if (datatype == DataBuffer.TYPE_INT || datatype == DataBuffer.TYPE_FLOAT
             || datatype == DataBuffer.TYPE_DOUBLE) {
@@ -831,4 +896,90 @@ public class DicomImageElement extends ImageElement {
         return null;
     }
 
+    private static class VoiLutKey {
+        private final LutShape shape;
+        private final float window;
+        private final float level;
+        private final int minValue;
+        private final int maxValue;
+        private final boolean inverse;
+
+        VoiLutKey(LutShape shape, float window, float level, int minValue, int maxValue, boolean inverse) {
+            this.shape = shape;
+            this.window = window;
+            this.level = level;
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            this.inverse = inverse;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = shape.hashCode();
+            result = 31 * result + Float.floatToIntBits(window);
+            result = 31 * result + Float.floatToIntBits(level);
+            result = 31 * result + minValue;
+            result = 31 * result + maxValue;
+            return 31 * result + (inverse ? 1231 : 1237);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof VoiLutKey)) {
+                return false;
+            }
+            VoiLutKey other = (VoiLutKey) obj;
+            return shape.equals(other.shape) && window == other.window && level == other.level
+                && minValue == other.minValue && maxValue == other.maxValue && inverse == other.inverse;
+        }
+    }
+
+    private static class CombinedLutKey {
+        private final LookupTableJAI modalityLookup;
+        private final float window;
+        private final float level;
+        private final int minValue;
+        private final int maxValue;
+        private final LutShape shape;
+        private final boolean inverse;
+
+        CombinedLutKey(LookupTableJAI modalityLookup, float window, float level, int minValue, int maxValue,
+            LutShape shape, boolean inverse) {
+            this.modalityLookup = modalityLookup;
+            this.window = window;
+            this.level = level;
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            this.shape = shape;
+            this.inverse = inverse;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(modalityLookup);
+            result = 31 * result + Float.floatToIntBits(window);
+            result = 31 * result + Float.floatToIntBits(level);
+            result = 31 * result + minValue;
+            result = 31 * result + maxValue;
+            result = 31 * result + (shape == null ? 0 : shape.hashCode());
+            return 31 * result + (inverse ? 1231 : 1237);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CombinedLutKey)) {
+                return false;
+            }
+            CombinedLutKey other = (CombinedLutKey) obj;
+            return modalityLookup == other.modalityLookup && window == other.window && level == other.level
+                && minValue == other.minValue && maxValue == other.maxValue
+                && (shape == null ? other.shape == null : shape.equals(other.shape)) && inverse == other.inverse;
+        }
+    }
 }
@@ -26,22 +26,31 @@ import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.awt.image.renderable.ParameterBlock;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
-import java.lang.ref.Reference;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
@@ -55,8 +64,10 @@ import javax.media.jai.LookupTableJAI;
 import javax.media.jai.PlanarImage;
 import javax.media.jai.operator.AndConstDescriptor;
 import javax.media.jai.operator.NullDescriptor;
+import javax.media.jai.operator.SubsampleAverageDescriptor;
 
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Attributes.Visitor;
 import org.dcm4che3.data.BulkData;
 import org.dcm4che3.data.Fragments;
 import org.dcm4che3.data.Sequence;
@@ -87,14 +98,19 @@ import org.weasis.core.api.image.util.CIELab;
 import org.weasis.core.api.image.util.ImageFiler;
 import org.weasis.core.api.image.util.LayoutUtil;
 import org.weasis.core.api.media.data.Codec;
+import org.weasis.core.api.media.data.ImageLoaderExecutor;
+import org.weasis.core.api.media.data.LruCache;
 import org.weasis.core.api.media.data.MediaElement;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.MediaSeriesGroup;
+import org.weasis.core.api.media.data.MediaSeriesGroupNode;
+import org.weasis.core.api.media.data.MultiResolutionReader;
 import org.weasis.core.api.media.data.Series;
-import org.weasis.core.api.media.data.SoftHashMap;
+import org.weasis.core.api.media.data.TagMap;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.service.BundleTools;
 import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.NamedThreadFactory;
 import org.weasis.core.api.util.StringUtil;
 import org.weasis.dicom.codec.geometry.ImageOrientation;
 import org.weasis.dicom.codec.utils.DicomImageUtils;
@@ -104,7 +120,8 @@ import org.weasis.dicom.codec.utils.OverlayUtils;
 import com.sun.media.imageio.stream.RawImageInputStream;
 import com.sun.media.jai.util.ImageUtil;
 
-public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarImage> {
+public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarImage>,
+    MultiResolutionReader<PlanarImage> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DicomMediaIO.class);
 
@@ -166,24 +183,46 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
             });
     }
 
-    private static final SoftHashMap<DicomMediaIO, DicomMetaData> HEADER_CACHE =
-        new SoftHashMap<DicomMediaIO, DicomMetaData>() {
+    /*
+     * Read uncompressed pixel data by mapping the file in memory, enabled with the property "weasis.dicom.mmap". The
+     * mapping is released only by the garbage collector: on Windows, the file cannot be deleted or renamed until then.
+     */
+    private static final boolean MEMORY_MAPPING = BundleTools.SYSTEM_PREFERENCES.getBooleanProperty(
+        "weasis.dicom.mmap", false); //$NON-NLS-1$
 
-            public Reference<? extends DicomMetaData> getReference(DicomMediaIO key) {
-                return hash.get(key);
-            }
+    /*
+     * Closes the readers of the evicted headers. The eviction happens in the thread putting a new header, which can
+     * hold the lock of another reader.
+     */
+    private static final ExecutorService HEADER_CACHE_CLEANER =
+        Executors.newSingleThreadExecutor(new NamedThreadFactory("DICOM Header Cache Cleaner")); //$NON-NLS-1$
 
-            @Override
-            public void removeElement(Reference<? extends DicomMetaData> soft) {
-                DicomMediaIO key = reverseLookup.remove(soft);
-                if (key != null) {
-                    hash.remove(key);
-                    key.reset();
+    /*
+     * Cache of the DICOM headers limited by the property "weasis.header.cache.size" in MB (sum of the estimated memory
+     * size of the parsed headers)
+     */
+    public static final String HEADER_CACHE_SIZE = "weasis.header.cache.size"; //$NON-NLS-1$
+    private static final LruCache<DicomMediaIO, DicomMetaData> HEADER_CACHE = new LruCache<DicomMediaIO, DicomMetaData>(
+        BundleTools.SYSTEM_PREFERENCES.getLongProperty(HEADER_CACHE_SIZE, 64L) * 1024L * 1024L) {
+
+        @Override
+        protected long sizeOf(DicomMediaIO key, DicomMetaData value) {
+            return getMemorySize(value.getFileMetaInformation()) + getMemorySize(value.getAttributes());
+        }
+
+        @Override
+        protected void entryRemoved(final DicomMediaIO key, DicomMetaData value) {
+            HEADER_CACHE_CLEANER.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    key.resetEvicted();
                 }
-            }
-        };
+            });
+        }
+    };
 
-    // The above softReference HEADER_CACHE shall be used instead of the following dcmMetadata variable to get access to
+    // The above HEADER_CACHE shall be used instead of the following dcmMetadata variable to get access to
     // the current DicomObject unless it's virtual and then URI doesn't exit. This case appends when the dcmMetadata is
     // created within the application and is given to the ImageReader constructor
     private DicomMetaData dcmMetadata = null;
@@ -194,15 +233,18 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
     private ImageReader decompressor;
     private PatchJPEGLS patchJpegLS;
     private int frameLength;
+    private MappedByteBuffer mappedPixelData;
     private PhotometricInterpretation pmi;
 
     private URI uri;
     private int numberOfFrame;
-    private final HashMap<TagW, Object> tags;
+    private final TagMap tags;
     private volatile MediaElement[] image = null;
     private volatile String mimeType;
 
     private volatile ImageInputStream iis;
+    // Channel of the local file for reading the tiles of the uncompressed images concurrently
+    private volatile FileChannel pixelChannel;
     private DicomInputStream dis;
     private int dataType = 0;
     private boolean hasPixel = false;
@@ -219,12 +261,14 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
     private boolean skipLargePrivate = true;
     private volatile boolean readingHeader = false;
     private volatile boolean readingImage = false;
+    // Tags of the patient, study and series groups when the reader is built from the header index
+    private volatile Map<TagW, Map<TagW, Object>> indexedGroups = null;
 
     public DicomMediaIO(URI uri) {
         super(DicomCodec.DicomImageReaderSpi);
         this.uri = uri;
         numberOfFrame = 0;
-        this.tags = new HashMap<TagW, Object>();
+        this.tags = new TagMap();
         mimeType = MIMETYPE;
     }
 
@@ -236,6 +280,31 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         this(url.toURI());
     }
 
+    /**
+     * Creates a reader with the header parsed while writing the file, so the header is not read again.
+     *
+     * @param source
+     *            the DICOM file
+     * @param metadata
+     *            the header, the bulk data must refer to the offsets in the file. When null, the header is read from
+     *            the file.
+     */
+    public DicomMediaIO(File source, DicomMetaData metadata) {
+        this(source.toURI());
+        if (metadata != null && metadata.getAttributes() != null) {
+            Attributes ds = metadata.getAttributes();
+            Attributes fmi = metadata.getFileMetaInformation();
+            Object pixdata = ds.getValue(Tag.PixelData, pixeldataVR);
+            if (pixdata != null) {
+                // Same state as after reading the header without the image
+                tsuid = fmi == null ? null : fmi.getString(Tag.TransferSyntaxUID);
+                numberOfFrame = ds.getInt(Tag.NumberOfFrames, 1);
+                hasPixel = ds.getInt(Tag.BitsStored, ds.getInt(Tag.BitsAllocated, 0)) > 0;
+            }
+            HEADER_CACHE.put(this, metadata);
+        }
+    }
+
     public DicomMediaIO(Attributes dcmItems) {
         this((URI) null);
         if (dcmItems == null) {
@@ -357,6 +426,25 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
     // }
     // }
 
+    /**
+     * @return the channel of the local file, or null when the file is not local
+     */
+    private synchronized FileChannel getPixelChannel() {
+        if (pixelChannel != null && !pixelChannel.isOpen()) {
+            // Closed by an interrupted read, open it again
+            pixelChannel = null;
+        }
+        if (pixelChannel == null && uri != null && uri.toString().startsWith("file:/")) { //$NON-NLS-1$
+            try {
+                // Closing the channel closes the file
+                pixelChannel = new RandomAccessFile(new File(uri), "r").getChannel(); //$NON-NLS-1$
+            } catch (IOException e) {
+                LOGGER.warn("Cannot open the channel of {}: {}", uri, e.getMessage()); //$NON-NLS-1$
+            }
+        }
+        return pixelChannel;
+    }
+
     private ImageReader initRawImageReader() {
         long[] frameOffsets = new long[numberOfFrame];
         frameOffsets[0] = pixeldata.offset;
@@ -389,13 +477,17 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         // endianess is already in iis?
         // riis.setByteOrder(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
 
-        ImageReader reader = new RawImageReader(DicomCodec.RawImageReaderSpi);
+        RawImageReader reader = new RawImageReader(DicomCodec.RawImageReaderSpi);
         // ImageReader reader = ImageIO.getImageReadersByFormatName("RAW").next();
         // if (reader == null) {
         // FileUtil.safeClose(riis);
         // throw new UnsupportedOperationException("No RAW Reader available");
         // }
         reader.setInput(riis);
+        FileChannel channel = getPixelChannel();
+        if (channel != null) {
+            reader.setPixelChannel(channel, iis.getByteOrder());
+        }
         return reader;
     }
 
@@ -456,6 +548,17 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         if (group == null) {
             return;
         }
+        Map<TagW, Map<TagW, Object>> groups = indexedGroups;
+        if (groups != null) {
+            Map<TagW, Object> groupTags = groups.get(group.getTagID());
+            if (groupTags != null) {
+                // Tags from the header index, the header is not read
+                for (Entry<TagW, Object> e : groupTags.entrySet()) {
+                    group.setTag(e.getKey(), e.getValue());
+                }
+                return;
+            }
+        }
         // Get the dicom header
         Attributes header = getDicomObject();
         DicomMediaUtils.writeMetaData(group, header);
@@ -477,6 +580,67 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         }
     }
 
+    /**
+     * Writes the state after reading the header (the instance tags and the tags of the patient, study and series
+     * groups) for the header index. Only the images and the videos can be indexed.
+     *
+     * @throws IOException
+     *             when the file cannot be indexed
+     */
+    void writeIndexedState(DataOutput out) throws IOException {
+        if (!(IMAGE_MIMETYPE.equals(mimeType) || SERIES_VIDEO_MIMETYPE.equals(mimeType)) || numberOfFrame <= 0) {
+            throw new IOException("Not an image: " + mimeType); //$NON-NLS-1$
+        }
+        out.writeUTF(mimeType);
+        out.writeInt(numberOfFrame);
+        out.writeBoolean(hasPixel);
+        out.writeInt(bitsStored);
+        out.writeInt(bitsAllocated);
+        out.writeInt(highBit);
+        out.writeBoolean(banded);
+        out.writeInt(dataType);
+        DicomHeaderIndex.writeTags(out, tags, null);
+        for (TagW groupTag : new TagW[] { TagW.PatientPseudoUID, TagW.StudyInstanceUID, TagW.SubseriesInstanceUID }) {
+            MediaSeriesGroupNode node = new MediaSeriesGroupNode(groupTag, NO_VALUE);
+            writeMetaData(node);
+            Map<TagW, Object> groupTags = new HashMap<TagW, Object>();
+            Iterator<Entry<TagW, Object>> it = node.getTagEntrySetIterator();
+            while (it.hasNext()) {
+                Entry<TagW, Object> e = it.next();
+                groupTags.put(e.getKey(), e.getValue());
+            }
+            DicomHeaderIndex.writeTags(out, groupTags, groupTag);
+        }
+    }
+
+    /**
+     * Builds a reader from the state written by writeIndexedState(). The header is read only when required (e.g.
+     * reading the pixel data).
+     */
+    static DicomMediaIO readIndexedState(File source, DataInput in) throws IOException {
+        DicomMediaIO reader = new DicomMediaIO(source);
+        reader.mimeType = in.readUTF();
+        reader.numberOfFrame = in.readInt();
+        reader.hasPixel = in.readBoolean();
+        reader.bitsStored = in.readInt();
+        reader.bitsAllocated = in.readInt();
+        reader.highBit = in.readInt();
+        reader.banded = in.readBoolean();
+        reader.dataType = in.readInt();
+        DicomHeaderIndex.readTags(in, reader.tags);
+        String photometricInterpretation = (String) reader.tags.get(TagW.PhotometricInterpretation);
+        reader.pmi = PhotometricInterpretation.fromString(photometricInterpretation == null ? "MONOCHROME2" //$NON-NLS-1$
+            : photometricInterpretation);
+        Map<TagW, Map<TagW, Object>> groups = new HashMap<TagW, Map<TagW, Object>>();
+        for (TagW groupTag : new TagW[] { TagW.PatientPseudoUID, TagW.StudyInstanceUID, TagW.SubseriesInstanceUID }) {
+            Map<TagW, Object> groupTags = new HashMap<TagW, Object>();
+            DicomHeaderIndex.readTags(in, groupTags);
+            groups.put(groupTag, groupTags);
+        }
+        reader.indexedGroups = groups;
+        return reader;
+    }
+
     private void writeInstanceTags(Attributes fmi, Attributes header) {
         if (tags.size() > 0 || header == null) {
             return;
@@ -549,6 +713,8 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         if (pr) {
             tags.remove(TagW.PresentationLUTSequence);
         }
+        // Release the unused capacity, most of the tags are written
+        tags.trimToSize();
     }
 
     private void writeSharedFunctionalGroupsSequence(Attributes header) {
@@ -779,13 +945,48 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
                     // }
                 }
                 // }
-                return getValidImage(buffer, media);
+                return getValidImage(buffer, media, true);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public PlanarImage getMediaFragment(MediaElement<PlanarImage> media, int level) throws Exception {
+        if (level <= 0) {
+            return getMediaFragment(media);
+        }
+        if (media != null && media.getKey() instanceof Integer && isReadableDicom()) {
+            int frame = (Integer) media.getKey();
+            if (frame >= 0 && frame < numberOfFrame && hasPixel) {
+                LOGGER.debug("read dicom image frame: {} at level: {}", frame, level); //$NON-NLS-1$
+                RenderedImage buffer = null;
+                String path = (String) media.getTagValue(TagW.TiledImagePath);
+                if (StringUtil.hasText(path)) {
+                    buffer = ImageFiler.readTiledCacheImage(new File(path));
+                }
+                int factor = 1 << level;
+                if (buffer == null) {
+                    ImageReadParam param = getDefaultReadParam();
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                    buffer = readAsRenderedImage(frame, param);
+                }
+                // The overlays in pixel data are extracted only from the original image
+                PlanarImage img = getValidImage(buffer, media, false);
+
+                // Some readers ignore the subsampling and the JPEG 2000 codestream can have less resolution levels
+                int width = (getWidth(frame) + factor - 1) / factor;
+                if (img != null && img.getWidth() > width) {
+                    double scale = width / (double) img.getWidth();
+                    img = SubsampleAverageDescriptor.create(img, scale, scale, null);
+                }
+                return img;
             }
         }
         return null;
     }
 
-    private PlanarImage getValidImage(RenderedImage buffer, MediaElement<PlanarImage> media) {
+    private PlanarImage getValidImage(RenderedImage buffer, MediaElement<PlanarImage> media, boolean originalSize) {
         PlanarImage img = null;
         if (buffer != null) {
             // Bug fix: CLibImageReader and J2KImageReaderCodecLib (imageio libs) do not handle negative values
@@ -809,7 +1010,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
              */
             Integer overlayBitMask = (Integer) getTagValue(TagW.OverlayBitMask);
             if (overlayBitMask != null) {
-                if (media.getTagValue(TagW.OverlayBurninData) == null) {
+                if (originalSize && media.getTagValue(TagW.OverlayBurninData) == null) {
                     // Serialize overlay (from pixel data)
                     Attributes ds = getDicomObject();
                     int[] overlayGroupOffsets = Overlays.getActiveOverlayGroupOffsets(ds, 0xffff);
@@ -957,10 +1158,10 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
     }
 
     @Override
-    public HashMap<TagW, Object> getMediaFragmentTags(Object key) {
+    public Map<TagW, Object> getMediaFragmentTags(Object key) {
         if (key instanceof Integer) {
             if ((Integer) key > 0) {
-                HashMap<TagW, Object> tagList = (HashMap<TagW, Object>) tags.clone();
+                Map<TagW, Object> tagList = new TagMap(tags);
                 if (DicomMediaUtils.writePerFrameFunctionalGroupsSequence(tagList, getDicomObject(), (Integer) key)) {
                     DicomMediaUtils.buildLUTs(tagList);
                     DicomMediaUtils.computeSlicePositionVector(tagList);
@@ -1083,7 +1284,15 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
     }
 
     private boolean isRLELossless() {
-        return dis == null ? false : dis.getTransferSyntax().equals(UID.RLELossless);
+        return UID.RLELossless.equals(tsuid);
+    }
+
+    /**
+     * @return the lock of the decompressor: the lock shared by all the native codecs, which do not support several
+     *         threads, otherwise the decompressor itself
+     */
+    private Object getDecodingLock() {
+        return ImageLoaderExecutor.isNativeCodec(decompressor) ? ImageLoaderExecutor.NATIVE_CODEC_LOCK : decompressor;
     }
 
     private ImageInputStreamImpl iisOfFrame(int frameIndex) throws IOException {
@@ -1112,17 +1321,34 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Start decompressing frame #" + (frameIndex + 1)); //$NON-NLS-1$
                 }
-                Raster wr =
-                    pmi.decompress() == pmi && decompressor.canReadRaster() ? decompressor.readRaster(0,
-                        decompressParam(param)) : decompressor.read(0, decompressParam(param)).getRaster();
+                Raster wr;
+                synchronized (getDecodingLock()) {
+                    wr =
+                        pmi.decompress() == pmi && decompressor.canReadRaster() ? decompressor.readRaster(0,
+                            decompressParam(param)) : decompressor.read(0, decompressParam(param)).getRaster();
+                }
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Finished decompressing frame #" + (frameIndex + 1)); //$NON-NLS-1$
                 }
                 return wr;
             }
-            iis.seek(pixeldata.offset + frameIndex * frameLength);
             WritableRaster wr = Raster.createWritableRaster(createSampleModel(dataType, banded), null);
             DataBuffer buf = wr.getDataBuffer();
+            ByteBuffer frame = getMappedFrame(frameIndex);
+            if (frame != null) {
+                // Copy the pages of the mapped file with one bulk transfer
+                if (buf instanceof DataBufferByte) {
+                    byte[][] data = ((DataBufferByte) buf).getBankData();
+                    for (byte[] bs : data) {
+                        frame.get(bs);
+                    }
+                } else {
+                    short[] data = ((DataBufferUShort) buf).getData();
+                    frame.asShortBuffer().get(data);
+                }
+                return wr;
+            }
+            iis.seek(pixeldata.offset + (long) frameIndex * frameLength);
             if (buf instanceof DataBufferByte) {
                 byte[][] data = ((DataBufferByte) buf).getBankData();
                 for (byte[] bs : data) {
@@ -1138,6 +1364,42 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         }
     }
 
+    /**
+     * Maps the pixel data of an uncompressed file in memory. The mapping is shared by all the frames, the pages are
+     * loaded lazily by the system when a frame is read.
+     * 
+     * @return the buffer of the frame or null when the mapping is not possible
+     */
+    private ByteBuffer getMappedFrame(int frameIndex) throws IOException {
+        if (!MEMORY_MAPPING || uri == null || !"file".equals(uri.getScheme()) || pixeldata == null) { //$NON-NLS-1$
+            return null;
+        }
+        long length = (long) numberOfFrame * frameLength;
+        if (mappedPixelData == null) {
+            if (length <= 0 || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(new File(uri), "r"); //$NON-NLS-1$
+                FileChannel channel = raf.getChannel();
+                if (pixeldata.offset + length > channel.size()) {
+                    // Truncated file
+                    return null;
+                }
+                // The mapping remains valid after closing the channel
+                mappedPixelData = channel.map(FileChannel.MapMode.READ_ONLY, pixeldata.offset, length);
+            } finally {
+                FileUtil.safeClose(raf);
+            }
+        }
+        ByteBuffer frame = mappedPixelData.duplicate();
+        int position = frameIndex * frameLength;
+        frame.limit(position + frameLength);
+        frame.position(position);
+        return frame.slice().order(iis.getByteOrder());
+    }
+
     private ImageReadParam decompressParam(ImageReadParam param) {
         ImageReadParam decompressParam = decompressor.getDefaultReadParam();
         ImageTypeSpecifier imageType = param.getDestinationType();
@@ -1147,13 +1409,91 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         }
         decompressParam.setDestinationType(imageType);
         decompressParam.setDestination(dest);
+        int subsamplingX = param.getSourceXSubsampling();
+        int subsamplingY = param.getSourceYSubsampling();
+        if (subsamplingX > 1 || subsamplingY > 1) {
+            // JPEG 2000 decodes directly a lower resolution level of the wavelet transform
+            if (subsamplingX != subsamplingY || !setJpeg2000Resolution(decompressParam, subsamplingX)) {
+                decompressParam.setSourceSubsampling(subsamplingX, subsamplingY, param.getSubsamplingXOffset(),
+                    param.getSubsamplingYOffset());
+            }
+        }
         return decompressParam;
     }
 
+    /**
+     * Sets the resolution level of the JPEG 2000 readers (J2KImageReadParam), the input of the decompressor must be
+     * the codestream of the frame.
+     * 
+     * @return true if the resolution has been set
+     */
+    private boolean setJpeg2000Resolution(ImageReadParam decompressParam, int subsampling) {
+        Method setResolution;
+        try {
+            setResolution = decompressParam.getClass().getMethod("setResolution", int.class); //$NON-NLS-1$
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+        Object input = decompressor.getInput();
+        int levels = input instanceof ImageInputStream ? getJpeg2000DecompositionLevels((ImageInputStream) input) : -1;
+        if (levels <= 0 || Integer.bitCount(subsampling) != 1) {
+            return false;
+        }
+        // The highest resolution is the number of decomposition levels, each lower level divides the size by 2
+        int reduction = Integer.numberOfTrailingZeros(subsampling);
+        try {
+            setResolution.invoke(decompressParam, Math.max(0, levels - reduction));
+            return true;
+        } catch (Exception e) {
+            LOGGER.debug("Cannot set the JPEG 2000 resolution: {}", e.getMessage()); //$NON-NLS-1$
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of decomposition levels of the COD marker of a JPEG 2000 codestream or -1 when the stream is
+     *         not a codestream
+     */
+    private static int getJpeg2000DecompositionLevels(ImageInputStream stream) {
+        try {
+            stream.mark();
+            try {
+                // SOC marker
+                if (readMarker(stream) != 0xFF4F) {
+                    return -1;
+                }
+                while (true) {
+                    int marker = readMarker(stream);
+                    // End of the main header (SOT, SOD) or invalid marker
+                    if ((marker & 0xFF00) != 0xFF00 || marker == 0xFF90 || marker == 0xFF93) {
+                        return -1;
+                    }
+                    int length = readMarker(stream);
+                    if (marker == 0xFF52) {
+                        // COD: Scod, progression order, number of layers (2 bytes), multiple component transform
+                        stream.skipBytes(5);
+                        return stream.readUnsignedByte();
+                    }
+                    stream.skipBytes(length - 2);
+                }
+            } finally {
+                stream.reset();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static int readMarker(ImageInputStream stream) throws IOException {
+        // Big endian whatever the byte order of the stream
+        return (stream.readUnsignedByte() << 8) | stream.readUnsignedByte();
+    }
+
     @Override
     public BufferedImage read(int frameIndex, ImageReadParam param) throws IOException {
         readingImage = true;
         try {
+            readMetaData(true);
             checkIndex(frameIndex);
             if (param == null) {
                 param = getDefaultReadParam();
@@ -1165,7 +1505,10 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Start decompressing frame #" + (frameIndex + 1)); //$NON-NLS-1$
                 }
-                BufferedImage bi = decompressor.read(0, decompressParam(param));
+                BufferedImage bi;
+                synchronized (getDecodingLock()) {
+                    bi = decompressor.read(0, decompressParam(param));
+                }
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Finished decompressing frame #" + (frameIndex + 1)); //$NON-NLS-1$
                 }
@@ -1212,7 +1555,9 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
             RenderedImage bi = null;
             if (decompressor != null) {
                 decompressor.setInput(iisOfFrame(frameIndex));
-                bi = decompressor.readAsRenderedImage(0, decompressParam(param));
+                synchronized (getDecodingLock()) {
+                    bi = decompressor.readAsRenderedImage(0, decompressParam(param));
+                }
             } else {
                 // Rewrite image with subsampled model (otherwise cannot not be displayed as RenderedImage)
                 // Convert YBR_FULL into RBG as the ybr model is not well supported.
@@ -1370,13 +1715,26 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         }
     }
 
+    /**
+     * Closes the stream when the header has been evicted from the cache. The lock of the reader prevents closing it
+     * while another thread is opening it to read the header or an image.
+     */
+    private synchronized void resetEvicted() {
+        if (!HEADER_CACHE.containsKey(this)) {
+            reset();
+        }
+    }
+
     private void resetInternalState() {
         FileUtil.safeClose(iis);
         iis = null;
+        FileUtil.safeClose(pixelChannel);
+        pixelChannel = null;
         dis = null;
         tsuid = null;
 
         pixeldata = null;
+        mappedPixelData = null;
         pixeldataFragments = null;
         if (decompressor != null) {
             decompressor.dispose();
@@ -1458,11 +1816,20 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
             }
 
             /*
-             * When readImageAfter is true, do not read again the header if it is in cache and the variables has been
-             * initialized
+             * When readImageAfter is true, do not read again the header if it is in cache: the variables of the pixel
+             * data are initialized from the cached header (e.g. the stream has been closed, or the header has been
+             * parsed while downloading the file)
              */
-            if (header != null && tsuid != null) {
-                return header;
+            if (header != null) {
+                if (tsuid != null) {
+                    return header;
+                }
+                Attributes fmi = header.getFileMetaInformation();
+                String ts = fmi == null ? null : fmi.getString(Tag.TransferSyntaxUID);
+                if (ts != null && header.getAttributes() != null) {
+                    initPixelData(header.getAttributes(), ts, true);
+                    return header;
+                }
             }
             iis.seek(0L);
             dis = new DicomInputStream(new ImageInputStreamAdapter(iis));
@@ -1477,39 +1844,7 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
                 fmi = ds.createFileMetaInformation(dis.getTransferSyntax());
             }
             DicomMetaData metadata = new DicomMetaData(fmi, ds);
-            Object pixdata = ds.getValue(Tag.PixelData, pixeldataVR);
-
-            if (pixdata != null) {
-                tsuid = dis.getTransferSyntax();
-                numberOfFrame = ds.getInt(Tag.NumberOfFrames, 1);
-                hasPixel = ds.getInt(Tag.BitsStored, ds.getInt(Tag.BitsAllocated, 0)) > 0;
-
-                if (readImageAfter && !tsuid.startsWith("1.2.840.10008.1.2.4.10") && hasPixel) { //$NON-NLS-1$
-
-                    if (pixdata instanceof BulkData) {
-                        int width = (Integer) getTagValue(TagW.Columns);
-                        int height = (Integer) getTagValue(TagW.Rows);
-                        int samples = (Integer) getTagValue(TagW.SamplesPerPixel);
-                        iis.setByteOrder(ds.bigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
-                        this.frameLength = pmi.frameLength(width, height, samples, bitsAllocated);
-                        this.pixeldata = (BulkData) pixdata;
-                        // Handle JPIP
-                    } else if (ds.getString(Tag.PixelDataProviderURL) != null) {
-                        if (numberOfFrame == 0) {
-                            numberOfFrame = 1;
-                            // compressed = true;
-                        }
-                    } else if (pixdata instanceof Fragments) {
-                        ImageReaderItem readerItem = ImageReaderFactory.getImageReader(tsuid);
-                        if (readerItem == null) {
-                            throw new IOException("Unsupported Transfer Syntax: " + tsuid); //$NON-NLS-1$
-                        }
-                        this.decompressor = readerItem.getImageReader();
-                        // this.patchJpegLS = param.patchJPEGLS;
-                        this.pixeldataFragments = (Fragments) pixdata;
-                    }
-                }
-            }
+            initPixelData(ds, dis.getTransferSyntax(), readImageAfter);
 
             HEADER_CACHE.put(this, metadata);
             return metadata;
@@ -1526,6 +1861,96 @@ public class DicomMediaIO extends ImageReader implements DcmMediaReader<PlanarIm
         }
     }
 
+    /**
+     * Initializes the variables of the pixel data from the parsed header.
+     */
+    private void initPixelData(Attributes ds, String tsuid, boolean readImageAfter) throws IOException {
+        Object pixdata = ds.getValue(Tag.PixelData, pixeldataVR);
+        if (pixdata != null) {
+            this.tsuid = tsuid;
+            numberOfFrame = ds.getInt(Tag.NumberOfFrames, 1);
+            hasPixel = ds.getInt(Tag.BitsStored, ds.getInt(Tag.BitsAllocated, 0)) > 0;
+
+            if (readImageAfter && !tsuid.startsWith("1.2.840.10008.1.2.4.10") && hasPixel) { //$NON-NLS-1$
+
+                if (pixdata instanceof BulkData) {
+                    int width = (Integer) getTagValue(TagW.Columns);
+                    int height = (Integer) getTagValue(TagW.Rows);
+                    int samples = (Integer) getTagValue(TagW.SamplesPerPixel);
+                    iis.setByteOrder(ds.bigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+                    this.frameLength = pmi.frameLength(width, height, samples, bitsAllocated);
+                    this.pixeldata = (BulkData) pixdata;
+                    // Handle JPIP
+                } else if (ds.getString(Tag.PixelDataProviderURL) != null) {
+                    if (numberOfFrame == 0) {
+                        numberOfFrame = 1;
+                        // compressed = true;
+                    }
+                } else if (pixdata instanceof Fragments) {
+                    ImageReaderItem readerItem = ImageReaderFactory.getImageReader(tsuid);
+                    if (readerItem == null) {
+                        throw new IOException("Unsupported Transfer Syntax: " + tsuid); //$NON-NLS-1$
+                    }
+                    this.decompressor = readerItem.getImageReader();
+                    // this.patchJpegLS = param.patchJPEGLS;
+                    this.pixeldataFragments = (Fragments) pixdata;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the estimated size in memory of the parsed attributes, including the nested datasets
+     */
+    private static long getMemorySize(Attributes attributes) {
+        if (attributes == null) {
+            return 0L;
+        }
+        final long[] size = { 48L };
+        try {
+            attributes.accept(new Visitor() {
+
+                @Override
+                public boolean visit(Attributes item, int tag, VR vr, Object value) {
+                    // Tag, VR and value references in the arrays of Attributes
+                    size[0] += 12L + getMemorySize(value);
+                    return true;
+                }
+            }, true);
+        } catch (Exception e) {
+            LOGGER.error("Cannot estimate the size of the header: {}", e.getMessage()); //$NON-NLS-1$
+        }
+        return size[0];
+    }
+
+    private static long getMemorySize(Object value) {
+        if (value instanceof byte[]) {
+            return 16L + ((byte[]) value).length;
+        } else if (value instanceof String) {
+            return 40L + 2L * ((String) value).length();
+        } else if (value instanceof String[]) {
+            String[] values = (String[]) value;
+            long size = 16L + 4L * values.length;
+            for (String v : values) {
+                size += getMemorySize(v);
+            }
+            return size;
+        } else if (value instanceof Sequence) {
+            // The items are visited as nested datasets
+            return 40L + 48L * ((Sequence) value).size();
+        } else if (value instanceof Fragments) {
+            Fragments fragments = (Fragments) value;
+            long size = 40L + 4L * fragments.size();
+            for (Object v : fragments) {
+                size += getMemorySize(v);
+            }
+            return size;
+        } else if (value instanceof BulkData) {
+            return 24L + getMemorySize((Object) ((BulkData) value).uri);
+        }
+        return 0L;
+    }
+
     private SampleModel createSampleModel(int dataType, boolean banded) {
         return pmi.createSampleModel(dataType, (Integer) getTagValue(TagW.Columns), (Integer) getTagValue(TagW.Rows),
             (Integer) getTagValue(TagW.SamplesPerPixel), banded);
@@ -10,19 +10,17 @@
  ******************************************************************************/
 package org.weasis.dicom.codec;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 
-import javax.media.jai.PlanarImage;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.weasis.core.api.explorer.ObservableEvent;
 import org.weasis.core.api.explorer.model.DataExplorerModel;
 import org.weasis.core.api.gui.util.Filter;
+import org.weasis.core.api.media.data.ImagePrefetcher;
 import org.weasis.core.api.media.data.MediaElement;
 import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SeriesEvent;
@@ -31,8 +29,11 @@ import org.weasis.core.api.util.FileUtil;
 import org.weasis.core.api.util.StringUtil;
 
 public class DicomSeries extends Series<DicomImageElement> {
-    private static final Logger LOGGER = LoggerFactory.getLogger(DicomSeries.class);
-    private static volatile PreloadingTask preloadingTask;
+    // Maximum number of slice location indexes kept (one by filter)
+    private static final int MAX_LOCATION_INDEXES = 4;
+
+    private final List<SliceLocationIndex> locationIndexes = new ArrayList<SliceLocationIndex>(MAX_LOCATION_INDEXES);
+    private final ImagePrefetcher<DicomImageElement> prefetcher = new ImagePrefetcher<DicomImageElement>();
 
     public DicomSeries(String subseriesInstanceUID) {
         this(TagW.SubseriesInstanceUID, subseriesInstanceUID, null);
@@ -78,7 +79,15 @@ public class DicomSeries extends Series<DicomImageElement> {
                     if (insertIndex < 0 || insertIndex > medias.size()) {
                         insertIndex = medias.size();
                     }
+                    int lastModification = getModificationCount();
                     add(insertIndex, dcm);
+                    // The slice locations do not depend on the order, only the new image is indexed
+                    for (SliceLocationIndex locationIndex : locationIndexes) {
+                        if (locationIndex.getModificationCount() == lastModification) {
+                            locationIndex.add(dcm);
+                            locationIndex.setModificationCount(getModificationCount());
+                        }
+                    }
                 }
                 DataExplorerModel model = (DataExplorerModel) getTagValue(TagW.ExplorerModel);
                 if (model != null) {
@@ -134,212 +143,111 @@ public class DicomSeries extends Series<DicomImageElement> {
     @Override
     public void dispose() {
         stopPreloading(this);
+        synchronized (this) {
+            locationIndexes.clear();
+        }
         super.dispose();
     }
 
     @Override
     public DicomImageElement getNearestImage(double location, int offset, Filter<DicomImageElement> filter,
         Comparator<DicomImageElement> sort) {
-        Iterable<DicomImageElement> mediaList = getMedias(filter, sort);
-        DicomImageElement nearest = null;
-        int index = 0;
-        int bestIndex = -1;
         synchronized (this) {
-            double bestDiff = Double.MAX_VALUE;
-            for (Iterator<DicomImageElement> iter = mediaList.iterator(); iter.hasNext();) {
-                DicomImageElement dcm = iter.next();
-                double[] val = (double[]) dcm.getTagValue(TagW.SlicePosition);
-                if (val != null) {
-                    double diff = Math.abs(location - (val[0] + val[1] + val[2]));
-                    if (diff < bestDiff) {
-                        bestDiff = diff;
-                        nearest = dcm;
-                        bestIndex = index;
-                        if (diff == 0.0) {
-                            break;
-                        }
-                    }
-                }
-                index++;
-            }
-        }
-        if (offset > 0) {
-            return getMedia(bestIndex + offset, filter, sort);
+            int bestIndex = getNearestIndex(getLocationIndex(filter), location, filter, sort);
+            return bestIndex < 0 && offset <= 0 ? null : getMedia(bestIndex + Math.max(offset, 0), filter, sort);
         }
-        return nearest;
     }
 
     @Override
     public int getNearestImageIndex(double location, int offset, Filter<DicomImageElement> filter,
         Comparator<DicomImageElement> sort) {
-        Iterable<DicomImageElement> mediaList = getMedias(filter, sort);
-        int index = 0;
-        int bestIndex = -1;
+        int bestIndex;
         synchronized (this) {
-            double bestDiff = Double.MAX_VALUE;
-            for (Iterator<DicomImageElement> iter = mediaList.iterator(); iter.hasNext();) {
-                DicomImageElement dcm = iter.next();
-                double[] val = (double[]) dcm.getTagValue(TagW.SlicePosition);
-                if (val != null) {
-                    double diff = Math.abs(location - (val[0] + val[1] + val[2]));
-                    if (diff < bestDiff) {
-                        bestDiff = diff;
-                        bestIndex = index;
-                        if (diff == 0.0) {
-                            break;
-                        }
-                    }
-                }
-                index++;
-            }
+            bestIndex = getNearestIndex(getLocationIndex(filter), location, filter, sort);
         }
-
         return (offset > 0) ? (bestIndex + offset) : bestIndex;
     }
 
-    public static synchronized void startPreloading(DicomSeries series, List<DicomImageElement> imageList,
-        int currentIndex) {
-        if (series != null && imageList != null) {
-            if (preloadingTask != null) {
-                if (preloadingTask.getSeries() == series) {
-                    return;
-                }
-                stopPreloading(preloadingTask.getSeries());
+    @Override
+    public DicomImageElement getNearestImage(double[] position, int offset, Filter<DicomImageElement> filter,
+        Comparator<DicomImageElement> sort) {
+        synchronized (this) {
+            SliceLocationIndex index = getLocationIndex(filter);
+            // Projection on the normal of this series
+            double location = index.project(position);
+            if (Double.isNaN(location)) {
+                return null;
             }
-            preloadingTask = new PreloadingTask(series, imageList, currentIndex);
-            preloadingTask.start();
+            int bestIndex = getNearestIndex(index, location, filter, sort);
+            return bestIndex < 0 && offset <= 0 ? null : getMedia(bestIndex + Math.max(offset, 0), filter, sort);
         }
     }
 
-    public static synchronized void stopPreloading(DicomSeries series) {
-        if (preloadingTask != null && preloadingTask.getSeries() == series) {
-            PreloadingTask moribund = preloadingTask;
-            preloadingTask = null;
-            if (moribund != null) {
-                moribund.setPreloading(false);
-                moribund.interrupt();
-            }
+    /**
+     * @return the images at the first and the last slice locations (along the normal of the series), or null when the
+     *         images have no position
+     */
+    public DicomImageElement[] getSliceBounds(Filter<DicomImageElement> filter) {
+        synchronized (this) {
+            return getLocationIndex(filter).getBounds();
         }
     }
 
-    static class PreloadingTask extends Thread {
-        private volatile boolean preloading = true;
-        private final int index;
-        private final List<DicomImageElement> imageList;
-        private final DicomSeries series;
-
-        public PreloadingTask(DicomSeries series, List<DicomImageElement> imageList, int currentIndex) {
-            this.series = series;
-            this.imageList = imageList;
-            this.index = currentIndex;
-        }
-
-        public synchronized boolean isPreloading() {
-            return preloading;
-        }
-
-        public DicomSeries getSeries() {
-            return series;
-        }
-
-        public List<DicomImageElement> getImageList() {
-            return imageList;
-        }
-
-        public synchronized void setPreloading(boolean preloading) {
-            this.preloading = preloading;
-        }
-
-        private void freeMemory() {
-            System.gc();
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException ex) {
+    /**
+     * @return the index in the sorted and filtered images of the image nearest to the location, or -1 when there is
+     *         no image with a position
+     */
+    private int getNearestIndex(SliceLocationIndex index, double location, Filter<DicomImageElement> filter,
+        Comparator<DicomImageElement> sort) {
+        int bestIndex = -1;
+        // Several images at the same location: the first one in the order of the view
+        for (DicomImageElement dcm : index.getNearest(location)) {
+            int k = getImageIndex(dcm, filter, sort);
+            if (k >= 0 && (bestIndex < 0 || k < bestIndex)) {
+                bestIndex = k;
             }
         }
+        return bestIndex;
+    }
 
-        private long evaluateImageSize(DicomImageElement image) {
-            Integer allocated = (Integer) image.getTagValue(TagW.BitsAllocated);
-            Integer sample = (Integer) image.getTagValue(TagW.SamplesPerPixel);
-            Integer rows = (Integer) image.getTagValue(TagW.Rows);
-            Integer columns = (Integer) image.getTagValue(TagW.Columns);
-            if (allocated != null && sample != null && rows != null && columns != null) {
-                return (rows * columns * sample * allocated) / 8;
+    // Must be called with the lock of the series
+    private SliceLocationIndex getLocationIndex(Filter<DicomImageElement> filter) {
+        int modification = getModificationCount();
+        for (Iterator<SliceLocationIndex> it = locationIndexes.iterator(); it.hasNext();) {
+            SliceLocationIndex index = it.next();
+            if (index.getFilter() == filter) {
+                if (index.isValid(modification)) {
+                    return index;
+                }
+                it.remove();
+                break;
             }
-            return 0L;
         }
+        SliceLocationIndex index = new SliceLocationIndex(filter);
+        for (int i = 0; i < medias.size(); i++) {
+            index.add(medias.get(i));
+        }
+        index.setModificationCount(modification);
+        if (locationIndexes.size() >= MAX_LOCATION_INDEXES) {
+            locationIndexes.remove(0);
+        }
+        locationIndexes.add(index);
+        return index;
+    }
 
-        private void loadArrays(DicomImageElement img, DataExplorerModel model) {
-            // Do not load an image if another process already loading it
-            if (preloading && !img.isLoading()) {
-                Boolean cache = (Boolean) img.getTagValue(TagW.ImageCache);
-                if (cache == null || !cache) {
-                    long start = System.currentTimeMillis();
-                    PlanarImage i = img.getImage();
-                    if (i != null) {
-                        int tymin = i.getMinTileY();
-                        int tymax = i.getMaxTileY();
-                        int txmin = i.getMinTileX();
-                        int txmax = i.getMaxTileX();
-                        for (int tj = tymin; tj <= tymax; tj++) {
-                            for (int ti = txmin; ti <= txmax; ti++) {
-                                try {
-                                    i.getTile(ti, tj);
-                                } catch (OutOfMemoryError e) {
-                                    LOGGER.error("Out of memory when loading image: {}", img); //$NON-NLS-1$
-                                    freeMemory();
-                                    return;
-                                }
-                            }
-                        }
-                    }
-                    long stop = System.currentTimeMillis();
-                    LOGGER.debug("Reading time: {} ms of image: {}", (stop - start), img.getMediaURI()); //$NON-NLS-1$
-                    if (model != null) {
-                        model.firePropertyChange(new ObservableEvent(ObservableEvent.BasicAction.Add, model, null,
-                            new SeriesEvent(SeriesEvent.Action.loadImageInMemory, series, img)));
-                    }
-                }
-            }
+    /**
+     * Prefetches the images around the current image of the view, according to the scrolling direction and speed.
+     */
+    public static void startPreloading(DicomSeries series, Filter<DicomImageElement> filter,
+        Comparator<DicomImageElement> sort, int currentIndex) {
+        if (series != null) {
+            series.prefetcher.update(series, filter, sort, currentIndex);
         }
+    }
 
-        @Override
-        public void run() {
-            if (imageList != null) {
-                DataExplorerModel model = (DataExplorerModel) series.getTagValue(TagW.ExplorerModel);
-                int size = imageList.size();
-                if (model == null || index < 0 || index >= size) {
-                    return;
-                }
-                long imgSize = evaluateImageSize(imageList.get(index)) * size + 5000;
-                long heapSize = Runtime.getRuntime().totalMemory();
-                long heapFreeSize = Runtime.getRuntime().freeMemory();
-                if (imgSize > heapSize / 3) {
-                    if (imgSize > heapFreeSize) {
-                        freeMemory();
-                    }
-                    double val = (double) heapFreeSize / imgSize;
-                    int ajustSize = (int) (size * val) / 2;
-                    int start = index - ajustSize;
-                    if (start < 0) {
-                        ajustSize -= start;
-                        start = 0;
-                    }
-                    if (ajustSize > size) {
-                        ajustSize = size;
-                    }
-                    for (int i = start; i < ajustSize; i++) {
-                        loadArrays(imageList.get(i), model);
-                    }
-                } else {
-                    if (imgSize > heapFreeSize) {
-                        freeMemory();
-                    }
-                    for (DicomImageElement img : imageList) {
-                        loadArrays(img, model);
-                    }
-                }
-            }
+    public static void stopPreloading(DicomSeries series) {
+        if (series != null) {
+            series.prefetcher.stop(series);
         }
     }
 }
@@ -29,6 +29,9 @@ public class KOSpecialElement extends DicomSpecialElement {
     private Map<String, Map<String, SOPInstanceReferenceAndMAC>> sopInstanceReferenceMapBySeriesUID;
     private Map<String, Map<String, SeriesAndInstanceReference>> seriesAndInstanceReferenceMapByStudyUID;
     private Map<String, HierachicalSOPInstanceReference> hierachicalSOPInstanceReferenceByStudyUID;
+    // Incremented when a SOP Instance reference is added or removed
+    private volatile int modCount = 0;
+    private Filter<DicomImageElement> sopInstanceUIDFilter;
 
     public KOSpecialElement(DicomMediaIO mediaIO) {
         super(mediaIO);
@@ -186,6 +189,7 @@ public class KOSpecialElement extends DicomSpecialElement {
                             }
 
                             sopInstanceReferenceBySOPInstanceUID.put(SOPInstanceUID, sopRef);
+                            modCount++;
                             sopInstanceExist = true;
                         }
 
@@ -320,6 +324,7 @@ public class KOSpecialElement extends DicomSpecialElement {
         referencedSOP.setReferencedSOPClassUID(sopClassUID);
 
         sopInstanceReferenceBySOPInstanceUID.put(sopInstanceUID, referencedSOP);
+        modCount++;
 
         // Get the SeriesAndInstanceReferenceMap for this studyUID
         Map<String, SeriesAndInstanceReference> seriesAndInstanceReferenceBySeriesUID =
@@ -459,6 +464,7 @@ public class KOSpecialElement extends DicomSpecialElement {
             referencedSOP.setReferencedSOPClassUID(sopClassUID);
 
             sopInstanceReferenceBySOPInstanceUID.put(sopInstanceUID, referencedSOP);
+            modCount++;
 
             newReferenceAdded = true;
         }
@@ -551,6 +557,7 @@ public class KOSpecialElement extends DicomSpecialElement {
             // UID's parameters were not referenced, skip the job
             return false;
         }
+        modCount++;
 
         if (sopInstanceReferenceBySOPInstanceUID.isEmpty()) {
 
@@ -624,6 +631,7 @@ public class KOSpecialElement extends DicomSpecialElement {
         for (String sopInstanceUID : sopInstanceUIDs) {
             if (sopInstanceReferenceBySOPInstanceUID.remove(sopInstanceUID) != null) {
                 referenceRemoved = true;
+                modCount++;
             }
         }
 
@@ -677,8 +685,17 @@ public class KOSpecialElement extends DicomSpecialElement {
 
     // ///////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public Filter<DicomImageElement> getSOPInstanceUIDFilter() {
-        Filter<DicomImageElement> filter = new Filter<DicomImageElement>() {
+    public synchronized Filter<DicomImageElement> getSOPInstanceUIDFilter() {
+        // Always the same instance, so the series can keep the filtered lists
+        if (sopInstanceUIDFilter != null) {
+            return sopInstanceUIDFilter;
+        }
+        sopInstanceUIDFilter = new Filter<DicomImageElement>() {
+            @Override
+            public int getVersion() {
+                return modCount;
+            }
+
             @Override
             public boolean passes(DicomImageElement dicom) {
                 if (dicom == null || dicom.getTagValue(TagW.SeriesInstanceUID) == null) {
@@ -693,7 +710,7 @@ public class KOSpecialElement extends DicomSpecialElement {
                     .contains(sopInstanceUID);
             }
         };
-        return filter;
+        return sopInstanceUIDFilter;
     }
 
     @Override
@@ -1,6 +1,6 @@
 package org.weasis.dicom.codec;
 
-import java.util.HashMap;
+import java.util.Map;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
@@ -12,7 +12,7 @@ public class PRSpecialElement extends DicomSpecialElement {
         super(mediaIO);
     }
 
-    public HashMap<TagW, Object> geTags() {
+    public Map<TagW, Object> geTags() {
         return tags;
     }
 
@@ -53,6 +53,8 @@ import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -74,6 +76,10 @@ public class RawImageReader extends ImageReader {
     /** The input stream where reads from */
     private RawImageInputStream iis = null;
 
+    /** The channel of the file for reading the tiles concurrently (can be null) */
+    private FileChannel pixelChannel = null;
+    private ByteOrder pixelByteOrder = ByteOrder.BIG_ENDIAN;
+
     /**
      * Wrapper for the protected method <code>computeRegions</code>. So it can be access from the classes which are not
      * in <code>ImageReader</code> hierachy.
@@ -252,6 +258,30 @@ public class RawImageReader extends ImageReader {
     public void reset() {
         super.reset();
         iis = null;
+        pixelChannel = null;
+    }
+
+    /**
+     * Sets the channel of the file of the input stream. The tiles are read with positional reads on the channel
+     * instead of the shared input stream, so several tiles can be read at the same time. The channel is not closed by
+     * the reader.
+     * 
+     * @param channel
+     *            the channel of the file, the positions are the same as in the input stream
+     * @param byteOrder
+     *            the byte order of the samples
+     */
+    public void setPixelChannel(FileChannel channel, ByteOrder byteOrder) {
+        this.pixelChannel = channel;
+        this.pixelByteOrder = byteOrder == null ? ByteOrder.BIG_ENDIAN : byteOrder;
+    }
+
+    FileChannel getPixelChannel() {
+        return pixelChannel;
+    }
+
+    ByteOrder getPixelByteOrder() {
+        return pixelByteOrder;
     }
 
     /**
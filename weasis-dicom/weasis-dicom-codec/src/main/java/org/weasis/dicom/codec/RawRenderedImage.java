@@ -63,7 +63,16 @@ import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageTypeSpecifier;
@@ -76,8 +85,11 @@ public class RawRenderedImage extends SimpleRenderedImage {
     /** The sample model for the original image. */
     private SampleModel originalSampleModel;
 
-    private Raster currentTile;
-    private Point currentTileGrid;
+    /** The last tile read, returned again when requested by the next call. */
+    private volatile TileEntry lastTile;
+    /** The tiles being read, the key is the position of the tile in the grid. */
+    private final ConcurrentHashMap<Long, FutureTask<Raster>> pendingTiles =
+        new ConcurrentHashMap<Long, FutureTask<Raster>>();
 
     /** The input stream we read from */
     private RawImageInputStream iis = null;
@@ -118,6 +130,10 @@ public class RawRenderedImage extends SimpleRenderedImage {
 
     private BufferedImage destImage;
 
+    /** The channel of the file for positional reads of the tiles, null when reading only from the stream. */
+    private volatile FileChannel pixelChannel;
+    private final ByteOrder byteOrder;
+
     /** The position of the first sample of this image in the stream. */
     private final long position;
 
@@ -133,6 +149,8 @@ public class RawRenderedImage extends SimpleRenderedImage {
         this.reader = reader;
         this.param = param;
         this.imageIndex = imageIndex;
+        this.pixelChannel = reader.getPixelChannel();
+        this.byteOrder = reader.getPixelByteOrder();
         this.position = iis.getImageOffset(imageIndex);
         this.originalDimension = iis.getImageDimension(imageIndex);
 
@@ -216,16 +234,58 @@ public class RawRenderedImage extends SimpleRenderedImage {
     }
 
     @Override
-    public synchronized Raster getTile(int tileX, int tileY) {
-        if (currentTile != null && currentTileGrid.x == tileX && currentTileGrid.y == tileY) {
-            return currentTile;
+    public Raster getTile(final int tileX, final int tileY) {
+        TileEntry last = lastTile;
+        if (last != null && last.x == tileX && last.y == tileY) {
+            return last.raster;
         }
 
-        int originalNumYTiles = getNumYTiles();
-        if (tileX >= originalNumXTiles || tileY >= originalNumYTiles) {
+        if (tileX >= originalNumXTiles || tileY >= getNumYTiles()) {
             throw new IllegalArgumentException();
         }
 
+        // The same tile requested by several threads is read only once
+        Long key = ((long) tileY << 32) | (tileX & 0xffffffffL);
+        FutureTask<Raster> task = new FutureTask<Raster>(new Callable<Raster>() {
+
+            @Override
+            public Raster call() throws Exception {
+                return readTile(tileX, tileY);
+            }
+        });
+        FutureTask<Raster> inFlight = pendingTiles.putIfAbsent(key, task);
+        if (inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                pendingTiles.remove(key);
+            }
+        }
+
+        Raster tile;
+        try {
+            tile = inFlight.get();
+        } catch (InterruptedException e) {
+            // Keep the interrupted status and read the tile in this thread instead of waiting
+            Thread.currentThread().interrupt();
+            tile = readTile(tileX, tileY);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new Error(cause);
+        }
+        lastTile = new TileEntry(tileX, tileY, tile);
+        return tile;
+    }
+
+    private Raster readTile(int tileX, int tileY) {
+        int originalNumYTiles = getNumYTiles();
         try {
             // Has more than one tile
             boolean tiled = width != tileWidth || height != tileHeight;
@@ -267,140 +327,232 @@ public class RawRenderedImage extends SimpleRenderedImage {
                 pStream = position;
             }
 
-            iis.seek(pStream);
-
             int x = tileXToX(tileX);
             int y = tileYToY(tileY);
-            currentTile = Raster.createWritableRaster(sampleModel, new Point(x, y));
+            WritableRaster tile = Raster.createWritableRaster(sampleModel, new Point(x, y));
 
             if (noTransform) {
-                switch (sampleModel.getDataType()) {
-                    case DataBuffer.TYPE_BYTE:
-                        byte[][] buf = ((DataBufferByte) currentTile.getDataBuffer()).getBankData();
-                        for (int i = 0; i < buf.length; i++) {
-                            if (tiled) {
-                                if (i > 0) {
-                                    iis.seek(pStream + i * (width * height * sampleSize));
-                                }
-                                iis.readFully(buf[i], 0, lineLength * pps);
-                                for (int j = 1; j < nbLine; j++) {
-                                    iis.skipBytes(lineStep);
-                                    iis.readFully(buf[i], tileWidth * j * pps, lineLength * pps);
-                                }
-                            } else {
-                                iis.readFully(buf[i], 0, buf[i].length);
-                            }
+                FileChannel channel = pixelChannel;
+                // A read of an interrupted thread closes the channel shared by all the images of the file
+                if (channel != null && !Thread.currentThread().isInterrupted()) {
+                    try {
+                        readFromChannel(channel, tile, pStream, tiled, lineLength, nbLine, lineStep, pps, sampleSize);
+                        return tile;
+                    } catch (ClosedChannelException e) {
+                        // The channel is closed when a thread reading is interrupted, continue with the stream
+                        pixelChannel = null;
+                    }
+                }
+                synchronized (this) {
+                    readFromStream(tile, pStream, tiled, lineLength, nbLine, lineStep, pps, sampleSize);
+                }
+                return tile;
+            } else {
+                synchronized (this) {
+                    return readSubsampledRaster(tile);
+                }
+            }
+        } catch (IOException e) {
+            // Issue when the stream is closed, need to throw Error because RuntimeException is caught
+            // TODO Change JAI lib to propagate the RuntimeException
+            throw new Error(e);
+        }
+    }
+
+    private void readFromStream(WritableRaster tile, long pStream, boolean tiled, int lineLength, int nbLine,
+        int lineStep, int pps, int sampleSize) throws IOException {
+        iis.seek(pStream);
+
+        switch (sampleModel.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                byte[][] buf = ((DataBufferByte) tile.getDataBuffer()).getBankData();
+                for (int i = 0; i < buf.length; i++) {
+                    if (tiled) {
+                        if (i > 0) {
+                            iis.seek(pStream + i * (width * height * sampleSize));
                         }
-                        break;
-
-                    case DataBuffer.TYPE_SHORT:
-                        short[][] sbuf = ((DataBufferShort) currentTile.getDataBuffer()).getBankData();
-                        for (int i = 0; i < sbuf.length; i++) {
-                            if (tiled) {
-                                // Handle seek and skipBytes in byte and readFully in short
-                                if (i > 0) {
-                                    iis.seek(pStream + i * (width * height * sampleSize));
-                                }
-                                iis.readFully(sbuf[i], 0, lineLength * pps);
-                                for (int j = 1; j < nbLine; j++) {
-                                    iis.skipBytes(lineStep);
-                                    iis.readFully(sbuf[i], tileWidth * j * pps, lineLength * pps);
-                                }
-                            } else {
-                                iis.readFully(sbuf[i], 0, sbuf[i].length);
-                            }
+                        iis.readFully(buf[i], 0, lineLength * pps);
+                        for (int j = 1; j < nbLine; j++) {
+                            iis.skipBytes(lineStep);
+                            iis.readFully(buf[i], tileWidth * j * pps, lineLength * pps);
                         }
-                        break;
-
-                    case DataBuffer.TYPE_USHORT:
-                        short[][] usbuf = ((DataBufferUShort) currentTile.getDataBuffer()).getBankData();
-                        for (int i = 0; i < usbuf.length; i++) {
-                            if (tiled) {
-                                if (i > 0) {
-                                    iis.seek(pStream + i * (width * height * sampleSize));
-                                }
-                                iis.readFully(usbuf[i], 0, lineLength * pps);
-                                for (int j = 1; j < nbLine; j++) {
-                                    iis.skipBytes(lineStep);
-                                    iis.readFully(usbuf[i], tileWidth * j * pps, lineLength * pps);
-                                }
-                            } else {
-                                iis.readFully(usbuf[i], 0, usbuf[i].length);
-                            }
+                    } else {
+                        iis.readFully(buf[i], 0, buf[i].length);
+                    }
+                }
+                break;
+
+            case DataBuffer.TYPE_SHORT:
+                short[][] sbuf = ((DataBufferShort) tile.getDataBuffer()).getBankData();
+                for (int i = 0; i < sbuf.length; i++) {
+                    if (tiled) {
+                        // Handle seek and skipBytes in byte and readFully in short
+                        if (i > 0) {
+                            iis.seek(pStream + i * (width * height * sampleSize));
                         }
-                        break;
-                    case DataBuffer.TYPE_INT:
-                        int[][] ibuf = ((DataBufferInt) currentTile.getDataBuffer()).getBankData();
-                        for (int i = 0; i < ibuf.length; i++) {
-                            if (tiled) {
-                                if (i > 0) {
-                                    iis.seek(pStream + i * (width * height * sampleSize));
-                                }
-                                iis.readFully(ibuf[i], 0, lineLength * pps);
-                                for (int j = 1; j < nbLine; j++) {
-                                    iis.skipBytes(lineStep);
-                                    iis.readFully(ibuf[i], tileWidth * j * pps, lineLength * pps);
-                                }
-                            } else {
-                                iis.readFully(ibuf[i], 0, ibuf[i].length);
-                            }
+                        iis.readFully(sbuf[i], 0, lineLength * pps);
+                        for (int j = 1; j < nbLine; j++) {
+                            iis.skipBytes(lineStep);
+                            iis.readFully(sbuf[i], tileWidth * j * pps, lineLength * pps);
                         }
-                        break;
-                    case DataBuffer.TYPE_FLOAT:
-                        float[][] fbuf = ((DataBufferFloat) currentTile.getDataBuffer()).getBankData();
-                        for (int i = 0; i < fbuf.length; i++) {
-                            if (tiled) {
-                                if (i > 0) {
-                                    iis.seek(pStream + i * (width * height * sampleSize));
-                                }
-                                iis.readFully(fbuf[i], 0, lineLength * pps);
-                                for (int j = 1; j < nbLine; j++) {
-                                    iis.skipBytes(lineStep);
-                                    iis.readFully(fbuf[i], tileWidth * j * pps, lineLength * pps);
-                                }
-                            } else {
-                                iis.readFully(fbuf[i], 0, fbuf[i].length);
-                            }
+                    } else {
+                        iis.readFully(sbuf[i], 0, sbuf[i].length);
+                    }
+                }
+                break;
+
+            case DataBuffer.TYPE_USHORT:
+                short[][] usbuf = ((DataBufferUShort) tile.getDataBuffer()).getBankData();
+                for (int i = 0; i < usbuf.length; i++) {
+                    if (tiled) {
+                        if (i > 0) {
+                            iis.seek(pStream + i * (width * height * sampleSize));
                         }
-                        break;
-                    case DataBuffer.TYPE_DOUBLE:
-                        double[][] dbuf = ((DataBufferDouble) currentTile.getDataBuffer()).getBankData();
-                        for (int i = 0; i < dbuf.length; i++) {
-                            if (tiled) {
-                                if (i > 0) {
-                                    iis.seek(pStream + i * (width * height * sampleSize));
-                                }
-                                iis.readFully(dbuf[i], 0, lineLength * pps);
-                                for (int j = 1; j < nbLine; j++) {
-                                    iis.skipBytes(lineStep);
-                                    iis.readFully(dbuf[i], tileWidth * j * pps, lineLength * pps);
-                                }
-                            } else {
-                                iis.readFully(dbuf[i], 0, dbuf[i].length);
-                            }
+                        iis.readFully(usbuf[i], 0, lineLength * pps);
+                        for (int j = 1; j < nbLine; j++) {
+                            iis.skipBytes(lineStep);
+                            iis.readFully(usbuf[i], tileWidth * j * pps, lineLength * pps);
+                        }
+                    } else {
+                        iis.readFully(usbuf[i], 0, usbuf[i].length);
+                    }
+                }
+                break;
+            case DataBuffer.TYPE_INT:
+                int[][] ibuf = ((DataBufferInt) tile.getDataBuffer()).getBankData();
+                for (int i = 0; i < ibuf.length; i++) {
+                    if (tiled) {
+                        if (i > 0) {
+                            iis.seek(pStream + i * (width * height * sampleSize));
+                        }
+                        iis.readFully(ibuf[i], 0, lineLength * pps);
+                        for (int j = 1; j < nbLine; j++) {
+                            iis.skipBytes(lineStep);
+                            iis.readFully(ibuf[i], tileWidth * j * pps, lineLength * pps);
+                        }
+                    } else {
+                        iis.readFully(ibuf[i], 0, ibuf[i].length);
+                    }
+                }
+                break;
+            case DataBuffer.TYPE_FLOAT:
+                float[][] fbuf = ((DataBufferFloat) tile.getDataBuffer()).getBankData();
+                for (int i = 0; i < fbuf.length; i++) {
+                    if (tiled) {
+                        if (i > 0) {
+                            iis.seek(pStream + i * (width * height * sampleSize));
+                        }
+                        iis.readFully(fbuf[i], 0, lineLength * pps);
+                        for (int j = 1; j < nbLine; j++) {
+                            iis.skipBytes(lineStep);
+                            iis.readFully(fbuf[i], tileWidth * j * pps, lineLength * pps);
+                        }
+                    } else {
+                        iis.readFully(fbuf[i], 0, fbuf[i].length);
+                    }
+                }
+                break;
+            case DataBuffer.TYPE_DOUBLE:
+                double[][] dbuf = ((DataBufferDouble) tile.getDataBuffer()).getBankData();
+                for (int i = 0; i < dbuf.length; i++) {
+                    if (tiled) {
+                        if (i > 0) {
+                            iis.seek(pStream + i * (width * height * sampleSize));
+                        }
+                        iis.readFully(dbuf[i], 0, lineLength * pps);
+                        for (int j = 1; j < nbLine; j++) {
+                            iis.skipBytes(lineStep);
+                            iis.readFully(dbuf[i], tileWidth * j * pps, lineLength * pps);
                         }
-                        break;
+                    } else {
+                        iis.readFully(dbuf[i], 0, dbuf[i].length);
+                    }
+                }
+                break;
+        }
+    }
+
+    /**
+     * Reads the tile with positional reads, which do not change the position of the channel and can be done by several
+     * threads at the same time.
+     */
+    private void readFromChannel(FileChannel channel, WritableRaster tile, long pStream, boolean tiled,
+        int lineLength, int nbLine, int lineStep, int pps, int sampleSize) throws IOException {
+        DataBuffer data = tile.getDataBuffer();
+        int elementSize = DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+        ByteBuffer buffer = null;
+        for (int i = 0; i < data.getNumBanks(); i++) {
+            if (tiled) {
+                long pos = pStream + (long) i * width * height * sampleSize;
+                int length = lineLength * pps;
+                for (int j = 0; j < nbLine; j++) {
+                    buffer = readElements(channel, data, i, tileWidth * j * pps, length, pos, buffer);
+                    pos += length * elementSize + lineStep;
                 }
             } else {
-                currentTile = readSubsampledRaster((WritableRaster) currentTile);
+                int length = data.getSize();
+                buffer = readElements(channel, data, i, 0, length, pStream + (long) i * length * elementSize, buffer);
             }
-        } catch (IOException e) {
-            // Issue when the stream is closed, need to throw Error because RuntimeException is caught
-            // TODO Change JAI lib to propagate the RuntimeException
-            throw new Error(e);
         }
+    }
 
-        if (currentTileGrid == null) {
-            currentTileGrid = new Point(tileX, tileY);
-        } else {
-            currentTileGrid.x = tileX;
-            currentTileGrid.y = tileY;
+    private ByteBuffer readElements(FileChannel channel, DataBuffer data, int bank, int offset, int length, long pos,
+        ByteBuffer buffer) throws IOException {
+        if (data instanceof DataBufferByte) {
+            readFully(channel, ByteBuffer.wrap(((DataBufferByte) data).getData(bank), offset, length), pos);
+            return buffer;
+        }
+        int nbBytes = length * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+        if (buffer == null || buffer.capacity() < nbBytes) {
+            buffer = ByteBuffer.allocate(nbBytes).order(byteOrder);
         }
+        buffer.clear();
+        buffer.limit(nbBytes);
+        readFully(channel, buffer, pos);
+        buffer.flip();
+        switch (data.getDataType()) {
+            case DataBuffer.TYPE_SHORT:
+                buffer.asShortBuffer().get(((DataBufferShort) data).getData(bank), offset, length);
+                break;
+            case DataBuffer.TYPE_USHORT:
+                buffer.asShortBuffer().get(((DataBufferUShort) data).getData(bank), offset, length);
+                break;
+            case DataBuffer.TYPE_INT:
+                buffer.asIntBuffer().get(((DataBufferInt) data).getData(bank), offset, length);
+                break;
+            case DataBuffer.TYPE_FLOAT:
+                buffer.asFloatBuffer().get(((DataBufferFloat) data).getData(bank), offset, length);
+                break;
+            case DataBuffer.TYPE_DOUBLE:
+                buffer.asDoubleBuffer().get(((DataBufferDouble) data).getData(bank), offset, length);
+                break;
+        }
+        return buffer;
+    }
 
-        return currentTile;
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            int nb = channel.read(buffer, pos);
+            if (nb < 0) {
+                throw new EOFException();
+            }
+            pos += nb;
+        }
+    }
+
+    private static class TileEntry {
+        private final int x;
+        private final int y;
+        private final Raster raster;
+
+        TileEntry(int x, int y, Raster raster) {
+            this.x = x;
+            this.y = y;
+            this.raster = raster;
+        }
     }
 
-    public void readAsRaster(WritableRaster raster) throws java.io.IOException {
+    public synchronized void readAsRaster(WritableRaster raster) throws java.io.IOException {
         readSubsampledRaster(raster);
     }
 
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.codec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.weasis.core.api.gui.util.Filter;
+import org.weasis.core.api.media.data.TagW;
+import org.weasis.dicom.codec.geometry.ImageOrientation;
+
+/**
+ * Slice locations of the images of a series passing a filter, sorted for finding the nearest image with a binary
+ * search.
+ * <p>
+ * The location of a slice is the projection of its Image Position Patient on the normal of the first image having an
+ * orientation. The images are added while the series is loading, the index must be built again when the series is
+ * modified in another way (see isValid()). Not thread safe, the series synchronizes the calls.
+ * </p>
+ */
+final class SliceLocationIndex {
+
+    private final Filter<DicomImageElement> filter;
+    private final int filterVersion;
+    // Modification count of the series when the index has been updated
+    private int modificationCount = -1;
+    private double[] normal;
+    private double[] locations = new double[16];
+    private DicomImageElement[] images = new DicomImageElement[16];
+    private int size = 0;
+
+    SliceLocationIndex(Filter<DicomImageElement> filter) {
+        this.filter = filter;
+        this.filterVersion = filter == null ? 0 : filter.getVersion();
+    }
+
+    Filter<DicomImageElement> getFilter() {
+        return filter;
+    }
+
+    int getModificationCount() {
+        return modificationCount;
+    }
+
+    void setModificationCount(int modificationCount) {
+        this.modificationCount = modificationCount;
+    }
+
+    /**
+     * @return true when the index contains all the images of the series passing the filter
+     */
+    boolean isValid(int seriesModificationCount) {
+        return modificationCount == seriesModificationCount
+            && (filter == null || filter.getVersion() == filterVersion);
+    }
+
+    void add(DicomImageElement image) {
+        if (image == null || filter != null && !filter.passes(image)) {
+            return;
+        }
+        double[] position = (double[]) image.getTagValue(TagW.ImagePositionPatient);
+        if (position == null || position.length != 3) {
+            return;
+        }
+        if (normal == null) {
+            normal =
+                ImageOrientation.computeNormalVectorOfPlan((double[]) image.getTagValue(TagW.ImageOrientationPatient));
+            if (normal == null) {
+                return;
+            }
+        }
+        double location = project(position);
+        // Insert after the equal locations to keep the order of arrival
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (locations[mid] <= location) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (size == locations.length) {
+            locations = Arrays.copyOf(locations, size * 2);
+            images = Arrays.copyOf(images, size * 2);
+        }
+        System.arraycopy(locations, low, locations, low + 1, size - low);
+        System.arraycopy(images, low, images, low + 1, size - low);
+        locations[low] = location;
+        images[low] = image;
+        size++;
+    }
+
+    /**
+     * @return the location of a point in the patient coordinates, or NaN when the series has no orientation
+     */
+    double project(double[] position) {
+        if (normal == null || position == null || position.length != 3) {
+            return Double.NaN;
+        }
+        return position[0] * normal[0] + position[1] * normal[1] + position[2] * normal[2];
+    }
+
+    /**
+     * @return the images at the first and the last locations, or null when no image has a location
+     */
+    DicomImageElement[] getBounds() {
+        if (size == 0) {
+            return null;
+        }
+        return new DicomImageElement[] { images[0], images[size - 1] };
+    }
+
+    /**
+     * @return the images at the nearest location (several images when they have the same location)
+     */
+    List<DicomImageElement> getNearest(double location) {
+        List<DicomImageElement> list = new ArrayList<DicomImageElement>(1);
+        if (size == 0 || Double.isNaN(location)) {
+            return list;
+        }
+        // First location greater or equal
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (locations[mid] < location) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int best;
+        if (low == size) {
+            best = size - 1;
+        } else if (low == 0) {
+            best = 0;
+        } else {
+            best = location - locations[low - 1] <= locations[low] - location ? low - 1 : low;
+        }
+        double bestLocation = locations[best];
+        int first = best;
+        while (first > 0 && locations[first - 1] == bestLocation) {
+            first--;
+        }
+        for (int i = first; i < size && locations[i] == bestLocation; i++) {
+            list.add(images[i]);
+        }
+        return list;
+    }
+}
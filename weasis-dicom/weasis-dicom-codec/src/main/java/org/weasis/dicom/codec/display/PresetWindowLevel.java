@@ -16,7 +16,6 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -110,7 +109,7 @@ public class PresetWindowLevel {
         return false;
     }
 
-    public static List<PresetWindowLevel> getPresetCollection(DicomImageElement image, HashMap<TagW, Object> tags,
+    public static List<PresetWindowLevel> getPresetCollection(DicomImageElement image, Map<TagW, Object> tags,
         boolean pixelPadding) {
         if (image == null || tags == null) {
             return null;
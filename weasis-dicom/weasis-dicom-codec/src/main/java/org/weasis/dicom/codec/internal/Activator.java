@@ -29,6 +29,7 @@ import org.weasis.core.api.service.AuditLog;
 import org.weasis.core.api.service.BundlePreferences;
 import org.weasis.core.api.service.ImageioUtil;
 import org.weasis.dicom.codec.DicomCodec;
+import org.weasis.dicom.codec.DicomHeaderIndex;
 import org.weasis.dicom.codec.DicomMediaIO;
 import org.weasis.dicom.codec.DicomSpecialElementFactory;
 import org.weasis.dicom.codec.pref.DicomPrefManager;
@@ -93,6 +94,7 @@ public class Activator implements BundleActivator, ServiceListener {
     @Override
     public void stop(BundleContext bundleContext) throws Exception {
         DicomPrefManager.getInstance().savePreferences();
+        DicomHeaderIndex.saveAll();
         ImageioUtil.deregisterServiceProvider(DicomCodec.RLEImageReaderSpi);
         ImageioUtil.deregisterServiceProvider(DicomCodec.DicomImageReaderSpi);
     }
@@ -3,7 +3,7 @@ package org.weasis.dicom.codec.utils;
 import java.awt.image.DataBuffer;
 import java.lang.reflect.Array;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 import javax.media.jai.LookupTableJAI;
@@ -66,42 +66,98 @@ public class DicomImageUtils {
         int numEntries = (int) (maxInValue - minInValue + 1);
         Object outLut = (bitsStored <= 8) ? new byte[numEntries] : new short[numEntries];
 
+        if (!setWindowLevelLut(lutShape, window, level, minInValue, maxInValue, null, outLut, minOutValue,
+            maxOutValue, inverse)) {
+            return null;
+        }
+
+        return (outLut instanceof byte[]) ? new LookupTableJAI((byte[]) outLut, (int) minInValue) : //
+            new LookupTableJAI((short[]) outLut, (int) minInValue, isSigned);
+    }
+
+    /**
+     * Builds in one pass the 8 bits table applying a lookup table (e.g. modality LUT) and then the window/level
+     * function, without creating the intermediate VOI table. The output values of the first table outside minValue
+     * and maxValue are clamped, as the input range of a VOI LUT.
+     * 
+     * @param first
+     *            the lookup table applied first (e.g. modality LUT)
+     * @param lutShape
+     * @param window
+     * @param level
+     * @param minValue
+     * @param maxValue
+     * @param inverse
+     * @return an 8 bits lookup table having the same input range as the first table, or null when the tables cannot
+     *         be composed
+     */
+    public static LookupTableJAI createCombinedWindowLevelLut(LookupTableJAI first, LutShape lutShape, float window,
+        float level, int minValue, int maxValue, boolean inverse) {
+        if (first == null || lutShape == null || first.getNumBands() != 1) {
+            return null;
+        }
+        window = (window < 1f) ? 1f : window;
+        float minInValue = Math.min(maxValue, minValue);
+        float maxInValue = Math.max(maxValue, minValue);
+
+        byte[] outLut = new byte[first.getNumEntries()];
+        if (!setWindowLevelLut(lutShape, window, level, minInValue, maxInValue, first.getData(), outLut, 0f, 255f,
+            inverse)) {
+            return null;
+        }
+        return new LookupTableJAI(outLut, first.getOffset(0));
+    }
+
+    /**
+     * Fills the table with the window/level function.
+     * 
+     * @param inValues
+     *            the input values of each entry of the table (clamped between minInValue and maxInValue), or null when
+     *            the input values are the consecutive integers from minInValue
+     * @return false if the shape is not supported
+     */
+    private static boolean setWindowLevelLut(LutShape lutShape, float window, float level, float minInValue,
+        float maxInValue, DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue, boolean inverse) {
         if (lutShape.getFunctionType() != null) {
 
             switch (lutShape.getFunctionType()) {
                 case LINEAR:
-                    setWindowLevelLinearLut(window, level, minInValue, outLut, minOutValue, maxOutValue, inverse);
-
-                    // TODO - do this test below
-                    // setWindowLevelLinearLutLegacy(window, level, minInValue, outLut, minOutValue, maxOutValue,
-                    // inverse);
-                    // Object outLut2 = (bitsStored <= 8) ? new byte[numEntries] : new short[numEntries];
-                    // setWindowLevelLinearLut(window, level, minInValue, outLut2, minOutValue, maxOutValue, inverse);
-                    // compareDataLuts(outLut, outLut2);
+                    setWindowLevelLinearLut(window, level, minInValue, maxInValue, inValues, outLut, minOutValue,
+                        maxOutValue, inverse);
                     break;
                 case SIGMOID:
-                    setWindowLevelSigmoidLut(window, level, minInValue, outLut, minOutValue, maxOutValue, inverse);
+                    setWindowLevelSigmoidLut(window, level, minInValue, maxInValue, inValues, outLut, minOutValue,
+                        maxOutValue, inverse);
                     break;
                 case SIGMOID_NORM:
-                    setWindowLevelSigmoidLut(window, level, minInValue, outLut, minOutValue, maxOutValue, inverse, true);
+                    setWindowLevelSigmoidLut(window, level, minInValue, maxInValue, inValues, outLut, minOutValue,
+                        maxOutValue, inverse, true);
                     break;
                 case LOG:
-                    setWindowLevelLogarithmicLut(window, level, minInValue, outLut, minOutValue, maxOutValue, inverse);
+                    setWindowLevelLogarithmicLut(window, level, minInValue, maxInValue, inValues, outLut,
+                        minOutValue, maxOutValue, inverse);
                     break;
                 case LOG_INV:
-                    setWindowLevelExponentialLut(window, level, minInValue, outLut, minOutValue, maxOutValue, inverse);
+                    setWindowLevelExponentialLut(window, level, minInValue, maxInValue, inValues, outLut,
+                        minOutValue, maxOutValue, inverse);
                     break;
 
                 default:
-                    return null;
+                    return false;
             }
         } else {
-            setWindowLevelSequenceLut(window, level, lutShape.getLookup(), minInValue, maxInValue, outLut, minOutValue,
-                maxOutValue, inverse);
+            setWindowLevelSequenceLut(window, level, lutShape.getLookup(), minInValue, maxInValue, inValues, outLut,
+                minOutValue, maxOutValue, inverse);
         }
+        return true;
+    }
 
-        return (outLut instanceof byte[]) ? new LookupTableJAI((byte[]) outLut, (int) minInValue) : //
-            new LookupTableJAI((short[]) outLut, (int) minInValue, isSigned);
+    private static float getInValue(DataBuffer inValues, int index, float minInValue, float maxInValue) {
+        if (inValues == null) {
+            return index + minInValue;
+        }
+        float value = inValues.getElem(index);
+        return value < minInValue ? minInValue : (value > maxInValue ? maxInValue : value);
     }
 
     /**
@@ -276,14 +332,15 @@ public class DicomImageUtils {
 
     // //////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    private static void setWindowLevelLinearLut(float window, float level, float minInValue, Object outLut,
-        float minOutValue, float maxOutValue, boolean inverse) {
+    private static void setWindowLevelLinearLut(float window, float level, float minInValue, float maxInValue,
+        DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue, boolean inverse) {
 
         float slope = (maxOutValue - minOutValue) / window;
         float intercept = maxOutValue - slope * (level + (window / 2f));
 
         for (int i = 0; i < Array.getLength(outLut); i++) {
-            int value = (int) ((i + minInValue) * slope + intercept);
+            float inValue = getInValue(inValues, i, minInValue, maxInValue);
+            int value = (int) (inValue * slope + intercept);
 
             value = (int) ((value >= maxOutValue) ? maxOutValue : ((value <= minOutValue) ? minOutValue : value));
             value = (int) (inverse ? (maxOutValue + minOutValue - value) : value);
@@ -297,14 +354,15 @@ public class DicomImageUtils {
     }
 
     // //////////////////////////////////////////////////////////////////////////////////////////////////////////////
-    private static void setWindowLevelSigmoidLut(float width, float center, float minInValue, Object outLut,
-        float minOutValue, float maxOutValue, boolean inverse) {
+    private static void setWindowLevelSigmoidLut(float width, float center, float minInValue, float maxInValue,
+        DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue, boolean inverse) {
 
-        setWindowLevelSigmoidLut(width, center, minInValue, outLut, minOutValue, maxOutValue, inverse, false);
+        setWindowLevelSigmoidLut(width, center, minInValue, maxInValue, inValues, outLut, minOutValue, maxOutValue,
+            inverse, false);
     }
 
-    private static void setWindowLevelSigmoidLut(float width, float center, float minInValue, Object outLut,
-        float minOutValue, float maxOutValue, boolean inverse, boolean normalize) {
+    private static void setWindowLevelSigmoidLut(float width, float center, float minInValue, float maxInValue,
+        DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue, boolean inverse, boolean normalize) {
 
         double nFactor = -20d; // factor defined by default in Dicom standard ( -20*2/10 = -4 )
         double outRange = maxOutValue - minOutValue;
@@ -322,7 +380,8 @@ public class DicomImageUtils {
         }
 
         for (int i = 0; i < Array.getLength(outLut); i++) {
-            double value = outRange / (1d + Math.exp((2d * nFactor / 10d) * (i + minInValue - center) / width));
+            float inValue = getInValue(inValues, i, minInValue, maxInValue);
+            double value = outRange / (1d + Math.exp((2d * nFactor / 10d) * (inValue - center) / width));
 
             if (normalize) {
                 value = (value - minValue) * outRescaleRatio;
@@ -342,14 +401,15 @@ public class DicomImageUtils {
 
     // //////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    private static void setWindowLevelExponentialLut(float width, float center, float minInValue, Object outLut,
-        float minOutValue, float maxOutValue, boolean inverse) {
+    private static void setWindowLevelExponentialLut(float width, float center, float minInValue, float maxInValue,
+        DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue, boolean inverse) {
 
-        setWindowLevelExponentialLut(width, center, minInValue, outLut, minOutValue, maxOutValue, inverse, true);
+        setWindowLevelExponentialLut(width, center, minInValue, maxInValue, inValues, outLut, minOutValue, maxOutValue,
+            inverse, true);
     }
 
-    private static void setWindowLevelExponentialLut(float width, float center, float minInValue, Object outLut,
-        float minOutValue, float maxOutValue, boolean inverse, boolean normalize) {
+    private static void setWindowLevelExponentialLut(float width, float center, float minInValue, float maxInValue,
+        DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue, boolean inverse, boolean normalize) {
 
         double nFactor = 20d;
         double outRange = maxOutValue - minOutValue;
@@ -367,7 +427,8 @@ public class DicomImageUtils {
         }
 
         for (int i = 0; i < Array.getLength(outLut); i++) {
-            double value = outRange * Math.exp((nFactor / 10d) * (i + minInValue - center) / width);
+            float inValue = getInValue(inValues, i, minInValue, maxInValue);
+            double value = outRange * Math.exp((nFactor / 10d) * (inValue - center) / width);
 
             if (normalize) {
                 value = (value - minValue) * outRescaleRatio;
@@ -388,14 +449,15 @@ public class DicomImageUtils {
 
     // //////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    private static void setWindowLevelLogarithmicLut(float width, float center, float minInValue, Object outLut,
-        float minOutValue, float maxOutValue, boolean inverse) {
+    private static void setWindowLevelLogarithmicLut(float width, float center, float minInValue, float maxInValue,
+        DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue, boolean inverse) {
 
-        setWindowLevelLogarithmicLut(width, center, minInValue, outLut, minOutValue, maxOutValue, inverse, true);
+        setWindowLevelLogarithmicLut(width, center, minInValue, maxInValue, inValues, outLut, minOutValue, maxOutValue,
+            inverse, true);
     }
 
-    private static void setWindowLevelLogarithmicLut(float width, float center, float minInValue, Object outLut,
-        float minOutValue, float maxOutValue, boolean inverse, boolean normalize) {
+    private static void setWindowLevelLogarithmicLut(float width, float center, float minInValue, float maxInValue,
+        DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue, boolean inverse, boolean normalize) {
 
         double nFactor = 20d;
         double outRange = maxOutValue - minOutValue;
@@ -413,7 +475,8 @@ public class DicomImageUtils {
         }
 
         for (int i = 0; i < Array.getLength(outLut); i++) {
-            double value = outRange * Math.log((nFactor / 10d) * (1 + (i + minInValue - center) / width));
+            float inValue = getInValue(inValues, i, minInValue, maxInValue);
+            double value = outRange * Math.log((nFactor / 10d) * (1 + (inValue - center) / width));
 
             if (normalize) {
                 value = (value - minValue) * outRescaleRatio;
@@ -460,7 +523,8 @@ public class DicomImageUtils {
      */
 
     private static void setWindowLevelSequenceLut(float width, float center, LookupTableJAI lookupSequence,
-        float minInValue, float maxInValue, Object outLut, float minOutValue, float maxOutValue, boolean inverse) {
+        float minInValue, float maxInValue, DataBuffer inValues, Object outLut, float minOutValue, float maxOutValue,
+        boolean inverse) {
 
         final Object inLutDataArray = getLutDataArray(lookupSequence);
 
@@ -501,15 +565,16 @@ public class DicomImageUtils {
         float outRescaleRatio = (maxOutValue - minOutValue) / lookupValueRange;
 
         for (int i = 0; i < Array.getLength(outLut); i++) {
+            float inValue = getInValue(inValues, i, minInValue, maxInValue);
             int value;
             float inValueRescaled;
 
-            if ((i + minInValue) <= lowLevel) {
+            if (inValue <= lowLevel) {
                 inValueRescaled = 0;
-            } else if ((i + minInValue) > highLevel) {
+            } else if (inValue > highLevel) {
                 inValueRescaled = maxInLutIndex;
             } else {
-                inValueRescaled = (i + minInValue - lowLevel) * widthRescaleRatio;
+                inValueRescaled = (inValue - lowLevel) * widthRescaleRatio;
             }
 
             int inValueRoundDown = Math.max(0, (int) Math.floor(inValueRescaled));
@@ -658,7 +723,7 @@ public class DicomImageUtils {
         return ImageIO.getImageReadersByFormatName("JPEG-LS").hasNext(); //$NON-NLS-1$
     }
 
-    public static float pixel2rescale(HashMap<TagW, Object> tagList, float pixelValue) {
+    public static float pixel2rescale(Map<TagW, Object> tagList, float pixelValue) {
         if (tagList != null) {
             LookupTableJAI lookup = (LookupTableJAI) tagList.get(TagW.ModalityLUTData);
             if (lookup != null) {
@@ -480,7 +480,7 @@ public class DicomMediaUtils {
         return false;
     }
 
-    public static void buildLUTs(HashMap<TagW, Object> dicomTagMap) {
+    public static void buildLUTs(Map<TagW, Object> dicomTagMap) {
         if (dicomTagMap != null) {
 
             Integer pixelRepresentation = (Integer) dicomTagMap.get(TagW.PixelRepresentation);
@@ -865,7 +865,7 @@ public class DicomMediaUtils {
         }
     }
 
-    public static void computeSlicePositionVector(HashMap<TagW, Object> tagList) {
+    public static void computeSlicePositionVector(Map<TagW, Object> tagList) {
         double[] patientPos = (double[]) tagList.get(TagW.ImagePositionPatient);
         if (patientPos != null && patientPos.length == 3) {
             double[] imgOrientation =
@@ -930,7 +930,7 @@ public class DicomMediaUtils {
         return shape;
     }
 
-    public static void writeFunctionalGroupsSequence(HashMap<TagW, Object> tagList, Attributes dcm) {
+    public static void writeFunctionalGroupsSequence(Map<TagW, Object> tagList, Attributes dcm) {
         if (dcm != null && tagList != null) {
 
             /**
@@ -1061,7 +1061,7 @@ public class DicomMediaUtils {
         }
     }
 
-    public static boolean writePerFrameFunctionalGroupsSequence(HashMap<TagW, Object> tagList, Attributes header,
+    public static boolean writePerFrameFunctionalGroupsSequence(Map<TagW, Object> tagList, Attributes header,
         int index) {
         if (header != null && tagList != null) {
             /*
@@ -1076,7 +1076,7 @@ public class DicomMediaUtils {
         return false;
     }
 
-    public static void applyModalityLutModule(Attributes mLutItems, HashMap<TagW, Object> tagList, Integer seqParentTag) {
+    public static void applyModalityLutModule(Attributes mLutItems, Map<TagW, Object> tagList, Integer seqParentTag) {
         if (mLutItems != null && tagList != null) {
             // Overrides Modality LUT Transformation attributes only if sequence is consistent
             if (containsRequiredModalityLUTAttributes(mLutItems)) {
@@ -1113,7 +1113,7 @@ public class DicomMediaUtils {
         }
     }
 
-    public static void applyVoiLutModule(Attributes voiItems, Attributes mLutItems, HashMap<TagW, Object> tagList,
+    public static void applyVoiLutModule(Attributes voiItems, Attributes mLutItems, Map<TagW, Object> tagList,
         Integer seqParentTag) {
         if (voiItems != null && tagList != null) {
             // Overrides VOI LUT Transformation attributes only if sequence is consistent
@@ -1160,7 +1160,7 @@ public class DicomMediaUtils {
         }
     }
 
-    public static void applyPrLutModule(Attributes dcmItems, HashMap<TagW, Object> tagList) {
+    public static void applyPrLutModule(Attributes dcmItems, Map<TagW, Object> tagList) {
         if (dcmItems != null && tagList != null) {
             // TODO implement 1.2.840.10008.5.1.4.1.1.11.2 -5 color and xray
             if ("1.2.840.10008.5.1.4.1.1.11.1".equals(dcmItems.getString(Tag.SOPClassUID))) { //$NON-NLS-1$
@@ -1179,7 +1179,7 @@ public class DicomMediaUtils {
         }
     }
 
-    public static void readPRLUTsModule(Attributes dcmItems, HashMap<TagW, Object> tagList) {
+    public static void readPRLUTsModule(Attributes dcmItems, Map<TagW, Object> tagList) {
         if (dcmItems != null && tagList != null) {
             // Modality LUT Module
             applyModalityLutModule(dcmItems, tagList, null);
@@ -1193,7 +1193,7 @@ public class DicomMediaUtils {
         }
     }
 
-    public static void computeSUVFactor(Attributes dicomObject, HashMap<TagW, Object> tagList, int index) {
+    public static void computeSUVFactor(Attributes dicomObject, Map<TagW, Object> tagList, int index) {
         // From vendor neutral code at http://qibawiki.rsna.org/index.php?title=Standardized_Uptake_Value_%28SUV%29
         String modlality = (String) tagList.get(TagW.Modality);
         if ("PT".equals(modlality)) { //$NON-NLS-1$
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.codec.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.media.jai.LookupTableJAI;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of lookup tables, the least recently used tables are removed.
+ *
+ * @param <K>
+ *            the key of the tables, must implement equals and hashCode
+ */
+public class LutCache<K> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LutCache.class);
+
+    private final String name;
+    private final int maxSize;
+    private final Map<K, LookupTableJAI> tables;
+
+    private final AtomicLong buildCount = new AtomicLong();
+    private long rateTime = System.currentTimeMillis();
+    private long rateCount = 0L;
+
+    public LutCache(String name, final int maxSize) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.tables = new LinkedHashMap<K, LookupTableJAI>(maxSize + 1, 0.75f, true) {
+
+            private static final long serialVersionUID = -2451917282736298618L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, LookupTableJAI> eldest) {
+                return size() > LutCache.this.maxSize;
+            }
+        };
+    }
+
+    public synchronized LookupTableJAI get(K key) {
+        return tables.get(key);
+    }
+
+    /**
+     * Adds a new table, which is counted as a built table.
+     */
+    public synchronized void put(K key, LookupTableJAI table) {
+        if (key == null || table == null) {
+            return;
+        }
+        tables.put(key, table);
+        buildCount.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (now - rateTime >= 1000L) {
+            long count = buildCount.get();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("{}: {} lookup tables built in {} ms", new Object[] { name, count - rateCount, //$NON-NLS-1$
+                    now - rateTime });
+            }
+            rateTime = now;
+            rateCount = count;
+        }
+    }
+
+    public synchronized void clear() {
+        tables.clear();
+    }
+
+    /**
+     * @return the number of tables built since the start
+     */
+    public long getBuildCount() {
+        return buildCount.get();
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.weasis.core.api.media.data.TagMap;
+import org.weasis.core.api.media.data.TagW;
+import org.weasis.core.api.media.data.TagW.TagType;
+import org.weasis.core.api.util.FileUtil;
+
+public class DicomHeaderIndexTest {
+
+    private File folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = File.createTempFile("index_", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(folder);
+    }
+
+    @Test
+    public void testTagsRoundTrip() throws IOException {
+        Map<TagW, Object> tags = new TagMap();
+        tags.put(TagW.PatientName, "Doe^John"); //$NON-NLS-1$
+        tags.put(TagW.Rows, 512);
+        tags.put(TagW.RescaleSlope, 1.5f);
+        tags.put(TagW.SliceThickness, 0.625);
+        tags.put(TagW.MonoChrome, Boolean.TRUE);
+        tags.put(TagW.StudyDate, new Date(1234567890000L));
+        tags.put(TagW.PixelAspectRatio, new int[] { 1, 2 });
+        tags.put(TagW.ImagePositionPatient, new double[] { -120.5, 80.25, 3.0 });
+        tags.put(TagW.WindowWidth, new Float[] { 400f, 1500f });
+        tags.put(TagW.ImageType, new String[] { "ORIGINAL", null, "AXIAL" }); //$NON-NLS-1$ //$NON-NLS-2$
+        tags.put(TagW.ShutterRGBColor, new Color(10, 20, 30, 40));
+        Area shape = new Area(new Ellipse2D.Double(10.0, 20.0, 30.0, 40.0));
+        shape.subtract(new Area(new Rectangle(15, 25, 5, 5)));
+        tags.put(TagW.ShutterFinalShape, shape);
+        // Excluded tag
+        tags.put(TagW.SeriesInstanceUID, "1.2.3"); //$NON-NLS-1$
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DicomHeaderIndex.writeTags(new DataOutputStream(bos), tags, TagW.SeriesInstanceUID);
+        Map<TagW, Object> result = new HashMap<TagW, Object>();
+        DicomHeaderIndex.readTags(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())), result);
+
+        assertEquals(tags.size() - 1, result.size());
+        assertFalse(result.containsKey(TagW.SeriesInstanceUID));
+        assertEquals("Doe^John", result.get(TagW.PatientName)); //$NON-NLS-1$
+        assertEquals(512, result.get(TagW.Rows));
+        assertEquals(1.5f, result.get(TagW.RescaleSlope));
+        assertEquals(0.625, result.get(TagW.SliceThickness));
+        assertEquals(Boolean.TRUE, result.get(TagW.MonoChrome));
+        assertEquals(tags.get(TagW.StudyDate), result.get(TagW.StudyDate));
+        assertArrayEquals(new int[] { 1, 2 }, (int[]) result.get(TagW.PixelAspectRatio));
+        assertArrayEquals(new double[] { -120.5, 80.25, 3.0 }, (double[]) result.get(TagW.ImagePositionPatient), 0.0);
+        assertArrayEquals(new Float[] { 400f, 1500f }, (Float[]) result.get(TagW.WindowWidth));
+        assertArrayEquals(new String[] { "ORIGINAL", null, "AXIAL" }, (String[]) result.get(TagW.ImageType)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(new Color(10, 20, 30, 40), result.get(TagW.ShutterRGBColor));
+        assertTrue(shape.equals((Area) result.get(TagW.ShutterFinalShape)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTagNotIndexable() throws IOException {
+        Map<TagW, Object> tags = new HashMap<TagW, Object>();
+        // Not a field of TagW
+        tags.put(new TagW("Private", TagType.String), "value"); //$NON-NLS-1$ //$NON-NLS-2$
+        DicomHeaderIndex.writeTags(new DataOutputStream(new ByteArrayOutputStream()), tags, null);
+    }
+
+    @Test
+    public void testInvalidation() throws IOException {
+        File file = createFile("image1", 100); //$NON-NLS-1$
+        assertFalse(DicomHeaderIndex.isIndexedAsNotDicom(file));
+        DicomHeaderIndex.put(file, null);
+        assertTrue(DicomHeaderIndex.isIndexedAsNotDicom(file));
+
+        // Size changed
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(new byte[10]);
+        } finally {
+            out.close();
+        }
+        assertFalse(DicomHeaderIndex.isIndexedAsNotDicom(file));
+
+        // Modification date changed
+        DicomHeaderIndex.put(file, null);
+        assertTrue(DicomHeaderIndex.isIndexedAsNotDicom(file));
+        assertTrue(file.setLastModified(file.lastModified() - 10000L));
+        assertFalse(DicomHeaderIndex.isIndexedAsNotDicom(file));
+    }
+
+    @Test
+    public void testPersistence() throws IOException {
+        File file = createFile("image2", 50); //$NON-NLS-1$
+        DicomHeaderIndex.put(file, null);
+        DicomHeaderIndex.saveAll();
+
+        // Loading the indexes of other folders removes the index of this folder from the memory
+        for (int i = 0; i < 20; i++) {
+            File dir = new File(folder, "other" + i); //$NON-NLS-1$
+            dir.mkdirs();
+            DicomHeaderIndex.isIndexedAsNotDicom(new File(dir, "none")); //$NON-NLS-1$
+        }
+        // Read from the index file
+        assertTrue(DicomHeaderIndex.isIndexedAsNotDicom(file));
+        assertFalse(DicomHeaderIndex.isIndexedAsNotDicom(new File(folder, "image3"))); //$NON-NLS-1$
+    }
+
+    private File createFile(String name, int length) throws IOException {
+        File file = new File(folder, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
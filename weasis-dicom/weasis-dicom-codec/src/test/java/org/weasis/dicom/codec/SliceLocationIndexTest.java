@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.junit.Test;
+import org.weasis.core.api.gui.util.Filter;
+import org.weasis.core.api.media.data.TagMap;
+import org.weasis.core.api.media.data.TagW;
+
+public class SliceLocationIndexTest {
+
+    // Axial slices: the normal is the z axis
+    private static final double[] AXIAL = { 1.0, 0.0, 0.0, 0.0, 1.0, 0.0 };
+
+    @Test
+    public void testFirstAndLast() {
+        SliceLocationIndex index = new SliceLocationIndex(null);
+        assertNull(index.getBounds());
+
+        DicomImageElement[] images = createImages(5.0, 2.5, -7.5, 0.0, 10.0);
+        for (DicomImageElement img : images) {
+            index.add(img);
+        }
+        DicomImageElement[] bounds = index.getBounds();
+        assertSame(images[2], bounds[0]);
+        assertSame(images[4], bounds[1]);
+    }
+
+    @Test
+    public void testNearest() {
+        SliceLocationIndex index = new SliceLocationIndex(null);
+        DicomImageElement[] images = createImages(0.0, 5.0, 10.0, 15.0);
+        // Added in a different order than the locations
+        for (int i : new int[] { 2, 0, 3, 1 }) {
+            index.add(images[i]);
+        }
+
+        assertNearest(index, images[0], -100.0);
+        assertNearest(index, images[0], 0.0);
+        assertNearest(index, images[1], 6.0);
+        assertNearest(index, images[2], 8.0);
+        // At equal distance, the lower location is chosen
+        assertNearest(index, images[1], 7.5);
+        assertNearest(index, images[3], 15.0);
+        assertNearest(index, images[3], 100.0);
+        assertTrue(index.getNearest(Double.NaN).isEmpty());
+    }
+
+    @Test
+    public void testSameLocation() {
+        SliceLocationIndex index = new SliceLocationIndex(null);
+        // Two images at 5.0 (e.g. two echoes)
+        DicomImageElement[] images = createImages(0.0, 5.0, 5.0, 10.0);
+        for (DicomImageElement img : images) {
+            index.add(img);
+        }
+        List<DicomImageElement> nearest = index.getNearest(4.0);
+        assertEquals(2, nearest.size());
+        // In the order of arrival
+        assertSame(images[1], nearest.get(0));
+        assertSame(images[2], nearest.get(1));
+    }
+
+    @Test
+    public void testProjection() {
+        SliceLocationIndex index = new SliceLocationIndex(null);
+        assertTrue(Double.isNaN(index.project(new double[] { 0.0, 0.0, 1.0 })));
+        index.add(createImage(new double[] { 10.0, 20.0, 3.0 }, AXIAL));
+        assertEquals(42.0, index.project(new double[] { 1.0, 2.0, 42.0 }), 1e-9);
+
+        // The images without position are ignored
+        index.add(createImage(null, AXIAL));
+        assertEquals(1, index.getNearest(0.0).size());
+    }
+
+    @Test
+    public void testFilterAndValidity() {
+        final DicomImageElement[] images = createImages(0.0, 5.0, 10.0);
+        final int[] version = { 1 };
+        Filter<DicomImageElement> filter = new Filter<DicomImageElement>() {
+
+            @Override
+            public boolean passes(DicomImageElement dicom) {
+                return dicom != images[1];
+            }
+
+            @Override
+            public int getVersion() {
+                return version[0];
+            }
+        };
+        SliceLocationIndex index = new SliceLocationIndex(filter);
+        for (DicomImageElement img : images) {
+            index.add(img);
+        }
+        assertNearest(index, images[0], 4.0);
+        assertNearest(index, images[2], 6.0);
+
+        assertFalse(index.isValid(3));
+        index.setModificationCount(3);
+        assertTrue(index.isValid(3));
+        // Series modified
+        assertFalse(index.isValid(4));
+        // Filter changed
+        version[0]++;
+        assertFalse(index.isValid(3));
+    }
+
+    private static void assertNearest(SliceLocationIndex index, DicomImageElement expected, double location) {
+        List<DicomImageElement> nearest = index.getNearest(location);
+        assertEquals(1, nearest.size());
+        assertSame(expected, nearest.get(0));
+    }
+
+    private static DicomImageElement[] createImages(double... locations) {
+        DicomImageElement[] images = new DicomImageElement[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            images[i] = createImage(new double[] { -100.0, -100.0, locations[i] }, AXIAL);
+        }
+        return images;
+    }
+
+    /**
+     * @return an image whose reader only provides the tags
+     */
+    static DicomImageElement createImage(double[] position, double[] orientation) {
+        final TagMap tags = new TagMap();
+        tags.put(TagW.Modality, "CT"); //$NON-NLS-1$
+        if (position != null) {
+            tags.put(TagW.ImagePositionPatient, position);
+        }
+        if (orientation != null) {
+            tags.put(TagW.ImageOrientationPatient, orientation);
+        }
+        DcmMediaReader<?> reader =
+            (DcmMediaReader<?>) Proxy.newProxyInstance(DcmMediaReader.class.getClassLoader(),
+                new Class<?>[] { DcmMediaReader.class }, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("getTagValue".equals(name)) { //$NON-NLS-1$
+                            return tags.get(args[0]);
+                        } else if ("getMediaFragmentTags".equals(name)) { //$NON-NLS-1$
+                            return tags;
+                        } else if (method.getReturnType() == boolean.class) {
+                            return Boolean.FALSE;
+                        } else if (method.getReturnType() == int.class) {
+                            return 0;
+                        }
+                        return null;
+                    }
+                });
+        return new DicomImageElement(reader, 0);
+    }
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.codec.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import javax.media.jai.LookupTableJAI;
+
+import org.junit.Test;
+import org.weasis.core.api.image.LutShape;
+
+public class DicomImageUtilsTest {
+
+    private static final LutShape[] SHAPES = { LutShape.LINEAR, LutShape.SIGMOID, LutShape.SIGMOID_NORM, LutShape.LOG,
+        LutShape.LOG_INV };
+
+    @Test
+    public void testCombinedLutUnsigned() {
+        // CT 12 bits unsigned with a rescale intercept of -1024
+        LookupTableJAI modality = DicomImageUtils.createRescaleRampLut(-1024f, 1f, 12, false, true);
+        for (LutShape shape : SHAPES) {
+            checkCombinedLut(modality, shape, 400f, 40f, -1024, 3071, false);
+            checkCombinedLut(modality, shape, 1500f, -600f, -1024, 3071, true);
+            // Input range smaller than the output range of the modality LUT
+            checkCombinedLut(modality, shape, 80f, 35f, -200, 500, false);
+        }
+    }
+
+    @Test
+    public void testCombinedLutSigned() {
+        // Signed 16 bits with a negative slope
+        LookupTableJAI modality = DicomImageUtils.createRescaleRampLut(100f, -0.5f, 16, true, true);
+        for (LutShape shape : SHAPES) {
+            checkCombinedLut(modality, shape, 2000f, 50f, -16284, 16484, false);
+            checkCombinedLut(modality, shape, 0.5f, 0f, -1000, 1000, true);
+        }
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        LookupTableJAI modality = DicomImageUtils.createRescaleRampLut(0f, 1f, 8, false, false);
+        assertNull(DicomImageUtils.createCombinedWindowLevelLut(null, LutShape.LINEAR, 10f, 5f, 0, 255, false));
+        assertNull(DicomImageUtils.createCombinedWindowLevelLut(modality, null, 10f, 5f, 0, 255, false));
+    }
+
+    /**
+     * Compares the combined table with the modality LUT followed by the 8 bits VOI LUT built for the same input range.
+     */
+    private static void checkCombinedLut(LookupTableJAI modality, LutShape shape, float window, float level,
+        int minValue, int maxValue, boolean inverse) {
+        LookupTableJAI combined =
+            DicomImageUtils.createCombinedWindowLevelLut(modality, shape, window, level, minValue, maxValue, inverse);
+        LookupTableJAI voi =
+            DicomImageUtils.createWindowLevelLut(shape, window, level, minValue, maxValue, 8, false, inverse);
+        assertNotNull(combined);
+        assertNotNull(voi);
+        int offset = modality.getOffset(0);
+        assertEquals(offset, combined.getOffset(0));
+        assertEquals(modality.getNumEntries(), combined.getNumEntries());
+        for (int i = offset; i < offset + modality.getNumEntries(); i++) {
+            // The input values of the VOI LUT are clamped to its range
+            int value = Math.max(minValue, Math.min(maxValue, modality.lookup(0, i)));
+            int expected = voi.lookup(0, value) & 0xFF;
+            assertEquals(shape + " pixel " + i, expected, combined.lookup(0, i) & 0xFF); //$NON-NLS-1$
+        }
+    }
+}
@@ -520,8 +520,7 @@ public class DicomModel implements TreeModel, DataExplorerModel {
                     }
                 }
                 // Force to sort the new merged media list
-                List sortedMedias = base.getSortedMedias(null);
-                Collections.sort(sortedMedias, SortSeriesStack.instanceNumber);
+                ((MediaSeries) base).sort(SortSeriesStack.instanceNumber);
                 // update observer
                 this.firePropertyChange(new ObservableEvent(ObservableEvent.BasicAction.Replace, DicomModel.this, base,
                     base));
@@ -14,6 +14,12 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.LoggerFactory;
 import org.weasis.core.api.explorer.ObservableEvent;
@@ -29,23 +35,47 @@ import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SeriesThumbnail;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.media.data.Thumbnail;
+import org.weasis.core.api.service.BundleTools;
 import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.NamedThreadFactory;
 import org.weasis.core.ui.docking.UIManager;
 import org.weasis.core.ui.editor.SeriesViewerFactory;
 import org.weasis.core.ui.editor.ViewerPluginBuilder;
 import org.weasis.core.ui.graphic.model.GraphicList;
 import org.weasis.core.ui.serialize.DefaultSerializer;
 import org.weasis.dicom.codec.DicomCodec;
+import org.weasis.dicom.codec.DicomHeaderIndex;
 import org.weasis.dicom.codec.DicomMediaIO;
 
+/**
+ * Imports DICOM files and folders.
+ * <p>
+ * The folders are walked by the task thread, which submits the files to a pool of threads parsing the headers (the
+ * property "weasis.dicom.import.threads", by default the number of processors). The parsed headers are added to the
+ * model in batches by the task thread only, which is the single thread modifying the tree.
+ * </p>
+ */
 public class LoadLocalDicom extends ExplorerTask {
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(LoadLocalDicom.class);
+
+    public static final String IMPORT_THREADS = "weasis.dicom.import.threads"; //$NON-NLS-1$
+    // Maximum number of files submitted and not yet added to the model, for each parsing thread
+    private static final int PENDING_FILES_PER_THREAD = 32;
+    // Maximum number of headers added to the model before refreshing the thumbnails
+    private static final int MERGE_BATCH_SIZE = 64;
+
     private final File[] files;
     private final DicomModel dicomModel;
     private final boolean recursive;
     private boolean openPlugin;
 
+    private ExecutorService headerParsers;
+    private final BlockingQueue<ParsedFile> parsedFiles = new LinkedBlockingQueue<ParsedFile>();
+    // Files submitted and not yet added to the model, accessed only by the task thread
+    private int pendingFiles = 0;
+    private int maxPendingFiles;
+
     public LoadLocalDicom(File[] files, boolean recursive, DataExplorerModel explorerModel) {
         super(Messages.getString("DicomExplorer.loading"), false); //$NON-NLS-1$
         if (files == null || !(explorerModel instanceof DicomModel)) {
@@ -61,10 +91,51 @@ public class LoadLocalDicom extends ExplorerTask {
     protected Boolean doInBackground() throws Exception {
         dicomModel.firePropertyChange(new ObservableEvent(ObservableEvent.BasicAction.LoadingStart, dicomModel, null,
             this));
-        addSelectionAndnotify(files, true);
+        int nThreads =
+            BundleTools.SYSTEM_PREFERENCES.getIntProperty(IMPORT_THREADS, Runtime.getRuntime().availableProcessors());
+        nThreads = nThreads < 1 ? 1 : nThreads;
+        maxPendingFiles = nThreads * PENDING_FILES_PER_THREAD;
+        headerParsers =
+            Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("DICOM header parser", //$NON-NLS-1$
+                Thread.NORM_PRIORITY - 1));
+        try {
+            addSelectionAndnotify(files, true);
+            while (pendingFiles > 0 && !isCancelled()) {
+                mergeParsedFiles(true);
+            }
+        } finally {
+            headerParsers.shutdownNow();
+            // A parser still running would add its file after the queue is drained
+            awaitParsers();
+            DicomHeaderIndex.saveAll();
+            // Close the streams of the headers not added to the model (cancelled task)
+            for (ParsedFile parsed : parsedFiles) {
+                if (parsed.loader != null) {
+                    parsed.loader.close();
+                }
+            }
+            parsedFiles.clear();
+        }
         return true;
     }
 
+    private void awaitParsers() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (headerParsers.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                // The task is cancelled, the parsers must still be stopped before closing their streams
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     protected void done() {
         dicomModel.firePropertyChange(new ObservableEvent(ObservableEvent.BasicAction.LoadingStop, dicomModel, null,
@@ -72,11 +143,13 @@ public class LoadLocalDicom extends ExplorerTask {
         LOGGER.info("End of loading DICOM locally"); //$NON-NLS-1$
     }
 
-    public void addSelectionAndnotify(File[] file, boolean firstLevel) {
+    /**
+     * Submits the files to the header parsers, must be called only by doInBackground() when the parsers are started.
+     */
+    private void addSelectionAndnotify(File[] file, boolean firstLevel) throws InterruptedException {
         if (file == null || file.length < 1) {
             return;
         }
-        final ArrayList<SeriesThumbnail> thumbs = new ArrayList<SeriesThumbnail>();
         final ArrayList<File> folders = new ArrayList<File>();
 
         for (int i = 0; i < file.length; i++) {
@@ -92,30 +165,65 @@ public class LoadLocalDicom extends ExplorerTask {
                 }
             } else {
                 if (file[i].canRead()) {
-                    if (FileUtil.isFileExtensionMatching(file[i], DicomCodec.FILE_EXTENSIONS)
-                        || MimeInspector.isMatchingMimeTypeFromMagicNumber(file[i], DicomMediaIO.MIMETYPE)) {
-                        DicomMediaIO loader = new DicomMediaIO(file[i]);
-                        if (loader.isReadableDicom()) {
-                            // Issue: must handle adding image to viewer and building thumbnail (middle image)
-                            SeriesThumbnail t = buildDicomStructure(loader, openPlugin);
-                            if (t != null) {
-                                thumbs.add(t);
-                            }
-
-                            File gpxFile = new File(file[i].getPath() + ".xml"); //$NON-NLS-1$
-
-                            if (gpxFile.canRead()) {
-                                try {
-                                    GraphicList list =
-                                        DefaultSerializer.getInstance().getSerializer()
-                                            .read(GraphicList.class, gpxFile);
-                                    loader.setTag(TagW.MeasurementGraphics, list);
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                        }
+                    // Bounded pipeline: add the parsed headers to the model when the parsing threads are ahead
+                    while (pendingFiles >= maxPendingFiles) {
+                        mergeParsedFiles(true);
                     }
+                    headerParsers.execute(new HeaderParser(file[i]));
+                    pendingFiles++;
+                }
+            }
+        }
+        mergeParsedFiles(false);
+        for (int i = 0; i < folders.size(); i++) {
+            if (isCancelled()) {
+                return;
+            }
+            addSelectionAndnotify(folders.get(i).listFiles(), false);
+        }
+    }
+
+    /**
+     * Adds a batch of parsed headers to the model.
+     * 
+     * @param wait
+     *            if true, waits for at least one parsed file
+     */
+    private void mergeParsedFiles(boolean wait) throws InterruptedException {
+        List<ParsedFile> batch = new ArrayList<ParsedFile>();
+        if (wait) {
+            batch.add(parsedFiles.take());
+        }
+        parsedFiles.drainTo(batch, MERGE_BATCH_SIZE - batch.size());
+        if (batch.isEmpty()) {
+            return;
+        }
+        pendingFiles -= batch.size();
+
+        final ArrayList<SeriesThumbnail> thumbs = new ArrayList<SeriesThumbnail>();
+        for (ParsedFile parsed : batch) {
+            DicomMediaIO loader = parsed.loader;
+            if (loader == null) {
+                continue;
+            }
+            if (isCancelled()) {
+                loader.close();
+                continue;
+            }
+            // Issue: must handle adding image to viewer and building thumbnail (middle image)
+            SeriesThumbnail t = buildDicomStructure(loader, openPlugin);
+            if (t != null) {
+                thumbs.add(t);
+            }
+
+            File gpxFile = new File(parsed.file.getPath() + ".xml"); //$NON-NLS-1$
+
+            if (gpxFile.canRead()) {
+                try {
+                    GraphicList list = DefaultSerializer.getInstance().getSerializer().read(GraphicList.class, gpxFile);
+                    loader.setTag(TagW.MeasurementGraphics, list);
+                } catch (Exception e) {
+                    LOGGER.error("Cannot read the graphics of {}", gpxFile, e); //$NON-NLS-1$
                 }
             }
         }
@@ -133,9 +241,6 @@ public class LoadLocalDicom extends ExplorerTask {
                 });
             }
         }
-        for (int i = 0; i < folders.size(); i++) {
-            addSelectionAndnotify(folders.get(i).listFiles(), false);
-        }
     }
 
     private SeriesThumbnail buildDicomStructure(DicomMediaIO dicomReader, boolean open) {
@@ -251,6 +356,53 @@ public class LoadLocalDicom extends ExplorerTask {
         return thumb;
     }
 
+    private static class ParsedFile {
+        private final File file;
+        // Null when the file is not a readable DICOM
+        private final DicomMediaIO loader;
+
+        ParsedFile(File file, DicomMediaIO loader) {
+            this.file = file;
+            this.loader = loader;
+        }
+    }
+
+    /**
+     * Reads the header of a file in a thread of the pool. The pixel data are not read, only their position.
+     */
+    private class HeaderParser implements Runnable {
+        private final File file;
+
+        HeaderParser(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            DicomMediaIO loader = null;
+            try {
+                // Files already parsed in a previous session
+                loader = DicomHeaderIndex.getReader(file);
+                if (loader == null && !DicomHeaderIndex.isIndexedAsNotDicom(file)) {
+                    if (FileUtil.isFileExtensionMatching(file, DicomCodec.FILE_EXTENSIONS)
+                        || MimeInspector.isMatchingMimeTypeFromMagicNumber(file, DicomMediaIO.MIMETYPE)) {
+                        loader = new DicomMediaIO(file);
+                        if (!loader.isReadableDicom()) {
+                            loader = null;
+                        }
+                    }
+                    DicomHeaderIndex.put(file, loader);
+                }
+            } catch (Exception e) {
+                loader = null;
+                LOGGER.error("Cannot read DICOM header of {}: {}", file, e.getMessage()); //$NON-NLS-1$
+            } finally {
+                // Always sent, the task thread counts the parsed files
+                parsedFiles.add(new ParsedFile(file, loader));
+            }
+        }
+    }
+
     private boolean isSOPInstanceUIDExist(MediaSeriesGroup study, Series dicomSeries, String seriesUID, Object sopUID) {
         if (dicomSeries.hasMediaContains(TagW.SOPInstanceUID, sopUID)) {
             return true;
@@ -23,7 +23,17 @@ import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.media.jai.PlanarImage;
 import javax.media.jai.operator.SubsampleAverageDescriptor;
@@ -60,10 +70,13 @@ import org.weasis.core.api.gui.util.FileFormatFilter;
 import org.weasis.core.api.gui.util.JMVUtils;
 import org.weasis.core.api.image.util.ImageFiler;
 import org.weasis.core.api.media.data.MediaElement;
+import org.weasis.core.api.media.data.MediaReader;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.media.data.Thumbnail;
+import org.weasis.core.api.service.BundleTools;
 import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.NamedThreadFactory;
 import org.weasis.core.api.util.StringUtil;
 import org.weasis.core.ui.serialize.DefaultSerializer;
 import org.weasis.dicom.codec.DcmMediaReader;
@@ -84,6 +97,9 @@ public class LocalExport extends AbstractItemDialogPage implements ExportDicom {
     private static final String IMG_QUALITY = "exp.img.quality";//$NON-NLS-1$
     private static final String HEIGHT_BITS = "exp.8bis";//$NON-NLS-1$
     private static final String CD_COMPATIBLE = "exp.cd";//$NON-NLS-1$
+    public static final String EXPORT_THREADS = "weasis.dicom.export.threads"; //$NON-NLS-1$
+    // Maximum number of exports submitted and not finished, for each thread
+    private static final int PENDING_EXPORTS_PER_THREAD = 2;
 
     public static final String[] EXPORT_FORMAT = { "DICOM", "DICOM ZIP", "JPEG", "PNG", "TIFF" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
 
@@ -376,13 +392,16 @@ public class LocalExport extends AbstractItemDialogPage implements ExportDicom {
         return (String) img.getTagValue(TagW.SOPInstanceUID);
     }
 
-    private void writeOther(ExplorerTask task, File exportDir, CheckTreeModel model, String format) {
+    private void writeOther(ExplorerTask task, File exportDir, CheckTreeModel model, String format)
+        throws InterruptedException {
         Properties pref = Activator.IMPORT_EXPORT_PERSISTENCE;
         boolean keepNames = Boolean.valueOf(pref.getProperty(KEEP_INFO_DIR, "true"));//$NON-NLS-1$
         int jpegQuality = JMVUtils.getIntValueFromString(pref.getProperty(IMG_QUALITY, null), 80);
         boolean more8bits = Boolean.valueOf(pref.getProperty(HEIGHT_BITS, "false")); //$NON-NLS-1$
         boolean writeGraphics = chckbxGraphics.isSelected();
 
+        // The frames of a file share the same reader, they are exported by the same thread
+        Map<MediaReader<PlanarImage>, FileExport> exports = new LinkedHashMap<MediaReader<PlanarImage>, FileExport>();
         synchronized (model) {
             TreePath[] paths = model.getCheckingPaths();
             for (TreePath treePath : paths) {
@@ -424,64 +443,34 @@ public class LocalExport extends AbstractItemDialogPage implements ExportDicom {
                         instance = makeFileIDs(instance);
                     }
 
-                    File destinationDir = new File(exportDir, buffer.toString());
-                    destinationDir.mkdirs();
-
-                    RenderedImage image = img.getImage(null);
-
-                    if (EXPORT_FORMAT[2].equals(format)) {
-                        if (image != null) {
-                            image = img.getRenderedImage(image);
-                        }
-                        if (image != null) {
-                            File destinationFile = new File(destinationDir, instance + ".jpg"); //$NON-NLS-1$
-                            ImageFiler.writeJPG(destinationFile, image, jpegQuality / 100.0f);
-                            if (writeGraphics) {
-                                DefaultSerializer.writeMeasurementGraphics(img, destinationFile);
-                            }
-                        } else {
-                            LOGGER.error("Cannot export DICOM file to {}: {}", format, img.getFile()); //$NON-NLS-1$
-                        }
+                    MediaReader<PlanarImage> reader = img.getMediaReader();
+                    FileExport fileExport = exports.get(reader);
+                    if (fileExport == null) {
+                        fileExport = new FileExport();
+                        exports.put(reader, fileExport);
                     }
-                    if (EXPORT_FORMAT[3].equals(format)) {
-                        if (image != null) {
-                            image = img.getRenderedImage(image);
-                        }
-                        if (image != null) {
-                            File destinationFile = new File(destinationDir, instance + ".png"); //$NON-NLS-1$
-                            ImageFiler.writePNG(destinationFile, image);
-                            if (writeGraphics) {
-                                DefaultSerializer.writeMeasurementGraphics(img, destinationFile);
-                            }
-                        } else {
-                            LOGGER.error("Cannot export DICOM file to {}: {}", format, img.getFile()); //$NON-NLS-1$
-                        }
-                    }
-                    if (EXPORT_FORMAT[4].equals(format)) {
-                        if (image != null) {
-                            if (!more8bits) {
-                                image = img.getRenderedImage(image);
-                            }
-                            File destinationFile = new File(destinationDir, instance + ".tif"); //$NON-NLS-1$
-                            ImageFiler.writeTIFF(destinationFile, image, false, false, false);
-                            if (writeGraphics) {
-                                DefaultSerializer.writeMeasurementGraphics(img, destinationFile);
-                            }
-                        } else {
-                            LOGGER.error("Cannot export DICOM file to {}: {}", format, img.getFile()); //$NON-NLS-1$
-                        }
-                    }
-
-                    // Prevent to many files open on Linux (Ubuntu => 1024) and close image stream
-                    img.removeImageFromCache();
+                    fileExport.frames.add(new ImageExport(img, new File(exportDir, buffer.toString()), instance,
+                        format, jpegQuality, more8bits, writeGraphics));
                 }
             }
         }
 
+        // Decode, window/level, encode and write the images in parallel
+        ExportPipeline<FileExport> pipeline = new ExportPipeline<FileExport>(task, false);
+        try {
+            for (FileExport export : exports.values()) {
+                if (!pipeline.submit(export)) {
+                    return;
+                }
+            }
+            pipeline.finish();
+        } finally {
+            pipeline.shutdown();
+        }
     }
 
     private void writeDicom(ExplorerTask task, File exportDir, CheckTreeModel model, boolean zipFile)
-        throws IOException {
+        throws IOException, InterruptedException {
         boolean keepNames;
         boolean writeDicomdir;
         boolean cdCompatible;
@@ -510,10 +499,11 @@ public class LocalExport extends AbstractItemDialogPage implements ExportDicom {
                 writer = DicomDirLoader.open(dcmdirFile);
             }
 
+            List<DicomExport> exports = new ArrayList<DicomExport>();
             synchronized (model) {
-                ArrayList<String> uids = new ArrayList<String>();
+                HashSet<String> uids = new HashSet<String>();
                 TreePath[] paths = model.getCheckingPaths();
-                TreePath: for (TreePath treePath : paths) {
+                for (TreePath treePath : paths) {
                     if (task.isCancelled()) {
                         return;
                     }
@@ -523,47 +513,40 @@ public class LocalExport extends AbstractItemDialogPage implements ExportDicom {
                     if (node.getUserObject() instanceof DicomImageElement) {
                         DicomImageElement img = (DicomImageElement) node.getUserObject();
                         String iuid = (String) img.getTagValue(TagW.SOPInstanceUID);
-                        int index = uids.indexOf(iuid);
-                        if (index == -1) {
-                            uids.add(iuid);
-                        } else {
-                            // Write only once the file for multiframe
-                            continue TreePath;
-                        }
-
-                        String path = buildPath(img, keepNames, writeDicomdir, cdCompatible, node, iuid);
-                        File destinationDir = new File(writeDir, path);
-                        destinationDir.mkdirs();
-
-                        File destinationFile = new File(destinationDir, iuid);
-                        if (img.saveToFile(destinationFile)) {
-                            if (writeGraphics) {
-                                // TODO remove me and use PR
-                                DefaultSerializer.writeMeasurementGraphics(img, destinationFile);
-                            }
-                            if (!writeInDicomDir(writer, img, node, iuid, destinationFile)) {
-                                continue TreePath;
-                            }
-                        } else {
-                            LOGGER.error("Cannot export DICOM file: {}", img.getFile()); //$NON-NLS-1$
+                        // Write only once the file for multiframe
+                        if (uids.add(iuid)) {
+                            String path = buildPath(img, keepNames, writeDicomdir, cdCompatible, node, iuid);
+                            exports.add(new DicomExport(img, node, iuid, new File(writeDir, path), writeGraphics));
                         }
                     } else if (node.getUserObject() instanceof DicomSpecialElement) {
                         DicomSpecialElement dcm = (DicomSpecialElement) node.getUserObject();
                         String iuid = (String) dcm.getTagValue(TagW.SOPInstanceUID);
                         String path = buildPath(dcm, keepNames, writeDicomdir, cdCompatible, node, iuid);
-                        File destinationDir = new File(writeDir, path);
-                        destinationDir.mkdirs();
+                        exports.add(new DicomExport(dcm, node, iuid, new File(writeDir, path), false));
+                    }
+                }
+            }
 
-                        File destinationFile = new File(destinationDir, iuid);
-                        if (dcm.saveToFile(destinationFile)) {
-                            if (!writeInDicomDir(writer, dcm, node, iuid, destinationFile)) {
-                                continue TreePath;
-                            }
-                        } else {
-                            //      LOGGER.error("Cannot export DICOM file: {}", img.getFile()); //$NON-NLS-1$
-                        }
+            // The files are written in parallel, the DICOMDIR records are written in the order of the tree
+            ExportPipeline<DicomExport> pipeline = new ExportPipeline<DicomExport>(task, true);
+            try {
+                for (DicomExport export : exports) {
+                    if (!pipeline.submit(export)) {
+                        return;
+                    }
+                    for (DicomExport done = pipeline.poll(); done != null; done = pipeline.poll()) {
+                        writeInDicomDir(writer, done);
                     }
                 }
+                for (DicomExport done = pipeline.take(); done != null; done = pipeline.take()) {
+                    writeInDicomDir(writer, done);
+                }
+                if (task.isCancelled()) {
+                    return;
+                }
+                pipeline.finish();
+            } finally {
+                pipeline.shutdown();
             }
         } finally {
             if (writer != null) {
@@ -610,6 +593,10 @@ public class LocalExport extends AbstractItemDialogPage implements ExportDicom {
         return buffer.toString();
     }
 
+    private static boolean writeInDicomDir(DicomDirWriter writer, DicomExport export) throws IOException {
+        return writeInDicomDir(writer, export.element, export.node, export.iuid, export.destinationFile);
+    }
+
     private static boolean writeInDicomDir(DicomDirWriter writer, MediaElement<PlanarImage> img,
         DefaultMutableTreeNode node, String iuid, File destinationFile) throws IOException {
         if (writer != null) {
@@ -678,6 +665,273 @@ public class LocalExport extends AbstractItemDialogPage implements ExportDicom {
         return true;
     }
 
+    private static int getExportThreads() {
+        int nThreads =
+            BundleTools.SYSTEM_PREFERENCES.getIntProperty(EXPORT_THREADS, Runtime.getRuntime().availableProcessors());
+        return nThreads < 1 ? 1 : nThreads;
+    }
+
+    /**
+     * Exports all the frames of a file in a thread of the pipeline: each frame is decoded, windowed, encoded and
+     * written by the same thread. The reader of the file is shared by its frames, it must not be closed by a frame
+     * while another frame is decoded.
+     */
+    private static class FileExport implements ExportTask {
+        private final List<ImageExport> frames = new ArrayList<ImageExport>(1);
+
+        @Override
+        public File getSourceFile() {
+            // The frames belong to the same file
+            return frames.isEmpty() ? null : frames.get(0).img.getFile();
+        }
+
+        @Override
+        public Boolean call() throws Exception {
+            boolean exported = false;
+            for (ImageExport frame : frames) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                if (frame.export()) {
+                    exported = true;
+                }
+            }
+            return exported;
+        }
+    }
+
+    /**
+     * Exports an image to JPEG, PNG or TIFF.
+     */
+    private static class ImageExport {
+        private final DicomImageElement img;
+        private final File destinationDir;
+        private final String instance;
+        private final String format;
+        private final int jpegQuality;
+        private final boolean more8bits;
+        private final boolean writeGraphics;
+
+        ImageExport(DicomImageElement img, File destinationDir, String instance, String format, int jpegQuality,
+            boolean more8bits, boolean writeGraphics) {
+            this.img = img;
+            this.destinationDir = destinationDir;
+            this.instance = instance;
+            this.format = format;
+            this.jpegQuality = jpegQuality;
+            this.more8bits = more8bits;
+            this.writeGraphics = writeGraphics;
+        }
+
+        boolean export() {
+            destinationDir.mkdirs();
+            try {
+                // Decoded in this thread, not in the pool of the viewers
+                RenderedImage image = img.readImage();
+                if (image == null) {
+                    LOGGER.error("Cannot export DICOM file to {}: {}", format, img.getFile()); //$NON-NLS-1$
+                    return false;
+                }
+
+                File destinationFile;
+                if (EXPORT_FORMAT[2].equals(format)) {
+                    image = img.getRenderedImage(image);
+                    destinationFile = new File(destinationDir, instance + ".jpg"); //$NON-NLS-1$
+                    if (image == null || !ImageFiler.writeJPG(destinationFile, image, jpegQuality / 100.0f)) {
+                        LOGGER.error("Cannot export DICOM file to {}: {}", format, img.getFile()); //$NON-NLS-1$
+                        return false;
+                    }
+                } else if (EXPORT_FORMAT[3].equals(format)) {
+                    image = img.getRenderedImage(image);
+                    destinationFile = new File(destinationDir, instance + ".png"); //$NON-NLS-1$
+                    if (image == null || !ImageFiler.writePNG(destinationFile, image)) {
+                        LOGGER.error("Cannot export DICOM file to {}: {}", format, img.getFile()); //$NON-NLS-1$
+                        return false;
+                    }
+                } else if (EXPORT_FORMAT[4].equals(format)) {
+                    if (!more8bits) {
+                        image = img.getRenderedImage(image);
+                    }
+                    destinationFile = new File(destinationDir, instance + ".tif"); //$NON-NLS-1$
+                    if (image == null || !ImageFiler.writeTIFF(destinationFile, image, false, false, false)) {
+                        LOGGER.error("Cannot export DICOM file to {}: {}", format, img.getFile()); //$NON-NLS-1$
+                        return false;
+                    }
+                } else {
+                    return false;
+                }
+                if (writeGraphics) {
+                    DefaultSerializer.writeMeasurementGraphics(img, destinationFile);
+                }
+                return true;
+            } finally {
+                // Prevent to many files open on Linux (Ubuntu => 1024) and close image stream
+                img.removeImageFromCache();
+            }
+        }
+    }
+
+    /**
+     * Writes a DICOM file in a thread of the pipeline, the DICOMDIR record is written afterwards by the task thread.
+     */
+    private static class DicomExport implements ExportTask {
+        private final MediaElement<PlanarImage> element;
+        private final DefaultMutableTreeNode node;
+        private final String iuid;
+        private final File destinationFile;
+        private final boolean writeGraphics;
+
+        DicomExport(MediaElement<PlanarImage> element, DefaultMutableTreeNode node, String iuid, File destinationDir,
+            boolean writeGraphics) {
+            this.element = element;
+            this.node = node;
+            this.iuid = iuid;
+            this.destinationFile = new File(destinationDir, iuid);
+            this.writeGraphics = writeGraphics;
+        }
+
+        @Override
+        public File getSourceFile() {
+            return element.getFile();
+        }
+
+        @Override
+        public Boolean call() throws Exception {
+            destinationFile.getParentFile().mkdirs();
+            if (element.saveToFile(destinationFile)) {
+                if (writeGraphics && element instanceof DicomImageElement) {
+                    // TODO remove me and use PR
+                    DefaultSerializer.writeMeasurementGraphics((DicomImageElement) element, destinationFile);
+                }
+                return true;
+            }
+            if (element instanceof DicomImageElement) {
+                LOGGER.error("Cannot export DICOM file: {}", element.getFile()); //$NON-NLS-1$
+            }
+            return false;
+        }
+    }
+
+    private interface ExportTask extends Callable<Boolean> {
+
+        /**
+         * @return the exported file, for the logs
+         */
+        File getSourceFile();
+    }
+
+    /**
+     * Runs the exports in a pool of threads (the property "weasis.dicom.export.threads", by default the number of
+     * processors). The number of exports submitted and not finished is bounded, so that the decoded images do not fill
+     * the memory. The exports are collected in the order of submission.
+     */
+    private static class ExportPipeline<T extends ExportTask> {
+        private final ExplorerTask task;
+        private final boolean keepDone;
+        private final ExecutorService executor;
+        private final int maxPending;
+        private final LinkedList<T> pendingExports = new LinkedList<T>();
+        private final LinkedList<Future<Boolean>> pendingResults = new LinkedList<Future<Boolean>>();
+        // Exports written successfully and not yet collected
+        private final LinkedList<T> doneExports = new LinkedList<T>();
+        private final long start = System.nanoTime();
+        private int nbExported = 0;
+
+        ExportPipeline(ExplorerTask task, boolean keepDone) {
+            this.task = task;
+            this.keepDone = keepDone;
+            int nThreads = getExportThreads();
+            this.maxPending = nThreads * PENDING_EXPORTS_PER_THREAD;
+            this.executor =
+                Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("DICOM exporter", //$NON-NLS-1$
+                    Thread.NORM_PRIORITY - 1));
+        }
+
+        /**
+         * Submits an export, waits for the oldest export when the pipeline is full.
+         * 
+         * @return false when the task is cancelled
+         */
+        boolean submit(T export) throws InterruptedException {
+            while (pendingResults.size() >= maxPending) {
+                if (!waitOldest()) {
+                    return false;
+                }
+            }
+            if (task.isCancelled()) {
+                return false;
+            }
+            pendingResults.add(executor.submit(export));
+            pendingExports.add(export);
+            return true;
+        }
+
+        /**
+         * @return the next export written successfully without waiting, or null
+         */
+        T poll() {
+            return doneExports.poll();
+        }
+
+        /**
+         * @return the next export written successfully, or null when all the exports are collected or when the task is
+         *         cancelled
+         */
+        T take() throws InterruptedException {
+            while (doneExports.isEmpty() && !pendingResults.isEmpty()) {
+                if (!waitOldest()) {
+                    return null;
+                }
+            }
+            return doneExports.poll();
+        }
+
+        private boolean waitOldest() throws InterruptedException {
+            if (task.isCancelled()) {
+                return false;
+            }
+            T export = pendingExports.removeFirst();
+            try {
+                if (Boolean.TRUE.equals(pendingResults.removeFirst().get())) {
+                    nbExported++;
+                    if (keepDone) {
+                        doneExports.add(export);
+                    }
+                }
+            } catch (ExecutionException e) {
+                LOGGER.error("Cannot export DICOM file: {}", export.getSourceFile(), e.getCause()); //$NON-NLS-1$
+            }
+            return true;
+        }
+
+        /**
+         * Waits for all the exports.
+         */
+        void finish() throws InterruptedException {
+            while (!pendingResults.isEmpty()) {
+                if (!waitOldest()) {
+                    return;
+                }
+            }
+            doneExports.clear();
+            long elapsed = (System.nanoTime() - start) / 1000000L;
+            LOGGER.info("{} files exported in {} ms ({} files/s)", new Object[] { nbExported, elapsed, //$NON-NLS-1$
+                elapsed > 0 ? nbExported * 1000L / elapsed : nbExported });
+        }
+
+        /**
+         * Stops the threads, the exports not started are cancelled and the running exports are not interrupted.
+         */
+        void shutdown() {
+            for (Future<Boolean> future : pendingResults) {
+                future.cancel(false);
+            }
+            pendingResults.clear();
+            pendingExports.clear();
+            executor.shutdown();
+        }
+    }
+
     private static String toHex(int val) {
         char[] ch8 = new char[8];
         for (int i = 8; --i >= 0; val >>= 4) {
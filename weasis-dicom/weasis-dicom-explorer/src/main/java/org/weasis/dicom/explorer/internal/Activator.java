@@ -22,6 +22,7 @@ import org.weasis.core.ui.docking.UIManager;
 import org.weasis.dicom.explorer.DicomExplorer;
 import org.weasis.dicom.explorer.DicomModel;
 import org.weasis.dicom.explorer.wado.DicomManager;
+import org.weasis.dicom.explorer.wado.WadoTransport;
 
 public class Activator implements BundleActivator {
 
@@ -29,6 +30,8 @@ public class Activator implements BundleActivator {
 
     @Override
     public void start(final BundleContext context) throws Exception {
+        // Configure the persistent HTTP connections before the first download
+        WadoTransport.init();
         String cache = context.getProperty("weasis.portable.dicom.cache"); //$NON-NLS-1$
         DicomManager.getInstance().setPortableDirCache(!((cache != null) && cache.equalsIgnoreCase("false")));//$NON-NLS-1$
         FileUtil.readProperties(
@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.explorer.wado;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.imageio.plugins.dcm.DicomMetaData;
+import org.dcm4che3.io.BulkDataDescriptor;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
+import org.dcm4che3.io.DicomOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.util.FileUtil;
+
+/**
+ * Writes a DICOM stream into a file while parsing its header in the same pass.
+ * <p>
+ * Without tag overrides, the bytes are written unchanged and the header is parsed from the copied stream, so the bulk
+ * data refer to their offsets in the file. With overrides, the header is parsed up to the pixel data, modified and
+ * written, and then the pixel data are copied without being decoded or spilled in temporary files.
+ * </p>
+ * <p>
+ * The parsed header can be given to the DicomMediaIO reading the file, which avoids reading the header again.
+ * </p>
+ */
+public class DicomStreamIngest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DicomStreamIngest.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File file;
+    private final String uri;
+    private final Attributes overrides;
+    private DicomMetaData metadata;
+
+    /**
+     * @param file
+     *            the file to write
+     * @param uri
+     *            the URI of the file when it will be read, referenced by the bulk data of the header
+     * @param overrides
+     *            the attributes replacing those of the stream, can be null
+     */
+    public DicomStreamIngest(File file, String uri, Attributes overrides) {
+        if (file == null || uri == null) {
+            throw new IllegalArgumentException("Arguments cannot be null"); //$NON-NLS-1$
+        }
+        this.file = file;
+        this.uri = uri;
+        this.overrides = overrides;
+    }
+
+    /**
+     * @return the header of the written file, or null when it could not be parsed while writing the file
+     */
+    public DicomMetaData getMetaData() {
+        return metadata;
+    }
+
+    /**
+     * @param in
+     *            the stream of the DICOM instance, closed at the end
+     * @param offset
+     *            the number of bytes already written in the file (only without overrides), the stream must start at
+     *            this position
+     * @return bytes transferred. O = error, -1 = all bytes has been transferred, other = bytes transferred before
+     *         interruption
+     */
+    public int write(InputStream in, long offset) {
+        if (in == null) {
+            return 0;
+        }
+        metadata = null;
+        try {
+            if (overrides == null) {
+                writeRaw(in, offset);
+            } else {
+                writeWithOverrides(in);
+            }
+            return -1;
+        } catch (InterruptedIOException e) {
+            return e.bytesTransferred;
+        } catch (Exception e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.error("Error when writing file", e); //$NON-NLS-1$
+            } else {
+                LOGGER.error("Error when writing {}: {}", file, e.getMessage()); //$NON-NLS-1$
+            }
+            return 0;
+        } finally {
+            FileUtil.safeClose(in);
+        }
+    }
+
+    private void writeRaw(InputStream in, long offset) throws IOException {
+        OutputStream out = null;
+        InputStream prefix = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(file, offset > 0), BUFFER_SIZE);
+            TeeInputStream tee = new TeeInputStream(in, out);
+            InputStream source = tee;
+            if (offset > 0) {
+                // Parse the bytes already in the file, then the appended ones
+                prefix = new FileInputStream(file);
+                source = new SequenceInputStream(new LimitedInputStream(prefix, offset), tee);
+            }
+            try {
+                // Same parameters as DicomMediaIO
+                DicomInputStream dis = new DicomInputStream(source);
+                dis.setSkipPrivateTagLength(1000);
+                dis.setIncludeBulkData(IncludeBulkData.URI);
+                dis.setBulkDataDescriptor(BulkDataDescriptor.DEFAULT);
+                dis.setURI(uri);
+                Attributes fmi = dis.readFileMetaInformation();
+                Attributes ds = dis.readDataset(-1, -1);
+                if (fmi == null) {
+                    fmi = ds.createFileMetaInformation(dis.getTransferSyntax());
+                }
+                metadata = new DicomMetaData(fmi, ds);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (Exception e) {
+                // Let DicomMediaIO decide if the file is readable
+                LOGGER.debug("Cannot parse the header of {}: {}", file, e.getMessage()); //$NON-NLS-1$
+            }
+            // Write the bytes not read by the parser
+            tee.drain();
+            out.flush();
+        } finally {
+            FileUtil.safeClose(prefix);
+            FileUtil.safeClose(out);
+        }
+    }
+
+    private void writeWithOverrides(InputStream in) throws IOException {
+        DicomOutputStream dos = null;
+        try {
+            DicomInputStream dis = new DicomInputStream(in);
+            // The attributes before the pixel data are written again, they must be in memory
+            dis.setIncludeBulkData(IncludeBulkData.YES);
+            // The file meta information is built again from the dataset
+            dis.readFileMetaInformation();
+            String tsuid = dis.getTransferSyntax();
+            boolean deflated = UID.DeflatedExplicitVRLittleEndian.equals(tsuid);
+            // The deflated pixel data cannot be copied, the whole dataset is read
+            Attributes ds = dis.readDataset(-1, deflated ? -1 : Tag.PixelData);
+            ds.addAll(overrides);
+
+            CountingOutputStream counter =
+                new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            dos = new DicomOutputStream(counter, UID.ExplicitVRLittleEndian);
+            Attributes fmi = ds.createFileMetaInformation(tsuid);
+            dos.writeDataset(fmi, ds);
+
+            // The pixel data of a deflated dataset are in memory, let DicomMediaIO read the file
+            boolean parsed = !deflated;
+            if (!deflated && dis.tag() == Tag.PixelData) {
+                VR vr = dis.vr();
+                int length = dis.length();
+                dos.writeHeader(Tag.PixelData, vr, length);
+                if (length == -1) {
+                    // Encapsulated pixel data: copy the fragments and the following attributes
+                    copy(dis, dos, -1L);
+                    parsed = false;
+                } else {
+                    long pixelOffset = counter.getCount();
+                    copy(dis, dos, length & 0xFFFFFFFFL);
+                    ds.setValue(Tag.PixelData, vr, new BulkData(uri, pixelOffset, length, ds.bigEndian()));
+                    // Attributes after the pixel data, like Data Set Trailing Padding
+                    Attributes trailing = dis.readDataset(-1, -1);
+                    if (!trailing.isEmpty()) {
+                        dos.writeDataset(null, trailing);
+                        ds.addAll(trailing);
+                    }
+                }
+            }
+            dos.finish();
+            dos.flush();
+            if (parsed) {
+                metadata = new DicomMetaData(fmi, ds);
+            }
+        } finally {
+            FileUtil.safeClose(dos);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long remaining = length;
+        while (length < 0 || remaining > 0) {
+            int len = length < 0 ? buf.length : (int) Math.min(buf.length, remaining);
+            int nr = in.read(buf, 0, len);
+            if (nr < 0) {
+                if (length < 0) {
+                    return;
+                }
+                throw new IOException("Unexpected end of the pixel data"); //$NON-NLS-1$
+            }
+            out.write(buf, 0, nr);
+            remaining -= nr;
+        }
+    }
+
+    /**
+     * Writes all the bytes read (including the skipped bytes) into an output stream.
+     */
+    static class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+        private final byte[] skipBuffer = new byte[BUFFER_SIZE];
+
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = in.read();
+            if (c >= 0) {
+                out.write(c);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int nr = in.read(b, off, len);
+            if (nr > 0) {
+                out.write(b, off, nr);
+            }
+            return nr;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // The skipped bytes must be written
+            int nr = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n));
+            return nr < 0 ? 0 : nr;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Reads the stream until the end.
+         */
+        void drain() throws IOException {
+            while (read(skipBuffer, 0, skipBuffer.length) >= 0) {
+                // Written by read()
+            }
+        }
+    }
+
+    static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int c = in.read();
+            if (c >= 0) {
+                remaining--;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int nr = in.read(b, off, (int) Math.min(len, remaining));
+            if (nr > 0) {
+                remaining -= nr;
+            }
+            return nr;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long nr = in.skip(Math.min(n, remaining));
+            remaining -= nr;
+            return nr;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0L;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.explorer.wado;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.NamedThreadFactory;
+
+/**
+ * Executes the downloads of the DICOM instances of all the series.
+ * <p>
+ * The number of simultaneous downloads is global and adapted to the measured throughput (hill climbing between 1 and
+ * the maximum defined in the preferences). The instances are ordered by the priority of their series, then by the
+ * download order inside the series. The instances close to the image displayed in a viewer jump the queue.
+ * </p>
+ * <p>
+ * The queue is reordered by a dedicated thread, not by the caller (often the Event Dispatch Thread). A job is always
+ * removed from the priority queue before changing its priority, and offered again afterwards.
+ * </p>
+ */
+public final class DownloadScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DownloadScheduler.class);
+
+    public static final String MAX_CONCURRENT_INSTANCES = "download.concurrent.instances.max"; //$NON-NLS-1$
+
+    // Minimum duration of a throughput measurement
+    private static final long SAMPLE_PERIOD = 2000L;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final AtomicLong URGENCY = new AtomicLong();
+
+    private static final BlockingQueue<Runnable> QUEUE = new PriorityBlockingQueue<Runnable>(100,
+        new JobComparator());
+    private static final int MAX_CONCURRENCY = Math.max(1,
+        BundleTools.SYSTEM_PREFERENCES.getIntProperty(MAX_CONCURRENT_INSTANCES, 12));
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(Math.min(4, MAX_CONCURRENCY),
+        MAX_CONCURRENCY, 60L, TimeUnit.SECONDS, QUEUE, new NamedThreadFactory("Instance Download")); //$NON-NLS-1$
+
+    // Reorders the queue, only the last request of a series for moving its instances ahead is applied
+    private static final ExecutorService REORDERING = Executors.newSingleThreadExecutor(new NamedThreadFactory(
+        "Download Reordering")); //$NON-NLS-1$
+    private static final ConcurrentHashMap<LoadSeries, Integer> JUMP_REQUESTS =
+        new ConcurrentHashMap<LoadSeries, Integer>();
+
+    // State of the concurrency controller, guarded by the class lock
+    private static long sampleTime = System.currentTimeMillis();
+    private static long sampleBytes = 0L;
+    private static boolean saturated = false;
+    private static double lastThroughput = 0.0;
+    private static int direction = 1;
+
+    private DownloadScheduler() {
+    }
+
+    /**
+     * Downloads the instances of a series and waits until they are all downloaded. When the current thread is
+     * interrupted, the downloads are cancelled.
+     *
+     * @param loader
+     *            the task downloading the series
+     * @param tasks
+     *            the downloads, in the order of preference of the series
+     * @throws InterruptedException
+     */
+    static void invokeAll(LoadSeries loader, List<LoadSeries.Download> tasks) throws InterruptedException {
+        List<Job> jobs = new ArrayList<Job>(tasks.size());
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                LoadSeries.Download task = tasks.get(i);
+                Job job = new Job(loader, task, i, task.getInstanceNumber());
+                jobs.add(job);
+                EXECUTOR.execute(job);
+            }
+            for (Job job : jobs) {
+                try {
+                    job.get();
+                } catch (CancellationException e) {
+                    // Do nothing
+                } catch (ExecutionException e) {
+                    LOGGER.error("Downloading instance: {}", e.getCause().getMessage()); //$NON-NLS-1$
+                }
+            }
+        } finally {
+            for (Job job : jobs) {
+                if (!job.isDone()) {
+                    job.cancel(true);
+                    EXECUTOR.remove(job);
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads the waiting instances of a series before those of the other series.
+     *
+     * @param priority
+     *            the priority of the series, shared by the jobs of the series
+     */
+    static void moveSeriesAhead(final DownloadPriority priority) {
+        REORDERING.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                // The priority of the series is compared by all the jobs, change it while they are out of the queue
+                List<Runnable> jobs = new ArrayList<Runnable>(QUEUE.size());
+                QUEUE.drainTo(jobs);
+                priority.setPriority(DownloadPriority.COUNTER.getAndDecrement());
+                for (Runnable job : jobs) {
+                    QUEUE.offer(job);
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves to the front of the queue the waiting instances of a series whose instance number is close to the
+     * displayed one.
+     *
+     * @param loader
+     *            the task downloading the series
+     * @param instanceNumber
+     *            the instance number of the displayed image
+     * @param range
+     *            the maximum difference between the instance numbers
+     */
+    static void jumpQueue(final LoadSeries loader, int instanceNumber, final int range) {
+        // Called at each scroll step, a pending request is replaced by the last one
+        if (JUMP_REQUESTS.put(loader, instanceNumber) == null) {
+            REORDERING.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    Integer last = JUMP_REQUESTS.remove(loader);
+                    if (last != null) {
+                        moveInstancesAhead(loader, last, range);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void moveInstancesAhead(LoadSeries loader, int instanceNumber, int range) {
+        long urgency = URGENCY.incrementAndGet();
+        // Only the few jobs close to the displayed image are removed and offered again
+        for (Job job : getWaitingJobs(loader, instanceNumber, range)) {
+            if (QUEUE.remove(job)) {
+                job.urgency = urgency;
+                job.distance = Math.abs(job.instanceNumber - instanceNumber);
+                QUEUE.offer(job);
+            }
+        }
+    }
+
+    private static List<Job> getWaitingJobs(LoadSeries loader, int instanceNumber, int range) {
+        List<Job> list = new ArrayList<Job>();
+        for (Object r : QUEUE.toArray()) {
+            if (r instanceof Job) {
+                Job job = (Job) r;
+                if (job.loader == loader && job.instanceNumber >= 0
+                    && Math.abs(job.instanceNumber - instanceNumber) <= range) {
+                    list.add(job);
+                }
+            }
+        }
+        return list;
+    }
+
+    public static int getConcurrency() {
+        return EXECUTOR.getCorePoolSize();
+    }
+
+    /**
+     * Adapts the number of simultaneous downloads to the throughput measured while all the threads were busy: the
+     * concurrency is changed by one in the same direction while the throughput increases, otherwise the direction is
+     * reversed.
+     */
+    private static synchronized void adaptConcurrency() {
+        if (!QUEUE.isEmpty()) {
+            saturated = true;
+        }
+        long now = System.currentTimeMillis();
+        long elapsed = now - sampleTime;
+        if (elapsed < SAMPLE_PERIOD) {
+            return;
+        }
+        long bytes = WadoTransport.getTransferredBytes();
+        double throughput = (bytes - sampleBytes) / (double) elapsed;
+        boolean measurable = saturated;
+        sampleTime = now;
+        sampleBytes = bytes;
+        saturated = false;
+        if (!measurable) {
+            // Not enough instances waiting for measuring the effect of the concurrency
+            lastThroughput = 0.0;
+            return;
+        }
+
+        if (lastThroughput > 0.0 && throughput < lastThroughput * 0.95) {
+            direction = -direction;
+        }
+        lastThroughput = throughput;
+        int concurrency = EXECUTOR.getCorePoolSize() + direction;
+        if (concurrency < 1 || concurrency > MAX_CONCURRENCY) {
+            direction = -direction;
+            return;
+        }
+        EXECUTOR.setCorePoolSize(concurrency);
+        LOGGER.debug("Download throughput: {} KB/s, {} simultaneous downloads", (long) (throughput * 1000.0 / 1024.0), //$NON-NLS-1$
+            concurrency);
+    }
+
+    static class Job extends FutureTask<Boolean> {
+        private final LoadSeries loader;
+        private final int order;
+        private final int instanceNumber;
+        private final long sequence;
+        private volatile long urgency = 0L;
+        private volatile int distance = 0;
+
+        Job(LoadSeries loader, LoadSeries.Download task, int order, int instanceNumber) {
+            super(task);
+            this.loader = loader;
+            this.order = order;
+            this.instanceNumber = instanceNumber;
+            this.sequence = SEQUENCE.getAndIncrement();
+        }
+
+        @Override
+        protected void done() {
+            if (!isCancelled()) {
+                adaptConcurrency();
+            }
+        }
+    }
+
+    static class JobComparator implements Comparator<Runnable>, Serializable {
+
+        private static final long serialVersionUID = -4516416410447271591L;
+        private static final DownloadManager.PriorityTaskComparator SERIES_COMPARATOR =
+            new DownloadManager.PriorityTaskComparator();
+
+        @Override
+        public int compare(Runnable r1, Runnable r2) {
+            Job j1 = (Job) r1;
+            Job j2 = (Job) r2;
+            // The last request of the viewer first
+            if (j1.urgency != j2.urgency) {
+                return j1.urgency > j2.urgency ? -1 : 1;
+            }
+            if (j1.urgency != 0L && j1.distance != j2.distance) {
+                return j1.distance < j2.distance ? -1 : 1;
+            }
+            if (j1.loader != j2.loader && j1.loader.getPriority() != null && j2.loader.getPriority() != null) {
+                int rep = SERIES_COMPARATOR.compare(j1.loader, j2.loader);
+                if (rep != 0) {
+                    return rep;
+                }
+            }
+            if (j1.order != j2.order) {
+                return j1.order < j2.order ? -1 : 1;
+            }
+            return j1.sequence < j2.sequence ? -1 : (j1.sequence == j2.sequence ? 0 : 1);
+        }
+    }
+}
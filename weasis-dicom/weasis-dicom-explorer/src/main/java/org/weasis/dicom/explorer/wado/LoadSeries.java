@@ -19,20 +19,20 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -41,10 +41,7 @@ import javax.swing.JProgressBar;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.ElementDictionary;
-import org.dcm4che3.io.DicomInputStream;
-import org.dcm4che3.io.DicomInputStream.IncludeBulkData;
-import org.dcm4che3.io.DicomOutputStream;
-import org.dcm4che3.util.SafeClose;
+import org.dcm4che3.imageio.plugins.dcm.DicomMetaData;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.weasis.core.api.explorer.ObservableEvent;
@@ -57,9 +54,11 @@ import org.weasis.core.api.media.data.MediaSeriesGroup;
 import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SeriesImporter;
 import org.weasis.core.api.media.data.SeriesThumbnail;
+import org.weasis.core.api.media.data.TagMap;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.media.data.TagW.TagType;
 import org.weasis.core.api.media.data.Thumbnail;
+import org.weasis.core.api.media.data.ThumbnailStore;
 import org.weasis.core.api.service.AuditLog;
 import org.weasis.core.api.util.FileUtil;
 import org.weasis.core.api.util.StringUtil;
@@ -69,12 +68,12 @@ import org.weasis.core.ui.editor.ViewerPluginBuilder;
 import org.weasis.core.ui.editor.image.DefaultView2d;
 import org.weasis.core.ui.editor.image.ImageViewerPlugin;
 import org.weasis.core.ui.editor.image.ViewerPlugin;
+import org.weasis.dicom.codec.DicomHeaderIndex;
 import org.weasis.dicom.codec.DicomInstance;
 import org.weasis.dicom.codec.DicomMediaIO;
 import org.weasis.dicom.codec.TransferSyntax;
 import org.weasis.dicom.codec.utils.DicomImageUtils;
 import org.weasis.dicom.codec.wado.WadoParameters;
-import org.weasis.dicom.codec.wado.WadoParameters.HttpTag;
 import org.weasis.dicom.explorer.DicomExplorer;
 import org.weasis.dicom.explorer.DicomModel;
 import org.weasis.dicom.explorer.ExplorerTask;
@@ -90,6 +89,8 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
     public static final TagW DOWNLOAD_START_TIME = new TagW("", TagType.Time, 3); //$NON-NLS-1$
 
     private static final ExecutorService executor = Executors.newFixedThreadPool(3);
+    // Partial files written by a download task
+    private static final Set<String> PARTIAL_FILES = new HashSet<String>();
 
     public enum Status {
         Downloading, Paused, Complete, Cancelled, Error
@@ -146,7 +147,11 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
 
     @Override
     protected Boolean doInBackground() {
-        return startDownload();
+        try {
+            return startDownload();
+        } finally {
+            DicomHeaderIndex.saveAll();
+        }
     }
 
     @Override
@@ -201,6 +206,11 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
                         dicomSeries.getTagValue(TagW.Modality), getImageNumber(), (long) dicomSeries.getFileSize(),
                         getDownloadTime() });
             dicomSeries.removeTag(DOWNLOAD_START_TIME);
+            if (log.isDebugEnabled()) {
+                long[] usage = TagMap.getMemoryUsage(dicomSeries.copyOfMedias(null, null));
+                log.debug("Tags of {}: {} bytes per instance ({} bytes with HashMap)", new Object[] { dicomSeries, //$NON-NLS-1$
+                    usage[0], usage[1] });
+            }
 
             final SeriesThumbnail thumbnail = (SeriesThumbnail) dicomSeries.getTagValue(TagW.Thumbnail);
 
@@ -333,8 +343,7 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
         if (wado == null) {
             return false;
         }
-        ExecutorService imageDownloader = Executors.newFixedThreadPool(concurrentDownloads);
-        ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(sopList.size());
+        ArrayList<Download> tasks = new ArrayList<Download>(sopList.size());
         int[] dindex = generateDownladOrder(sopList.size());
         GuiExecutor.instance().execute(new Runnable() {
 
@@ -411,7 +420,7 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
                 continue;
             }
             log.debug("Download DICOM instance {} index {}.", url, k); //$NON-NLS-1$
-            Download ref = new Download(url, wado);
+            Download ref = new Download(url, wado, instance);
             tasks.add(ref);
             // Future future = imageDownloader.submit(ref);
             // try {
@@ -432,11 +441,10 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
 
         try {
             dicomSeries.setTag(DOWNLOAD_START_TIME, System.currentTimeMillis());
-            imageDownloader.invokeAll(tasks);
+            // The instances are downloaded by the global scheduler, shared with the other series
+            DownloadScheduler.invokeAll(this, tasks);
         } catch (InterruptedException e) {
         }
-
-        imageDownloader.shutdown();
         return true;
     }
 
@@ -511,14 +519,19 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
                         studyUID = (String) study.getTagValue(TagW.StudyInstanceUID);
                         seriesUID = (String) dicomSeries.getTagValue(TagW.SeriesInstanceUID);
                     }
-                    File file = null;
-                    if (instance.getDirectDownloadFile() == null) {
+                    // Thumbnail of a previous session
+                    String storeKey = ThumbnailStore.buildKey(instance.getSopInstanceUID(), 0);
+                    File file = ThumbnailStore.getInstance().get(storeKey);
+                    // Downloaded in a temporary file, which is not required anymore once copied in the store
+                    boolean downloaded = false;
+                    if (file == null && instance.getDirectDownloadFile() == null) {
                         try {
                             file = getJPEGThumnails(wadoParameters, studyUID, seriesUID, instance.getSopInstanceUID());
+                            downloaded = true;
                         } catch (Exception e) {
                             e.printStackTrace();
                         }
-                    } else {
+                    } else if (file == null) {
                         String thumURL = (String) dicomSeries.getTagValue(TagW.DirectDownloadThumbnail);
                         if (thumURL != null) {
                             try {
@@ -531,6 +544,9 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
                                         FileUtil.writeFile(new URL(wadoParameters.getWadoURL() + thumURL), outFile);
                                     if (resp == -1) {
                                         file = outFile;
+                                        downloaded = true;
+                                    } else {
+                                        FileUtil.delete(outFile);
                                     }
                                 }
                             } catch (MalformedURLException e) {
@@ -540,6 +556,15 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
                             }
                         }
                     }
+                    if (file != null && file.length() > 0 && !ThumbnailStore.getInstance().contains(file)) {
+                        File storedFile = ThumbnailStore.getInstance().put(storeKey, file);
+                        if (storedFile != null) {
+                            if (downloaded) {
+                                FileUtil.delete(file);
+                            }
+                            file = storedFile;
+                        }
+                    }
                     if (file != null) {
                         final File finalfile = file;
                         GuiExecutor.instance().execute(new Runnable() {
@@ -654,37 +679,27 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
                 + "&objectUID=" + SOPInstanceUID + "&contentType=image/jpeg&imageQuality=70" + "&rows=" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
                 + Thumbnail.MAX_SIZE + "&columns=" + Thumbnail.MAX_SIZE + wadoParameters.getAdditionnalParameters()); //$NON-NLS-1$
 
-        HttpURLConnection httpCon = (HttpURLConnection) url.openConnection();
-        httpCon.setDoInput(true);
-        httpCon.setRequestMethod("GET"); //$NON-NLS-1$
-        // Set http login (no protection, only convert in base64)
-        if (wadoParameters.getWebLogin() != null) {
-            httpCon.setRequestProperty("Authorization", "Basic " + wadoParameters.getWebLogin()); //$NON-NLS-1$ //$NON-NLS-2$
-        }
-        if (wadoParameters.getHttpTaglist().size() > 0) {
-            for (HttpTag tag : wadoParameters.getHttpTaglist()) {
-                httpCon.setRequestProperty(tag.getKey(), tag.getValue());
-            }
-        }
-        // Connect to server.
-        httpCon.connect();
-
-        // Make sure response code is in the 200 range.
-        if (httpCon.getResponseCode() / 100 != 2) {
+        // Create the file before taking a connection of the server, the connection is released only by close()
+        File outFile = File.createTempFile("tumb_", ".jpg", Thumbnail.THUMBNAIL_CACHE_DIR); //$NON-NLS-1$ //$NON-NLS-2$
+        WadoTransport.Request request;
+        try {
+            request = WadoTransport.open(url, wadoParameters, 0L);
+        } catch (IOException e) {
+            log.error("Cannot download JPEG thumbnail: {}", e.getMessage()); //$NON-NLS-1$
+            outFile.delete();
             return null;
         }
 
         OutputStream out = null;
         InputStream in = null;
+        long numWritten = 0;
 
-        File outFile = File.createTempFile("tumb_", ".jpg", Thumbnail.THUMBNAIL_CACHE_DIR); //$NON-NLS-1$ //$NON-NLS-2$
         log.debug("Start to download JPEG thbumbnail {} to {}.", url, outFile.getName()); //$NON-NLS-1$ 
         try {
             out = new BufferedOutputStream(new FileOutputStream(outFile));
-            in = httpCon.getInputStream();
+            in = request.getInputStream();
             byte[] buffer = new byte[1024];
             int numRead;
-            long numWritten = 0;
             while ((numRead = in.read(buffer)) != -1) {
                 out.write(buffer, 0, numRead);
                 numWritten += numRead;
@@ -692,7 +707,7 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            FileUtil.safeClose(in);
+            request.close(numWritten);
             FileUtil.safeClose(out);
         }
         return outFile;
@@ -750,6 +765,9 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
     class Download implements Callable<Boolean> {
 
         private final URL url; // download URL
+        private final String sopInstanceUID;
+        private final int instanceNumber;
+        private DicomMetaData metadata;
         private int size; // size of download in bytes
         private final int downloaded; // number of bytes downloaded
         private Status status; // current status of download
@@ -758,9 +776,11 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
 
         // private Thread thread;
 
-        public Download(URL url, final WadoParameters wadoParameters) {
+        public Download(URL url, final WadoParameters wadoParameters, DicomInstance instance) {
             this.url = url;
             this.wadoParameters = wadoParameters;
+            this.sopInstanceUID = instance.getSopInstanceUID();
+            this.instanceNumber = instance.getInstanceNumber();
             size = -1;
             downloaded = 0;
             status = Status.Downloading;
@@ -774,6 +794,10 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
             return url.toString();
         }
 
+        public int getInstanceNumber() {
+            return instanceNumber;
+        }
+
         // Get this download's size.
         public int getSize() {
             return size;
@@ -823,143 +847,202 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
             return buffer.toString();
         }
 
-        private URLConnection initConnection(URL url) throws IOException {
-            URLConnection httpCon = null;
+        private WadoTransport.Request initConnection(URL url, long offset) {
             try {
-                // If there is a proxy, it should be already configured
-                httpCon = url.openConnection();
-                // Set http login (no protection, only convert in base64)
-                if (wadoParameters.getWebLogin() != null) {
-                    httpCon.setRequestProperty("Authorization", "Basic " + wadoParameters.getWebLogin()); //$NON-NLS-1$ //$NON-NLS-2$
-                }
-                if (wadoParameters.getHttpTaglist().size() > 0) {
-                    for (HttpTag tag : wadoParameters.getHttpTaglist()) {
-                        httpCon.setRequestProperty(tag.getKey(), tag.getValue());
-                    }
-                }
-                // Specify what portion of file to download.
-                httpCon.setRequestProperty("Range", "bytes=" + downloaded + "-"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-
-                // Connect to server.
-                httpCon.connect();
+                return WadoTransport.open(url, wadoParameters, offset);
             } catch (IOException e) {
                 error();
                 log.error("IOException for {}: {} ", url, e.getMessage()); //$NON-NLS-1$
                 return null;
             }
-            if (httpCon instanceof HttpURLConnection) {
-                int responseCode = ((HttpURLConnection) httpCon).getResponseCode();
-                // Make sure response code is in the 200 range.
-                if (responseCode / 100 != 2) {
-                    error();
-                    log.error("Http Response error {} for {}", responseCode, url); //$NON-NLS-1$
-                    return null;
+        }
+
+        /**
+         * @return the file keeping the bytes of the instance already downloaded by a previous task, or null when the
+         *         file is used by another task
+         */
+        private File getPartialFile() {
+            // The name depends on the URL because the content may differ with another transfer syntax
+            String name =
+                "image_" + sopInstanceUID + "-" + Integer.toHexString(url.toString().hashCode()) + ".dcm"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            synchronized (PARTIAL_FILES) {
+                if (PARTIAL_FILES.add(name)) {
+                    return new File(DICOM_TMP_DIR, name);
                 }
             }
-            return httpCon;
+            return null;
         }
 
-        // Download file.
-        @Override
-        public Boolean call() throws Exception {
+        private void releasePartialFile(File file) {
+            if (file != null) {
+                synchronized (PARTIAL_FILES) {
+                    PARTIAL_FILES.remove(file.getName());
+                }
+            }
+        }
+
+        /**
+         * @return the number of bytes that can be resumed, 0 when the partial file is empty or is not the beginning of
+         *         a DICOM file
+         */
+        private long getResumeOffset(File file) {
+            long length = file.length();
+            // The transfer syntax is checked by DicomSeriesProgressMonitor in the first 512 bytes
+            if (length < 512) {
+                return 0L;
+            }
+            byte[] magic = new byte[4];
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+                raf.seek(128);
+                raf.readFully(magic);
+            } catch (IOException e) {
+                return 0L;
+            } finally {
+                FileUtil.safeClose(raf);
+            }
+            return "DICM".equals(new String(magic)) ? length : 0L; //$NON-NLS-1$
+        }
 
-            InputStream stream = null;
-            URLConnection httpCon = initConnection(url);
-            if (httpCon == null) {
-                return false;
+        private void deleteTempFile() {
+            try {
+                tempFile.delete();
+            } catch (Exception e) {
+                e.printStackTrace();
             }
+        }
 
+        private int transfer(WadoTransport.Request request, boolean checkTsuid, Attributes overrides) {
+            long offset = request.getOffset();
+            int bytesTransferred = 0;
+            // The bulk data of the parsed header refer to the final location of the file
+            File target = new File(DicomMediaIO.DICOM_EXPORT_DIR, tempFile.getName());
+            DicomStreamIngest ingest = new DicomStreamIngest(tempFile, target.toURI().toString(), overrides);
+            metadata = null;
+            try {
+                // Append to the partial file only when the server has accepted the range request
+                bytesTransferred =
+                    ingest.write(new DicomSeriesProgressMonitor(dicomSeries, request.getInputStream(), checkTsuid
+                        && offset == 0), offset);
+                metadata = ingest.getMetaData();
+            } catch (IOException e) {
+                log.error("IOException for {}: {} ", request.getUrl(), e.getMessage()); //$NON-NLS-1$
+            } finally {
+                request.close(Math.max(0L, tempFile.length() - offset));
+            }
+            return bytesTransferred;
+        }
+
+        // Download file.
+        @Override
+        public Boolean call() throws Exception {
             boolean cache = true;
             if (!writeInCache && getUrl().startsWith("file:")) { //$NON-NLS-1$
                 cache = false;
             }
+            final WadoParameters wado = (WadoParameters) dicomSeries.getTagValue(TagW.WadoParameters);
+            int[] overrideList = wado == null ? null : wado.getOverrideDicomTagIDList();
+            Attributes overrides = overrideList == null ? null : getOverriddenAttributes(overrideList);
+            File partialFile = null;
             if (cache && tempFile == null) {
-                tempFile = File.createTempFile("image_", ".dcm", DICOM_TMP_DIR); //$NON-NLS-1$ //$NON-NLS-2$
+                // Only a raw content can be resumed, overriding tags requires to read the dataset from the beginning
+                if (overrides == null) {
+                    partialFile = getPartialFile();
+                    tempFile = partialFile;
+                }
+                if (tempFile == null) {
+                    tempFile = File.createTempFile("image_", ".dcm", DICOM_TMP_DIR); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+            try {
+                return download(cache, overrides, partialFile != null);
+            } finally {
+                releasePartialFile(partialFile);
             }
+        }
 
-            stream = httpCon.getInputStream();
+        private boolean download(boolean cache, Attributes overrides, boolean resumable) throws Exception {
             // Does not work with WADO because the stream is modified on the fly by the wado server. In dcm4chee, see
             // http://www.dcm4che.org/jira/browse/DCMEE-421
-            int contentLength = httpCon.getContentLength();
-            contentLength = -1;
-            if (contentLength == -1) {
-                progressBar.setIndeterminate(progressBar.getMaximum() < 3);
-            } else {
-                // TODO add external circle progression
-            }
+            progressBar.setIndeterminate(progressBar.getMaximum() < 3);
 
-            // Set the size for this download if it hasn't been already set.
-            if (size == -1) {
-                size = contentLength;
-                // stateChanged();
-            }
             DicomMediaIO dicomReader = null;
             log.debug("Start to download DICOM instance {} to {}.", url, cache ? tempFile.getName() : "null"); //$NON-NLS-1$ //$NON-NLS-2$
             if (dicomSeries != null) {
-                final WadoParameters wado = (WadoParameters) dicomSeries.getTagValue(TagW.WadoParameters);
-                int[] overrideList = wado.getOverrideDicomTagIDList();
                 if (cache) {
-                    int bytesTransferred = 0;
-                    if (overrideList == null && wado != null) {
-                        bytesTransferred =
-                            FileUtil.writeStream(new DicomSeriesProgressMonitor(dicomSeries, stream, url.toString()
-                                .contains("?requestType=WADO")), new FileOutputStream(tempFile)); //$NON-NLS-1$
-                    } else if (wado != null) {
-                        bytesTransferred =
-                            writFile(
-                                new DicomSeriesProgressMonitor(dicomSeries, stream, url.toString().contains(
-                                    "?requestType=WADO")), tempFile, overrideList); //$NON-NLS-1$
+                    long offset = resumable ? getResumeOffset(tempFile) : 0L;
+                    WadoTransport.Request request = initConnection(url, offset);
+                    if (request == null) {
+                        return false;
+                    }
+                    if (request.getOffset() > 0) {
+                        log.info("Resume downloading {} from byte {}", url, request.getOffset()); //$NON-NLS-1$
                     }
+                    int bytesTransferred =
+                        transfer(request, url.toString().contains("?requestType=WADO"), overrides); //$NON-NLS-1$
                     if (bytesTransferred == -1) {
                         log.info("End of downloading {} ", url); //$NON-NLS-1$
+                        if (request.getOffset() > 0) {
+                            // The resumed bytes have been removed from the series size when interrupting
+                            dicomSeries.setFileSize(dicomSeries.getFileSize() + request.getOffset());
+                        }
                     } else if (bytesTransferred >= 0) {
-                        log.warn("Download interruption {} ", url); //$NON-NLS-1$
-                        try {
-                            tempFile.delete();
-                        } catch (Exception e) {
-                            e.printStackTrace();
+                        if (resumable && tempFile.length() > 0) {
+                            log.warn("Download interruption {}, {} bytes kept for resuming", url, tempFile.length()); //$NON-NLS-1$
+                        } else {
+                            log.warn("Download interruption {} ", url); //$NON-NLS-1$
+                            deleteTempFile();
                         }
                         return false;
                     } else if (bytesTransferred == Integer.MIN_VALUE) {
                         log.warn("Stop downloading unsupported TSUID, retry to download non compressed TSUID"); //$NON-NLS-1$
-                        httpCon = initConnection(new URL(replaceToDefaultTSUID(url)));
-                        if (httpCon == null) {
+                        request = initConnection(new URL(replaceToDefaultTSUID(url)), 0L);
+                        if (request == null) {
+                            // The partial file must not be resumed with an unsupported TSUID
+                            deleteTempFile();
                             return false;
                         }
-                        stream = httpCon.getInputStream();
                         size = -1;
-                        if (overrideList == null && wado != null) {
-                            bytesTransferred =
-                                FileUtil.writeStream(new DicomSeriesProgressMonitor(dicomSeries, stream, false),
-                                    new FileOutputStream(tempFile));
-                        } else if (wado != null) {
-                            bytesTransferred =
-                                writFile(new DicomSeriesProgressMonitor(dicomSeries, stream, false), tempFile,
-                                    overrideList);
-                        }
+                        bytesTransferred = transfer(request, false, overrides);
                         if (bytesTransferred == -1) {
                             log.info("End of downloading {} ", url); //$NON-NLS-1$
                         } else if (bytesTransferred >= 0) {
                             log.warn("Download interruption {} ", url); //$NON-NLS-1$
-                            try {
-                                tempFile.delete();
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
+                            deleteTempFile();
                             return false;
                         }
                     }
                     File renameFile = new File(DicomMediaIO.DICOM_EXPORT_DIR, tempFile.getName());
                     if (tempFile.renameTo(renameFile)) {
                         tempFile = renameFile;
+                    } else {
+                        // The bulk data of the header refer to the renamed file
+                        metadata = null;
+                        // A complete file keeping the name of a partial file is downloaded again by the next session,
+                        // see the range not satisfiable response in WadoTransport
+                        if (resumable) {
+                            log.warn("Cannot move {}, it will be downloaded again in the next session", tempFile); //$NON-NLS-1$
+                        }
                     }
                 } else {
                     tempFile = new File(url.toURI());
+                    if (!tempFile.canRead()) {
+                        error();
+                        log.error("Cannot read {}", url); //$NON-NLS-1$
+                        return false;
+                    }
                 }
-                // Ensure the stream is closed if image is not written in cache
-                FileUtil.safeClose(stream);
 
-                dicomReader = new DicomMediaIO(tempFile);
+                // The header parsed while downloading or indexed in a previous session is not read again
+                dicomReader = cache ? null : DicomHeaderIndex.getReader(tempFile);
+                if (dicomReader == null) {
+                    dicomReader = new DicomMediaIO(tempFile, metadata);
+                    if (!cache && dicomReader.isReadableDicom()) {
+                        DicomHeaderIndex.put(tempFile, dicomReader);
+                    }
+                }
+                metadata = null;
                 if (dicomReader.isReadableDicom()) {
                     if (dicomSeries.size(null) == 0) {
                         // Override the group (patient, study and series) by the dicom fields except the UID of
@@ -1063,84 +1146,35 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
             return true;
         }
 
-        /**
-         * @param in
-         * @param tempFile
-         * @param overrideList
-         * @return bytes transferred. O = error, -1 = all bytes has been transferred, other = bytes transferred before
-         *         interruption
-         */
-        public int writFile(InputStream in, File tempFile, int[] overrideList) {
-            if (in == null && tempFile == null) {
-                return 0;
-            }
-
-            DicomInputStream dis = null;
-            DicomOutputStream dos = null;
-
-            try {
-                String tsuid = null;
-                Attributes dataset;
-                dis = new DicomInputStream(in);
-                try {
-                    dis.setSkipPrivateTagLength(1000);
-                    dis.setIncludeBulkData(IncludeBulkData.URI);
-                    dataset = dis.readDataset(-1, -1);
-                    tsuid = dis.getTransferSyntax();
-                } finally {
-                    dis.close();
-                }
-
-                dos = new DicomOutputStream(tempFile);
-
-                if (overrideList != null) {
-                    MediaSeriesGroup study = dicomModel.getParent(dicomSeries, DicomModel.study);
-                    MediaSeriesGroup patient = dicomModel.getParent(dicomSeries, DicomModel.patient);
-                    ElementDictionary dic = ElementDictionary.getStandardElementDictionary();
-
-                    for (int tag : overrideList) {
-                        TagW tagElement = patient.getTagElement(tag);
-                        Object value = null;
-                        if (tagElement == null) {
-                            tagElement = study.getTagElement(tag);
-                            value = study.getTagValue(tagElement);
-                        } else {
-                            value = patient.getTagValue(tagElement);
-                        }
-                        if (value != null) {
-                            TagType type = tagElement.getType();
-                            if (TagType.String.equals(type)) {
-                                dataset.setString(tag, dic.vrOf(tag), value.toString());
-                            } else if (TagType.Date.equals(type) || TagType.Time.equals(type)) {
-                                dataset.setDate(tag, (Date) value);
-                            } else if (TagType.Integer.equals(type)) {
-                                dataset.setInt(tag, dic.vrOf(tag), (Integer) value);
-                            } else if (TagType.Float.equals(type)) {
-                                dataset.setFloat(tag, dic.vrOf(tag), (Float) value);
-                            }
-                        }
-                    }
+        private Attributes getOverriddenAttributes(int[] overrideList) {
+            Attributes attributes = new Attributes(overrideList.length);
+            MediaSeriesGroup study = dicomModel.getParent(dicomSeries, DicomModel.study);
+            MediaSeriesGroup patient = dicomModel.getParent(dicomSeries, DicomModel.patient);
+            ElementDictionary dic = ElementDictionary.getStandardElementDictionary();
+
+            for (int tag : overrideList) {
+                TagW tagElement = patient.getTagElement(tag);
+                Object value = null;
+                if (tagElement == null) {
+                    tagElement = study.getTagElement(tag);
+                    value = study.getTagValue(tagElement);
+                } else {
+                    value = patient.getTagValue(tagElement);
                 }
-                dos.writeDataset(dataset.createFileMetaInformation(tsuid), dataset);
-                dos.finish();
-                dos.flush();
-                return -1;
-            } catch (InterruptedIOException e) {
-                return e.bytesTransferred;
-            } catch (Exception e) {
-                e.printStackTrace();
-                return 0;
-            } finally {
-                SafeClose.close(dos);
-                if (dis != null) {
-                    List<File> blkFiles = dis.getBulkDataFiles();
-                    if (blkFiles != null) {
-                        for (File file : blkFiles) {
-                            file.delete();
-                        }
+                if (value != null) {
+                    TagType type = tagElement.getType();
+                    if (TagType.String.equals(type)) {
+                        attributes.setString(tag, dic.vrOf(tag), value.toString());
+                    } else if (TagType.Date.equals(type) || TagType.Time.equals(type)) {
+                        attributes.setDate(tag, (Date) value);
+                    } else if (TagType.Integer.equals(type)) {
+                        attributes.setInt(tag, dic.vrOf(tag), (Integer) value);
+                    } else if (TagType.Float.equals(type)) {
+                        attributes.setFloat(tag, dic.vrOf(tag), (Float) value);
                     }
                 }
             }
+            return attributes;
         }
     }
 
@@ -1156,7 +1190,10 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
     public void setPriority() {
         DownloadPriority p = getPriority();
         if (p != null) {
-            if (StateValue.PENDING.equals(getState())) {
+            if (StateValue.STARTED.equals(getState())) {
+                // The waiting instances of this series are downloaded before those of the other series
+                DownloadScheduler.moveSeriesAhead(p);
+            } else if (StateValue.PENDING.equals(getState())) {
                 boolean change = DownloadManager.removeSeriesInQueue(this);
                 if (change) {
                     // Set the priority to the current loadingSeries and stop a task.
@@ -1190,4 +1227,16 @@ public class LoadSeries extends ExplorerTask implements SeriesImporter {
         return concurrentDownloads;
     }
 
+    /**
+     * Downloads first the instances close to the image displayed in a viewer.
+     *
+     * @param instanceNumber
+     *            the instance number of the displayed image
+     */
+    public void jumpQueue(int instanceNumber) {
+        if (StateValue.STARTED.equals(getState())) {
+            DownloadScheduler.jumpQueue(this, instanceNumber, Math.max(2, DownloadScheduler.getConcurrency()));
+        }
+    }
+
 }
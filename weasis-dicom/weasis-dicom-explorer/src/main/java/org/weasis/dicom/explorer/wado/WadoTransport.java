@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.explorer.wado;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.service.BundleTools;
+import org.weasis.core.api.util.FileUtil;
+import org.weasis.dicom.codec.wado.WadoParameters;
+import org.weasis.dicom.codec.wado.WadoParameters.HttpTag;
+
+/**
+ * Transport layer of the WADO downloads.
+ * <p>
+ * The connections are persistent (HTTP keep-alive): the JVM keeps in a pool the connections whose response has been
+ * entirely read and the stream closed, and reuses them for the next requests to the same server. This avoids a TCP
+ * and TLS handshake for each instance. The number of simultaneous requests to a server is bounded, whatever the number
+ * of series downloaded in parallel, and the pool keeps as many idle connections as the allowed requests.
+ * </p>
+ * <p>
+ * A request can start from an offset (HTTP Range) for resuming a partially downloaded instance. The latency and the
+ * throughput of each request are logged and accumulated by server.
+ * </p>
+ */
+public final class WadoTransport {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WadoTransport.class);
+
+    public static final String MAX_CONNECTIONS_PER_SERVER = "download.max.connections.per.server"; //$NON-NLS-1$
+    public static final String CONNECT_TIMEOUT = "download.connect.timeout"; //$NON-NLS-1$
+    public static final String READ_TIMEOUT = "download.read.timeout"; //$NON-NLS-1$
+
+    // Not defined in HttpURLConnection
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final ConcurrentHashMap<String, Server> SERVERS = new ConcurrentHashMap<String, Server>();
+    private static final AtomicLong TRANSFERRED_BYTES = new AtomicLong();
+
+    private WadoTransport() {
+    }
+
+    /**
+     * Configures the connection pool of the JVM. Must be called before the first HTTP connection, because the JVM
+     * reads these properties only once.
+     */
+    public static void init() {
+        if (System.getProperty("http.keepAlive") == null) { //$NON-NLS-1$
+            System.setProperty("http.keepAlive", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (System.getProperty("http.maxConnections") == null) { //$NON-NLS-1$
+            System.setProperty("http.maxConnections", String.valueOf(getMaxConnectionsPerServer())); //$NON-NLS-1$
+        }
+    }
+
+    public static int getMaxConnectionsPerServer() {
+        return Math.max(1, BundleTools.SYSTEM_PREFERENCES.getIntProperty(MAX_CONNECTIONS_PER_SERVER, 6));
+    }
+
+    /**
+     * @return the number of bytes transferred by all the closed requests
+     */
+    public static long getTransferredBytes() {
+        return TRANSFERRED_BYTES.get();
+    }
+
+    /**
+     * @return the server of the URL, or null when the URL is not a HTTP URL
+     */
+    public static Server getServer(URL url) {
+        String protocol = url.getProtocol();
+        if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) { //$NON-NLS-1$ //$NON-NLS-2$
+            return null;
+        }
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        String key = protocol.toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port; //$NON-NLS-1$ //$NON-NLS-2$
+        Server server = SERVERS.get(key);
+        if (server == null) {
+            server = new Server(key, getMaxConnectionsPerServer());
+            Server old = SERVERS.putIfAbsent(key, server);
+            if (old != null) {
+                server = old;
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Opens a request. The calling thread waits until a connection to the server is available. The returned request
+     * must always be closed.
+     *
+     * @param url
+     *            the URL
+     * @param wadoParameters
+     *            the WADO parameters containing the authentication and the HTTP headers, can be null
+     * @param offset
+     *            the number of bytes already downloaded, 0 for downloading the whole content. When the server cannot
+     *            satisfy the range, the whole content is requested again.
+     * @return the request
+     * @throws IOException
+     *             when the connection cannot be established or when the response code is not in the 200 range
+     */
+    public static Request open(URL url, WadoParameters wadoParameters, long offset) throws IOException {
+        Server server = getServer(url);
+        if (server != null) {
+            try {
+                server.permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for a connection to " + server.getName()); //$NON-NLS-1$
+            }
+        }
+        long start = System.currentTimeMillis();
+        try {
+            URLConnection connection = connect(url, wadoParameters, offset);
+            int responseCode = HttpURLConnection.HTTP_OK;
+            if (connection instanceof HttpURLConnection) {
+                responseCode = ((HttpURLConnection) connection).getResponseCode();
+                if (offset > 0 && responseCode == HTTP_RANGE_NOT_SATISFIABLE) {
+                    // The partial file is longer than the content (e.g. a complete file kept in the temporary folder)
+                    LOGGER.info("Range not satisfiable, download again the whole content of {}", url); //$NON-NLS-1$
+                    consume(((HttpURLConnection) connection).getErrorStream());
+                    offset = 0L;
+                    connection = connect(url, wadoParameters, offset);
+                    responseCode = ((HttpURLConnection) connection).getResponseCode();
+                }
+                // Make sure response code is in the 200 range.
+                if (responseCode / 100 != 2) {
+                    // Read the error content for keeping the connection alive
+                    consume(((HttpURLConnection) connection).getErrorStream());
+                    throw new IOException("Http Response error " + responseCode + " for " + url); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+            // The server may ignore the Range header and send the whole content
+            boolean partial = offset > 0 && responseCode == HttpURLConnection.HTTP_PARTIAL;
+            return new Request(url, connection, server, start, partial ? offset : 0L);
+        } catch (IOException e) {
+            if (server != null) {
+                server.permits.release();
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            if (server != null) {
+                server.permits.release();
+            }
+            throw e;
+        }
+    }
+
+    private static URLConnection connect(URL url, WadoParameters wadoParameters, long offset) throws IOException {
+        // If there is a proxy, it should be already configured
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(BundleTools.SYSTEM_PREFERENCES.getIntProperty(CONNECT_TIMEOUT, 15000));
+        connection.setReadTimeout(BundleTools.SYSTEM_PREFERENCES.getIntProperty(READ_TIMEOUT, 60000));
+        if (wadoParameters != null) {
+            // Set http login (no protection, only convert in base64)
+            if (wadoParameters.getWebLogin() != null) {
+                connection.setRequestProperty("Authorization", "Basic " + wadoParameters.getWebLogin()); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            for (HttpTag tag : wadoParameters.getHttpTaglist()) {
+                connection.setRequestProperty(tag.getKey(), tag.getValue());
+            }
+        }
+        if (offset > 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+        connection.connect();
+        return connection;
+    }
+
+    private static void consume(InputStream stream) {
+        if (stream != null) {
+            try {
+                byte[] buf = new byte[4096];
+                while (stream.read(buf) > 0) {
+                    // Discard the content
+                }
+            } catch (IOException e) {
+                // Do nothing
+            } finally {
+                FileUtil.safeClose(stream);
+            }
+        }
+    }
+
+    public static class Request {
+        private final URL url;
+        private final URLConnection connection;
+        private final Server server;
+        private final long startTime;
+        private final long latency;
+        private final long offset;
+        private InputStream stream;
+        private boolean closed = false;
+
+        Request(URL url, URLConnection connection, Server server, long startTime, long offset) {
+            this.url = url;
+            this.connection = connection;
+            this.server = server;
+            this.startTime = startTime;
+            this.latency = System.currentTimeMillis() - startTime;
+            this.offset = offset;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        public synchronized InputStream getInputStream() throws IOException {
+            if (stream == null) {
+                stream = connection.getInputStream();
+            }
+            return stream;
+        }
+
+        /**
+         * @return the position of the first byte of the content, 0 when the server sends the whole content
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the time in milliseconds between the request and the response headers
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * Closes the stream and releases the connection.
+         *
+         * @param bytesTransferred
+         *            the number of bytes read
+         */
+        public synchronized void close(long bytesTransferred) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // A stream read until the end is given back to the pool of persistent connections
+                FileUtil.safeClose(stream == null ? getInputStreamQuietly() : stream);
+            } finally {
+                if (server != null) {
+                    server.permits.release();
+                }
+            }
+            long time = Math.max(1L, System.currentTimeMillis() - startTime);
+            if (bytesTransferred > 0) {
+                TRANSFERRED_BYTES.addAndGet(bytesTransferred);
+            }
+            if (server != null) {
+                server.addRequest(latency, time, bytesTransferred);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("{} bytes in {} ms (latency {} ms, {} KB/s) for {}", new Object[] { bytesTransferred, //$NON-NLS-1$
+                    time, latency, (bytesTransferred * 1000L) / (time * 1024L), url });
+            }
+        }
+
+        private InputStream getInputStreamQuietly() {
+            try {
+                return connection.getInputStream();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Connections and statistics of a server.
+     */
+    public static class Server {
+        private final String name;
+        private final Semaphore permits;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong totalBytes = new AtomicLong();
+
+        Server(String name, int maxConnections) {
+            this.name = name;
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        void addRequest(long latency, long time, long bytes) {
+            requests.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            totalTime.addAndGet(time);
+            if (bytes > 0) {
+                totalBytes.addAndGet(bytes);
+            }
+        }
+
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        /**
+         * @return the average latency in milliseconds
+         */
+        public long getAverageLatency() {
+            long nb = requests.get();
+            return nb == 0 ? 0L : totalLatency.get() / nb;
+        }
+
+        /**
+         * @return the average throughput of one request in KB/s
+         */
+        public long getAverageThroughput() {
+            long time = totalTime.get();
+            return time == 0 ? 0L : (totalBytes.get() * 1000L) / (time * 1024L);
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + getRequestCount() + " requests, latency " + getAverageLatency() + " ms, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + getAverageThroughput() + " KB/s"; //$NON-NLS-1$
+        }
+    }
+}
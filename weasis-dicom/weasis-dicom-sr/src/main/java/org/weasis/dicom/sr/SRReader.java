@@ -1,7 +1,6 @@
 package org.weasis.dicom.sr;
 
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.dcm4che3.data.Attributes;
@@ -13,6 +12,7 @@ import org.weasis.core.api.explorer.model.TreeModel;
 import org.weasis.core.api.media.data.MediaElement;
 import org.weasis.core.api.media.data.MediaSeriesGroup;
 import org.weasis.core.api.media.data.Series;
+import org.weasis.core.api.media.data.TagMap;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.util.EscapeChars;
 import org.weasis.core.api.util.StringUtil;
@@ -28,7 +28,7 @@ public class SRReader {
 
     private final DicomSpecialElement dicomSR;
     private final Attributes dcmItems;
-    private final HashMap<TagW, Object> tags = new HashMap<TagW, Object>();
+    private final Map<TagW, Object> tags = new TagMap();
 
     public SRReader(Series series, DicomSpecialElement dicomSR) {
         if (dicomSR == null) {
@@ -90,7 +90,7 @@ public class SRReader {
         return dcmItems;
     }
 
-    public HashMap<TagW, Object> getTags() {
+    public Map<TagW, Object> getTags() {
         return tags;
     }
 
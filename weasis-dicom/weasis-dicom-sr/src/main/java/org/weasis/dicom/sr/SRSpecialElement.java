@@ -1,6 +1,6 @@
 package org.weasis.dicom.sr;
 
-import java.util.HashMap;
+import java.util.Map;
 
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Code;
@@ -15,7 +15,7 @@ public class SRSpecialElement extends DicomSpecialElement {
         super(mediaIO);
     }
 
-    public HashMap<TagW, Object> geTags() {
+    public Map<TagW, Object> geTags() {
         return tags;
     }
 
@@ -19,8 +19,11 @@ import java.awt.event.MouseWheelEvent;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.BoundedRangeModel;
 import javax.swing.ButtonGroup;
@@ -61,11 +64,14 @@ import org.weasis.core.api.image.LutShape;
 import org.weasis.core.api.image.OpManager;
 import org.weasis.core.api.image.PseudoColorOp;
 import org.weasis.core.api.image.RotationOp;
+import org.weasis.core.api.image.SimpleOpManager;
 import org.weasis.core.api.image.WindowOp;
 import org.weasis.core.api.image.op.ByteLut;
 import org.weasis.core.api.image.op.ByteLutCollection;
 import org.weasis.core.api.image.util.KernelData;
 import org.weasis.core.api.image.util.Unit;
+import org.weasis.core.api.media.data.CineBuffer;
+import org.weasis.core.api.media.data.ImageLoaderExecutor;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.MediaSeries.MEDIA_POSITION;
 import org.weasis.core.api.media.data.Series;
@@ -95,6 +101,9 @@ import org.weasis.core.ui.editor.image.ZoomToolBar;
 import org.weasis.core.ui.graphic.AngleToolGraphic;
 import org.weasis.core.ui.graphic.Graphic;
 import org.weasis.core.ui.graphic.LineGraphic;
+import org.weasis.core.ui.graphic.RenderedImageLayer;
+import org.weasis.core.ui.graphic.RenderedImageLayer.FrameRenderer;
+import org.weasis.core.ui.graphic.RenderedImageLayer.RenderedFrame;
 import org.weasis.core.ui.graphic.model.AbstractLayer;
 import org.weasis.core.ui.graphic.model.GraphicsListener;
 import org.weasis.dicom.codec.DicomImageElement;
@@ -103,6 +112,7 @@ import org.weasis.dicom.codec.PresentationStateReader;
 import org.weasis.dicom.codec.SortSeriesStack;
 import org.weasis.dicom.codec.display.PresetWindowLevel;
 import org.weasis.dicom.codec.geometry.ImageOrientation;
+import org.weasis.dicom.explorer.wado.LoadSeries;
 import org.weasis.dicom.viewer2d.mip.MipView;
 import org.weasis.dicom.viewer2d.mpr.MPRContainer;
 import org.weasis.dicom.viewer2d.mpr.MprView;
@@ -287,9 +297,19 @@ public class EventManager extends ImageViewerEventManager<DicomImageElement> imp
                                 (Filter<DicomImageElement>) view2d.getActionValue(ActionW.FILTERED_SERIES.cmd()),
                                 view2d.getCurrentSortComparator());
                         mediaEvent = new SynchCineEvent(view2d, image, index);
-                        // Ensure to load image before calling the default preset (requires pixel min and max)
-                        if (image != null && !image.isImageAvailable()) {
-                            image.getImage();
+                        if (series instanceof DicomSeries && !isCining()) {
+                            // Decode in advance the next images according to the scrolling direction and speed (the
+                            // cine has its own buffer)
+                            DicomSeries.startPreloading((DicomSeries) series,
+                                (Filter<DicomImageElement>) view2d.getActionValue(ActionW.FILTERED_SERIES.cmd()),
+                                view2d.getCurrentSortComparator(), index);
+                        }
+                        if (image != null && series.getSeriesLoader() instanceof LoadSeries) {
+                            // Download first the missing instances around the displayed image
+                            Integer instanceNumber = (Integer) image.getTagValue(TagW.InstanceNumber);
+                            if (instanceNumber != null) {
+                                ((LoadSeries) series.getSeriesLoader()).jumpQueue(instanceNumber);
+                            }
                         }
                     }
                 }
@@ -327,67 +347,24 @@ public class EventManager extends ImageViewerEventManager<DicomImageElement> imp
                 }
 
                 if (view2d != null && image != view2d.getImage() && image != null) {
-                    PresetWindowLevel oldPreset = (PresetWindowLevel) presetAction.getSelectedItem();
-                    PresetWindowLevel newPreset = null;
-                    boolean pixelPadding =
-                        JMVUtils.getNULLtoTrue(view2d.getDisplayOpManager().getParamValue(WindowOp.OP_NAME,
-                            ActionW.IMAGE_PIX_PADDING.cmd()));
-
-                    List<PresetWindowLevel> newPresetList = image.getPresetList(pixelPadding);
-
-                    // Assume the image cannot display when win =1 and level = 0
-                    if (oldPreset != null || (windowAction.getValue() <= 1 && levelAction.getValue() == 0)) {
-                        if (isDefaultPresetSelected) {
-                            newPreset = image.getDefaultPreset(pixelPadding);
-                        } else {
-                            for (PresetWindowLevel preset : newPresetList) {
-                                if (preset.getName().equals(oldPreset.getName())) {
-                                    newPreset = preset;
-                                    break;
-                                }
-                            }
-                            // set default preset when the old preset is not available any more
-                            if (newPreset == null) {
-                                newPreset = image.getDefaultPreset(pixelPadding);
-                                isDefaultPresetSelected = true;
-                            }
-                        }
-                    }
-
-                    Float windowValue = newPreset == null ? windowAction.getValue() : newPreset.getWindow();
-                    Float levelValue = newPreset == null ? levelAction.getValue() : newPreset.getLevel();
-                    LutShape lutShapeItem =
-                        newPreset == null ? (LutShape) lutShapeAction.getSelectedItem() : newPreset.getLutShape();
-
-                    Float levelMin =
-                        (Float) view2d.getDisplayOpManager().getParamValue(WindowOp.OP_NAME, ActionW.LEVEL_MIN.cmd());
-                    Float levelMax =
-                        (Float) view2d.getDisplayOpManager().getParamValue(WindowOp.OP_NAME, ActionW.LEVEL_MAX.cmd());
-
-                    if (levelMin == null || levelMax == null) {
-                        levelMin = Math.min(levelValue - windowValue / 2.0f, image.getMinValue(pixelPadding));
-                        levelMax = Math.max(levelValue + windowValue / 2.0f, image.getMaxValue(pixelPadding));
-                    } else {
-                        levelMin = Math.min(levelMin, image.getMinValue(pixelPadding));
-                        levelMax = Math.max(levelMax, image.getMaxValue(pixelPadding));
-                    }
-
                     // FIX : setting actionInView here without firing a propertyChange avoid another call to
                     // imageLayer.updateImageOperation(WindowOp.name.....
                     // TODO pass to mediaEvent with PR and KO
 
-                    ImageOpNode node = view2d.getDisplayOpManager().getNode(WindowOp.OP_NAME);
-                    if (node != null) {
-                        node.setParam(ActionW.PRESET.cmd(), newPreset);
-                        node.setParam(ActionW.DEFAULT_PRESET.cmd(), isDefaultPresetSelected);
-                        node.setParam(ActionW.WINDOW.cmd(), windowValue);
-                        node.setParam(ActionW.LEVEL.cmd(), levelValue);
-                        node.setParam(ActionW.LEVEL_MIN.cmd(), levelMin);
-                        node.setParam(ActionW.LEVEL_MAX.cmd(), levelMax);
-                        node.setParam(ActionW.LUT_SHAPE.cmd(), lutShapeItem);
+                    PresetWindowLevel preset = (PresetWindowLevel) presetAction.getSelectedItem();
+                    LutShape lutShape = (LutShape) lutShapeAction.getSelectedItem();
+                    if (image.isImageAvailable()) {
+                        ImageOpNode node = view2d.getDisplayOpManager().getNode(WindowOp.OP_NAME);
+                        if (node != null) {
+                            setWindowLevel(node, image, preset, isDefaultPresetSelected, windowAction.getValue(),
+                                levelAction.getValue(), lutShape);
+                        }
+                        updateWindowLevelComponentsListener(image, view2d);
+                    } else {
+                        // The default preset requires the pixel min and max, the image is not decoded in the EDT
+                        deferWindowLevel(view2d, image, preset, isDefaultPresetSelected, windowAction.getValue(),
+                            levelAction.getValue(), lutShape);
                     }
-                    updateWindowLevelComponentsListener(image, view2d);
-
                 }
 
                 firePropertyChange(ActionW.SYNCH.cmd(), null, mediaEvent);
@@ -411,65 +388,197 @@ public class EventManager extends ImageViewerEventManager<DicomImageElement> imp
             /** Create a thread to cine the images. */
 
             class CineThread extends Thread {
-
-                private volatile int iteration;
-                private volatile int waitTimeMillis;
+                // Interval for measuring the frame rate (1 second)
+                private static final long RATE_INTERVAL = 1000000000L;
+                // Number of periods of delay after which the clock is restarted, instead of catching up the delay
+                private static final int MAX_LATE_PERIODS = 4;
+
+                private final AtomicBoolean presenting = new AtomicBoolean(false);
+                private volatile CineBuffer<DicomImageElement, RenderedFrame> buffer;
+                // View of the frames rendered by the buffer, only used in the EDT
+                private DefaultView2d<DicomImageElement> bufferView;
+                private volatile long periodNanos;
                 private volatile int currentCineRate;
-                private volatile long start;
+                private volatile int droppedFrames;
+                private volatile int bufferedFrames;
                 private volatile boolean cining = true;
+                // Index of the displayed image, published by the EDT (the slider model must not be read here)
+                private volatile int currentIndex;
+
+                CineThread() {
+                    super("Cine"); //$NON-NLS-1$
+                }
 
                 @Override
                 public void run() {
                     iniSpeed();
-                    while (cining) {
-                        long startFrameTime = System.currentTimeMillis();
-                        // Set the value to SliderCineListener, must be in EDT for refreshing UI correctly
-                        GuiExecutor.instance().invokeAndWait(new Runnable() {
-
-                            @Override
-                            public void run() {
-                                if (cining) {
-                                    int frameIndex = getValue() + 1;
-                                    setValue(frameIndex > getMax() ? 0 : frameIndex);
+                    GuiExecutor.instance().invokeAndWait(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            // Model contains display value, value-1 is the index value of a sequence
+                            currentIndex = getValue() - 1;
+                            updateBuffer();
+                        }
+                    });
+                    long deadline = System.nanoTime();
+                    long rateStart = deadline;
+                    int presented = 0;
+                    int late = 0;
+                    try {
+                        while (cining) {
+                            long wait = deadline - System.nanoTime();
+                            if (wait > 0) {
+                                LockSupport.parkNanos(wait);
+                                continue;
+                            }
+                            late++;
+                            final CineBuffer<DicomImageElement, RenderedFrame> b = buffer;
+                            // Skip this period when the EDT has not yet displayed the previous frame
+                            if (b != null && presenting.compareAndSet(false, true)) {
+                                b.setCurrent(currentIndex);
+                                final int frame = b.getReadyFrame(late);
+                                if (frame >= 0) {
+                                    droppedFrames += b.getDistance(frame) - 1;
+                                    late = 0;
+                                    presented++;
+                                    // Only rendered frames are displayed, the EDT does not wait for the decoding and
+                                    // for the window/level, it only draws the frame
+                                    GuiExecutor.instance().execute(new Runnable() {
+
+                                        @Override
+                                        public void run() {
+                                            try {
+                                                if (cining) {
+                                                    RenderedFrame rendered = b.getRenderedFrame(frame);
+                                                    setValue(frame + 1);
+                                                    currentIndex = getValue() - 1;
+                                                    presentFrame(b, rendered);
+                                                    updateBuffer();
+                                                }
+                                            } finally {
+                                                presenting.set(false);
+                                            }
+                                        }
+                                    });
+                                } else {
+                                    // Wait for the decoding of the next frame
+                                    presenting.set(false);
                                 }
+                                bufferedFrames = b.getBufferedFrames();
+                            }
+
+                            long period = periodNanos;
+                            long now = System.nanoTime();
+                            // Steady clock: the next frame is due one period after the previous deadline
+                            deadline += period;
+                            if (now - deadline > MAX_LATE_PERIODS * period) {
+                                deadline = now;
                             }
-                        });
-                        // Time to set the new frame index
-                        long elapsedFrame = System.currentTimeMillis() - startFrameTime;
-                        /*
-                         * If this time is smaller than the time to wait according to the cine speed (fps), then wait
-                         * the time left, otherwise continue (that means the cine speed cannot be reached)
-                         */
-                        if (elapsedFrame < waitTimeMillis) {
-                            try {
-                                Thread.sleep(waitTimeMillis - elapsedFrame);
-                            } catch (Exception e) {
+                            if (now - rateStart >= RATE_INTERVAL) {
+                                currentCineRate = (int) Math.round(presented * 1.0e9 / (now - rateStart));
+                                presented = 0;
+                                rateStart = now;
                             }
                         }
+                    } finally {
+                        CineBuffer<DicomImageElement, RenderedFrame> b = buffer;
+                        buffer = null;
+                        if (b != null) {
+                            b.clear();
+                        }
+                    }
+                }
 
-                        iteration++;
-                        // Check the speed every 3 images
-                        if (iteration > 2) {
-                            // Get the speed rate (fps) on the last 3 images
-                            currentCineRate = (int) (iteration * 1000 / (System.currentTimeMillis() - start));
-                            // reinitialize the parameters for computing speed next time
-                            iteration = 0;
-                            waitTimeMillis = 1000 / getSpeed();
-                            start = System.currentTimeMillis();
+                /**
+                 * Must be called in the EDT, draws the frame rendered in advance. When the display parameters of the
+                 * view have changed (e.g. window/level, zoom), the frame is rendered as usual and the buffer is
+                 * rebuilt with the new parameters.
+                 */
+                void presentFrame(CineBuffer<DicomImageElement, RenderedFrame> b, RenderedFrame rendered) {
+                    if (rendered == null || b != buffer || b.getRenderer() == null) {
+                        return;
+                    }
+                    DefaultView2d<DicomImageElement> view2d =
+                        selectedView2dContainer == null ? null : selectedView2dContainer.getSelectedImagePane();
+                    if (view2d == null || view2d != bufferView || !view2d.getImageLayer().presentFrame(rendered)) {
+                        b.clear();
+                        buffer = null;
+                    }
+                }
+
+                /**
+                 * Must be called in the EDT, creates the buffer when the series of the selected view changes or when
+                 * the frames of the view can be rendered in advance.
+                 */
+                void updateBuffer() {
+                    DefaultView2d<DicomImageElement> view2d =
+                        selectedView2dContainer == null ? null : selectedView2dContainer.getSelectedImagePane();
+                    CineBuffer<DicomImageElement, RenderedFrame> b = buffer;
+                    if (view2d != null && view2d.getSeries() instanceof DicomSeries) {
+                        DicomSeries series = (DicomSeries) view2d.getSeries();
+                        Filter<DicomImageElement> filter =
+                            (Filter<DicomImageElement>) view2d.getActionValue(ActionW.FILTERED_SERIES.cmd());
+                        Comparator<DicomImageElement> sort = view2d.getCurrentSortComparator();
+                        RenderedImageLayer<DicomImageElement> layer = view2d.getImageLayer();
+                        if (b == null || !b.isValid(series, filter, sort) || view2d != bufferView
+                            || (b.getRenderer() == null && layer.isFrameAvailable())) {
+                            if (b != null) {
+                                b.clear();
+                            }
+                            // The cine buffer replaces the prefetching of the series
+                            DicomSeries.stopPreloading(series);
+                            bufferView = view2d;
+                            buffer =
+                                new CineBuffer<DicomImageElement, RenderedFrame>(series, filter, sort, getSpeed(),
+                                    layer.isFrameAvailable() ? buildFrameRenderer(layer) : null);
                         }
+                    } else if (b != null) {
+                        b.clear();
+                        buffer = null;
+                        bufferView = null;
                     }
                 }
 
+                /**
+                 * Must be called in the EDT, renders the frames with the display operations of the view and with the
+                 * window/level that the view applies to each new image.
+                 */
+                FrameRenderer<DicomImageElement> buildFrameRenderer(RenderedImageLayer<DicomImageElement> layer) {
+                    final PresetWindowLevel preset = (PresetWindowLevel) presetAction.getSelectedItem();
+                    final boolean defaultPreset = defaultPresetAction.isSelected();
+                    final int window = windowAction.getValue();
+                    final int level = levelAction.getValue();
+                    final LutShape lutShape = (LutShape) lutShapeAction.getSelectedItem();
+                    return new FrameRenderer<DicomImageElement>(layer) {
+
+                        @Override
+                        protected void updateOperations(SimpleOpManager operations, DicomImageElement image) {
+                            ImageOpNode node = operations.getNode(WindowOp.OP_NAME);
+                            if (node != null) {
+                                setWindowLevel(node, image, preset, defaultPreset, window, level, lutShape);
+                            }
+                        }
+                    };
+                }
+
                 public void iniSpeed() {
-                    iteration = 0;
+                    periodNanos = 1000000000L / getSpeed();
                     currentCineRate = getSpeed();
-                    waitTimeMillis = 1000 / currentCineRate;
-                    start = System.currentTimeMillis();
+                    droppedFrames = 0;
                 }
 
                 public int getCurrentCineRate() {
                     return currentCineRate;
                 }
+
+                public int getDroppedFrames() {
+                    return droppedFrames;
+                }
+
+                public int getBufferedFrames() {
+                    return bufferedFrames;
+                }
             }
 
             /** Start the cining. */
@@ -506,8 +615,27 @@ public class EventManager extends ImageViewerEventManager<DicomImageElement> imp
 
             @Override
             public int getCurrentCineRate() {
-                if (currentCine != null) {
-                    return currentCine.getCurrentCineRate();
+                CineThread cine = currentCine;
+                if (cine != null) {
+                    return cine.getCurrentCineRate();
+                }
+                return 0;
+            }
+
+            @Override
+            public int getDroppedFrames() {
+                CineThread cine = currentCine;
+                if (cine != null) {
+                    return cine.getDroppedFrames();
+                }
+                return 0;
+            }
+
+            @Override
+            public int getBufferedFrames() {
+                CineThread cine = currentCine;
+                if (cine != null) {
+                    return cine.getBufferedFrames();
                 }
                 return 0;
             }
@@ -520,6 +648,94 @@ public class EventManager extends ImageViewerEventManager<DicomImageElement> imp
         };
     }
 
+    /**
+     * Applies the window/level of an image when it has been decoded (out of the EDT), the view keeps the previous
+     * values in the meantime.
+     */
+    private void deferWindowLevel(final DefaultView2d<DicomImageElement> view2d, final DicomImageElement image,
+        final PresetWindowLevel oldPreset, final boolean defaultPreset, final int window, final int level,
+        final LutShape lutShape) {
+        ImageLoaderExecutor.whenDone(image.getImageAsync(), new Runnable() {
+
+            @Override
+            public void run() {
+                GuiExecutor.instance().execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        // Another image can be displayed or the decoding has failed
+                        if (image != view2d.getImage() || !image.isImageAvailable()) {
+                            return;
+                        }
+                        ImageOpNode node = view2d.getDisplayOpManager().getNode(WindowOp.OP_NAME);
+                        if (node != null) {
+                            setWindowLevel(node, image, oldPreset, defaultPreset, window, level, lutShape);
+                            view2d.getImageLayer().updateDisplayOperations();
+                        }
+                        if (view2d == getSelectedViewPane()) {
+                            updateWindowLevelComponentsListener(image, view2d);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Sets the window/level of a new image of the series in the window operation. The preset of the previous image is
+     * kept when the new image has a preset of the same name, otherwise the default preset is applied.
+     */
+    private static void setWindowLevel(ImageOpNode node, DicomImageElement image, PresetWindowLevel oldPreset,
+        boolean defaultPreset, int window, int level, LutShape lutShape) {
+        boolean isDefaultPresetSelected = defaultPreset;
+        PresetWindowLevel newPreset = null;
+        boolean pixelPadding = JMVUtils.getNULLtoTrue(node.getParam(ActionW.IMAGE_PIX_PADDING.cmd()));
+
+        List<PresetWindowLevel> newPresetList = image.getPresetList(pixelPadding);
+
+        // Assume the image cannot display when win =1 and level = 0
+        if (oldPreset != null || (window <= 1 && level == 0)) {
+            if (isDefaultPresetSelected) {
+                newPreset = image.getDefaultPreset(pixelPadding);
+            } else {
+                for (PresetWindowLevel preset : newPresetList) {
+                    if (preset.getName().equals(oldPreset.getName())) {
+                        newPreset = preset;
+                        break;
+                    }
+                }
+                // set default preset when the old preset is not available any more
+                if (newPreset == null) {
+                    newPreset = image.getDefaultPreset(pixelPadding);
+                    isDefaultPresetSelected = true;
+                }
+            }
+        }
+
+        Float windowValue = newPreset == null ? window : newPreset.getWindow();
+        Float levelValue = newPreset == null ? level : newPreset.getLevel();
+        LutShape lutShapeItem = newPreset == null ? lutShape : newPreset.getLutShape();
+
+        Float levelMin = (Float) node.getParam(ActionW.LEVEL_MIN.cmd());
+        Float levelMax = (Float) node.getParam(ActionW.LEVEL_MAX.cmd());
+
+        if (levelMin == null || levelMax == null) {
+            levelMin = Math.min(levelValue - windowValue / 2.0f, image.getMinValue(pixelPadding));
+            levelMax = Math.max(levelValue + windowValue / 2.0f, image.getMaxValue(pixelPadding));
+        } else {
+            levelMin = Math.min(levelMin, image.getMinValue(pixelPadding));
+            levelMax = Math.max(levelMax, image.getMaxValue(pixelPadding));
+        }
+
+        node.setParam(ActionW.PRESET.cmd(), newPreset);
+        node.setParam(ActionW.DEFAULT_PRESET.cmd(), isDefaultPresetSelected);
+        node.setParam(ActionW.WINDOW.cmd(), windowValue);
+        node.setParam(ActionW.LEVEL.cmd(), levelValue);
+        node.setParam(ActionW.LEVEL_MIN.cmd(), levelMin);
+        node.setParam(ActionW.LEVEL_MAX.cmd(), levelMax);
+        node.setParam(ActionW.LUT_SHAPE.cmd(), lutShapeItem);
+    }
+
     @Override
     protected SliderChangeListener newWindowAction() {
 
@@ -33,7 +33,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.Map.Entry;
 
@@ -153,6 +153,7 @@ public class View2d extends DefaultView2d<DicomImageElement> {
 
     private final Dimension oldSize;
     private final ContextMenuHandler contextMenuHandler = new ContextMenuHandler();
+    private volatile CrosslineCache crosslineCache;
 
     protected final KOViewButton koStarButton;
 
@@ -516,7 +517,7 @@ public class View2d extends DefaultView2d<DicomImageElement> {
     }
 
     private void applyPresentationState(PresentationStateReader reader, DicomImageElement img) {
-        HashMap<TagW, Object> tags = reader.getDicom().geTags();
+        Map<TagW, Object> tags = reader.getDicom().geTags();
         // Set Modality LUT before creating presets
         Object mLUT = tags.get(TagW.ModalityLUTData);
         if (mLUT != null) {
@@ -763,51 +764,31 @@ public class View2d extends DefaultView2d<DicomImageElement> {
     protected void computeCrosslines(double location) {
         DicomImageElement image = this.getImage();
         if (image != null) {
-            GeometryOfSlice sliceGeometry = image.getDispSliceGeometry();
-            if (sliceGeometry != null) {
-                DefaultView2d<DicomImageElement> view2DPane = eventManager.getSelectedViewPane();
-                MediaSeries<DicomImageElement> selSeries = view2DPane == null ? null : view2DPane.getSeries();
-                if (selSeries != null) {
-                    // Get the current image of the selected Series
-                    DicomImageElement selImage = view2DPane.getImage();
-                    // Get the first and the last image of the selected Series according to Slice Location
-
-                    DicomImageElement firstImage = null;
-                    DicomImageElement lastImage = null;
-                    double min = Double.MAX_VALUE;
-                    double max = -Double.MAX_VALUE;
-                    final Iterable<DicomImageElement> list =
-                        selSeries.getMedias(
-                            (Filter<DicomImageElement>) view2DPane.getActionValue(ActionW.FILTERED_SERIES.cmd()),
-                            getCurrentSortComparator());
-                    synchronized (selSeries) {
-                        for (DicomImageElement dcm : list) {
-                            double[] loc = (double[]) dcm.getTagValue(TagW.SlicePosition);
-                            if (loc != null) {
-                                double position = loc[0] + loc[1] + loc[2];
-                                if (min > position) {
-                                    min = position;
-                                    firstImage = dcm;
-                                }
-                                if (max < position) {
-                                    max = position;
-                                    lastImage = dcm;
-                                }
-                            }
+            DefaultView2d<DicomImageElement> view2DPane = eventManager.getSelectedViewPane();
+            MediaSeries<DicomImageElement> selSeries = view2DPane == null ? null : view2DPane.getSeries();
+            if (selSeries != null) {
+                // Get the first and the last image of the selected Series according to Slice Location
+                DicomImageElement[] bounds =
+                    getSliceBounds(selSeries,
+                        (Filter<DicomImageElement>) view2DPane.getActionValue(ActionW.FILTERED_SERIES.cmd()));
+                CrosslineCache cache = crosslineCache;
+                if (cache == null || !cache.isValid(image, bounds)) {
+                    cache = new CrosslineCache(image, bounds);
+                    crosslineCache = cache;
+                }
+                if (cache.sliceGeometry != null) {
+                    AbstractLayer layer = getLayerModel().getLayer(AbstractLayer.CROSSLINES);
+                    if (layer != null) {
+                        // The lines of the first and the last images do not change while scrolling
+                        for (Graphic graphic : cache.boundLines) {
+                            layer.addGraphic(graphic);
                         }
                     }
-
-                    // IntersectSlice: display a line representing the center of the slice
-                    IntersectSlice slice = new IntersectSlice(sliceGeometry);
-                    if (firstImage != null) {
-                        addCrossline(firstImage, image, slice, false);
-                    }
-                    if (lastImage != null) {
-                        addCrossline(lastImage, image, slice, false);
-                    }
+                    // Get the current image of the selected Series
+                    DicomImageElement selImage = view2DPane.getImage();
                     if (selImage != null) {
                         // IntersectVolume: display a rectangle to show the slice thickness
-                        addCrossline(selImage, image, new IntersectVolume(sliceGeometry), true);
+                        addCrossline(buildCrossline(selImage, cache.volume, true));
                     }
                     repaint();
                 }
@@ -816,26 +797,109 @@ public class View2d extends DefaultView2d<DicomImageElement> {
 
     }
 
+    private static DicomImageElement[] getSliceBounds(MediaSeries<DicomImageElement> series,
+        Filter<DicomImageElement> filter) {
+        if (series instanceof DicomSeries) {
+            // Cached by the series
+            return ((DicomSeries) series).getSliceBounds(filter);
+        }
+        DicomImageElement firstImage = null;
+        DicomImageElement lastImage = null;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        final Iterable<DicomImageElement> list = series.getMedias(filter, null);
+        synchronized (series) {
+            for (DicomImageElement dcm : list) {
+                double[] loc = (double[]) dcm.getTagValue(TagW.SlicePosition);
+                if (loc != null) {
+                    double position = loc[0] + loc[1] + loc[2];
+                    if (min > position) {
+                        min = position;
+                        firstImage = dcm;
+                    }
+                    if (max < position) {
+                        max = position;
+                        lastImage = dcm;
+                    }
+                }
+            }
+        }
+        return firstImage == null ? null : new DicomImageElement[] { firstImage, lastImage };
+    }
+
     protected void addCrossline(DicomImageElement selImage, DicomImageElement curImage, LocalizerPoster localizer,
         boolean center) {
+        addCrossline(buildCrossline(selImage, localizer, center));
+    }
+
+    private void addCrossline(Graphic graphic) {
+        if (graphic != null) {
+            AbstractLayer layer = getLayerModel().getLayer(AbstractLayer.CROSSLINES);
+            if (layer != null) {
+                layer.addGraphic(graphic);
+            }
+        }
+    }
+
+    private static Graphic buildCrossline(DicomImageElement selImage, LocalizerPoster localizer, boolean center) {
         GeometryOfSlice sliceGeometry = selImage.getDispSliceGeometry();
         if (sliceGeometry != null) {
             List<Point2D.Double> pts = localizer.getOutlineOnLocalizerForThisGeometry(sliceGeometry);
             if (pts != null && pts.size() > 0) {
                 Color color = center ? Color.blue : Color.cyan;
                 try {
-                    Graphic graphic =
-                        pts.size() == 2 ? new LineGraphic(pts.get(0), pts.get(1), 1.0f, color, false)
-                            : new PolygonGraphic(pts, color, 1.0f, false, false);
-                    AbstractLayer layer = getLayerModel().getLayer(AbstractLayer.CROSSLINES);
-                    if (layer != null) {
-                        layer.addGraphic(graphic);
-                    }
+                    return pts.size() == 2 ? new LineGraphic(pts.get(0), pts.get(1), 1.0f, color, false)
+                        : new PolygonGraphic(pts, color, 1.0f, false, false);
                 } catch (InvalidShapeException e) {
                     LOGGER.error(e.getMessage());
                 }
             }
         }
+        return null;
+    }
+
+    /**
+     * Geometry of the reference lines for the current image of this view: the intersection with the first and the
+     * last images of the selected series, and the localizer of the selected image.
+     */
+    private static class CrosslineCache {
+        private final DicomImageElement image;
+        private final DicomImageElement first;
+        private final DicomImageElement last;
+        private final GeometryOfSlice sliceGeometry;
+        private final IntersectVolume volume;
+        private final List<Graphic> boundLines = new ArrayList<Graphic>(2);
+
+        CrosslineCache(DicomImageElement image, DicomImageElement[] bounds) {
+            this.image = image;
+            this.first = bounds == null ? null : bounds[0];
+            this.last = bounds == null ? null : bounds[1];
+            this.sliceGeometry = image.getDispSliceGeometry();
+            if (sliceGeometry == null) {
+                this.volume = null;
+            } else {
+                this.volume = new IntersectVolume(sliceGeometry);
+                // IntersectSlice: display a line representing the center of the slice
+                IntersectSlice slice = new IntersectSlice(sliceGeometry);
+                if (first != null) {
+                    addLine(buildCrossline(first, slice, false));
+                }
+                if (last != null) {
+                    addLine(buildCrossline(last, slice, false));
+                }
+            }
+        }
+
+        private void addLine(Graphic graphic) {
+            if (graphic != null) {
+                boundLines.add(graphic);
+            }
+        }
+
+        boolean isValid(DicomImageElement image, DicomImageElement[] bounds) {
+            return this.image == image && first == (bounds == null ? null : bounds[0])
+                && last == (bounds == null ? null : bounds[1]);
+        }
     }
 
     @Override
@@ -960,14 +1024,12 @@ public class View2d extends DefaultView2d<DicomImageElement> {
                     pts2.add(new Point2D.Double(dimensions.y, p.getY()));
                     addCrosshairLine(layer, pts2, color2, centerPt);
 
-                    RenderedImage dispImg = image.getImage();
-                    if (dispImg != null) {
-                        Rectangle2D rect =
-                            new Rectangle2D.Double(dispImg.getMinX() * image.getRescaleX(), dispImg.getMinY()
-                                * image.getRescaleY(), dispImg.getWidth() * image.getRescaleX(), dispImg.getHeight()
-                                * image.getRescaleY());
-                        addRectangle(layer, rect, axial ? Color.RED : sagittal ? Color.BLUE : Color.GREEN);
-                    }
+                    // Bounds of the image from the geometry (rows and columns) and the pixel size, the pixels are not
+                    // read
+                    Rectangle2D rect =
+                        new Rectangle2D.Double(0.0, 0.0, dimensions.y * image.getRescaleX(), dimensions.x
+                            * image.getRescaleY());
+                    addRectangle(layer, rect, axial ? Color.RED : sagittal ? Color.BLUE : Color.GREEN);
                 }
             }
         }
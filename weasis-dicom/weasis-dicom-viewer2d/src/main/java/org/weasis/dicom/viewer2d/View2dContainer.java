@@ -256,9 +256,9 @@ public class View2dContainer extends ImageViewerPlugin<DicomImageElement> implem
         setSelectedImagePane(defaultView2d);
         if (defaultView2d != null && defaultView2d.getSeries() instanceof DicomSeries) {
             DicomSeries series = (DicomSeries) defaultView2d.getSeries();
-            DicomSeries.startPreloading(series, series.copyOfMedias(
+            DicomSeries.startPreloading(series,
                 (Filter<DicomImageElement>) defaultView2d.getActionValue(ActionW.FILTERED_SERIES.cmd()),
-                defaultView2d.getCurrentSortComparator()), defaultView2d.getFrameIndex());
+                defaultView2d.getCurrentSortComparator(), defaultView2d.getFrameIndex());
         }
     }
 
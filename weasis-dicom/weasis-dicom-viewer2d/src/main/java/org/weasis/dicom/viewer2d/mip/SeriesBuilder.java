@@ -24,6 +24,8 @@ import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
 import org.dcm4che3.util.UIDUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.weasis.core.api.gui.task.TaskInterruptionException;
 import org.weasis.core.api.gui.task.TaskMonitor;
 import org.weasis.core.api.gui.util.ActionState;
@@ -35,6 +37,7 @@ import org.weasis.core.api.gui.util.SliderCineListener;
 import org.weasis.core.api.image.op.MaxCollectionZprojection;
 import org.weasis.core.api.image.op.MeanCollectionZprojection;
 import org.weasis.core.api.image.op.MinCollectionZprojection;
+import org.weasis.core.api.image.op.SlidingZprojection;
 import org.weasis.core.api.image.util.ImageToolkit;
 import org.weasis.core.api.media.data.ImageElement;
 import org.weasis.core.api.media.data.MediaSeries;
@@ -51,6 +54,8 @@ import org.weasis.dicom.viewer2d.mip.MipView.Type;
 import org.weasis.dicom.viewer2d.mpr.RawImageIO;
 
 public class SeriesBuilder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeriesBuilder.class);
+
     public static final File MPR_CACHE_DIR = AppProperties.buildAccessibleTempDirectory(
         AppProperties.FILE_CACHE_DIR.getName(), "mip"); //$NON-NLS-1$
 
@@ -58,8 +63,8 @@ public class SeriesBuilder {
     }
 
     public static void applyMipParameters(final TaskMonitor taskMonitor, final View2d view,
-        final MediaSeries<DicomImageElement> series, List<DicomImageElement> dicoms, Type mipType, Integer extend,
-        boolean fullSeries) {
+        final MediaSeries<DicomImageElement> series, final List<DicomImageElement> dicoms, Type mipType,
+        Integer extend, boolean fullSeries) {
 
         PlanarImage curImage = null;
         if (series != null) {
@@ -68,7 +73,7 @@ public class SeriesBuilder {
             Boolean reverse = (Boolean) view.getActionValue(ActionW.INVERSESTACK.cmd());
             Comparator sortFilter = (reverse != null && reverse) ? sort.getReversOrderComparator() : sort;
             Filter filter = (Filter) view.getActionValue(ActionW.FILTERED_SERIES.cmd());
-            Iterable<DicomImageElement> medias = series.copyOfMedias(filter, sortFilter);
+            final List<DicomImageElement> medias = series.copyOfMedias(filter, sortFilter);
 
             int curImg = extend - 1;
             ActionState sequence = view.getEventManager().getAction(ActionW.SCROLL_SERIES);
@@ -77,7 +82,7 @@ public class SeriesBuilder {
                 curImg = cineAction.getValue() - 1;
             }
 
-            int minImg = fullSeries ? extend : curImg;
+            final int minImg = fullSeries ? extend : curImg;
             int maxImg = fullSeries ? series.size(filter) - extend : curImg;
             if (fullSeries) {
                 taskMonitor.setMaximum(maxImg - minImg);
@@ -102,10 +107,30 @@ public class SeriesBuilder {
             final Attributes cpTags = new Attributes(attributes, COPIED_ATTRS);
             cpTags.setString(Tag.SeriesDescription, VR.LO, attributes.getString(Tag.SeriesDescription, "") + " [MIP]");
             cpTags.setString(Tag.ImageType, VR.CS, new String[] { "DERIVED", "SECONDARY", "PROJECTION IMAGE" });
-            String imageType = DicomMediaUtils.getStringFromDicomElement(cpTags, Tag.ImageType);
-            String seriesUID = UIDUtils.createUID();
+            final String imageType = DicomMediaUtils.getStringFromDicomElement(cpTags, Tag.ImageType);
+            final String seriesUID = UIDUtils.createUID();
+
+            int index = minImg;
+            if (fullSeries && extend > 0 && maxImg > minImg && SlidingZprojection.isSupported(img)) {
+                // Compute all the projections by reading each image only once
+                final SlidingZprojection op =
+                    new SlidingZprojection(medias, getOperation(mipType), extend, taskMonitor);
+                final int[] nextIndex = { minImg };
+                boolean completed = op.compute(minImg, maxImg, new SlidingZprojection.Listener() {
+
+                    @Override
+                    public void projectionComputed(int index, int first, int last, PlanarImage image) {
+                        addMipImage(image, medias.subList(first, last + 1), index, cpTags, imageType, seriesUID,
+                            dicoms);
+                        nextIndex[0] = index + 1;
+                        checkProgress(taskMonitor, index - minImg, op.getThroughput());
+                    }
+                });
+                // When the images are not compatible, compute the remaining projections one by one
+                index = completed ? maxImg + 1 : nextIndex[0];
+            }
 
-            for (int index = minImg; index <= maxImg; index++) {
+            for (; index <= maxImg; index++) {
                 Iterator<DicomImageElement> iter = medias.iterator();
                 final List<ImageElement> sources = new ArrayList<ImageElement>();
                 int startIndex = index - extend;
@@ -139,105 +164,131 @@ public class SeriesBuilder {
                     taskMonitor.setShowProgression(true);
                 }
 
-                final DicomImageElement dicom;
                 if (curImage != null) {
+                    addMipImage(curImage, sources, index, cpTags, imageType, seriesUID, dicoms);
+                    checkProgress(taskMonitor, index - minImg, 0.0);
+                }
 
-                    DicomImageElement imgRef = (DicomImageElement) sources.get(sources.size() / 2);
-                    RawImage raw = null;
-                    try {
-                        File mipDir =
-                            AppProperties.buildAccessibleTempDirectory(AppProperties.FILE_CACHE_DIR.getName(), "mip"); //$NON-NLS-1$
-                        raw = new RawImage(File.createTempFile("mip_", ".raw", mipDir));//$NON-NLS-1$ //$NON-NLS-2$
-                        writeRasterInRaw(curImage.getAsBufferedImage(), raw.getOutputStream());
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        if (raw != null) {
-                            raw.disposeOutputStream();
-                        }
-                    }
-                    if (raw == null) {
-                        return;
-                    }
-                    RawImageIO rawIO = new RawImageIO(raw.getFile().toURI(), null);
-                    rawIO.setBaseAttributes(cpTags);
-
-                    // Tags with same values for all the Series
-                    rawIO.setTag(TagW.TransferSyntaxUID, UID.ImplicitVRLittleEndian);
-                    rawIO.setTag(TagW.Columns, curImage.getWidth());
-                    rawIO.setTag(TagW.Rows, curImage.getHeight());
-                    rawIO.setTag(TagW.BitsAllocated, imgRef.getBitsAllocated());
-                    rawIO.setTag(TagW.BitsStored, imgRef.getBitsStored());
-
-                    rawIO.setTag(TagW.SliceThickness, getThickness(sources.get(0), sources.get(sources.size() - 1)));
-                    double[] loc = (double[]) imgRef.getTagValue(TagW.SlicePosition);
-                    if (loc != null) {
-                        rawIO.setTag(TagW.SlicePosition, loc);
-                        rawIO.setTag(TagW.SliceLocation, (float) (loc[0] + loc[1] + loc[2]));
-                    }
+            }
+        }
+    }
 
-                    rawIO.setTag(TagW.SeriesInstanceUID, seriesUID);
-
-                    // Mandatory tags
-                    TagW[] mtagList =
-                        { TagW.PatientID, TagW.PatientName, TagW.PatientBirthDate, TagW.PatientPseudoUID,
-                            TagW.StudyInstanceUID, TagW.StudyID, TagW.SOPClassUID, TagW.StudyDate, TagW.StudyTime,
-                            TagW.AccessionNumber };
-                    rawIO.copyTags(mtagList, imgRef, true);
-
-                    TagW[] tagList =
-                        { TagW.PhotometricInterpretation, TagW.PixelRepresentation, TagW.Units, TagW.SamplesPerPixel,
-                            TagW.MonoChrome, TagW.Modality };
-                    rawIO.copyTags(tagList, imgRef, true);
-
-                    TagW[] tagList2 =
-                        { TagW.ImageOrientationPatient, TagW.ImagePositionPatient, TagW.SmallestImagePixelValue,
-                            TagW.LargestImagePixelValue, TagW.ModalityLUTData, TagW.ModalityLUTType,
-                            TagW.ModalityLUTExplanation, TagW.RescaleSlope, TagW.RescaleIntercept, TagW.RescaleType,
-                            TagW.VOILUTsData, TagW.VOILUTsExplanation, TagW.PixelPaddingValue,
-                            TagW.PixelPaddingRangeLimit, TagW.WindowWidth, TagW.WindowCenter,
-                            TagW.WindowCenterWidthExplanation, TagW.VOILutFunction, TagW.PixelSpacing,
-                            TagW.ImagerPixelSpacing, TagW.PixelSpacingCalibrationDescription, TagW.PixelAspectRatio };
-                    rawIO.copyTags(tagList2, imgRef, false);
-
-                    // Image specific tags
-                    rawIO.setTag(TagW.SOPInstanceUID, UIDUtils.createUID());
-                    rawIO.setTag(TagW.InstanceNumber, index + 1);
-                    rawIO.setTag(TagW.ImageType, imageType);
-
-                    dicom = new DicomImageElement(rawIO, 0) {
-                        @Override
-                        public boolean saveToFile(File output) {
-                            RawImageIO reader = (RawImageIO) getMediaReader();
-                            return FileUtil.nioCopyFile(reader.getDicomFile(), output);
-                        }
-                    };
-
-                    dicoms.add(dicom);
-
-                    if (taskMonitor != null && taskMonitor.isCanceled()) {
-                        throw new TaskInterruptionException("Rebuilding MIP series has been canceled!");
-                    }
-                    final int progress = index - minImg;
-                    GuiExecutor.instance().execute(new Runnable() {
-
-                        @Override
-                        public void run() {
-                            if (taskMonitor != null) {
-                                taskMonitor.setProgress(progress);
-                                StringBuilder buf = new StringBuilder("Image");
-                                buf.append(StringUtil.COLON_AND_SPACE);
-                                buf.append(progress);
-                                buf.append("/");
-                                buf.append(taskMonitor.getMaximum());
-                                taskMonitor.setNote(buf.toString());
-                            }
-                        }
-                    });
+    /**
+     * Writes the projection in a temporary raw file and adds the new image to dicoms.
+     *
+     * @throws TaskInterruptionException
+     *             when the image cannot be written, the whole MIP series is then aborted
+     */
+    private static void addMipImage(PlanarImage curImage, List<? extends ImageElement> sources, int index,
+        Attributes cpTags, String imageType, String seriesUID, List<DicomImageElement> dicoms) {
+        DicomImageElement imgRef = (DicomImageElement) sources.get(sources.size() / 2);
+        RawImage raw = null;
+        boolean written = false;
+        try {
+            File mipDir = AppProperties.buildAccessibleTempDirectory(AppProperties.FILE_CACHE_DIR.getName(), "mip"); //$NON-NLS-1$
+            raw = new RawImage(File.createTempFile("mip_", ".raw", mipDir));//$NON-NLS-1$ //$NON-NLS-2$
+            writeRasterInRaw(curImage.getAsBufferedImage(), raw.getOutputStream());
+            written = true;
+        } catch (Exception e) {
+            LOGGER.error("Cannot write the MIP image {}", index + 1, e); //$NON-NLS-1$
+            throw new TaskInterruptionException("Cannot write the MIP image!"); //$NON-NLS-1$
+        } finally {
+            if (raw != null) {
+                raw.disposeOutputStream();
+                // The stream must be closed before deleting the file
+                if (!written) {
+                    FileUtil.delete(raw.getFile());
                 }
+            }
+        }
+        RawImageIO rawIO = new RawImageIO(raw.getFile().toURI(), null);
+        rawIO.setBaseAttributes(cpTags);
+
+        // Tags with same values for all the Series
+        rawIO.setTag(TagW.TransferSyntaxUID, UID.ImplicitVRLittleEndian);
+        rawIO.setTag(TagW.Columns, curImage.getWidth());
+        rawIO.setTag(TagW.Rows, curImage.getHeight());
+        rawIO.setTag(TagW.BitsAllocated, imgRef.getBitsAllocated());
+        rawIO.setTag(TagW.BitsStored, imgRef.getBitsStored());
+
+        rawIO.setTag(TagW.SliceThickness, getThickness(sources.get(0), sources.get(sources.size() - 1)));
+        double[] loc = (double[]) imgRef.getTagValue(TagW.SlicePosition);
+        if (loc != null) {
+            rawIO.setTag(TagW.SlicePosition, loc);
+            rawIO.setTag(TagW.SliceLocation, (float) (loc[0] + loc[1] + loc[2]));
+        }
 
+        rawIO.setTag(TagW.SeriesInstanceUID, seriesUID);
+
+        // Mandatory tags
+        TagW[] mtagList =
+            { TagW.PatientID, TagW.PatientName, TagW.PatientBirthDate, TagW.PatientPseudoUID, TagW.StudyInstanceUID,
+                TagW.StudyID, TagW.SOPClassUID, TagW.StudyDate, TagW.StudyTime, TagW.AccessionNumber };
+        rawIO.copyTags(mtagList, imgRef, true);
+
+        TagW[] tagList =
+            { TagW.PhotometricInterpretation, TagW.PixelRepresentation, TagW.Units, TagW.SamplesPerPixel,
+                TagW.MonoChrome, TagW.Modality };
+        rawIO.copyTags(tagList, imgRef, true);
+
+        TagW[] tagList2 =
+            { TagW.ImageOrientationPatient, TagW.ImagePositionPatient, TagW.SmallestImagePixelValue,
+                TagW.LargestImagePixelValue, TagW.ModalityLUTData, TagW.ModalityLUTType, TagW.ModalityLUTExplanation,
+                TagW.RescaleSlope, TagW.RescaleIntercept, TagW.RescaleType, TagW.VOILUTsData,
+                TagW.VOILUTsExplanation, TagW.PixelPaddingValue, TagW.PixelPaddingRangeLimit, TagW.WindowWidth,
+                TagW.WindowCenter, TagW.WindowCenterWidthExplanation, TagW.VOILutFunction, TagW.PixelSpacing,
+                TagW.ImagerPixelSpacing, TagW.PixelSpacingCalibrationDescription, TagW.PixelAspectRatio };
+        rawIO.copyTags(tagList2, imgRef, false);
+
+        // Image specific tags
+        rawIO.setTag(TagW.SOPInstanceUID, UIDUtils.createUID());
+        rawIO.setTag(TagW.InstanceNumber, index + 1);
+        rawIO.setTag(TagW.ImageType, imageType);
+
+        DicomImageElement dicom = new DicomImageElement(rawIO, 0) {
+            @Override
+            public boolean saveToFile(File output) {
+                RawImageIO reader = (RawImageIO) getMediaReader();
+                return FileUtil.nioCopyFile(reader.getDicomFile(), output);
             }
+        };
+
+        dicoms.add(dicom);
+    }
+
+    private static void checkProgress(final TaskMonitor taskMonitor, final int progress, final double throughput) {
+        if (taskMonitor == null) {
+            return;
+        }
+        if (taskMonitor.isCanceled()) {
+            throw new TaskInterruptionException("Rebuilding MIP series has been canceled!");
+        }
+        GuiExecutor.instance().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                taskMonitor.setProgress(progress);
+                StringBuilder buf = new StringBuilder("Image");
+                buf.append(StringUtil.COLON_AND_SPACE);
+                buf.append(progress);
+                buf.append("/");
+                buf.append(taskMonitor.getMaximum());
+                if (throughput > 0.0) {
+                    buf.append(String.format(" (%.0f images/s)", throughput)); //$NON-NLS-1$
+                }
+                taskMonitor.setNote(buf.toString());
+            }
+        });
+    }
+
+    private static SlidingZprojection.Operation getOperation(Type mipType) {
+        if (Type.MIN.equals(mipType)) {
+            return SlidingZprojection.Operation.MIN;
+        }
+        if (Type.MEAN.equals(mipType)) {
+            return SlidingZprojection.Operation.MEAN;
         }
+        return SlidingZprojection.Operation.MAX;
     }
 
     static double getThickness(ImageElement firstDcm, ImageElement lastDcm) {
@@ -11,6 +11,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -33,6 +36,7 @@ import org.weasis.core.api.gui.InsertableUtil;
 import org.weasis.core.api.gui.util.ActionState;
 import org.weasis.core.api.gui.util.ActionW;
 import org.weasis.core.api.gui.util.ComboItemListener;
+import org.weasis.core.api.gui.util.Filter;
 import org.weasis.core.api.gui.util.GuiExecutor;
 import org.weasis.core.api.gui.util.JMVUtils;
 import org.weasis.core.api.gui.util.SliderChangeListener;
@@ -46,6 +50,7 @@ import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.service.BundlePreferences;
 import org.weasis.core.api.service.BundleTools;
 import org.weasis.core.api.service.WProperties;
+import org.weasis.core.api.util.NamedThreadFactory;
 import org.weasis.core.api.util.StringUtil;
 import org.weasis.core.api.util.StringUtil.Suffix;
 import org.weasis.core.ui.docking.DockableTool;
@@ -137,6 +142,15 @@ public class MPRContainer extends ImageViewerPlugin<DicomImageElement> implement
     private volatile Thread process;
     private volatile String lastCommand;
 
+    // Computes the oblique planes and releases the volumes, so a volume is never released during a resampling
+    private final ExecutorService planeExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory(
+        "MPR Oblique")); //$NON-NLS-1$
+    private final Object resamplerLock = new Object();
+    private VolumeResampler volumeResampler;
+    // Series and view of the original stack, the volume is read from them
+    private MediaSeries<DicomImageElement> sourceSeries;
+    private MprView sourceView;
+
     public MPRContainer() {
         this(VIEWS_1x1, null);
     }
@@ -196,6 +210,10 @@ public class MPRContainer extends ImageViewerPlugin<DicomImageElement> implement
 
                 JMVUtils.addItemToMenu(menuRoot, manager.getZoomMenu("weasis.pluginMenu.zoom"));
                 JMVUtils.addItemToMenu(menuRoot, manager.getOrientationMenu("weasis.pluginMenu.orientation"));
+                DefaultView2d<DicomImageElement> pane = getSelectedImagePane();
+                if (pane instanceof MprView) {
+                    JMVUtils.addItemToMenu(menuRoot, ((MprView) pane).getPlaneOrientationMenu());
+                }
 
                 if (count < menuRoot.getItemCount()) {
                     menuRoot.add(new JSeparator());
@@ -261,6 +279,8 @@ public class MPRContainer extends ImageViewerPlugin<DicomImageElement> implement
             process = null;
             t.interrupt();
         }
+        resetVolumeResampler(null, null);
+        planeExecutor.shutdown();
         super.close();
         MPRFactory.closeSeriesViewer(this);
         GuiExecutor.instance().execute(new Runnable() {
@@ -428,6 +448,110 @@ public class MPRContainer extends ImageViewerPlugin<DicomImageElement> implement
         return actions;
     }
 
+    /**
+     * Returns the resampler of the volume of the current series for computing the oblique planes. The volume built
+     * with the orthogonal reconstructions is reused, otherwise it is read at the first call. Must be called only from
+     * the tasks of {@link #executePlaneTask(Runnable)}.
+     * 
+     * @return the resampler, or null when the volume cannot be built
+     */
+    VolumeResampler getVolumeResampler() {
+        MediaSeries<DicomImageElement> series;
+        MprView view;
+        synchronized (resamplerLock) {
+            if (volumeResampler != null) {
+                return volumeResampler;
+            }
+            series = sourceSeries;
+            view = sourceView;
+        }
+        if (series == null || view == null) {
+            return null;
+        }
+        try {
+            // Do not read a second volume while the reconstruction is reading the stack
+            Thread t = process;
+            if (t != null) {
+                t.join();
+            }
+            synchronized (resamplerLock) {
+                if (volumeResampler != null) {
+                    return volumeResampler;
+                }
+            }
+            Filter<DicomImageElement> filter =
+                (Filter<DicomImageElement>) view.getActionValue(ActionW.FILTERED_SERIES.cmd());
+            VolumeResampler resampler =
+                SeriesBuilder.buildVolumeResampler(series, filter, Thread.currentThread());
+            if (resampler != null) {
+                setVolumeResampler(series, resampler);
+                synchronized (resamplerLock) {
+                    if (volumeResampler == resampler) {
+                        return resampler;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.error("Cannot build the volume: {}", e.getMessage()); //$NON-NLS-1$
+        }
+        return null;
+    }
+
+    /**
+     * Keeps the volume of a series for the oblique planes. The resampler is released when the series is not the
+     * current one.
+     */
+    void setVolumeResampler(MediaSeries<DicomImageElement> series, VolumeResampler resampler) {
+        VolumeResampler old = resampler;
+        synchronized (resamplerLock) {
+            if (series != null && series == sourceSeries) {
+                old = volumeResampler;
+                volumeResampler = resampler;
+            }
+        }
+        disposeResampler(old);
+    }
+
+    private void resetVolumeResampler(MediaSeries<DicomImageElement> series, MprView view) {
+        VolumeResampler old;
+        synchronized (resamplerLock) {
+            old = volumeResampler;
+            volumeResampler = null;
+            sourceSeries = series;
+            sourceView = view;
+        }
+        disposeResampler(old);
+    }
+
+    private void disposeResampler(final VolumeResampler resampler) {
+        if (resampler != null) {
+            // Released after the plane in progress
+            if (!executePlaneTask(new Runnable() {
+
+                @Override
+                public void run() {
+                    resampler.dispose();
+                }
+            })) {
+                resampler.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return false when the container is closed
+     */
+    boolean executePlaneTask(Runnable task) {
+        try {
+            planeExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
     public MprView getMprView(SliceOrientation sliceOrientation) {
         for (DefaultView2d v : view2ds) {
             if (v instanceof MprView) {
@@ -467,6 +591,7 @@ public class MPRContainer extends ImageViewerPlugin<DicomImageElement> implement
         }
 
         final MprView view = selectLayoutPositionForAddingSeries(sequence);
+        resetVolumeResampler(view == null ? null : sequence, view);
         if (view != null) {
             view.setSeries(sequence);
 
@@ -1,23 +1,46 @@
 package org.weasis.dicom.viewer2d.mpr;
 
 import java.awt.Graphics2D;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
+import java.awt.geom.Point2D;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
 import java.beans.PropertyChangeEvent;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TiledImage;
+import javax.swing.JMenu;
+import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
 import javax.swing.JProgressBar;
+import javax.swing.JSeparator;
+import javax.swing.SwingUtilities;
+import javax.vecmath.AxisAngle4d;
+import javax.vecmath.Matrix3d;
+import javax.vecmath.Point3d;
+import javax.vecmath.Tuple3d;
+import javax.vecmath.Vector3d;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.weasis.core.api.gui.util.ActionState;
 import org.weasis.core.api.gui.util.ActionW;
+import org.weasis.core.api.gui.util.GuiExecutor;
+import org.weasis.core.api.gui.util.JMVUtils;
 import org.weasis.core.api.image.OpManager;
+import org.weasis.core.api.image.SimpleOpManager;
 import org.weasis.core.api.image.WindowOp;
 import org.weasis.core.ui.editor.image.AnnotationsLayer;
 import org.weasis.core.ui.editor.image.DefaultView2d;
 import org.weasis.core.ui.editor.image.ImageViewerEventManager;
 import org.weasis.dicom.codec.DicomImageElement;
 import org.weasis.dicom.codec.SortSeriesStack;
+import org.weasis.dicom.codec.geometry.GeometryOfSlice;
+import org.weasis.dicom.viewer2d.Messages;
 import org.weasis.dicom.viewer2d.View2d;
 
 public class MprView extends View2d {
@@ -27,8 +50,16 @@ public class MprView extends View2d {
         AXIAL, CORONAL, SAGITTAL
     };
 
+    // Angle in degrees of one tilt action
+    public static final double TILT_STEP = 5.0;
+
     private SliceOrientation sliceOrientation;
     private JProgressBar progressBar;
+    // Tilt of the plane around the horizontal and the vertical axes of the image (in degrees)
+    private double tiltX;
+    private double tiltY;
+    // Only the plane of the last request is displayed
+    private final AtomicInteger planeRequest = new AtomicInteger();
 
     public MprView(ImageViewerEventManager<DicomImageElement> eventManager) {
         super(eventManager);
@@ -66,21 +97,205 @@ public class MprView extends View2d {
 
     @Override
     protected void setImage(DicomImageElement img) {
+        DicomImageElement oldImage = getImage();
+        OpManager plane = (OpManager) actionsInView.get(ActionW.PREPROCESSING.cmd());
         super.setImage(img);
+        if (isObliquePlane() && img != null && img != oldImage) {
+            if (plane != null && plane.getNode(ResliceOp.OP_NAME) != null) {
+                // Keep the previous plane until the plane of the new image is resampled
+                actionsInView.put(ActionW.PREPROCESSING.cmd(), plane);
+                imageLayer.setPreprocessing(plane);
+            }
+            updatePlane();
+        }
+    }
+
+    public boolean isObliquePlane() {
+        return tiltX != 0.0 || tiltY != 0.0;
+    }
+
+    /**
+     * Tilts the plane of the current image. The oblique plane is resampled from the volume of the series.
+     * 
+     * @param angleX
+     *            the angle in degrees around the horizontal axis of the image
+     * @param angleY
+     *            the angle in degrees around the vertical axis of the image
+     */
+    public void rotatePlane(double angleX, double angleY) {
+        tiltX = getTiltAngle(tiltX + angleX);
+        tiltY = getTiltAngle(tiltY + angleY);
+        updatePlane();
+    }
+
+    public void resetPlane() {
+        tiltX = 0.0;
+        tiltY = 0.0;
+        updatePlane();
+    }
+
+    private static double getTiltAngle(double angle) {
+        // Beyond 90 degrees the plane is seen from the other side
+        return Math.max(-90.0, Math.min(90.0, angle));
+    }
+
+    private void updatePlane() {
+        final int request = planeRequest.incrementAndGet();
+        final DicomImageElement img = getImage();
+        final MPRContainer container = (MPRContainer) SwingUtilities.getAncestorOfClass(MPRContainer.class, this);
+        if (!isObliquePlane() || img == null || container == null) {
+            setPlane(null);
+            return;
+        }
+        final double angleX = Math.toRadians(tiltX);
+        final double angleY = Math.toRadians(tiltY);
+        container.executePlaneTask(new Runnable() {
+
+            @Override
+            public void run() {
+                if (request != planeRequest.get()) {
+                    // Skip the planes replaced by a new request
+                    return;
+                }
+                VolumeResampler resampler = container.getVolumeResampler();
+                final RenderedImage plane =
+                    resampler == null || request != planeRequest.get() ? null : buildPlane(resampler, img, angleX,
+                        angleY);
+                if (plane != null) {
+                    GuiExecutor.instance().execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (request == planeRequest.get() && img == getImage()) {
+                                setPlane(plane);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private void setPlane(RenderedImage plane) {
+        OpManager current = (OpManager) actionsInView.get(ActionW.PREPROCESSING.cmd());
+        if (plane == null && (current == null || current.getNode(ResliceOp.OP_NAME) == null)) {
+            return;
+        }
+        SimpleOpManager manager = null;
+        if (plane != null) {
+            // A new manager is required to initialize again the image of the layer
+            manager = new SimpleOpManager();
+            ResliceOp reslice = new ResliceOp();
+            reslice.setParam(ResliceOp.P_PLANE, plane);
+            manager.addImageOperationAction(reslice);
+        }
+        actionsInView.put(ActionW.PREPROCESSING.cmd(), manager);
+        imageLayer.setPreprocessing(manager);
+    }
+
+    /**
+     * Resamples the plane of the image rotated around its center. The plane has the size and the pixel spacing of the
+     * image, so the display operations and the zoom are the same.
+     */
+    private static RenderedImage buildPlane(VolumeResampler resampler, DicomImageElement img, double angleX,
+        double angleY) {
+        GeometryOfSlice geometry = img.getSliceGeometry();
+        PlanarImage source = img.getImage();
+        if (geometry == null || source == null) {
+            return null;
+        }
+        SampleModel sampleModel = source.getSampleModel();
+        VolumeBuffer volume = resampler.getVolume();
+        if (sampleModel.getDataType() != volume.getDataType()
+            || sampleModel.getNumBands() != volume.getSamplesPerPixel()) {
+            LOGGER.warn("Cannot resample a plane, the image does not match the volume"); //$NON-NLS-1$
+            return null;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        Vector3d row = new Vector3d(geometry.getRow());
+        Vector3d col = new Vector3d(geometry.getColumn());
+        Matrix3d rotation = new Matrix3d();
+        // Tilt around the horizontal axis of the image
+        rotation.set(new AxisAngle4d(row, angleX));
+        rotation.transform(col);
+        // Tilt around the vertical axis of the tilted plane
+        rotation.set(new AxisAngle4d(col, angleY));
+        rotation.transform(row);
+
+        Tuple3d spacing = geometry.getVoxelSpacing();
+        Vector3d rowStep = new Vector3d(row);
+        rowStep.scale(spacing.x);
+        Vector3d colStep = new Vector3d(col);
+        colStep.scale(spacing.y);
+        Point3d origin = geometry.getPosition(new Point2D.Double((width - 1) * 0.5, (height - 1) * 0.5));
+        origin.scaleAdd(-(width - 1) * 0.5, rowStep, origin);
+        origin.scaleAdd(-(height - 1) * 0.5, colStep, origin);
+
+        TiledImage plane =
+            new TiledImage(0, 0, width, height, 0, 0, sampleModel.createCompatibleSampleModel(width, height),
+                source.getColorModel());
+        WritableRaster raster = plane.getWritableTile(0, 0);
+        boolean done;
+        try {
+            done = resampler.resample(origin, rowStep, colStep, raster, resampler.getMinSample());
+        } finally {
+            plane.releaseWritableTile(0, 0);
+        }
+        return done ? plane : null;
+    }
+
+    public JMenu getPlaneOrientationMenu() {
+        JMenu menu = new JMenu(Messages.getString("MprView.plane")); //$NON-NLS-1$
+        menu.setEnabled(getImage() != null);
+        addTiltItem(menu, Messages.getString("MprView.tilt_up"), -TILT_STEP, 0.0); //$NON-NLS-1$
+        addTiltItem(menu, Messages.getString("MprView.tilt_down"), TILT_STEP, 0.0); //$NON-NLS-1$
+        addTiltItem(menu, Messages.getString("MprView.tilt_left"), 0.0, -TILT_STEP); //$NON-NLS-1$
+        addTiltItem(menu, Messages.getString("MprView.tilt_right"), 0.0, TILT_STEP); //$NON-NLS-1$
+        menu.add(new JSeparator());
+        JMenuItem reset = new JMenuItem(Messages.getString("MprView.reset_plane")); //$NON-NLS-1$
+        reset.setEnabled(isObliquePlane());
+        reset.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                resetPlane();
+            }
+        });
+        menu.add(reset);
+        return menu;
+    }
+
+    private void addTiltItem(JMenu menu, String title, final double angleX, final double angleY) {
+        JMenuItem item = new JMenuItem(title);
+        item.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                rotatePlane(angleX, angleY);
+            }
+        });
+        menu.add(item);
     }
 
     @Override
     protected JPopupMenu buildContexMenu(final MouseEvent evt) {
         ActionState action = eventManager.getAction(ActionW.SORTSTACK);
+        JPopupMenu ctx;
         if (action != null && action.isActionEnabled()) {
             // Force to disable sort stack menu
             action.enableAction(false);
-            JPopupMenu ctx = super.buildContexMenu(evt);
+            ctx = super.buildContexMenu(evt);
             action.enableAction(true);
-            return ctx;
+        } else {
+            ctx = super.buildContexMenu(evt);
         }
-
-        return super.buildContexMenu(evt);
+        if (ctx != null) {
+            ctx.add(new JSeparator());
+            JMVUtils.addItemToMenu(ctx, getPlaneOrientationMenu());
+        }
+        return ctx;
     }
 
     @Override
@@ -15,7 +15,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -41,6 +41,7 @@ import org.weasis.core.api.media.data.ImageElement;
 import org.weasis.core.api.media.data.MediaElement;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.MediaSeriesGroup;
+import org.weasis.core.api.media.data.TagMap;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.util.FileUtil;
 import org.weasis.dicom.codec.DcmMediaReader;
@@ -60,7 +61,7 @@ public class RawImageIO implements DcmMediaReader<PlanarImage> {
 
     protected URI uri;
 
-    private final HashMap<TagW, Object> tags;
+    private final Map<TagW, Object> tags;
     private final Codec codec;
     private ImageInputStream imageStream;
     private Attributes attributes;
@@ -69,7 +70,7 @@ public class RawImageIO implements DcmMediaReader<PlanarImage> {
         if (media == null) {
             throw new IllegalArgumentException("media uri is null"); //$NON-NLS-1$
         }
-        this.tags = new HashMap<TagW, Object>();
+        this.tags = new TagMap();
         this.uri = media;
         this.codec = codec;
     }
@@ -200,7 +201,7 @@ public class RawImageIO implements DcmMediaReader<PlanarImage> {
     }
 
     @Override
-    public HashMap<TagW, Object> getMediaFragmentTags(Object key) {
+    public Map<TagW, Object> getMediaFragmentTags(Object key) {
         return tags;
     }
 
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.viewer2d.mpr;
+
+import java.awt.image.RenderedImage;
+
+import org.weasis.core.api.image.AbstractOp;
+
+/**
+ * Replaces the image of the view by an oblique plane resampled from the volume. The plane is computed out of the EDT,
+ * so this operation only outputs the result.
+ */
+public class ResliceOp extends AbstractOp {
+
+    public static final String OP_NAME = "Reslice"; //$NON-NLS-1$
+
+    /**
+     * The resampled plane (Optional parameter), the source image is returned when null.
+     *
+     * RenderedImage value.
+     */
+    public static final String P_PLANE = "plane"; //$NON-NLS-1$
+
+    public ResliceOp() {
+        setName(OP_NAME);
+    }
+
+    @Override
+    public void process() throws Exception {
+        RenderedImage plane = (RenderedImage) params.get(P_PLANE);
+        params.put(OUTPUT_IMG, plane == null ? params.get(INPUT_IMG) : plane);
+    }
+}
@@ -3,38 +3,25 @@ package org.weasis.dicom.viewer2d.mpr;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.geom.Point2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferByte;
-import java.awt.image.DataBufferInt;
-import java.awt.image.DataBufferShort;
-import java.awt.image.DataBufferUShort;
-import java.awt.image.RenderedImage;
-import java.awt.image.SampleModel;
-import java.awt.image.WritableRaster;
+import java.awt.image.Raster;
 import java.awt.image.renderable.ParameterBlock;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.IIOException;
 import javax.media.jai.Interpolation;
 import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
-import javax.media.jai.RasterFactory;
-import javax.media.jai.RenderedOp;
 import javax.media.jai.operator.TransposeDescriptor;
 import javax.media.jai.operator.TransposeType;
 import javax.swing.JOptionPane;
@@ -43,13 +30,12 @@ import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 
 import org.dcm4che3.data.Attributes;
-import org.dcm4che3.data.Attributes.Visitor;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
 import org.dcm4che3.data.VR;
-import org.dcm4che3.image.PhotometricInterpretation;
-import org.dcm4che3.util.TagUtils;
 import org.dcm4che3.util.UIDUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.weasis.core.api.explorer.ObservableEvent;
 import org.weasis.core.api.explorer.model.DataExplorerModel;
 import org.weasis.core.api.explorer.model.TreeModel;
@@ -62,6 +48,7 @@ import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.MediaSeriesGroup;
 import org.weasis.core.api.media.data.TagW;
 import org.weasis.core.api.util.FileUtil;
+import org.weasis.core.api.util.NamedThreadFactory;
 import org.weasis.dicom.codec.DcmMediaReader;
 import org.weasis.dicom.codec.DicomImageElement;
 import org.weasis.dicom.codec.DicomSeries;
@@ -74,15 +61,20 @@ import org.weasis.dicom.viewer2d.RawImage;
 import org.weasis.dicom.viewer2d.mpr.MprView.SliceOrientation;
 
 public class SeriesBuilder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SeriesBuilder.class);
+
     public static final File MPR_CACHE_DIR = AppProperties.buildAccessibleTempDirectory(
         AppProperties.FILE_CACHE_DIR.getName(), "mpr"); //$NON-NLS-1$
 
+    // Shared by all the reconstructions, the tasks never wait for other tasks of the pool
+    private static final ExecutorService BUILDER = Executors.newFixedThreadPool(Runtime.getRuntime()
+        .availableProcessors(), new NamedThreadFactory("MPR Builder")); //$NON-NLS-1$
+
     private SeriesBuilder() {
     }
 
     public static void createMissingSeries(Thread thread, MPRContainer mprContainer, final MprView view)
         throws Exception {
-        // TODO test images have all the same size and pixel spacing
         MediaSeries<DicomImageElement> series = view.getSeries();
         if (series != null) {
             SliceOrientation type1 = view.getSliceOrientation();
@@ -99,22 +91,16 @@ public class SeriesBuilder {
                 if (img != null && img.getMediaReader() instanceof DcmMediaReader) {
                     GeometryOfSlice geometry = img.getDispSliceGeometry();
                     if (geometry != null) {
-                        int width = (Integer) img.getTagValue(TagW.Columns);
-                        int height = (Integer) img.getTagValue(TagW.Rows);
                         // abort needs to be final array to be changed on "invoqueAndWhait()" block.
                         final boolean[] abort = new boolean[] { false, false };
 
-                        if (img.getRescaleX() != img.getRescaleY()) {
-                            // confirmMessage(view, Messages.getString("SeriesBuilder.non_square"), abort); //$NON-NLS-1$
-                            width = img.getRescaleWidth(width);
-                            height = img.getRescaleHeight(height);
-                        }
+                        // The non square pixels are rescaled when building the volume
 
                         Float tilt = (Float) img.getTagValue(TagW.GantryDetectorTilt);
                         if (tilt != null && tilt != 0.0f) {
                             confirmMessage(view, Messages.getString("SeriesBuilder.gantry"), abort); //$NON-NLS-1$
                         }
-                        HashMap<TagW, Object> tags = img.getMediaReader().getMediaFragmentTags(0);
+                        Map<TagW, Object> tags = img.getMediaReader().getMediaFragmentTags(0);
                         if (tags != null) {
                             double[] row = geometry.getRowArray();
                             double[] col = geometry.getColumnArray();
@@ -241,38 +227,69 @@ public class SeriesBuilder {
                                 series.getMedia(MediaSeries.MEDIA_POSITION.MIDDLE, filter,
                                     SortSeriesStack.slicePosition);
                             final Attributes attributes = ((DcmMediaReader) img.getMediaReader()).getDicomObject();
+                            double origPixSize = img.getPixelSize();
+
+                            List<DicomImageElement> medias =
+                                series.copyOfMedias(filter, SortSeriesStack.slicePosition);
+                            double sPixSize = getSliceSpace(medias, view, abort);
+
+                            if (!needBuild[0] && !needBuild[1]) {
+                                return;
+                            }
+                            VolumeBuffer volume = null;
+                            boolean keepVolume = false;
+                            RawImage[][] secSeries = new RawImage[2][];
+                            int[] minSample = new int[1];
+                            try {
+                                // Read the stack only once for the two reconstructions
+                                volume = buildVolume(medias, recView, needBuild, thread, abort, minSample, BUILDER);
+                                if (volume == null || thread.isInterrupted()) {
+                                    return;
+                                }
+                                List<Future<Object>> tasks = new ArrayList<Future<Object>>();
+                                for (int i = 0; i < 2; i++) {
+                                    if (needBuild[i]) {
+                                        secSeries[i] =
+                                            submitReslicing(volume, recParams[i], recView[i], seriesID, thread,
+                                                BUILDER, tasks);
+                                    }
+                                }
+                                waitForTasks(tasks);
+                                if (!thread.isInterrupted()) {
+                                    // Keep the volume for resampling the oblique planes
+                                    VolumeResampler resampler = buildResampler(volume, medias, minSample[0]);
+                                    if (resampler != null) {
+                                        mprContainer.setVolumeResampler(series, resampler);
+                                        keepVolume = true;
+                                    }
+                                }
+                            } catch (Exception e) {
+                                abort[0] = true;
+                                throw e;
+                            } finally {
+                                if (volume != null && !keepVolume) {
+                                    volume.dispose();
+                                }
+                                if (abort[0] || thread.isInterrupted()) {
+                                    deleteFiles(secSeries);
+                                }
+                            }
+                            if (thread.isInterrupted()) {
+                                return;
+                            }
 
                             for (int i = 0; i < 2; i++) {
                                 if (needBuild[i]) {
                                     final MprView mprView = recView[i];
                                     final ViewParameter viewParams = recParams[i];
-
-                                    Iterable<DicomImageElement> medias =
-                                        series.copyOfMedias(filter, viewParams.reverseSeriesOrder
-                                            ? SortSeriesStack.slicePosition.getReversOrderComparator()
-                                            : SortSeriesStack.slicePosition);
-                                    double origPixSize = img.getPixelSize();
-
-                                    RawImage[] secSeries = new RawImage[i == 0 ? height : width];
-                                    /*
-                                     * Write the new image by tacking the lines (from first to last) of all the images
-                                     * of the original series stack
-                                     */
-                                    double sPixSize =
-                                        writeBlock(secSeries, series, medias, viewParams, mprView, thread, abort,
-                                            seriesID);
-
-                                    if (thread.isInterrupted()) {
-                                        return;
-                                    }
                                     /*
                                      * Reconstruct dicom files, adapt position, orientation, pixel spacing, instance
                                      * number and UIDs.
                                      */
                                     final DicomSeries dicomSeries =
-                                        buildDicomSeriesFromRaw(secSeries,
-                                            new Dimension(i == 0 ? width : height, size), img, viewParams, seriesID,
-                                            origPixSize, sPixSize, geometry, mprView, attributes);
+                                        buildDicomSeriesFromRaw(secSeries[i],
+                                            getReslicedDimension(volume, viewParams), img, viewParams, seriesID,
+                                            origPixSize, sPixSize, geometry, attributes);
 
                                     if (dicomSeries != null && dicomSeries.size(null) > 0) {
                                         ((DcmMediaReader) dicomSeries.getMedia(0, null, null).getMediaReader())
@@ -315,57 +332,13 @@ public class SeriesBuilder {
 
     private static DicomSeries buildDicomSeriesFromRaw(final RawImage[] newSeries, Dimension dim,
         DicomImageElement img, ViewParameter params, String seriesID, double origPixSize, double sPixSize,
-        GeometryOfSlice geometry, final MprView view, final Attributes attributes) throws Exception {
+        GeometryOfSlice geometry, final Attributes attributes) throws Exception {
 
         String recSeriesID = seriesID + params.suffix;
         int bitsAllocated = img.getBitsAllocated();
         int bitsStored = img.getBitsStored();
-        double[] pixSpacing = new double[] { sPixSize, origPixSize };
-
-        int dataType = 0;
-        ColorModel cm = null;
-        SampleModel sampleModel = null;
-        final JProgressBar bar = view.getProgressBar();
-
-        if (params.rotateOutputImg) {
-            if (bar != null) {
-                GuiExecutor.instance().execute(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        bar.setMaximum(newSeries.length);
-                        bar.setValue(0);
-                        // Force to reset the progress bar (substance)
-                        bar.updateUI();
-                        view.repaint();
-                    }
-                });
-            }
-
-            pixSpacing = new double[] { origPixSize, sPixSize };
-
-            int samplesPerPixel = (Integer) img.getTagValue(TagW.SamplesPerPixel);
-            boolean banded =
-                samplesPerPixel > 1
-                    && DicomMediaUtils.getIntegerFromDicomElement(attributes, Tag.PlanarConfiguration, 0) != 0;
-            int pixelRepresentation =
-                DicomMediaUtils.getIntegerFromDicomElement(attributes, Tag.PixelRepresentation, 0);
-            dataType =
-                bitsAllocated <= 8 ? DataBuffer.TYPE_BYTE : pixelRepresentation != 0 ? DataBuffer.TYPE_SHORT
-                    : DataBuffer.TYPE_USHORT;
-            if (bitsAllocated > 16 && samplesPerPixel == 1) {
-                dataType = DataBuffer.TYPE_INT;
-            }
-
-            String photometricInterpretation = (String) img.getTagValue(TagW.PhotometricInterpretation);
-            PhotometricInterpretation pmi = PhotometricInterpretation.fromString(photometricInterpretation);
-            cm = pmi.createColorModel(bitsStored, dataType, attributes);
-            sampleModel = pmi.createSampleModel(dataType, dim.width, dim.height, samplesPerPixel, banded);
-
-            int tmp = dim.width;
-            dim.width = dim.height;
-            dim.height = tmp;
-        }
+        double[] pixSpacing =
+            params.rotateOutputImg ? new double[] { origPixSize, sPixSize } : new double[] { sPixSize, origPixSize };
 
         final int[] COPIED_ATTRS =
             { Tag.SpecificCharacterSet, Tag.PatientID, Tag.PatientName, Tag.PatientBirthDate, Tag.PatientBirthTime,
@@ -392,84 +365,6 @@ public class SeriesBuilder {
 
         for (int i = 0; i < newSeries.length; i++) {
             File inFile = newSeries[i].getFile();
-            if (params.rotateOutputImg) {
-
-                ByteBuffer byteBuffer = getBytesFromFile(inFile);
-                DataBuffer dataBuffer = null;
-                if (dataType == DataBuffer.TYPE_BYTE) {
-                    dataBuffer = new DataBufferByte(byteBuffer.array(), byteBuffer.limit());
-                } else if (dataType <= DataBuffer.TYPE_SHORT) {
-                    ShortBuffer sBuffer = byteBuffer.asShortBuffer();
-                    short[] data;
-                    if (sBuffer.hasArray()) {
-                        data = sBuffer.array();
-                    } else {
-                        data = new short[byteBuffer.limit() / 2];
-                        for (int k = 0; k < data.length; k++) {
-                            if (byteBuffer.hasRemaining()) {
-                                data[k] = byteBuffer.getShort();
-                            }
-                        }
-                    }
-                    dataBuffer =
-                        dataType == DataBuffer.TYPE_SHORT ? new DataBufferShort(data, data.length)
-                            : new DataBufferUShort(data, data.length);
-                } else if (dataType == DataBuffer.TYPE_INT) {
-                    IntBuffer sBuffer = byteBuffer.asIntBuffer();
-                    int[] data;
-                    if (sBuffer.hasArray()) {
-                        data = sBuffer.array();
-                    } else {
-                        data = new int[byteBuffer.limit() / 4];
-                        for (int k = 0; k < data.length; k++) {
-                            if (byteBuffer.hasRemaining()) {
-                                data[k] = byteBuffer.getInt();
-                            }
-                        }
-                    }
-                    dataBuffer = new DataBufferInt(data, data.length);
-                }
-
-                WritableRaster raster = RasterFactory.createWritableRaster(sampleModel, dataBuffer, null);
-                BufferedImage bufImg = new BufferedImage(cm, raster, false, null);
-                bufImg = getImage(bufImg, TransposeDescriptor.ROTATE_90);
-
-                dataBuffer = bufImg.getRaster().getDataBuffer();
-                if (dataBuffer instanceof DataBufferByte) {
-                    byteBuffer = ByteBuffer.wrap(((DataBufferByte) dataBuffer).getData());
-                    writToFile(inFile, byteBuffer);
-                } else if (dataBuffer instanceof DataBufferShort || dataBuffer instanceof DataBufferUShort) {
-                    short[] data =
-                        dataBuffer instanceof DataBufferShort ? ((DataBufferShort) dataBuffer).getData()
-                            : ((DataBufferUShort) dataBuffer).getData();
-
-                    byteBuffer = ByteBuffer.allocate(data.length * 2);
-                    byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                    ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
-                    shortBuffer.put(data);
-
-                    writToFile(inFile, byteBuffer);
-                } else if (dataBuffer instanceof DataBufferInt) {
-                    int[] data = ((DataBufferInt) dataBuffer).getData();
-
-                    byteBuffer = ByteBuffer.allocate(data.length * 4);
-                    byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                    IntBuffer intBuffer = byteBuffer.asIntBuffer();
-                    intBuffer.put(data);
-
-                    writToFile(inFile, byteBuffer);
-                }
-                if (bar != null) {
-                    GuiExecutor.instance().execute(new Runnable() {
-
-                        @Override
-                        public void run() {
-                            bar.setValue(bar.getValue() + 1);
-                            view.repaint();
-                        }
-                    });
-                }
-            }
             RawImageIO rawIO = new RawImageIO(inFile.toURI(), null);
             rawIO.setBaseAttributes(cpTags);
 
@@ -528,7 +423,7 @@ public class SeriesBuilder {
             Point3d p = geometry.getPosition(new Point2D.Double(x, y));
             rawIO.setTag(TagW.ImagePositionPatient, new double[] { p.x, p.y, p.z });
 
-            HashMap<TagW, Object> tagList4 = rawIO.getMediaFragmentTags(null);
+            Map<TagW, Object> tagList4 = rawIO.getMediaFragmentTags(null);
 
             DicomMediaUtils.buildLUTs(tagList4);
             DicomMediaUtils.computeSlicePositionVector(tagList4);
@@ -550,223 +445,344 @@ public class SeriesBuilder {
         return dicomSeries;
     }
 
-    private static double writeBlock(RawImage[] newSeries, MediaSeries<DicomImageElement> series,
-        Iterable<DicomImageElement> medias, ViewParameter params, final MprView view, Thread thread,
-        final boolean[] abort, String seriesID) throws IOException {
-
-        // TODO should return the more frequent space!
-        final JProgressBar bar = view.getProgressBar();
-        try {
-            File dir = new File(MPR_CACHE_DIR, seriesID + params.suffix);
-            dir.mkdirs();
-            for (int i = 0; i < newSeries.length; i++) {
-                newSeries[i] = new RawImage(new File(dir, "mpr_" + (i + 1)));//$NON-NLS-1$
-            }
-            double epsilon = 1e-3;
-            double lastPos = 0.0;
-            double lastSpace = 0.0;
-            int index = 0;
-            Iterator<DicomImageElement> iter = medias.iterator();
-            while (iter.hasNext()) {
-                if (thread.isInterrupted()) {
-                    return lastSpace;
-                }
-                DicomImageElement dcm = iter.next();
-                double[] sp = (double[]) dcm.getTagValue(TagW.SlicePosition);
-                if (sp == null && !abort[1]) {
+    /**
+     * @return the most frequent space between two adjacent slices, the user has confirmed to continue when the space
+     *         is not regular
+     */
+    private static double getSliceSpace(List<DicomImageElement> medias, MprView view, boolean[] abort) {
+        double epsilon = 1e-3;
+        double lastPos = 0.0;
+        double lastSpace = 0.0;
+        double frequentSpace = 0.0;
+        int maxCount = 0;
+        // Number of occurrences of the spaces rounded to epsilon
+        Map<Long, Integer> spaces = new HashMap<Long, Integer>();
+        int index = 0;
+        for (DicomImageElement dcm : medias) {
+            double[] sp = (double[]) dcm.getTagValue(TagW.SlicePosition);
+            if (sp == null) {
+                if (!abort[1]) {
                     confirmMessage(view, Messages.getString("SeriesBuilder.space_missing"), abort); //$NON-NLS-1$
-                } else {
-                    double pos = (sp[0] + sp[1] + sp[2]);
-                    if (index > 0) {
-                        double space = Math.abs(pos - lastPos);
-                        if (!abort[1] && (space == 0.0 || (index > 1 && lastSpace - space > epsilon))) {
-                            confirmMessage(view, Messages.getString("SeriesBuilder.space"), abort); //$NON-NLS-1$
-                        }
-                        lastSpace = space;
+                }
+            } else {
+                double pos = (sp[0] + sp[1] + sp[2]);
+                if (index > 0) {
+                    double space = Math.abs(pos - lastPos);
+                    if (!abort[1] && (space == 0.0 || (index > 1 && lastSpace - space > epsilon))) {
+                        confirmMessage(view, Messages.getString("SeriesBuilder.space"), abort); //$NON-NLS-1$
                     }
-                    lastPos = pos;
-                    index++;
-                    if (bar != null) {
-                        GuiExecutor.instance().execute(new Runnable() {
-
-                            @Override
-                            public void run() {
-                                bar.setValue(bar.getValue() + 1);
-                                view.repaint();
-                            }
-                        });
+                    lastSpace = space;
+                    Long key = Math.round(space / epsilon);
+                    Integer count = spaces.get(key);
+                    count = count == null ? 1 : count + 1;
+                    spaces.put(key, count);
+                    if (count > maxCount) {
+                        maxCount = count;
+                        frequentSpace = space;
                     }
                 }
-                // TODO do not open more than 512 files (Limitation to open 1024 in the same
-                // time on Ubuntu)
-                PlanarImage image = dcm.getImage();
-                if (image == null) {
-                    abort[0] = true;
-                    throw new IIOException("Cannot read an image!"); //$NON-NLS-1$
-                }
-
-                if (dcm.getRescaleX() != dcm.getRescaleY()) {
-                    ParameterBlock pb = new ParameterBlock();
-                    pb.addSource(image);
-                    pb.add((float) dcm.getRescaleX()).add((float) dcm.getRescaleY()).add(0.0f).add(0.0f);
-                    pb.add(Interpolation.getInstance(Interpolation.INTERP_BILINEAR));
-                    image = JAI.create("scale", pb, ImageToolkit.NOCACHE_HINT); //$NON-NLS-1$
-                }
-                writeRasterInRaw(getImage(image, params.transposeImage), newSeries);
+                lastPos = pos;
+                index++;
             }
-            return lastSpace;
-        } finally {
-            for (int i = 0; i < newSeries.length; i++) {
-                if (newSeries[i] != null) {
-                    newSeries[i].disposeOutputStream();
-                    if (abort[0]) {
-                        newSeries[i].getFile().delete();
+        }
+        return frequentSpace;
+    }
+
+    /**
+     * Reads the images into a volume.
+     * 
+     * @param minSample
+     *            receives the minimum sample of the volume at the index 0
+     * @return the volume (must be released with dispose()), or null when there is no image
+     */
+    private static VolumeBuffer buildVolume(final List<DicomImageElement> medias, final MprView[] views,
+        final boolean[] needBuild, final Thread thread, final boolean[] abort, int[] minSample,
+        ExecutorService executor) throws Exception {
+        if (medias.isEmpty()) {
+            return null;
+        }
+        // The volume is a regular grid, it cannot be built with slices of different sizes
+        checkSameSize(medias, abort);
+        Raster first = readRaster(medias.get(0), abort);
+        final VolumeBuffer volume =
+            new VolumeBuffer(first.getWidth(), first.getHeight(), medias.size(), first.getSampleModel()
+                .getDataType(), first.getNumBands(), MPR_CACHE_DIR);
+        // Minimum of each slice, each task writes its own slot
+        final int[] sliceMin = new int[medias.size()];
+        Arrays.fill(sliceMin, Integer.MAX_VALUE);
+        try {
+            sliceMin[0] = volume.setSlice(0, first);
+            incrementProgressBars(views, needBuild);
+
+            List<Future<Object>> tasks = new ArrayList<Future<Object>>(medias.size());
+            for (int i = 1; i < medias.size(); i++) {
+                final int index = i;
+                tasks.add(executor.submit(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        if (!thread.isInterrupted()) {
+                            Raster raster = readRaster(medias.get(index), abort);
+                            if (raster.getWidth() != volume.getWidth() || raster.getHeight() != volume.getHeight()
+                                || raster.getNumBands() != volume.getSamplesPerPixel()) {
+                                // The header does not match the pixel data
+                                abort[0] = true;
+                                throw new IllegalStateException(Messages.getString("SeriesBuilder.size")); //$NON-NLS-1$
+                            }
+                            sliceMin[index] = volume.setSlice(index, raster);
+                            incrementProgressBars(views, needBuild);
+                        }
+                        return null;
                     }
-                }
+                }));
             }
+            waitForTasks(tasks);
+        } catch (Exception e) {
+            volume.dispose();
+            throw e;
+        }
+        int min = Integer.MAX_VALUE;
+        for (int m : sliceMin) {
+            min = Math.min(min, m);
         }
+        minSample[0] = min;
+        return volume;
     }
 
-    private static void writeRasterInRaw(BufferedImage image, RawImage[] newSeries) throws IOException {
-        if (newSeries != null && image != null && image.getHeight() == newSeries.length) {
-
-            DataBuffer dataBuffer = image.getRaster().getDataBuffer();
-            int width = image.getWidth();
-            int height = newSeries.length;
-            byte[] bytesOut = null;
-            if (dataBuffer instanceof DataBufferByte) {
-                bytesOut = ((DataBufferByte) dataBuffer).getData();
-                for (int j = 0; j < height; j++) {
-                    newSeries[j].getOutputStream().write(bytesOut, j * width, width);
-                }
-            } else if (dataBuffer instanceof DataBufferShort || dataBuffer instanceof DataBufferUShort) {
-                short[] data =
-                    dataBuffer instanceof DataBufferShort ? ((DataBufferShort) dataBuffer).getData()
-                        : ((DataBufferUShort) dataBuffer).getData();
-                bytesOut = new byte[data.length * 2];
-                for (int i = 0; i < data.length; i++) {
-                    bytesOut[i * 2] = (byte) (data[i] & 0xFF);
-                    bytesOut[i * 2 + 1] = (byte) ((data[i] >>> 8) & 0xFF);
-                }
-                width *= 2;
-                for (int j = 0; j < height; j++) {
-                    newSeries[j].getOutputStream().write(bytesOut, j * width, width);
-                }
-            } else if (dataBuffer instanceof DataBufferInt) {
-                int[] data = ((DataBufferInt) dataBuffer).getData();
-                bytesOut = new byte[data.length * 4];
-                for (int i = 0; i < data.length; i++) {
-                    bytesOut[i * 4] = (byte) (data[i] & 0xFF);
-                    bytesOut[i * 4 + 1] = (byte) ((data[i] >>> 8) & 0xFF);
-                    bytesOut[i * 4 + 2] = (byte) ((data[i] >>> 16) & 0xFF);
-                    bytesOut[i * 4 + 3] = (byte) ((data[i] >>> 24) & 0xFF);
-                }
-                width *= 4;
-                for (int j = 0; j < height; j++) {
-                    newSeries[j].getOutputStream().write(bytesOut, j * width, width);
-                }
+    private static void checkSameSize(List<DicomImageElement> medias, boolean[] abort) {
+        double epsilon = 1e-3;
+        DicomImageElement first = medias.get(0);
+        Object rows = first.getTagValue(TagW.Rows);
+        Object columns = first.getTagValue(TagW.Columns);
+        for (DicomImageElement dcm : medias) {
+            if (rows == null || !rows.equals(dcm.getTagValue(TagW.Rows)) || columns == null
+                || !columns.equals(dcm.getTagValue(TagW.Columns))
+                || Math.abs(dcm.getPixelSize() - first.getPixelSize()) > epsilon
+                || Math.abs(dcm.getRescaleX() - first.getRescaleX()) > epsilon
+                || Math.abs(dcm.getRescaleY() - first.getRescaleY()) > epsilon) {
+                LOGGER.error("Cannot build the volume, the size of {} differs from the first image", //$NON-NLS-1$
+                    dcm.getMediaURI());
+                abort[0] = true;
+                throw new IllegalStateException(Messages.getString("SeriesBuilder.size")); //$NON-NLS-1$
             }
         }
     }
 
-    private static BufferedImage getImage(PlanarImage source, TransposeType rotate) {
-        if (rotate == null) {
-            return source == null ? null : source.getAsBufferedImage();
+    /**
+     * Reads the volume of a series for resampling oblique planes. The images are read again, so it must not be called
+     * from the EDT.
+     * 
+     * @return the resampler (the volume must be released with dispose()), or null when the volume cannot be built
+     */
+    static VolumeResampler buildVolumeResampler(MediaSeries<DicomImageElement> series, Filter<DicomImageElement> filter,
+        Thread thread) throws Exception {
+        List<DicomImageElement> medias = series.copyOfMedias(filter, SortSeriesStack.slicePosition);
+        int[] minSample = new int[1];
+        VolumeBuffer volume =
+            buildVolume(medias, new MprView[0], new boolean[0], thread, new boolean[] { false, false }, minSample,
+                BUILDER);
+        if (volume == null) {
+            return null;
+        }
+        VolumeResampler resampler = thread.isInterrupted() ? null : buildResampler(volume, medias, minSample[0]);
+        if (resampler == null) {
+            volume.dispose();
         }
-        return getRotatedImage(source, rotate);
+        return resampler;
     }
 
-    private static BufferedImage getImage(BufferedImage source, TransposeType rotate) {
-        if (rotate == null) {
-            return source == null ? null : source;
+    private static VolumeResampler buildResampler(VolumeBuffer volume, List<DicomImageElement> medias,
+        int minSample) {
+        GeometryOfSlice geometry = medias.get(0).getDispSliceGeometry();
+        GeometryOfSlice lastGeometry = medias.get(medias.size() - 1).getDispSliceGeometry();
+        if (geometry == null || lastGeometry == null) {
+            return null;
         }
-        return getRotatedImage(source, rotate);
+        double spacing = 0.0;
+        if (medias.size() > 1) {
+            spacing =
+                (geometry.getDistanceAlongNormalFromOrigin(lastGeometry.getTLHC()) - geometry
+                    .getDistanceAlongNormalFromOrigin()) / (medias.size() - 1);
+        }
+        return new VolumeResampler(volume, geometry, spacing, minSample);
     }
 
-    private static BufferedImage getRotatedImage(RenderedImage source, TransposeType rotate) {
-        RenderedOp result;
-        if (source instanceof BufferedImage) {
-            source = PlanarImage.wrapRenderedImage(source);
+    private static Raster readRaster(DicomImageElement dcm, boolean[] abort) throws IIOException {
+        PlanarImage image = dcm.getImage();
+        if (image == null) {
+            abort[0] = true;
+            throw new IIOException("Cannot read an image!"); //$NON-NLS-1$
         }
-        // use Transpose operation
-        ParameterBlock pb = new ParameterBlock();
-        pb.addSource(source);
-        pb.add(rotate);
-        result = JAI.create("transpose", pb, ImageToolkit.NOCACHE_HINT); //$NON-NLS-1$
-        // Handle non square images. Translation is necessary because the transpose operator keeps the same
-        // origin (top left not the center of the image)
-        float diffw = source.getWidth() / 2.0f - result.getWidth() / 2.0f;
-        float diffh = source.getHeight() / 2.0f - result.getHeight() / 2.0f;
-        if (diffw != 0.0f || diffh != 0.0f) {
-            pb = new ParameterBlock();
-            pb.addSource(result);
-            pb.add(diffw);
-            pb.add(diffh);
-            result = JAI.create("translate", pb, ImageToolkit.NOCACHE_HINT); //$NON-NLS-1$
+
+        if (dcm.getRescaleX() != dcm.getRescaleY()) {
+            ParameterBlock pb = new ParameterBlock();
+            pb.addSource(image);
+            pb.add((float) dcm.getRescaleX()).add((float) dcm.getRescaleY()).add(0.0f).add(0.0f);
+            pb.add(Interpolation.getInstance(Interpolation.INTERP_BILINEAR));
+            image = JAI.create("scale", pb, ImageToolkit.NOCACHE_HINT); //$NON-NLS-1$
         }
-        return result.getAsBufferedImage();
+        return image.getData();
     }
 
-    private static void rotate(Vector3d vSrc, Vector3d axis, double angle, Vector3d vDst) {
-        axis.normalize();
-        vDst.x =
-            axis.x * (axis.x * vSrc.x + axis.y * vSrc.y + axis.z * vSrc.z) * (1 - Math.cos(angle)) + vSrc.x
-                * Math.cos(angle) + (-axis.z * vSrc.y + axis.y * vSrc.z) * Math.sin(angle);
-        vDst.y =
-            axis.y * (axis.x * vSrc.x + axis.y * vSrc.y + axis.z * vSrc.z) * (1 - Math.cos(angle)) + vSrc.y
-                * Math.cos(angle) + (axis.z * vSrc.x - axis.x * vSrc.z) * Math.sin(angle);
-        vDst.z =
-            axis.z * (axis.x * vSrc.x + axis.y * vSrc.y + axis.z * vSrc.z) * (1 - Math.cos(angle)) + vSrc.z
-                * Math.cos(angle) + (-axis.y * vSrc.x + axis.x * vSrc.y) * Math.sin(angle);
+    private static Dimension getReslicedDimension(VolumeBuffer volume, ViewParameter params) {
+        int width = params.transposeImage == null ? volume.getWidth() : volume.getHeight();
+        return params.rotateOutputImg ? new Dimension(volume.getDepth(), width) : new Dimension(width,
+            volume.getDepth());
     }
 
-    private static void removeAllPrivateTags(Attributes item) throws Exception {
-        // TODO remove them or skip when reading?
-        Visitor visitor = new Visitor() {
+    private static RawImage[] submitReslicing(final VolumeBuffer volume, final ViewParameter params,
+        final MprView view, String seriesID, final Thread thread, ExecutorService executor,
+        List<Future<Object>> tasks) {
+        if (params.transposeImage != null && !TransposeDescriptor.ROTATE_270.equals(params.transposeImage)) {
+            throw new IllegalArgumentException("Unsupported transposition: " + params.transposeImage); //$NON-NLS-1$
+        }
+        File dir = new File(MPR_CACHE_DIR, seriesID + params.suffix);
+        dir.mkdirs();
+        final int nbImages = params.transposeImage == null ? volume.getHeight() : volume.getWidth();
+        final RawImage[] newSeries = new RawImage[nbImages];
+        for (int i = 0; i < nbImages; i++) {
+            newSeries[i] = new RawImage(new File(dir, "mpr_" + (i + 1)));//$NON-NLS-1$
+        }
 
-            @Override
-            public boolean visit(Attributes item, int tag, VR vr, Object value) {
-                if (TagUtils.isPrivateTag(tag)) {
-                    item.setNull(tag, vr);
+        final JProgressBar bar = view.getProgressBar();
+        if (bar != null) {
+            GuiExecutor.instance().execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    bar.setMaximum(nbImages);
+                    bar.setValue(0);
+                    // Force to reset the progress bar (substance)
+                    bar.updateUI();
+                    view.repaint();
                 }
-                return true;
-            }
-        };
-        item.accept(visitor, true);
+            });
+        }
+
+        // Each task writes a range of images, only one file is open at a time by task
+        int nbTasks = Math.min(nbImages, Runtime.getRuntime().availableProcessors() * 4);
+        for (int t = 0; t < nbTasks; t++) {
+            final int start = (int) ((long) nbImages * t / nbTasks);
+            final int end = (int) ((long) nbImages * (t + 1) / nbTasks);
+            tasks.add(executor.submit(new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    for (int j = start; j < end; j++) {
+                        if (thread.isInterrupted()) {
+                            return null;
+                        }
+                        writeReslicedImage(volume, params, j, newSeries[j]);
+                        incrementProgressBars(new MprView[] { view }, new boolean[] { true });
+                    }
+                    return null;
+                }
+            }));
+        }
+        return newSeries;
     }
 
-    public static ByteBuffer getBytesFromFile(File file) {
-        FileInputStream is = null;
+    /**
+     * Writes the image j of the reconstruction. It is equivalent to stacking the lines j of the transposed images of
+     * the original series and then to rotate the result of 90 degrees when rotateOutputImg is true.
+     */
+    private static void writeReslicedImage(VolumeBuffer volume, ViewParameter params, int j, RawImage raw)
+        throws IOException {
+        int width = volume.getWidth();
+        int depth = volume.getDepth();
+        boolean transposed = params.transposeImage != null;
+        boolean reverse = params.reverseSeriesOrder;
+        Dimension dim = getReslicedDimension(volume, params);
+        int lineLength = dim.width * volume.getBytesPerPixel();
+        byte[] data = new byte[lineLength * dim.height];
+
+        for (int line = 0; line < dim.height; line++) {
+            int offset = line * lineLength;
+            if (params.rotateOutputImg) {
+                // The line goes through the stack
+                int x = transposed ? width - 1 - j : line;
+                int y = transposed ? line : j;
+                volume.copyLine(data, offset, dim.width, x, y, reverse ? 0 : depth - 1, 0, 0, reverse ? 1 : -1);
+            } else {
+                int z = reverse ? depth - 1 - line : line;
+                if (transposed) {
+                    volume.copyLine(data, offset, dim.width, width - 1 - j, 0, z, 0, 1, 0);
+                } else {
+                    volume.copyLine(data, offset, dim.width, 0, j, z, 1, 0, 0);
+                }
+            }
+        }
         try {
-            ByteBuffer byteBuffer = ByteBuffer.allocate((int) file.length());
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-            is = new FileInputStream(file);
-            FileChannel in = is.getChannel();
-            in.read(byteBuffer);
-            byteBuffer.flip();
-            return byteBuffer;
-        } catch (Exception e) {
-            e.printStackTrace();
+            raw.getOutputStream().write(data);
         } finally {
-            FileUtil.safeClose(is);
+            raw.disposeOutputStream();
         }
-        return null;
     }
 
-    public static void writToFile(File file, ByteBuffer byteBuffer) {
-        FileOutputStream os = null;
+    private static void incrementProgressBars(final MprView[] views, final boolean[] needBuild) {
+        GuiExecutor.instance().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < views.length; i++) {
+                    JProgressBar bar = views[i].getProgressBar();
+                    if (needBuild[i] && bar != null) {
+                        bar.setValue(bar.getValue() + 1);
+                        views[i].repaint();
+                    }
+                }
+            }
+        });
+    }
+
+    private static void waitForTasks(List<Future<Object>> tasks) throws Exception {
         try {
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-            os = new FileOutputStream(file);
-            FileChannel out = os.getChannel();
-            out.write(byteBuffer);
+            for (Future<Object> f : tasks) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
         } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            FileUtil.safeClose(os);
+            // The pool is shared, only the tasks of this reconstruction are stopped
+            for (Future<Object> f : tasks) {
+                f.cancel(true);
+            }
+            throw e;
         }
     }
 
+    private static void deleteFiles(RawImage[][] series) {
+        for (RawImage[] images : series) {
+            if (images != null) {
+                for (RawImage img : images) {
+                    if (img != null) {
+                        img.disposeOutputStream();
+                        img.getFile().delete();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void rotate(Vector3d vSrc, Vector3d axis, double angle, Vector3d vDst) {
+        axis.normalize();
+        vDst.x =
+            axis.x * (axis.x * vSrc.x + axis.y * vSrc.y + axis.z * vSrc.z) * (1 - Math.cos(angle)) + vSrc.x
+                * Math.cos(angle) + (-axis.z * vSrc.y + axis.y * vSrc.z) * Math.sin(angle);
+        vDst.y =
+            axis.y * (axis.x * vSrc.x + axis.y * vSrc.y + axis.z * vSrc.z) * (1 - Math.cos(angle)) + vSrc.y
+                * Math.cos(angle) + (axis.z * vSrc.x - axis.x * vSrc.z) * Math.sin(angle);
+        vDst.z =
+            axis.z * (axis.x * vSrc.x + axis.y * vSrc.y + axis.z * vSrc.z) * (1 - Math.cos(angle)) + vSrc.z
+                * Math.cos(angle) + (-axis.y * vSrc.x + axis.x * vSrc.y) * Math.sin(angle);
+    }
+
     public static void confirmMessage(final Component view, final String message, final boolean[] abort) {
         GuiExecutor.instance().invokeAndWait(new Runnable() {
 
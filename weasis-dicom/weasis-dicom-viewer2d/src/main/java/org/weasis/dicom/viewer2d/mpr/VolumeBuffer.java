@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.viewer2d.mpr;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.util.FileUtil;
+
+/**
+ * Stack of images stored in a contiguous off-heap buffer (little endian, pixel interleaved samples).
+ * <p>
+ * The volume is allocated in direct memory, or in a memory-mapped temporary file when the direct memory is not
+ * sufficient. As a buffer cannot exceed 2 GB, large volumes are split in segments containing an integral number of
+ * slices.
+ * </p>
+ * <p>
+ * The slices can be written concurrently (one slice by thread) and all the read methods are thread-safe.
+ * </p>
+ */
+public class VolumeBuffer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VolumeBuffer.class);
+
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final int dataType;
+    private final int samplesPerPixel;
+    private final int bytesPerSample;
+    private final int bytesPerPixel;
+    private final int sliceLength;
+    private final int slicesPerSegment;
+    private final ByteBuffer[] segments;
+    private File mappedFile;
+
+    public VolumeBuffer(int width, int height, int depth, int dataType, int samplesPerPixel, File cacheDir)
+        throws IOException {
+        this(width, height, depth, dataType, samplesPerPixel, cacheDir, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSegmentLength
+     *            the maximum size in bytes of a segment, at least one slice is stored in a segment
+     */
+    VolumeBuffer(int width, int height, int depth, int dataType, int samplesPerPixel, File cacheDir,
+        int maxSegmentLength) throws IOException {
+        if (width <= 0 || height <= 0 || depth <= 0 || samplesPerPixel <= 0) {
+            throw new IllegalArgumentException("Invalid volume dimension"); //$NON-NLS-1$
+        }
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.dataType = dataType;
+        this.samplesPerPixel = samplesPerPixel;
+        this.bytesPerSample = DataBuffer.getDataTypeSize(dataType) / 8;
+        this.bytesPerPixel = bytesPerSample * samplesPerPixel;
+        long length = (long) width * height * bytesPerPixel;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The size of a slice cannot exceed 2 GB"); //$NON-NLS-1$
+        }
+        this.sliceLength = (int) length;
+        this.slicesPerSegment = Math.min(depth, Math.max(1, maxSegmentLength / sliceLength));
+        int nbSegments = (depth + slicesPerSegment - 1) / slicesPerSegment;
+        this.segments = new ByteBuffer[nbSegments];
+
+        try {
+            for (int i = 0; i < nbSegments; i++) {
+                segments[i] = ByteBuffer.allocateDirect(getSegmentLength(i));
+            }
+        } catch (OutOfMemoryError e) {
+            LOGGER.info("Not enough direct memory for the volume ({} MB), use a memory-mapped file", //$NON-NLS-1$
+                ((long) sliceLength * depth) / (1024 * 1024));
+            mapSegments(cacheDir);
+        }
+        for (ByteBuffer b : segments) {
+            b.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private int getSegmentLength(int index) {
+        int nbSlices = Math.min(slicesPerSegment, depth - index * slicesPerSegment);
+        return nbSlices * sliceLength;
+    }
+
+    private void mapSegments(File cacheDir) throws IOException {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = null;
+        }
+        cacheDir.mkdirs();
+        mappedFile = File.createTempFile("volume_", ".raw", cacheDir); //$NON-NLS-1$ //$NON-NLS-2$
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(mappedFile, "rw"); //$NON-NLS-1$
+            raf.setLength((long) sliceLength * depth);
+            FileChannel channel = raf.getChannel();
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i * slicesPerSegment * sliceLength;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, getSegmentLength(i));
+            }
+        } finally {
+            // The mapping remains valid after closing the channel
+            FileUtil.safeClose(raf);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getDataType() {
+        return dataType;
+    }
+
+    public int getSamplesPerPixel() {
+        return samplesPerPixel;
+    }
+
+    public int getBytesPerSample() {
+        return bytesPerSample;
+    }
+
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * Copies the raster into the slice z. The raster must have the size of the volume.
+     * 
+     * @return the minimum sample of the slice
+     */
+    public int setSlice(int z, Raster raster) {
+        if (raster.getWidth() != width || raster.getHeight() != height
+            || raster.getNumBands() != samplesPerPixel) {
+            throw new IllegalArgumentException("The image has not the size of the volume"); //$NON-NLS-1$
+        }
+        ByteBuffer slice = getSlice(z);
+        int[] line = new int[width * samplesPerPixel];
+        int x0 = raster.getMinX();
+        int y0 = raster.getMinY();
+        int min = Integer.MAX_VALUE;
+        for (int y = 0; y < height; y++) {
+            raster.getPixels(x0, y0 + y, width, 1, line);
+            for (int i = 0; i < line.length; i++) {
+                if (line[i] < min) {
+                    min = line[i];
+                }
+            }
+            if (bytesPerSample == 1) {
+                for (int i = 0; i < line.length; i++) {
+                    slice.put((byte) line[i]);
+                }
+            } else if (bytesPerSample == 2) {
+                for (int i = 0; i < line.length; i++) {
+                    slice.putShort((short) line[i]);
+                }
+            } else {
+                for (int i = 0; i < line.length; i++) {
+                    slice.putInt(line[i]);
+                }
+            }
+        }
+        return min;
+    }
+
+    private ByteBuffer getSlice(int z) {
+        ByteBuffer b = segments[z / slicesPerSegment].duplicate();
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        int offset = (z % slicesPerSegment) * sliceLength;
+        b.position(offset);
+        b.limit(offset + sliceLength);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copies a line of pixels whose position in the volume is an affine function of the index in the line.
+     *
+     * @param dst
+     *            the destination array
+     * @param dstOffset
+     *            the offset in bytes in the destination array
+     * @param length
+     *            the number of pixels
+     * @param x
+     *            the coordinates of the first pixel
+     * @param y
+     * @param z
+     * @param dx
+     *            the increment of the coordinates between two pixels
+     * @param dy
+     * @param dz
+     */
+    public void copyLine(byte[] dst, int dstOffset, int length, int x, int y, int z, int dx, int dy, int dz) {
+        if (dx == 1 && dy == 0 && dz == 0) {
+            // Contiguous pixels
+            ByteBuffer b = segments[z / slicesPerSegment].duplicate();
+            b.position((z % slicesPerSegment) * sliceLength + (y * width + x) * bytesPerPixel);
+            b.get(dst, dstOffset, length * bytesPerPixel);
+            return;
+        }
+        int d = dstOffset;
+        for (int i = 0; i < length; i++) {
+            ByteBuffer b = segments[z / slicesPerSegment];
+            int offset = (z % slicesPerSegment) * sliceLength + (y * width + x) * bytesPerPixel;
+            for (int k = 0; k < bytesPerPixel; k++) {
+                dst[d++] = b.get(offset + k);
+            }
+            x += dx;
+            y += dy;
+            z += dz;
+        }
+    }
+
+    ByteBuffer getSegment(int z) {
+        return segments[z / slicesPerSegment];
+    }
+
+    /**
+     * @return the offset in bytes of the pixel in the segment containing the slice z
+     */
+    int getOffset(int x, int y, int z) {
+        return (z % slicesPerSegment) * sliceLength + (y * width + x) * bytesPerPixel;
+    }
+
+    /**
+     * Reads a sample with an absolute position, the segment is not modified.
+     */
+    int getSample(ByteBuffer segment, int offset) {
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                return segment.get(offset) & 0xFF;
+            case DataBuffer.TYPE_USHORT:
+                return segment.getShort(offset) & 0xFFFF;
+            case DataBuffer.TYPE_SHORT:
+                return segment.getShort(offset);
+            default:
+                return segment.getInt(offset);
+        }
+    }
+
+    /**
+     * Releases the buffers. The direct memory is released by the garbage collector.
+     */
+    public void dispose() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = null;
+        }
+        if (mappedFile != null && !mappedFile.delete()) {
+            // Cannot be deleted while the mapping is not garbage collected (Windows)
+            mappedFile.deleteOnExit();
+        }
+    }
+}
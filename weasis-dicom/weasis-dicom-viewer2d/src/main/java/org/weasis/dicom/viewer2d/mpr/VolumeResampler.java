@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.viewer2d.mpr;
+
+import java.awt.geom.Point2D;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weasis.core.api.util.NamedThreadFactory;
+import org.weasis.dicom.codec.geometry.GeometryOfSlice;
+
+/**
+ * Resamples a volume along an arbitrary plane (oblique or double-oblique MPR) with a trilinear interpolation.
+ * <p>
+ * The coordinates in the volume are computed with the geometry of the first slice (display geometry with square
+ * pixels) and the signed distance between the slices. As the transformation is affine, the position in the volume is
+ * only incremented along a line of the output image. The lines are interpolated in parallel.
+ * </p>
+ * <p>
+ * The calling thread interpolates a part of the lines and then the parts which are not started by the pool, so the
+ * resampling never waits for a task in the queue and cannot deadlock even when it is called from a thread of the pool.
+ * </p>
+ */
+public class VolumeResampler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VolumeResampler.class);
+
+    private static final int NB_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ThreadPoolExecutor RESAMPLER = new ThreadPoolExecutor(NB_THREADS, NB_THREADS, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new NamedThreadFactory("MPR Resampler")); //$NON-NLS-1$
+
+    private final VolumeBuffer volume;
+    private final GeometryOfSlice geometry;
+    private final double sliceSpacing;
+    private final int minSample;
+
+    /**
+     * @param volume
+     *            the volume
+     * @param geometry
+     *            the display geometry of the first slice of the volume
+     * @param sliceSpacing
+     *            the signed distance between two slices along the normal of the first slice
+     * @param minSample
+     *            the minimum sample of the volume (computed when filling the slices)
+     */
+    public VolumeResampler(VolumeBuffer volume, GeometryOfSlice geometry, double sliceSpacing, int minSample) {
+        if (volume == null || geometry == null) {
+            throw new IllegalArgumentException("Arguments cannot be null"); //$NON-NLS-1$
+        }
+        this.volume = volume;
+        this.geometry = geometry;
+        this.sliceSpacing = Math.abs(sliceSpacing) < 1e-6 ? geometry.getVoxelSpacing().x : sliceSpacing;
+        this.minSample = minSample;
+    }
+
+    public VolumeBuffer getVolume() {
+        return volume;
+    }
+
+    public GeometryOfSlice getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * @return the minimum sample of the volume, it can be used as the value outside the volume
+     */
+    public int getMinSample() {
+        return minSample;
+    }
+
+    /**
+     * @return the position in the volume (column, row, slice) of a point in the patient coordinate system, or null
+     *         when the point cannot be projected on the slice
+     */
+    public double[] getVolumePosition(Point3d p) {
+        Point2D pt = geometry.getImagePosition(p);
+        if (pt == null) {
+            return null;
+        }
+        double z =
+            (geometry.getDistanceAlongNormalFromOrigin(p) - geometry.getDistanceAlongNormalFromOrigin()) / sliceSpacing;
+        return new double[] { pt.getX(), pt.getY(), z };
+    }
+
+    /**
+     * Resamples a plane of the volume into a raster.
+     *
+     * @param origin
+     *            the position of the first pixel of the plane in the patient coordinate system
+     * @param rowStep
+     *            the vector between two adjacent pixels of a row (in mm)
+     * @param colStep
+     *            the vector between two adjacent rows (in mm)
+     * @param raster
+     *            the destination, with the number of bands of the volume
+     * @param outsideValue
+     *            the value of the pixels outside the volume
+     * @return false when the plane cannot be computed
+     */
+    public boolean resample(Point3d origin, Vector3d rowStep, Vector3d colStep, final WritableRaster raster,
+        final int outsideValue) {
+        if (raster.getNumBands() != volume.getSamplesPerPixel()) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        Point3d p = new Point3d(origin);
+        final double[] o = getVolumePosition(p);
+        p.add(rowStep);
+        final double[] dr = getVolumePosition(p);
+        p.set(origin);
+        p.add(colStep);
+        final double[] dc = getVolumePosition(p);
+        if (o == null || dr == null || dc == null) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            dr[i] -= o[i];
+            dc[i] -= o[i];
+        }
+
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        final int x0 = raster.getMinX();
+        final int y0 = raster.getMinY();
+        int nbTasks = Math.min(height, NB_THREADS * 2);
+        List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(nbTasks);
+        for (int t = 0; t < nbTasks; t++) {
+            final int yStart = (int) ((long) height * t / nbTasks);
+            final int yEnd = (int) ((long) height * (t + 1) / nbTasks);
+            tasks.add(new FutureTask<Object>(new Runnable() {
+
+                @Override
+                public void run() {
+                    int[] line = new int[width * volume.getSamplesPerPixel()];
+                    for (int y = yStart; y < yEnd; y++) {
+                        interpolateLine(line, o[0] + y * dc[0], o[1] + y * dc[1], o[2] + y * dc[2], dr, outsideValue);
+                        // Each task writes different lines
+                        raster.setPixels(x0, y0 + y, width, 1, line);
+                    }
+                }
+            }, null));
+        }
+        for (int t = 1; t < tasks.size(); t++) {
+            RESAMPLER.execute(tasks.get(t));
+        }
+        try {
+            for (FutureTask<Object> task : tasks) {
+                // Compute in this thread the parts not started by the pool
+                if (task == tasks.get(0) || RESAMPLER.remove(task)) {
+                    task.run();
+                }
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            cancel(tasks);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            cancel(tasks);
+            LOGGER.error("Cannot resample the volume: {}", e.getCause().getMessage()); //$NON-NLS-1$
+            return false;
+        }
+
+        LOGGER.debug("Oblique plane {}x{} resampled in {} ms", new Object[] { width, height, //$NON-NLS-1$
+            System.currentTimeMillis() - start });
+        return true;
+    }
+
+    private static void cancel(List<FutureTask<Object>> tasks) {
+        for (FutureTask<Object> task : tasks) {
+            if (RESAMPLER.remove(task)) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private void interpolateLine(int[] line, double x, double y, double z, double[] d, int outsideValue) {
+        int width = volume.getWidth();
+        int height = volume.getHeight();
+        int depth = volume.getDepth();
+        int bands = volume.getSamplesPerPixel();
+        int sampleSize = volume.getBytesPerSample();
+        int length = line.length / bands;
+
+        for (int i = 0; i < length; i++) {
+            int k = i * bands;
+            if (x < 0.0 || y < 0.0 || z < 0.0 || x > width - 1 || y > height - 1 || z > depth - 1) {
+                for (int b = 0; b < bands; b++) {
+                    line[k + b] = outsideValue;
+                }
+            } else {
+                int ix = (int) x;
+                int iy = (int) y;
+                int iz = (int) z;
+                double fx = x - ix;
+                double fy = y - iy;
+                double fz = z - iz;
+                int ix1 = ix < width - 1 ? ix + 1 : ix;
+                int iy1 = iy < height - 1 ? iy + 1 : iy;
+                int iz1 = iz < depth - 1 ? iz + 1 : iz;
+
+                ByteBuffer s0 = volume.getSegment(iz);
+                ByteBuffer s1 = volume.getSegment(iz1);
+                int o00 = volume.getOffset(ix, iy, iz);
+                int o01 = volume.getOffset(ix1, iy, iz);
+                int o02 = volume.getOffset(ix, iy1, iz);
+                int o03 = volume.getOffset(ix1, iy1, iz);
+                int o10 = volume.getOffset(ix, iy, iz1);
+                int o11 = volume.getOffset(ix1, iy, iz1);
+                int o12 = volume.getOffset(ix, iy1, iz1);
+                int o13 = volume.getOffset(ix1, iy1, iz1);
+
+                for (int b = 0; b < bands; b++) {
+                    int shift = b * sampleSize;
+                    double c00 = lerp(volume.getSample(s0, o00 + shift), volume.getSample(s0, o01 + shift), fx);
+                    double c01 = lerp(volume.getSample(s0, o02 + shift), volume.getSample(s0, o03 + shift), fx);
+                    double c10 = lerp(volume.getSample(s1, o10 + shift), volume.getSample(s1, o11 + shift), fx);
+                    double c11 = lerp(volume.getSample(s1, o12 + shift), volume.getSample(s1, o13 + shift), fx);
+                    double v = lerp(lerp(c00, c01, fy), lerp(c10, c11, fy), fz);
+                    line[k + b] = (int) Math.floor(v + 0.5);
+                }
+            }
+            x += d[0];
+            y += d[1];
+            z += d[2];
+        }
+    }
+
+    private static double lerp(double a, double b, double f) {
+        return a + (b - a) * f;
+    }
+
+    /**
+     * Releases the volume, must not be called during a resampling.
+     */
+    public void dispose() {
+        volume.dispose();
+    }
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Nicolas Roduit.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Nicolas Roduit - initial API and implementation
+ ******************************************************************************/
+package org.weasis.dicom.viewer2d.mpr;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class VolumeBufferTest {
+
+    private static final int WIDTH = 5;
+    private static final int HEIGHT = 4;
+    private static final int DEPTH = 7;
+
+    @Test
+    public void testCopyLineByte() throws IOException {
+        checkCopyLine(DataBuffer.TYPE_BYTE, 3);
+    }
+
+    @Test
+    public void testCopyLineShort() throws IOException {
+        checkCopyLine(DataBuffer.TYPE_SHORT, 1);
+        checkCopyLine(DataBuffer.TYPE_USHORT, 1);
+    }
+
+    @Test
+    public void testCopyLineInt() throws IOException {
+        checkCopyLine(DataBuffer.TYPE_INT, 1);
+    }
+
+    @Test
+    public void testGetSample() throws IOException {
+        VolumeBuffer volume = createVolume(DataBuffer.TYPE_SHORT, 1, 2);
+        for (int z = 0; z < DEPTH; z++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    int sample = volume.getSample(volume.getSegment(z), volume.getOffset(x, y, z));
+                    assertEquals(getValue(DataBuffer.TYPE_SHORT, x, y, z, 0), sample);
+                }
+            }
+        }
+        volume.dispose();
+    }
+
+    private static void checkCopyLine(int dataType, int bands) throws IOException {
+        // One segment, then segments of 2 and 3 slices (the last segment is smaller)
+        for (int slicesPerSegment : new int[] { DEPTH, 2, 3 }) {
+            VolumeBuffer volume = createVolume(dataType, bands, slicesPerSegment);
+            // Along z, across all the segment boundaries
+            checkLine(volume, 2, 1, 0, 0, 0, 1, DEPTH);
+            // Along z, backward
+            checkLine(volume, 4, 3, DEPTH - 1, 0, 0, -1, DEPTH);
+            // Diagonal crossing the boundaries
+            checkLine(volume, 0, 0, 1, 1, 1, 1, 4);
+            // Contiguous pixels of a row in the last segment
+            checkLine(volume, 0, 2, DEPTH - 1, 1, 0, 0, WIDTH);
+            checkLine(volume, 1, 3, 2, 1, 0, 0, WIDTH - 1);
+            // Along y
+            checkLine(volume, 3, HEIGHT - 1, 5, 0, -1, 0, HEIGHT);
+            volume.dispose();
+        }
+    }
+
+    private static VolumeBuffer createVolume(int dataType, int bands, int slicesPerSegment) throws IOException {
+        int sliceLength = WIDTH * HEIGHT * bands * DataBuffer.getDataTypeSize(dataType) / 8;
+        VolumeBuffer volume =
+            new VolumeBuffer(WIDTH, HEIGHT, DEPTH, dataType, bands, new File(System.getProperty("java.io.tmpdir")), //$NON-NLS-1$
+                sliceLength * slicesPerSegment);
+        for (int z = 0; z < DEPTH; z++) {
+            WritableRaster raster =
+                Raster.createBandedRaster(dataType == DataBuffer.TYPE_INT ? DataBuffer.TYPE_INT
+                    : DataBuffer.TYPE_USHORT, WIDTH, HEIGHT, bands, new Point(0, 0));
+            int min = Integer.MAX_VALUE;
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    for (int b = 0; b < bands; b++) {
+                        raster.setSample(x, y, b, getValue(dataType, x, y, z, b));
+                        min = Math.min(min, raster.getSample(x, y, b));
+                    }
+                }
+            }
+            assertEquals("min of slice " + z, min, volume.setSlice(z, raster)); //$NON-NLS-1$
+        }
+        return volume;
+    }
+
+    private static int getValue(int dataType, int x, int y, int z, int b) {
+        int v = 1 + x + 10 * y + 100 * z + 1000 * b;
+        switch (dataType) {
+            case DataBuffer.TYPE_BYTE:
+                return v & 0xFF;
+            case DataBuffer.TYPE_USHORT:
+                return v * 37 & 0xFFFF;
+            case DataBuffer.TYPE_SHORT:
+                return (short) (-v * 37);
+            default:
+                return -v * 100003;
+        }
+    }
+
+    /**
+     * Compares copyLine() with the expected little endian bytes of each pixel.
+     */
+    private static void checkLine(VolumeBuffer volume, int x, int y, int z, int dx, int dy, int dz, int length) {
+        int bytesPerPixel = volume.getBytesPerPixel();
+        int bytesPerSample = volume.getBytesPerSample();
+        // Not at the beginning of the array
+        int dstOffset = 3;
+        byte[] dst = new byte[dstOffset + length * bytesPerPixel];
+        volume.copyLine(dst, dstOffset, length, x, y, z, dx, dy, dz);
+        int d = dstOffset;
+        for (int i = 0; i < length; i++) {
+            for (int b = 0; b < volume.getSamplesPerPixel(); b++) {
+                int value = getValue(volume.getDataType(), x + i * dx, y + i * dy, z + i * dz, b);
+                for (int k = 0; k < bytesPerSample; k++) {
+                    assertEquals("pixel " + i + " band " + b, (byte) (value >> (8 * k)), dst[d++]); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+        }
+    }
+}
@@ -13,8 +13,8 @@ package org.weasis.imageio.codec;
 import java.awt.RenderingHints;
 import java.io.RandomAccessFile;
 import java.net.URI;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -33,11 +33,13 @@ import org.weasis.core.api.image.util.LayoutUtil;
 import org.weasis.core.api.media.MimeInspector;
 import org.weasis.core.api.media.data.Codec;
 import org.weasis.core.api.media.data.ImageElement;
+import org.weasis.core.api.media.data.ImageLoaderExecutor;
 import org.weasis.core.api.media.data.MediaElement;
 import org.weasis.core.api.media.data.MediaReader;
 import org.weasis.core.api.media.data.MediaSeries;
 import org.weasis.core.api.media.data.Series;
 import org.weasis.core.api.media.data.SeriesEvent;
+import org.weasis.core.api.media.data.TagMap;
 import org.weasis.core.api.media.data.TagW;
 
 public class ImageElementIO implements MediaReader<PlanarImage> {
@@ -74,36 +76,48 @@ public class ImageElementIO implements MediaReader<PlanarImage> {
                 LOGGER.info("Cannot find a reader for the mime type: {}", mimeType); //$NON-NLS-1$
                 return null;
             }
-            PlanarImage img;
-            RenderingHints hints = LayoutUtil.createTiledLayoutHints();
-            if ("it.geosolutions.imageio.plugins.jp2k.JP2KKakaduImageReader".equals(reader.getClass().getName())) { //$NON-NLS-1$
-                ParameterBlockJAI pb = new ParameterBlockJAI("ImageReadMT"); //$NON-NLS-1$
-                pb.setParameter("Input", media.getFile()); //$NON-NLS-1$
-                pb.setParameter("ImageChoice", 0); //$NON-NLS-1$
-                pb.setParameter("ReadMetadata", true); //$NON-NLS-1$
-                pb.setParameter("ReadThumbnails", false); //$NON-NLS-1$
-                pb.setParameter("VerifyInput", true); //$NON-NLS-1$
-                pb.setParameter("Listeners", null); // java.util.EventListener[] //$NON-NLS-1$
-                pb.setParameter("Locale", null); // java.util.Locale //$NON-NLS-1$
-                pb.setParameter("ReadParam", reader.getDefaultReadParam()); // javax.imageio.ImageReadParam //$NON-NLS-1$
-                pb.setParameter("Reader", reader); // javax.imageio.ImageReader //$NON-NLS-1$
-                img = JAI.create("ImageReadMT", pb, hints); //$NON-NLS-1$
-            } else {
-                ImageInputStream in = new FileImageInputStream(new RandomAccessFile(media.getFile(), "r")); //$NON-NLS-1$
-                // hints.add(new RenderingHints(JAI.KEY_TILE_CACHE, null));
-                ParameterBlockJAI pb = new ParameterBlockJAI("ImageRead"); //$NON-NLS-1$
-                pb.setParameter("Input", in); //$NON-NLS-1$
-                pb.setParameter("Reader", reader); //$NON-NLS-1$
-                img = JAI.create("ImageRead", pb, hints); //$NON-NLS-1$
+            if (ImageLoaderExecutor.isNativeCodec(reader)) {
+                // The native codecs do not support several threads
+                synchronized (ImageLoaderExecutor.NATIVE_CODEC_LOCK) {
+                    PlanarImage img = readImage(media, reader);
+                    // ImageRead is deferred, decode the tiles while holding the lock
+                    img.getTiles();
+                    return img;
+                }
             }
-
-            // to avoid problem with alpha channel and png encoded in 24 and 32 bits
-            img = PlanarImage.wrapRenderedImage(ImageFiler.getReadableImage(img));
-            return img;
+            return readImage(media, reader);
         }
         return null;
     }
 
+    private PlanarImage readImage(MediaElement<PlanarImage> media, ImageReader reader) throws Exception {
+        PlanarImage img;
+        RenderingHints hints = LayoutUtil.createTiledLayoutHints();
+        if ("it.geosolutions.imageio.plugins.jp2k.JP2KKakaduImageReader".equals(reader.getClass().getName())) { //$NON-NLS-1$
+            ParameterBlockJAI pb = new ParameterBlockJAI("ImageReadMT"); //$NON-NLS-1$
+            pb.setParameter("Input", media.getFile()); //$NON-NLS-1$
+            pb.setParameter("ImageChoice", 0); //$NON-NLS-1$
+            pb.setParameter("ReadMetadata", true); //$NON-NLS-1$
+            pb.setParameter("ReadThumbnails", false); //$NON-NLS-1$
+            pb.setParameter("VerifyInput", true); //$NON-NLS-1$
+            pb.setParameter("Listeners", null); // java.util.EventListener[] //$NON-NLS-1$
+            pb.setParameter("Locale", null); // java.util.Locale //$NON-NLS-1$
+            pb.setParameter("ReadParam", reader.getDefaultReadParam()); // javax.imageio.ImageReadParam //$NON-NLS-1$
+            pb.setParameter("Reader", reader); // javax.imageio.ImageReader //$NON-NLS-1$
+            img = JAI.create("ImageReadMT", pb, hints); //$NON-NLS-1$
+        } else {
+            ImageInputStream in = new FileImageInputStream(new RandomAccessFile(media.getFile(), "r")); //$NON-NLS-1$
+            // hints.add(new RenderingHints(JAI.KEY_TILE_CACHE, null));
+            ParameterBlockJAI pb = new ParameterBlockJAI("ImageRead"); //$NON-NLS-1$
+            pb.setParameter("Input", in); //$NON-NLS-1$
+            pb.setParameter("Reader", reader); //$NON-NLS-1$
+            img = JAI.create("ImageRead", pb, hints); //$NON-NLS-1$
+        }
+
+        // to avoid problem with alpha channel and png encoded in 24 and 32 bits
+        return PlanarImage.wrapRenderedImage(ImageFiler.getReadableImage(img));
+    }
+
     @Override
     public URI getUri() {
         return uri;
@@ -195,8 +209,8 @@ public class ImageElementIO implements MediaReader<PlanarImage> {
     }
 
     @Override
-    public HashMap<TagW, Object> getMediaFragmentTags(Object key) {
-        return new HashMap<TagW, Object>();
+    public Map<TagW, Object> getMediaFragmentTags(Object key) {
+        return new TagMap();
     }
 
     @Override